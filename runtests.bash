@@ -11,7 +11,7 @@ checkSuccess() {
     fi
 }
 
-TESTS='interpreter probes disassembler interrupts timers'
+TESTS='interpreter probes disassembler interrupts timers busywait event batch wired network checkpoint stack'
 for t in $TESTS; do
 
     echo Running tests in test/$t...
@@ -23,3 +23,47 @@ for t in $TESTS; do
     checkSuccess 'All tests passed.' 'There were test case failures.' 'cat /tmp/test.log'
     cd ../..
 done
+
+LAZYTESTS='interpreter interrupts timers busywait'
+for t in $LAZYTESTS; do
+
+    echo Running tests in test/$t with the lazy flags interpreter...
+    cd test/$t
+    java avrora.Main -action=test -interpreter=lazy-flags -detail *.tst &> /tmp/test.log
+    checkSuccess 'All tests passed.' 'There were test case failures.' 'cat /tmp/test.log'
+    cd ../..
+done
+
+SKIPTESTS='interpreter probes interrupts timers'
+for t in $SKIPTESTS; do
+
+    echo Running tests in test/$t with busy-wait loops skipped...
+    cd test/$t
+    java avrora.Main -action=test -skip-busy-waits -detail *.tst &> /tmp/test.log
+    checkSuccess 'All tests passed.' 'There were test case failures.' 'cat /tmp/test.log'
+    cd ../..
+done
+
+WHEELTESTS='event probes interrupts timers'
+for t in $WHEELTESTS; do
+
+    echo Running tests in test/$t with the timing wheel event queue...
+    cd test/$t
+    java avrora.Main -action=test -event-queue=wheel -detail *.tst &> /tmp/test.log
+    checkSuccess 'All tests passed.' 'There were test case failures.' 'cat /tmp/test.log'
+    cd ../..
+done
+
+CACHE=`mktemp -d`
+CACHETESTS='probes interrupts checkpoint'
+for pass in cold warm; do
+    for t in $CACHETESTS; do
+
+        echo Running tests in test/$t with a $pass program cache...
+        cd test/$t
+        java avrora.Main -action=test -program-cache=$CACHE -detail *.tst &> /tmp/test.log
+        checkSuccess 'All tests passed.' 'There were test case failures.' 'cat /tmp/test.log'
+        cd ../..
+    done
+done
+rm -rf $CACHE
@@ -34,12 +34,15 @@ package avrora;
 
 import avrora.actions.*;
 import avrora.arch.ArchitectureRegistry;
+import avrora.arch.legacy.LegacyInterpreter;
+import avrora.arch.legacy.LegacyLazyFlagsInterpreter;
 import avrora.core.Program;
 import avrora.core.ProgramReader;
 import avrora.monitors.*;
+import avrora.sim.InterpreterFactory;
 import avrora.sim.Simulation;
 import avrora.sim.Simulator;
-import avrora.sim.clock.ClockDomain;
+import avrora.sim.clock.*;
 import avrora.sim.mcu.*;
 import avrora.sim.platform.*;
 import avrora.sim.types.*;
@@ -72,6 +75,8 @@ public class Defaults {
     private static ClassMap harnessMap;
     private static ClassMap monitorMap;
     private static ClassMap simMap;
+    private static ClassMap interpreterMap;
+    private static ClassMap eventQueueMap;
 
     private static synchronized void addAll() {
         addMicrocontrollers();
@@ -81,6 +86,8 @@ public class Defaults {
         addTestHarnesses();
         addMonitors();
         addSimulations();
+        addInterpreters();
+        addEventQueues();
         ArchitectureRegistry.addArchitectures();
     }
 
@@ -103,6 +110,7 @@ public class Defaults {
             monitorMap.addClass("trace", TraceMonitor.class);
             monitorMap.addClass("energy-profile", EnergyProfiler.class);
             monitorMap.addClass("packet", PacketMonitor.class);
+            monitorMap.addClass("medium", MediumMonitor.class);
             monitorMap.addClass("gdb", GDBServer.class);
             monitorMap.addClass("simperf", SimPerfMonitor.class);
             monitorMap.addClass("serial", SerialMonitor.class);
@@ -131,6 +139,10 @@ public class Defaults {
             harnessMap.addClass("simulator", SimTestHarness.class);
             harnessMap.addClass("simplifier", SimplifierTestHarness.class);
             harnessMap.addClass("probes", ProbeTestHarness.class);
+            harnessMap.addClass("eventqueue", EventQueueTestHarness.class);
+            harnessMap.addClass("batch", BatchTestHarness.class);
+            harnessMap.addClass("wired", WiredTestHarness.class);
+            harnessMap.addClass("compare", CompareTestHarness.class);
             harnessMap.addClass("disassembler", DisassemblerTestHarness.class);
             harnessMap.addClass("interrupt", InterruptTestHarness.class);
         }
@@ -172,6 +184,9 @@ public class Defaults {
             actions.addClass("isea", ISEAAction.class);
             actions.addClass("odpp", ODPPAction.class);
             actions.addClass("elf-dump", ELFDumpAction.class);
+            actions.addClass("benchmark", BenchmarkAction.class);
+            actions.addClass("batch", BatchAction.class);
+            actions.addClass("decode-trace", DecodeTraceAction.class);
 
             // plug in a new help category for actions accesible with "-help actions"
             HelpCategory hc = new HelpCategory("actions", "Help for Avrora actions.");
@@ -207,6 +222,24 @@ public class Defaults {
         }
     }
 
+    private static synchronized void addInterpreters() {
+        if (interpreterMap == null) {
+            interpreterMap = new ClassMap("Interpreter", InterpreterFactory.class);
+            //-- DEFAULT INTERPRETERS
+            interpreterMap.addInstance("legacy", LegacyInterpreter.FACTORY);
+            interpreterMap.addInstance("lazy-flags", LegacyLazyFlagsInterpreter.FACTORY);
+        }
+    }
+
+    private static synchronized void addEventQueues() {
+        if (eventQueueMap == null) {
+            eventQueueMap = new ClassMap("Event Queue", EventQueue.Factory.class);
+            //-- DEFAULT EVENT QUEUES
+            eventQueueMap.addInstance("delta", DeltaQueue.FACTORY);
+            eventQueueMap.addInstance("wheel", TimingWheel.FACTORY);
+        }
+    }
+
     private static synchronized void addPlatforms() {
         if (platforms == null) {
             platforms = new ClassMap("Platform", PlatformFactory.class);
@@ -299,6 +332,48 @@ public class Defaults {
         return (MonitorFactory) monitorMap.getObjectOfClass(s);
     }
 
+    /**
+     * The <code>getInterpreter()</code> method gets the interpreter factory corresponding to the given
+     * name represented as a string. This string can represent a short name for the class (an alias),
+     * or a fully qualified Java class name.
+     *
+     * @param s the name of the interpreter as a string; a class name or an alias such as "lazy-flags"
+     * @return an instance of the <code>InterpreterFactory</code> class that is capable of creating
+     *         interpreters for new simulators
+     */
+    public static InterpreterFactory getInterpreter(String s) {
+        addInterpreters();
+        return (InterpreterFactory) interpreterMap.getObjectOfClass(s);
+    }
+
+    /**
+     * The <code>getInterpreter()</code> method gets the interpreter factory corresponding to the given
+     * name, optionally creating interpreters that skip the iterations of busy-wait loops.
+     *
+     * @param s the name of the interpreter as a string; a class name or an alias such as "lazy-flags"
+     * @param skipBusyWaits true if the interpreters should skip busy-wait loops up to the next event
+     * @return an instance of the <code>InterpreterFactory</code> class that is capable of creating
+     *         interpreters for new simulators
+     */
+    public static InterpreterFactory getInterpreter(String s, boolean skipBusyWaits) {
+        InterpreterFactory f = getInterpreter(s);
+        return skipBusyWaits ? f.skipBusyWaits() : f;
+    }
+
+    /**
+     * The <code>getEventQueue()</code> method gets the event queue factory corresponding to the given
+     * name represented as a string. This string can represent a short name for the class (an alias),
+     * or a fully qualified Java class name.
+     *
+     * @param s the name of the event queue as a string; a class name or an alias such as "wheel"
+     * @return an instance of the <code>EventQueue.Factory</code> interface that is capable of creating
+     *         event queues for new clocks
+     */
+    public static EventQueue.Factory getEventQueue(String s) {
+        addEventQueues();
+        return (EventQueue.Factory) eventQueueMap.getObjectOfClass(s);
+    }
+
     public static Simulation getSimulation(String s) {
         addSimulations();
         // TODO: add a simulation factory
@@ -378,16 +453,16 @@ public class Defaults {
         return nl;
     }
 
-    public static Simulator newSimulator(int id, Program p) {
-        return newSimulator(id, "atmega128", 8000000, 8000000, p);
+    public static Simulator newSimulator(int id, InterpreterFactory f, EventQueue.Factory q, Program p) {
+        return newSimulator(id, "atmega128", 8000000, 8000000, f, q, p);
     }
 
-    public static Simulator newSimulator(int id, String mcu, long hz, long exthz, Program p) {
-        MicrocontrollerFactory f = getMicrocontroller(mcu);
-        ClockDomain cd = new ClockDomain(hz);
+    public static Simulator newSimulator(int id, String mcu, long hz, long exthz, InterpreterFactory f, EventQueue.Factory q, Program p) {
+        MicrocontrollerFactory mcf = getMicrocontroller(mcu);
+        ClockDomain cd = new ClockDomain(hz, q);
         cd.newClock("external", exthz);
 
-        return f.newMicrocontroller(id, cd, p).getSimulator();
+        return mcf.newMicrocontroller(id, f, cd, p).getSimulator();
     }
 
     public static class AutoProgramReader extends ProgramReader {
@@ -34,6 +34,7 @@ package avrora;
 
 import avrora.actions.Action;
 import avrora.core.Program;
+import avrora.core.ProgramCache;
 import avrora.core.ProgramReader;
 import cck.help.HelpCategory;
 import cck.text.*;
@@ -86,6 +87,11 @@ public class Main {
             "\n   1) The .avrora file in your home directory " +
             "\n   2) A configuration file specified on the command line " +
             "\n   3) Command line options to Avrora");
+    public static final Option.Str PROGRAM_CACHE = mainOptions.newOption("program-cache", "",
+            "This option specifies a directory in which decoded programs are cached. When a " +
+            "directory is given, each program that is loaded is stored there in a compact binary " +
+            "format, keyed by the version of the simulator, the contents of its input files and the loader " +
+            "options, so that repeated runs on the same program can skip parsing and disassembly.");
 
     /**
      * The <code>main()</code> method is the entrypoint into Avrora. It processes the command line options,
@@ -133,6 +139,7 @@ public class Main {
         if (a == null)
             Util.userError("Unknown Action", StringUtil.quote(ACTION.get()));
 
+
         a.options.process(mainOptions);
         a.run(mainOptions.getArguments());
     }
@@ -342,11 +349,25 @@ public class Main {
         Status.begin("Loading "+args[0]);
         ProgramReader reader = Defaults.getProgramReader(INPUT.get());
         reader.options.process(mainOptions);
-        Program program = reader.read(args);
+        Program program;
+        if ( "".equals(PROGRAM_CACHE.get()) ) program = reader.read(args);
+        else program = loadCachedProgram(reader, args);
         Status.success();
         return program;
     }
 
+    private static Program loadCachedProgram(ProgramReader reader, String[] args) throws Exception {
+        checkFilesExist(args);
+        ProgramCache cache = new ProgramCache(new File(PROGRAM_CACHE.get()));
+        String key = cache.computeKey(INPUT.get(), reader.options, args);
+        Program program = cache.load(key);
+        if ( program == null ) {
+            program = reader.read(args);
+            cache.store(key, program);
+        }
+        return program;
+    }
+
     public static void checkFilesExist(String[] files) {
         for ( int cntr = 0; cntr < files.length; cntr++ ) {
             checkFileExists(files[cntr]);
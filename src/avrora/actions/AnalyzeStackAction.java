@@ -75,6 +75,12 @@ public class AnalyzeStackAction extends Action {
     public final Option.Bool SHOW_PATH = newOption("show-path", false,
             "This option causes the stack analyzer to print out the execution path corresponding " +
             "to the maximal stack depth.");
+    public final Option.Long THREADS = newOption("threads", 1,
+            "This option specifies the number of threads that explore the abstract state space of the " +
+            "program. With more than one thread, the states on the frontier are explored in parallel, " +
+            "while the propagation of return states to their callers is still done by a single thread. " +
+            "The maximal stack depth found is the same for any number of threads. When the \"trace\" " +
+            "option is enabled, a single thread is used.");
     public final Option.Long RESERVE = newOption("reserve", 0,
             "This option is used for reserving a small portion of memory before the " +
             "analysis begins, in case the Java heap space is exhausted. This can happen " +
@@ -107,6 +113,7 @@ public class AnalyzeStackAction extends Action {
         Analyzer.TRACE = TRACE.get();
         Analyzer.USE_ISEA = USE_ISEA.get();
         Analyzer.SHOW_PATH = SHOW_PATH.get();
+        Analyzer.THREADS = (int)THREADS.get();
         Analyzer.reserve = new byte[(int)(RESERVE.get() * MEGABYTES)];
         Analyzer a = new Analyzer(p);
 
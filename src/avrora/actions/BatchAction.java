@@ -0,0 +1,312 @@
+/**
+ * Copyright (c) 2007, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package avrora.actions;
+
+import avrora.Defaults;
+import avrora.Main;
+import avrora.sim.Simulation;
+import avrora.sim.Simulator;
+import avrora.sim.energy.EnergyControl;
+import avrora.sim.util.SimUtil;
+import cck.text.*;
+import cck.util.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * The <code>BatchAction</code> class runs many simulations in one virtual machine. It reads a manifest
+ * in which each line gives the options and programs of one simulation, as they would be given to the
+ * "simulate" action, and runs the simulations concurrently on a bounded number of threads. Each
+ * simulation has its own options, random number generator, energy accounting, and output stream, so
+ * that the results of a run do not depend on the other runs in the batch.
+ */
+public class BatchAction extends Action {
+
+    public static final String HELP = "The \"batch\" action runs the simulations listed in a manifest " +
+            "file within a single Java virtual machine, avoiding the cost of starting a new virtual machine, " +
+            "loading classes and compiling the simulator for each run. Each non-blank line of the manifest " +
+            "that does not begin with '#' contains the options and program files of one simulation, exactly " +
+            "as they would be passed to the \"simulate\" action. Options given on the command line apply " +
+            "to every simulation in the batch unless a line overrides them. Options that are global to the " +
+            "virtual machine, such as \"input\" and \"report-seconds\", " +
+            "can only be given on the command line.";
+
+    public final Option.Long THREADS = newOption("threads", 0,
+            "This option specifies the number of simulations that run concurrently. When this option is " +
+            "zero, the number of processors available to the virtual machine is used.");
+    public final Option.Str OUTPUT_DIR = newOption("output-dir", "",
+            "This option specifies a directory to which the output of each simulation is written, in " +
+            "a file named after the line number of the simulation in the manifest. When this option " +
+            "is not set, the output of each simulation is printed after it completes, in the order of " +
+            "the manifest.");
+    public final Option.Bool REPORT_SECONDS = newOption("report-seconds", false,
+            "This option causes all times printed out by the simulator to be reported " +
+            "in seconds rather than clock cycles.");
+    public final Option.Long SECONDS_PRECISION = newOption("seconds-precision", 6,
+            "This option sets the precision (number of decimal places) reported for " +
+            "event times in the simulation.");
+
+    /**
+     * The <code>Run</code> class represents one simulation of the batch, the line of the manifest
+     * that describes it, its output and its result.
+     */
+    protected class Run implements Runnable {
+        protected final int line;
+        protected final String[] args;
+        protected final ByteArrayOutputStream buffer;
+        protected String result;
+        protected long cycles;
+        protected long millis;
+        protected boolean failed;
+        protected boolean done;
+
+        Run(int l, String[] a) {
+            line = l;
+            args = a;
+            buffer = new ByteArrayOutputStream();
+        }
+
+        public void run() {
+            PrintStream out = newOutput();
+            Terminal.setThreadOutput(out);
+            // the devices of this run must not join the energy consumers of an earlier run on this thread
+            EnergyControl.nextInstance();
+            try {
+                simulate();
+            } catch (Util.Error e) {
+                failed = true;
+                result = "failed: " + describe(e);
+                e.report();
+            } catch (Throwable t) {
+                failed = true;
+                result = "failed: " + describe(t);
+                t.printStackTrace(out);
+            } finally {
+                EnergyControl.clearInstance();
+                Terminal.setThreadOutput(null);
+                out.close();
+                finish();
+            }
+        }
+
+        private PrintStream newOutput() {
+            if (OUTPUT_DIR.isBlank()) return new PrintStream(buffer, true);
+            try {
+                File file = new File(OUTPUT_DIR.get(), "run-" + line + ".log");
+                return new PrintStream(new BufferedOutputStream(new FileOutputStream(file)), false);
+            } catch (IOException e) {
+                throw Util.unexpected(e);
+            }
+        }
+
+        private void simulate() throws Exception {
+            Options o = new Options();
+            o.process(options);
+            o.parseCommandLine(args);
+
+            Simulation sim = Defaults.getSimulation(o.getOptionValue("simulation", "single"));
+            sim.process(o, o.getArguments());
+
+            SimAction.printSimHeader();
+            long start = System.currentTimeMillis();
+            try {
+                sim.start();
+                sim.join();
+                result = "completed";
+            } catch (SimAction.BreakPointException e) {
+                result = "breakpoint at " + StringUtil.addrToString(e.address);
+            } catch (SimAction.TimeoutException e) {
+                result = "timeout at " + StringUtil.addrToString(e.address);
+            } catch (Util.Error e) {
+                failed = true;
+                result = "failed: " + describe(e);
+                e.report();
+            } finally {
+                millis = System.currentTimeMillis() - start;
+                cycles = getCycles(sim);
+                TermUtil.printSeparator();
+                SimAction.reportTime(sim, millis);
+                SimAction.reportMonitors(sim);
+            }
+            if (!failed && cycles == 0) {
+                // a simulation that does not advance at all, e.g. one that shares state with another run, did not complete
+                failed = true;
+                result = "failed: no cycles were simulated";
+            }
+        }
+
+        private synchronized void finish() {
+            done = true;
+            notifyAll();
+        }
+
+        synchronized void waitDone() throws InterruptedException {
+            while (!done) wait();
+        }
+    }
+
+    protected Run[] runs;
+    protected int nextRun;
+
+    public BatchAction() {
+        super(HELP);
+    }
+
+    /**
+     * The <code>run()</code> method reads the manifest, runs each of the simulations listed in it on
+     * a pool of threads and reports the result of each simulation.
+     * @param args the command line arguments; the name of the manifest file
+     * @throws Exception if the manifest cannot be read
+     */
+    public void run(String[] args) throws Exception {
+        if (args.length != 1)
+            Util.userError("Usage: avrora -action=batch <manifest>");
+        Main.checkFileExists(args[0]);
+        runs = readManifest(args[0]);
+
+        SimUtil.REPORT_SECONDS = REPORT_SECONDS.get();
+        SimUtil.SECONDS_PRECISION = (int)SECONDS_PRECISION.get();
+        // the status of loading programs in concurrent runs would interleave
+        boolean status = Status.ENABLED;
+        Status.ENABLED = false;
+
+        long start = System.currentTimeMillis();
+        try {
+            startWorkers();
+            for (int cntr = 0; cntr < runs.length; cntr++) {
+                Run r = runs[cntr];
+                r.waitDone();
+                if (OUTPUT_DIR.isBlank()) {
+                    TermUtil.printSeparator(Terminal.MAXLINE, "Simulation at line " + r.line);
+                    Terminal.print(r.buffer.toString());
+                }
+            }
+        } finally {
+            Status.ENABLED = status;
+        }
+        report(System.currentTimeMillis() - start);
+    }
+
+    private Run[] readManifest(String fname) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(fname));
+        List list = new LinkedList();
+        try {
+            int line = 0;
+            while (true) {
+                String str = reader.readLine();
+                if (str == null) break;
+                line++;
+                str = str.trim();
+                if (str.length() == 0 || str.charAt(0) == '#') continue;
+                list.add(new Run(line, tokenize(str)));
+            }
+        } finally {
+            reader.close();
+        }
+        return (Run[])list.toArray(new Run[list.size()]);
+    }
+
+    private static String[] tokenize(String str) {
+        StringTokenizer t = new StringTokenizer(str);
+        String[] result = new String[t.countTokens()];
+        for (int cntr = 0; cntr < result.length; cntr++) result[cntr] = t.nextToken();
+        return result;
+    }
+
+    private void startWorkers() {
+        int threads = (int)THREADS.get();
+        if (threads <= 0) threads = Runtime.getRuntime().availableProcessors();
+        if (threads > runs.length) threads = runs.length;
+        for (int cntr = 0; cntr < threads; cntr++) {
+            Thread t = new Thread() {
+                public void run() {
+                    for (Run r = nextRun(); r != null; r = nextRun()) r.run();
+                }
+            };
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    private synchronized Run nextRun() {
+        if (nextRun >= runs.length) return null;
+        return runs[nextRun++];
+    }
+
+    private void report(long millis) {
+        TermUtil.printSeparator(Terminal.MAXLINE, "Batch results");
+        Terminal.printGreen("  Line        Cycles      Time (ms)   Result");
+        Terminal.nextln();
+        TermUtil.printThinSeparator();
+        int failures = 0;
+        long cycles = 0;
+        for (int cntr = 0; cntr < runs.length; cntr++) {
+            Run r = runs[cntr];
+            Terminal.print(StringUtil.rightJustify(r.line, 6));
+            Terminal.print(StringUtil.rightJustify(r.cycles, 14));
+            Terminal.print(StringUtil.rightJustify(r.millis, 15));
+            Terminal.print("   ");
+            if (r.failed) {
+                failures++;
+                Terminal.printRed(r.result);
+            } else {
+                Terminal.print(r.result);
+            }
+            Terminal.nextln();
+            cycles += r.cycles;
+        }
+        TermUtil.printSeparator();
+        TermUtil.reportQuantity("Simulations", runs.length, "");
+        TermUtil.reportQuantity("Failed simulations", failures, "");
+        TermUtil.reportQuantity("Time for batch", TimeUtil.milliToSecs(millis), "seconds");
+        TermUtil.reportQuantity("Simulated cycles", cycles, "cycles");
+    }
+
+    private static long getCycles(Simulation sim) {
+        long max = 0;
+        Iterator i = sim.getNodeIterator();
+        while (i.hasNext()) {
+            Simulator simulator = ((Simulation.Node)i.next()).getSimulator();
+            if (simulator == null) continue;
+            long count = simulator.getClock().getCount();
+            if (count > max) max = count;
+        }
+        return max;
+    }
+
+    private static String describe(Throwable t) {
+        String msg = t.getMessage();
+        return msg == null ? t.getClass().getName() : msg;
+    }
+}
@@ -0,0 +1,373 @@
+/**
+ * Copyright (c) 2007, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package avrora.actions;
+
+import avrora.Defaults;
+import avrora.Main;
+import avrora.arch.legacy.LegacyDisassembler;
+import avrora.core.Program;
+import avrora.sim.Simulator;
+import avrora.sim.clock.Clock;
+import avrora.sim.clock.EventQueue;
+import avrora.sim.clock.MainClock;
+import avrora.sim.radio.Medium;
+import avrora.stack.Analyzer;
+import cck.text.*;
+import cck.util.*;
+
+import java.util.*;
+
+/**
+ * The <code>BenchmarkAction</code> class measures the performance of the simulator's hot paths:
+ * the interpreter, the event queue, the radio medium, the disassembler, the program loader and
+ * the stack analyzer. Each benchmark is run a number of times to warm up the virtual machine,
+ * then a number of measured times, and the mean time and throughput are reported together with
+ * a 95% confidence interval, so that engines selected with options such as "-interpreter" and
+ * "-event-queue" can be compared.
+ */
+public class BenchmarkAction extends Action {
+
+    public static final String HELP = "The \"benchmark\" action measures the performance of the simulator " +
+            "itself on the program given on the command line. Each selected benchmark is run several " +
+            "times to warm up the Java virtual machine, then measured a number of times. The report lists " +
+            "the mean time of one run, its standard deviation, a 95% confidence interval and the throughput " +
+            "in the unit of work of the benchmark. The interpreter and event queue under test are those " +
+            "selected with the \"-interpreter\" and \"-event-queue\" options.";
+
+    public final Option.List BENCHMARKS = newOptionList("benchmarks", "interpreter,eventqueue,medium,disassembler,loader,stack",
+            "This option selects the benchmarks to run. The \"interpreter\" benchmark simulates the program " +
+            "for a fixed number of cycles. The \"eventqueue\" benchmark inserts, removes and fires events in " +
+            "a fresh event queue. The \"medium\" benchmark delivers bytes between radios sharing a medium. " +
+            "The \"disassembler\" benchmark decodes every instruction of the program. The \"loader\" " +
+            "benchmark loads the program from its file, and the \"stack\" benchmark runs the stack analysis.");
+    public final Option.Long WARMUP = newOption("warmup", 3,
+            "This option specifies the number of runs of each benchmark that are discarded before " +
+            "measurement begins, in order to let the virtual machine compile the code under test.");
+    public final Option.Long ITERATIONS = newOption("iterations", 10,
+            "This option specifies the number of measured runs of each benchmark.");
+    public final Option.Long CYCLES = newOption("cycles", 20000000,
+            "This option specifies the number of clock cycles simulated by one run of the interpreter " +
+            "and medium benchmarks.");
+    public final Option.Long EVENTS = newOption("events", 1000000,
+            "This option specifies the number of events inserted by one run of the event queue benchmark.");
+    public final Option.Long NODES = newOption("nodes", 16,
+            "This option specifies the number of radios sharing the medium in the medium benchmark.");
+    public final Option.Str INTERPRETER = newOption("interpreter", "legacy",
+            "This option selects the interpreter measured by the interpreter benchmark.");
+    public final Option.Bool SKIP_BUSY_WAITS = newOption("skip-busy-waits", false,
+            "This option selects whether the interpreter measured by the interpreter benchmark skips " +
+            "busy-wait loops.");
+    public final Option.Str EVENT_QUEUE = newOption("event-queue", "delta",
+            "This option selects the event queue measured by the event queue benchmark and used by the " +
+            "interpreter benchmark.");
+
+    // two-sided 95% quantiles of Student's t distribution for 1 to 30 degrees of freedom
+    private static final double[] T_95 = {
+        12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+        2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+        2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042
+    };
+
+    /**
+     * The <code>Benchmark</code> class represents a single benchmark. The <code>run()</code> method
+     * performs one run and returns the amount of work done, in the units named by the benchmark.
+     */
+    protected abstract class Benchmark {
+        protected final String name;
+        protected final String unit;
+
+        protected Benchmark(String n, String u) {
+            name = n;
+            unit = u;
+        }
+
+        protected abstract long run() throws Exception;
+    }
+
+    protected String[] arguments;
+    protected Program program;
+
+    public BenchmarkAction() {
+        super(HELP);
+    }
+
+    /**
+     * The <code>run()</code> method loads the program given as an argument and runs each of the
+     * selected benchmarks in turn, reporting the results of each.
+     * @param args the command line arguments; the name of the program to load
+     * @throws Exception if the program cannot be loaded or a benchmark fails
+     */
+    public void run(String[] args) throws Exception {
+        if (args.length == 0)
+            Util.userError("Usage: avrora -action=benchmark <program>");
+        Main.checkFilesExist(args);
+        arguments = args;
+        program = Main.loadProgram(args);
+
+        TermUtil.printSeparator(Terminal.MAXLINE, "Benchmark results");
+        Terminal.printGreen("Benchmark        mean (ms)   stddev (ms)    95% CI (ms)   throughput");
+        Terminal.nextln();
+        TermUtil.printThinSeparator();
+        Iterator i = BENCHMARKS.get().iterator();
+        while (i.hasNext()) {
+            report(newBenchmark((String)i.next()));
+        }
+        Terminal.nextln();
+    }
+
+    protected Benchmark newBenchmark(String name) {
+        if ("interpreter".equals(name)) return new InterpreterBenchmark();
+        if ("eventqueue".equals(name)) return new EventQueueBenchmark();
+        if ("medium".equals(name)) return new MediumBenchmark();
+        if ("disassembler".equals(name)) return new DisassemblerBenchmark();
+        if ("loader".equals(name)) return new LoaderBenchmark();
+        if ("stack".equals(name)) return new StackBenchmark();
+        Util.userError("Unknown benchmark", StringUtil.quote(name));
+        return null;
+    }
+
+    protected void report(Benchmark b) throws Exception {
+        for ( int cntr = 0; cntr < WARMUP.get(); cntr++ ) b.run();
+
+        int runs = (int)ITERATIONS.get();
+        if (runs < 1) runs = 1;
+        double[] times = new double[runs];
+        long work = 0;
+        for ( int cntr = 0; cntr < runs; cntr++ ) {
+            long start = System.nanoTime();
+            work += b.run();
+            times[cntr] = (System.nanoTime() - start) / 1000000.0;
+        }
+
+        double sum = 0;
+        for ( int cntr = 0; cntr < runs; cntr++ ) sum += times[cntr];
+        double mean = sum / runs;
+        double var = 0;
+        for ( int cntr = 0; cntr < runs; cntr++ ) var += (times[cntr] - mean) * (times[cntr] - mean);
+        double stddev = runs > 1 ? Math.sqrt(var / (runs - 1)) : 0;
+        double t = runs > 1 ? (runs - 1 <= T_95.length ? T_95[runs - 2] : 1.960) : 0;
+        double ci = t * stddev / Math.sqrt(runs);
+        double rate = work / (sum / 1000);
+
+        Terminal.print(StringUtil.leftJustify(b.name, 14));
+        Terminal.print(StringUtil.rightJustify(StringUtil.toFixedFloat((float)mean, 3), 12));
+        Terminal.print(StringUtil.rightJustify(StringUtil.toFixedFloat((float)stddev, 3), 14));
+        Terminal.print(StringUtil.rightJustify("+/- " + StringUtil.toFixedFloat((float)ci, 3), 15));
+        Terminal.print("   " + (long)rate + ' ' + b.unit + "/s");
+        Terminal.nextln();
+    }
+
+    /**
+     * The <code>InterpreterBenchmark</code> simulates the program on a bare microcontroller for a
+     * fixed number of cycles with the selected interpreter.
+     */
+    protected class InterpreterBenchmark extends Benchmark {
+        InterpreterBenchmark() {
+            super("interpreter", "cycles");
+        }
+
+        protected long run() {
+            final Simulator sim = Defaults.newSimulator(0, Defaults.getInterpreter(INTERPRETER.get(), SKIP_BUSY_WAITS.get()), Defaults.getEventQueue(EVENT_QUEUE.get()), program);
+            sim.insertEvent(new Simulator.Event() {
+                public void fire() {
+                    sim.stop();
+                }
+            }, CYCLES.get());
+            sim.start();
+            return sim.getClock().getCount();
+        }
+    }
+
+    /**
+     * The <code>EventQueueBenchmark</code> mimics the events of a simulated node: periodic events that
+     * reinsert themselves with a mix of short and long delays, and timeouts that are inserted and
+     * usually removed before they fire.
+     */
+    protected class EventQueueBenchmark extends Benchmark {
+        EventQueueBenchmark() {
+            super("eventqueue", "events");
+        }
+
+        protected long run() {
+            final EventQueue queue = Defaults.getEventQueue(EVENT_QUEUE.get()).newEventQueue();
+            final Random random = new Random(0);
+            final long[] fired = new long[1];
+            Simulator.Event[] periodic = new Simulator.Event[32];
+            for ( int cntr = 0; cntr < periodic.length; cntr++ ) {
+                final long period = cntr < 24 ? 1 + cntr * 37 : 5000 + cntr * 7919;
+                periodic[cntr] = new Simulator.Event() {
+                    public void fire() {
+                        fired[0]++;
+                        queue.insertEvent(this, period);
+                    }
+                };
+                queue.insertEvent(periodic[cntr], period);
+            }
+            Simulator.Event[] timeouts = new Simulator.Event[64];
+            for ( int cntr = 0; cntr < timeouts.length; cntr++ ) {
+                timeouts[cntr] = new Simulator.Event() {
+                    public void fire() {
+                        fired[0]++;
+                    }
+                };
+            }
+            long events = EVENTS.get();
+            for ( long cntr = 0; cntr < events; cntr++ ) {
+                Simulator.Event e = timeouts[(int)(cntr & 63)];
+                queue.removeEvent(e);
+                queue.insertEvent(e, 1 + random.nextInt(100000));
+                queue.advance(1 + random.nextInt(16));
+            }
+            return events + fired[0];
+        }
+    }
+
+    /**
+     * The <code>MediumBenchmark</code> connects a number of radios to one medium and one clock. The
+     * transmitters send packets in turn, and every receiver listens to all of them.
+     */
+    protected class MediumBenchmark extends Benchmark {
+        MediumBenchmark() {
+            super("medium", "bytes");
+        }
+
+        protected long run() {
+            Medium m = new Medium(null, null, 19200, 4, 8, 128 * 8);
+            MainClock c = new MainClock("main", 7372800, Defaults.getEventQueue(EVENT_QUEUE.get()));
+            int nodes = (int)NODES.get();
+            long[] received = new long[1];
+            for ( int cntr = 0; cntr < nodes; cntr++ ) {
+                new BenchReceiver(m, c, received).beginReceive();
+                BenchTransmitter t = new BenchTransmitter(m, c);
+                c.insertEvent(t.start, 1 + cntr * t.cyclesPerByte * 40);
+            }
+            c.advance(CYCLES.get());
+            return received[0];
+        }
+    }
+
+    static class BenchTransmitter extends Medium.Transmitter {
+        int counter;
+        final Simulator.Event start = new Simulator.Event() {
+            public void fire() {
+                beginTransmit(0);
+            }
+        };
+
+        BenchTransmitter(Medium m, Clock c) {
+            super(m, c);
+        }
+
+        public byte nextByte() {
+            if (++counter % 30 == 0) {
+                endTransmit();
+                // send the next packet after the other transmitters had their turn
+                clock.insertEvent(start, cyclesPerByte * 40 * 16);
+            }
+            return (byte)counter;
+        }
+    }
+
+    static class BenchReceiver extends Medium.Receiver {
+        final long[] received;
+
+        BenchReceiver(Medium m, Clock c, long[] r) {
+            super(m, c);
+            received = r;
+        }
+
+        public void nextByte(boolean lock, byte b) {
+            if (lock) received[0]++;
+        }
+    }
+
+    /**
+     * The <code>DisassemblerBenchmark</code> decodes the instruction at every even address of the
+     * program with the legacy disassembler.
+     */
+    protected class DisassemblerBenchmark extends Benchmark {
+        final byte[] code;
+
+        DisassemblerBenchmark() {
+            super("disassembler", "instrs");
+            // pad the code so that decoding a 32-bit instruction at the end stays within bounds
+            code = new byte[program.program_length + 4];
+            for ( int cntr = 0; cntr < program.program_length; cntr++ )
+                code[cntr] = program.readProgramByte(program.program_start + cntr);
+        }
+
+        protected long run() {
+            LegacyDisassembler d = new LegacyDisassembler();
+            long decoded = 0;
+            for ( int cntr = 0; cntr < program.program_length; cntr += 2 ) {
+                if (d.disassembleLegacy(code, program.program_start, cntr) != null) decoded++;
+            }
+            return decoded;
+        }
+    }
+
+    /**
+     * The <code>LoaderBenchmark</code> loads the program from its file with the selected input format.
+     */
+    protected class LoaderBenchmark extends Benchmark {
+        LoaderBenchmark() {
+            super("loader", "loads");
+        }
+
+        protected long run() throws Exception {
+            // keep the loader's status messages from interleaving with the report
+            boolean enabled = Status.ENABLED;
+            Status.ENABLED = false;
+            try {
+                Main.loadProgram(arguments);
+            } finally {
+                Status.ENABLED = enabled;
+            }
+            return 1;
+        }
+    }
+
+    /**
+     * The <code>StackBenchmark</code> runs the stack analysis on the program.
+     */
+    protected class StackBenchmark extends Benchmark {
+        StackBenchmark() {
+            super("stack", "analyses");
+        }
+
+        protected long run() {
+            new Analyzer(program).run();
+            return 1;
+        }
+    }
+}
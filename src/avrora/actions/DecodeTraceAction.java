@@ -0,0 +1,195 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package avrora.actions;
+
+import avrora.Main;
+import avrora.arch.AbstractInstr;
+import avrora.core.Program;
+import avrora.monitors.TraceWriter;
+import avrora.sim.util.SimUtil;
+import cck.text.StringUtil;
+import cck.text.Terminal;
+import cck.util.Util;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+/**
+ * The <code>DecodeTraceAction</code> class implements an action that prints a binary trace written by
+ * the trace monitor as text, in the same format that the trace monitor prints while simulating.
+ */
+public class DecodeTraceAction extends Action {
+
+    public static final String HELP = "The \"decode-trace\" action prints a binary instruction trace " +
+            "produced by the \"trace\" monitor with the \"trace-file\" option as text. The first argument " +
+            "is the trace file and the remaining arguments are the programs that the nodes ran; each node " +
+            "is matched to its program by a checksum of the code. For a node whose program is not given, " +
+            "only the addresses of instructions that do not follow their predecessor are known.";
+
+    protected final HashMap programs = new HashMap();
+    protected final HashMap nodes = new HashMap();
+
+    public DecodeTraceAction() {
+        super(HELP);
+    }
+
+    /**
+     * The <code>NodeInfo</code> class stores the information about a node that is needed to print
+     * its records.
+     */
+    protected static class NodeInfo {
+        final int id;
+        final long hz;
+        final Program program;
+
+        NodeInfo(int i, long h, Program p) {
+            id = i;
+            hz = h;
+            program = p;
+        }
+    }
+
+    /**
+     * The <code>run()</code> method loads the programs and then prints each chunk of the trace file
+     * in order.
+     * @param args the trace file followed by the programs
+     * @throws Exception if the trace file or the programs cannot be read
+     */
+    public void run(String[] args) throws Exception {
+        if ( args.length < 1 )
+            Util.userError("no trace file specified");
+        Main.checkFileExists(args[0]);
+        for ( int cntr = 1; cntr < args.length; cntr++ ) {
+            Program p = Main.loadProgram(new String[] { args[cntr] });
+            programs.put(new Integer(TraceWriter.checksum(p)), p);
+        }
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(args[0])));
+        try {
+            if ( in.readInt() != TraceWriter.MAGIC || in.readInt() != TraceWriter.VERSION )
+                Util.userError("not a trace file", args[0]);
+            while ( true ) {
+                int kind = in.read();
+                if ( kind < 0 ) break;
+                readChunk(in, kind);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void readChunk(DataInputStream in, int kind) throws IOException {
+        Integer id = new Integer(in.readInt());
+        switch ( kind ) {
+            case TraceWriter.NODE:
+                long hz = in.readLong();
+                Program p = (Program)programs.get(new Integer(in.readInt()));
+                in.readInt();
+                nodes.put(id, new NodeInfo(id.intValue(), hz, p));
+                break;
+            case TraceWriter.RECORDS:
+                long time = in.readLong();
+                int pc = in.readInt();
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                printRecords(getNode(id), data, time, pc);
+                break;
+            case TraceWriter.MESSAGE:
+                long mtime = in.readLong();
+                StringBuffer buf = new StringBuffer(80);
+                SimUtil.toIDTimeString(buf, id.intValue(), mtime, getNode(id).hz);
+                buf.append(in.readUTF());
+                Terminal.println(buf.toString());
+                break;
+            default:
+                Util.userError("corrupt trace file: unknown chunk kind " + kind);
+        }
+    }
+
+    private NodeInfo getNode(Integer id) {
+        NodeInfo n = (NodeInfo)nodes.get(id);
+        if ( n == null ) Util.userError("corrupt trace file: unknown node " + id);
+        return n;
+    }
+
+    private void printRecords(NodeInfo n, byte[] data, long time, int nextpc) {
+        ByteBuffer records = ByteBuffer.wrap(data);
+        StringBuffer buf = new StringBuffer(100);
+        while ( records.hasRemaining() ) {
+            int head = records.get() & 0xff;
+            long delta = head >> 2;
+            if ( delta == TraceWriter.LONG_DELTA ) delta += readNumber(records);
+            time += delta;
+            int pc = nextpc;
+            if ( (head & TraceWriter.PC) != 0 ) pc = (int)readNumber(records);
+
+            buf.setLength(0);
+            SimUtil.toIDTimeString(buf, n.id, time, n.hz);
+            int color = pc == nextpc ? Terminal.COLOR_BLUE : Terminal.COLOR_CYAN;
+            Terminal.append(color, buf, pc < 0 ? "  next" : StringUtil.to0xHex(pc, 4));
+            AbstractInstr i = n.program == null ? null : n.program.readInstr(pc);
+            if ( i != null ) {
+                buf.append(": ");
+                buf.append(i.toString());
+                nextpc = pc + i.getSize();
+            } else {
+                // without the program, the address of the next instruction is unknown
+                nextpc = -1;
+            }
+            if ( (head & TraceWriter.REGS) != 0 ) appendRegisters(buf, records);
+            Terminal.println(buf.toString());
+        }
+    }
+
+    private void appendRegisters(StringBuffer buf, ByteBuffer records) {
+        int count = records.get() & 0xff;
+        buf.append("   ");
+        for ( int cntr = 0; cntr < count; cntr++ ) {
+            int reg = records.get() & 0xff;
+            int val = records.get() & 0xff;
+            buf.append(' ');
+            buf.append(reg == TraceWriter.SREG ? "SREG" : "r" + reg);
+            buf.append('=');
+            buf.append(StringUtil.to0xHex(val, 2));
+        }
+    }
+
+    private static long readNumber(ByteBuffer records) {
+        long val = 0;
+        for ( int shift = 0; ; shift += 7 ) {
+            int b = records.get();
+            val |= (long)(b & 0x7f) << shift;
+            if ( (b & 0x80) == 0 ) return val;
+        }
+    }
+}
@@ -38,6 +38,7 @@ import cck.text.StringUtil;
 import cck.text.Terminal;
 import avrora.sim.radio.Medium;
 import avrora.sim.clock.Clock;
+import avrora.sim.clock.DeltaQueue;
 import avrora.sim.clock.MainClock;
 import avrora.sim.Simulator;
 
@@ -61,7 +62,7 @@ public class MediumTestAction extends Action {
     public void run(String[] args) throws Exception {
         // create a medium and test it.
         Medium m = new Medium(null, null, 300, 102, 8, 128);
-        MainClock c = new MainClock("main", 3000);
+        MainClock c = new MainClock("main", 3000, DeltaQueue.FACTORY);
         final Medium.Transmitter t = new TestTransmitter(m, c);
         final Medium.Receiver r = new TestReceiver(m, c);
 
@@ -36,6 +36,7 @@ import avrora.core.*;
 import avrora.sim.*;
 import avrora.sim.util.SimUtil;
 import avrora.Defaults;
+import avrora.Main;
 import avrora.monitors.Monitor;
 import cck.text.*;
 import cck.util.*;
@@ -63,6 +64,17 @@ public class SimAction extends Action {
     public final Option.Str SIMULATION = newOption("simulation", "single",
             "The \"simulation\" option selects from the available simulation types, including a single node " +
             "simulation, a sensor network simulation, or a robotics simulation.");
+    public final Option.Double CHECKPOINT_AT = newOption("checkpoint-at", 0.0,
+            "This option, when set to a non-zero number of seconds, stops every node of the simulation at " +
+            "that time and saves the complete state of the simulation to the file given by the " +
+            "\"checkpoint-file\" option. The simulation can later be resumed from that point with the " +
+            "\"restore-from\" option and the same program(s) and simulation options.");
+    public final Option.Str CHECKPOINT_FILE = newOption("checkpoint-file", "simulation.ckpt",
+            "This option specifies the name of the file to which a checkpoint is written when the " +
+            "\"checkpoint-at\" option is set.");
+    public final Option.Str RESTORE_FROM = newOption("restore-from", "",
+            "This option specifies the name of a checkpoint file from which to resume the simulation. " +
+            "The simulation must be created with the same program(s) and options as the one that saved it.");
 
     protected Simulation simulation;
     protected long startms;
@@ -85,6 +97,11 @@ public class SimAction extends Action {
 
         simulation = Defaults.getSimulation(SIMULATION.get());
         simulation.process(options, args);
+        if ( !RESTORE_FROM.isBlank() ) {
+            Main.checkFileExists(RESTORE_FROM.get());
+            simulation.restoreFrom(RESTORE_FROM.get());
+        }
+        if ( CHECKPOINT_AT.get() > 0 ) simulation.checkpointAt(CHECKPOINT_AT.get());
 
         Runtime.getRuntime().addShutdownHook(new ShutdownThread());
         printSimHeader();
@@ -92,6 +109,7 @@ public class SimAction extends Action {
             startms = System.currentTimeMillis();
             simulation.start();
             simulation.join();
+            if ( CHECKPOINT_AT.get() > 0 ) saveCheckpoint();
         } catch (Throwable t) {
             exitSimulation(t);
         } finally {
@@ -99,6 +117,13 @@ public class SimAction extends Action {
         }
     }
 
+    private void saveCheckpoint() throws java.io.IOException {
+        if ( !simulation.reachedCheckpoint() )
+            Util.userError("Simulation terminated before checkpoint time", CHECKPOINT_AT.get() + " seconds");
+        Checkpoint.save(simulation, CHECKPOINT_FILE.get());
+        Terminal.println("Checkpoint saved to " + CHECKPOINT_FILE.get());
+    }
+
     private void exitSimulation(Throwable thrown) {
         synchronized (this) {
             if (!reported) {
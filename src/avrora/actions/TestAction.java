@@ -36,6 +36,7 @@ import avrora.Defaults;
 import cck.test.TestEngine;
 import cck.text.Status;
 import cck.util.Option;
+import java.util.Properties;
 
 /**
  * The <code>TestAction</code> class represents an action to invoke the built-in automated testing framework
@@ -50,6 +51,14 @@ public class TestAction extends Action {
 
     public final Option.Bool DETAIL = newOption("detail", false, "This option selects whether " +
             "the automated testing framework will report detailed information for failed test cases.");
+    public final Option.Str INTERPRETER = newOption("interpreter", "legacy", "This option selects the " +
+            "interpreter used by test cases that simulate a program, unless a test case selects one itself.");
+    public final Option.Bool SKIP_BUSY_WAITS = newOption("skip-busy-waits", false, "This option selects " +
+            "whether the interpreters used by test cases skip busy-wait loops, unless a test case selects " +
+            "this itself.");
+    public final Option.Str EVENT_QUEUE = newOption("event-queue", "delta", "This option selects the " +
+            "event queue used by test cases that simulate a program or test the event queue, unless a test " +
+            "case selects one itself.");
 
     public TestAction() {
         super(HELP);
@@ -63,7 +72,11 @@ public class TestAction extends Action {
     public void run(String[] args) throws Exception {
         TestEngine.LONG_REPORT = DETAIL.get();
         Status.ENABLED = false;
-        TestEngine engine = new TestEngine(Defaults.getTestHarnessMap());
+        Properties defaults = new Properties();
+        defaults.setProperty("Interpreter", INTERPRETER.get());
+        defaults.setProperty("EventQueue", EVENT_QUEUE.get());
+        defaults.setProperty("SkipBusyWaits", String.valueOf(SKIP_BUSY_WAITS.get()));
+        TestEngine engine = new TestEngine(Defaults.getTestHarnessMap(), defaults);
         boolean r = engine.runTests(args);
         if (!r) System.exit(1);
     }
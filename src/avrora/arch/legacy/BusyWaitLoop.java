@@ -0,0 +1,218 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package avrora.arch.legacy;
+
+import avrora.sim.CodeSegment;
+import java.util.HashSet;
+
+/**
+ * The <code>BusyWaitLoop</code> class represents a small loop in the program that polls IO registers or
+ * memory without any other effect than on the general purpose registers and the status register, such as
+ * a loop waiting for a flag in <code>UCSRnA</code>, <code>SPSR</code> or <code>ADCSRA</code> to be set.
+ * Such a loop cannot exit until an event changes one of the values that it reads; the interpreter uses
+ * this fact to skip over its iterations up to the next event.
+ */
+public class BusyWaitLoop {
+
+    /**
+     * The <code>MAX_SIZE</code> field stores the maximum size of a loop in bytes that is considered.
+     */
+    public static final int MAX_SIZE = 32;
+
+    /**
+     * The <code>PURE</code> set contains the instructions that only read memory and IO registers at
+     * constant addresses, and otherwise change only the general purpose registers, the flags, and the
+     * program counter.
+     */
+    private static final HashSet PURE = new HashSet();
+
+    static {
+        Class[] pure = {
+            LegacyInstr.ADC.class, LegacyInstr.ADD.class, LegacyInstr.AND.class, LegacyInstr.ANDI.class,
+            LegacyInstr.ASR.class, LegacyInstr.BRBC.class, LegacyInstr.BRBS.class, LegacyInstr.BRCC.class,
+            LegacyInstr.BRCS.class, LegacyInstr.BREQ.class, LegacyInstr.BRGE.class, LegacyInstr.BRHC.class,
+            LegacyInstr.BRHS.class, LegacyInstr.BRID.class, LegacyInstr.BRIE.class, LegacyInstr.BRLO.class,
+            LegacyInstr.BRLT.class, LegacyInstr.BRMI.class, LegacyInstr.BRNE.class, LegacyInstr.BRPL.class,
+            LegacyInstr.BRSH.class, LegacyInstr.BRTC.class, LegacyInstr.BRTS.class, LegacyInstr.BRVC.class,
+            LegacyInstr.BRVS.class, LegacyInstr.CBR.class, LegacyInstr.CLR.class, LegacyInstr.COM.class,
+            LegacyInstr.CP.class, LegacyInstr.CPC.class, LegacyInstr.CPI.class, LegacyInstr.CPSE.class,
+            LegacyInstr.DEC.class, LegacyInstr.EOR.class, LegacyInstr.IN.class, LegacyInstr.INC.class,
+            LegacyInstr.JMP.class, LegacyInstr.LDI.class, LegacyInstr.LDS.class, LegacyInstr.LSL.class,
+            LegacyInstr.LSR.class, LegacyInstr.MOV.class, LegacyInstr.MOVW.class, LegacyInstr.NEG.class,
+            LegacyInstr.NOP.class, LegacyInstr.OR.class, LegacyInstr.ORI.class, LegacyInstr.RJMP.class,
+            LegacyInstr.ROL.class, LegacyInstr.ROR.class, LegacyInstr.SBC.class, LegacyInstr.SBCI.class,
+            LegacyInstr.SBIC.class, LegacyInstr.SBIS.class, LegacyInstr.SBR.class, LegacyInstr.SBRC.class,
+            LegacyInstr.SBRS.class, LegacyInstr.SER.class, LegacyInstr.SUB.class, LegacyInstr.SUBI.class,
+            LegacyInstr.SWAP.class, LegacyInstr.TST.class
+        };
+        for ( int cntr = 0; cntr < pure.length; cntr++ ) PURE.add(pure[cntr]);
+    }
+
+    /**
+     * The <code>head</code> field stores the address of the first instruction of the loop, which is the
+     * target of its backward branch.
+     */
+    public final int head;
+
+    /**
+     * The <code>end</code> field stores the address following the last instruction of the loop.
+     */
+    public final int end;
+
+    /**
+     * The <code>instrs</code> array stores the instructions of the loop, indexed by their offset from the
+     * head of the loop. It is used to check that the code has not been changed or probed.
+     */
+    final LegacyInstr[] instrs;
+
+    /**
+     * The <code>reads</code> array stores the data addresses that the loop reads.
+     */
+    final int[] reads;
+
+    // the state of the loop at the last arrival at its head
+    final byte[] regs = new byte[32];
+    byte sreg;
+    long arrival = -1;
+    long nextEvent;
+
+    BusyWaitLoop(int h, int e, LegacyInstr[] i, int[] r) {
+        head = h;
+        end = e;
+        instrs = i;
+        reads = r;
+    }
+
+    /**
+     * The <code>findLoops()</code> method searches the code for busy-wait loops. A loop is a contiguous
+     * range of pure instructions that ends with a branch or jump back to its first instruction.
+     * @param flash the code segment to search
+     * @param length the number of bytes of the code to search
+     * @return an array indexed by address containing the loop that begins at each address, or null if no
+     * loops were found
+     */
+    public static BusyWaitLoop[] findLoops(CodeSegment flash, int length) {
+        BusyWaitLoop[] loops = null;
+        for ( int pc = 0; pc < length; pc += 2 ) {
+            LegacyInstr i = flash.readInstr(pc);
+            if ( i == null ) continue;
+            int target = getBranchTarget(i, pc);
+            if ( target < 0 || target > pc || pc - target >= MAX_SIZE ) continue;
+            BusyWaitLoop loop = newLoop(flash, target, pc + i.getSize());
+            if ( loop == null ) continue;
+            if ( loops == null ) loops = new BusyWaitLoop[length];
+            // prefer the innermost loop for each head
+            if ( loops[target] == null ) loops[target] = loop;
+        }
+        return loops;
+    }
+
+    private static BusyWaitLoop newLoop(CodeSegment flash, int head, int end) {
+        LegacyInstr[] instrs = new LegacyInstr[end - head];
+        int[] reads = new int[end - head];
+        int numReads = 0;
+        for ( int pc = head; pc < end; ) {
+            LegacyInstr i = flash.readInstr(pc);
+            if ( i == null || !PURE.contains(i.getClass()) ) return null;
+            int addr = getReadAddress(i);
+            if ( addr >= 0 ) reads[numReads++] = addr;
+            instrs[pc - head] = i;
+            pc += i.getSize();
+        }
+        int[] r = new int[numReads];
+        System.arraycopy(reads, 0, r, 0, numReads);
+        return new BusyWaitLoop(head, end, instrs, r);
+    }
+
+    private static int getBranchTarget(LegacyInstr i, int pc) {
+        if ( i instanceof LegacyInstr.JMP ) return ((LegacyInstr.JMP)i).imm1 * 2;
+        if ( i instanceof LegacyInstr.BRBC ) return ((LegacyInstr.BRBC)i).imm2 * 2 + pc + 2;
+        if ( i instanceof LegacyInstr.BRBS ) return ((LegacyInstr.BRBS)i).imm2 * 2 + pc + 2;
+        // all other relative branches and jumps are WORD instructions with a relative offset
+        if ( i instanceof LegacyInstr.WORD_class && PURE.contains(i.getClass()) )
+            return ((LegacyInstr.WORD_class)i).imm1 * 2 + pc + 2;
+        return -1;
+    }
+
+    private static int getReadAddress(LegacyInstr i) {
+        // IO registers are mapped into data memory after the general purpose registers
+        if ( i instanceof LegacyInstr.IN ) return ((LegacyInstr.IN)i).imm1 + 32;
+        if ( i instanceof LegacyInstr.SBIC ) return ((LegacyInstr.SBIC)i).imm1 + 32;
+        if ( i instanceof LegacyInstr.SBIS ) return ((LegacyInstr.SBIS)i).imm1 + 32;
+        if ( i instanceof LegacyInstr.LDS ) return ((LegacyInstr.LDS)i).imm1;
+        return -1;
+    }
+
+    /**
+     * The <code>record()</code> method records the state of the general purpose registers and the status
+     * register when the interpreter arrives at the head of the loop.
+     * @param sram the data memory of the interpreter, which begins with the general purpose registers
+     * @param sr the value of the status register
+     * @param time the current clock cycle
+     * @param delta the number of cycles until the next event fires; -1 if there are no events
+     */
+    void record(byte[] sram, byte sr, long time, long delta) {
+        System.arraycopy(sram, 0, regs, 0, regs.length);
+        sreg = sr;
+        arrival = time;
+        nextEvent = delta < 0 ? Long.MAX_VALUE : time + delta;
+    }
+
+    /**
+     * The <code>matches()</code> method checks whether the general purpose registers and the status register
+     * have the same values as when the interpreter last arrived at the head of the loop.
+     * @param sram the data memory of the interpreter, which begins with the general purpose registers
+     * @param sr the value of the status register
+     * @return true if the state is the same as the recorded state
+     */
+    boolean matches(byte[] sram, byte sr) {
+        if ( sr != sreg ) return false;
+        for ( int cntr = 0; cntr < regs.length; cntr++ ) {
+            if ( sram[cntr] != regs[cntr] ) return false;
+        }
+        return true;
+    }
+
+    /**
+     * The <code>isUnchanged()</code> method checks whether the code of the loop is still the code that was
+     * analyzed, i.e. that it has not been reprogrammed and that no probes have been inserted in it.
+     * @param code the current instructions of the program, as executed by the interpreter
+     * @return true if the instructions of the loop are unchanged
+     */
+    boolean isUnchanged(LegacyInstr[] code) {
+        for ( int pc = head; pc < end; pc += 2 ) {
+            if ( code[pc] != instrs[pc - head] && instrs[pc - head] != null ) return false;
+        }
+        return true;
+    }
+}
@@ -37,6 +37,7 @@ import avrora.core.Program;
 import avrora.sim.*;
 import avrora.sim.mcu.MCUProperties;
 import cck.util.Arithmetic;
+import java.io.*;
 
 /**
  * The <code>LegacyInterpreter</code> class is largely generated from the instruction specification. The
@@ -47,11 +48,21 @@ import cck.util.Arithmetic;
  */
 public class LegacyInterpreter extends AtmelInterpreter implements LegacyInstrVisitor {
 
-    public static final Factory FACTORY = new Factory();
+    public static final Factory FACTORY = new Factory(false);
 
     public static class Factory extends InterpreterFactory {
+        protected final boolean skipBusyWaits;
+
+        protected Factory(boolean skip) {
+            skipBusyWaits = skip;
+        }
+
         public Interpreter newInterpreter(Simulator s, Program p, MCUProperties pr) {
-            return new LegacyInterpreter(s, p, (AVRProperties)pr);
+            return new LegacyInterpreter(s, p, (AVRProperties)pr, skipBusyWaits);
+        }
+
+        public InterpreterFactory skipBusyWaits() {
+            return new Factory(true);
         }
     }
 
@@ -60,6 +71,19 @@ public class LegacyInterpreter extends AtmelInterpreter implements LegacyInstrVi
 
     public static final LegacyRegister RZ = LegacyRegister.Z;
 
+    /**
+     * The <code>booted</code> field records whether the interpreter has already begun executing at the
+     * boot address. A simulation that has been stopped can be resumed by calling <code>start()</code>
+     * again, which continues from the current program counter.
+     */
+    protected boolean booted;
+
+    /**
+     * The <code>busyWaitLoops</code> array stores the busy-wait loop that begins at each address of the
+     * program, or is null if busy-wait loops are not skipped.
+     */
+    protected BusyWaitLoop[] busyWaitLoops;
+
     /**
      * The constructor for the <code>Interpreter</code> class builds the internal data structures needed to
      * store the complete state of the machine, including registers, IO registers, the SRAM, and the flash.
@@ -69,19 +93,48 @@ public class LegacyInterpreter extends AtmelInterpreter implements LegacyInstrVi
      * @param s The simulator attached to this interpreter
      * @param p the program to construct the state for
      * @param pr the properties of the microcontroller being simulated
+     * @param skip true if this interpreter should detect busy-wait loops that poll IO registers and skip
+     * over their iterations up to the next event
      */
-    protected LegacyInterpreter(Simulator s, Program p, AVRProperties pr) {
+    protected LegacyInterpreter(Simulator s, Program p, AVRProperties pr, boolean skip) {
         super(s, p, pr);
         // this class and its methods are performance critical
         // observed speedup with this call on Hotspot
         Compiler.compileClass(getClass());
+        if (skip)
+            busyWaitLoops = BusyWaitLoop.findLoops(flash, shared_instr.length);
+    }
+
+    /**
+     * The <code>saveProcessorState()</code> method writes the state of the processor to a checkpoint,
+     * including whether the interpreter has already booted.
+     * @param out the output to write the state to
+     * @throws IOException if the state cannot be written
+     */
+    protected void saveProcessorState(DataOutput out) throws IOException {
+        super.saveProcessorState(out);
+        out.writeBoolean(booted);
+    }
+
+    /**
+     * The <code>restoreProcessorState()</code> method restores the state of the processor from a checkpoint.
+     * @param in the input to read the state from
+     * @throws IOException if the state cannot be read
+     */
+    protected void restoreProcessorState(DataInput in) throws IOException {
+        super.restoreProcessorState(in);
+        booted = in.readBoolean();
     }
 
     protected void runLoop() {
 
-        pc = bootPC;
-        nextPC = pc;
-        cyclesConsumed = 0;
+        if (!booted) {
+            // the first call to start() begins at the boot address; later calls resume
+            pc = bootPC;
+            nextPC = pc;
+            cyclesConsumed = 0;
+            booted = true;
+        }
 
         while (shouldRun) {
 
@@ -107,6 +160,9 @@ public class LegacyInterpreter extends AtmelInterpreter implements LegacyInstrVi
                 }
             }
 
+            // an event fired above may have stopped the simulation
+            if (!shouldRun) break;
+
             if (sleeping)
                 sleepLoop();
             else {
@@ -247,7 +303,11 @@ public class LegacyInterpreter extends AtmelInterpreter implements LegacyInstrVi
         }
     }
 
-    private void fastLoop() {
+    protected void fastLoop() {
+        if (busyWaitLoops != null) {
+            busyWaitLoop();
+            return;
+        }
         innerLoop = true;
         while (innerLoop) {
             LegacyInstr i = shared_instr[nextPC];
@@ -259,6 +319,59 @@ public class LegacyInterpreter extends AtmelInterpreter implements LegacyInstrVi
         }
     }
 
+    private void busyWaitLoop() {
+        innerLoop = true;
+        BusyWaitLoop current = null;
+        while (innerLoop) {
+            BusyWaitLoop loop = busyWaitLoops[nextPC];
+            if (loop != null) {
+                // the loop has run a complete iteration only if the code never left it
+                arriveAtLoop(loop, loop == current);
+                current = loop;
+            } else if (current != null && (nextPC < current.head || nextPC >= current.end)) {
+                current = null;
+            }
+
+            LegacyInstr i = shared_instr[nextPC];
+            i.accept(this);
+            commit();
+        }
+    }
+
+    /**
+     * The <code>arriveAtLoop()</code> method is called before the first instruction of a busy-wait loop is
+     * executed. If the previous iteration of the loop ran entirely within the loop, no event fired during it,
+     * and the registers and flags are the same as at its beginning, then the next iteration will be identical
+     * to it, and so will every iteration up to the one during which the next event fires. Those iterations
+     * are skipped by advancing the clock by a multiple of the length of an iteration.
+     * @param loop the loop at whose head the interpreter has arrived
+     * @param iterated true if the interpreter has executed only instructions of the loop since it last
+     * arrived at its head
+     */
+    private void arriveAtLoop(BusyWaitLoop loop, boolean iterated) {
+        long now = clock.getCount();
+        long delta = clock.getFirstEventDelta();
+        byte sreg = state.getSREG();
+        if (iterated && now < loop.nextEvent && loop.matches(sram, sreg)) {
+            long cycles = now - loop.arrival;
+            if (cycles > 0 && delta > cycles && loop.isUnchanged(shared_instr) && readsAreStable(loop)) {
+                // skip whole iterations, up to the last one that ends before the event
+                long skip = (delta - 1) / cycles * cycles;
+                advanceClock(skip);
+                now += skip;
+                delta -= skip;
+            }
+        }
+        loop.record(sram, sreg, now, delta);
+    }
+
+    private boolean readsAreStable(BusyWaitLoop loop) {
+        for (int cntr = 0; cntr < loop.reads.length; cntr++) {
+            if (!isStableAddress(loop.reads[cntr])) return false;
+        }
+        return true;
+    }
+
     private void instrumentedLoop() {
         innerLoop = true;
         while (innerLoop) {
@@ -1565,7 +1678,7 @@ public class LegacyInterpreter extends AtmelInterpreter implements LegacyInstrVi
      */
     public void enterSleepMode() {
         sleeping = true;
-        innerLoop = false;
+        breakLoop();
         simulator.getMicrocontroller().sleep();
     }
 
@@ -1574,7 +1687,7 @@ public class LegacyInterpreter extends AtmelInterpreter implements LegacyInstrVi
      */
     public void leaveSleepMode() {
         sleeping = false;
-        innerLoop = false;
+        breakLoop();
         advanceClock(simulator.getMicrocontroller().wakeup());
     }
 }
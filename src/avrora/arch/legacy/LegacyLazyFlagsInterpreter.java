@@ -0,0 +1,605 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package avrora.arch.legacy;
+
+import avrora.arch.avr.AVRProperties;
+import avrora.core.Program;
+import avrora.sim.*;
+import avrora.sim.mcu.MCUProperties;
+
+/**
+ * The <code>LegacyLazyFlagsInterpreter</code> class is an execution engine that extends the legacy
+ * interpreter by computing the H, S, V, N, Z and C flags lazily. The arithmetic and logical instructions
+ * that produce the flags only record their operands and result; the flags are computed from them when
+ * they are actually needed, which in most programs is far less often, since most flags are overwritten
+ * by the next arithmetic instruction before they are read.
+ * <p/>
+ * The common conditional branches and the instructions that consume the carry compute just the flag
+ * they need from the recorded operation. Any other instruction that reads or writes the flags, as well
+ * as any access to the status register through the state, an IO access, or a probe, first materializes
+ * all of the flags into their fields.
+ */
+public class LegacyLazyFlagsInterpreter extends LegacyInterpreter {
+
+    public static final Factory FACTORY = new Factory(false);
+
+    public static class Factory extends InterpreterFactory {
+        protected final boolean skipBusyWaits;
+
+        protected Factory(boolean skip) {
+            skipBusyWaits = skip;
+        }
+
+        public Interpreter newInterpreter(Simulator s, Program p, MCUProperties pr) {
+            return new LegacyLazyFlagsInterpreter(s, p, (AVRProperties)pr, skipBusyWaits);
+        }
+
+        public InterpreterFactory skipBusyWaits() {
+            return new Factory(true);
+        }
+    }
+
+    /**
+     * The flag fields are up to date.
+     */
+    protected static final int FLAGS_READY = 0;
+    /**
+     * The flags are those of the addition <code>flagA + flagB + flagCarry = flagResult</code>.
+     */
+    protected static final int FLAGS_ADD = 1;
+    /**
+     * The flags are those of the subtraction <code>flagA - flagB - flagCarry = flagResult</code>. The Z
+     * flag is only set if <code>flagZero</code> is also true.
+     */
+    protected static final int FLAGS_SUB = 2;
+    /**
+     * The N and Z flags are those of <code>flagResult</code>, V is <code>flagOverflow</code>, and the H
+     * and C flags are unchanged in their fields.
+     */
+    protected static final int FLAGS_NZV = 3;
+
+    protected int flagOp;
+    protected int flagA;
+    protected int flagB;
+    protected int flagCarry;
+    protected int flagResult;
+    protected boolean flagZero;
+    protected boolean flagOverflow;
+
+    protected LegacyLazyFlagsInterpreter(Simulator s, Program p, AVRProperties pr, boolean skip) {
+        super(s, p, pr, skip);
+    }
+
+    /**
+     * The <code>materializeFlags()</code> method computes the flags of the recorded operation and stores
+     * them into the flag fields.
+     */
+    protected void materializeFlags() {
+        int r = flagResult;
+        switch (flagOp) {
+            case FLAGS_ADD: {
+                int a = flagA;
+                int b = flagB;
+                boolean a7 = (a & 128) != 0;
+                boolean b7 = (b & 128) != 0;
+                boolean r7 = (r & 128) != 0;
+                H = ((a & 0x0F) + (b & 0x0F) + flagCarry & 16) != 0;
+                C = (r & 256) != 0;
+                N = r7;
+                Z = low(r) == 0;
+                V = a7 && b7 && !r7 || !a7 && !b7 && r7;
+                S = N != V;
+                break;
+            }
+            case FLAGS_SUB: {
+                materializeSubCarries();
+                boolean a7 = (flagA & 128) != 0;
+                boolean b7 = (flagB & 128) != 0;
+                boolean r7 = (r & 128) != 0;
+                N = r7;
+                Z = low(r) == 0 && flagZero;
+                V = a7 && !b7 && !r7 || !a7 && b7 && r7;
+                S = N != V;
+                break;
+            }
+            case FLAGS_NZV:
+                N = (r & 128) != 0;
+                Z = low(r) == 0;
+                V = flagOverflow;
+                S = N != V;
+                break;
+        }
+        flagOp = FLAGS_READY;
+    }
+
+    private void materializeSubCarries() {
+        int a = flagA;
+        int b = flagB;
+        int r = flagResult;
+        boolean a7 = (a & 128) != 0;
+        boolean b7 = (b & 128) != 0;
+        boolean r7 = (r & 128) != 0;
+        boolean a3 = (a & 8) != 0;
+        boolean b3 = (b & 8) != 0;
+        boolean r3 = (r & 8) != 0;
+        H = !a3 && b3 || b3 && r3 || r3 && !a3;
+        C = !a7 && b7 || b7 && r7 || r7 && !a7;
+    }
+
+    /**
+     * The <code>materializeCarries()</code> method brings the H and C flag fields up to date before an
+     * operation that does not change them is recorded.
+     */
+    private void materializeCarries() {
+        if (flagOp == FLAGS_ADD) {
+            H = ((flagA & 0x0F) + (flagB & 0x0F) + flagCarry & 16) != 0;
+            C = (flagResult & 256) != 0;
+        } else if (flagOp == FLAGS_SUB) {
+            materializeSubCarries();
+        }
+    }
+
+    private int carry() {
+        switch (flagOp) {
+            case FLAGS_ADD:
+                return (flagResult >> 8) & 1;
+            case FLAGS_SUB: {
+                boolean a7 = (flagA & 128) != 0;
+                boolean b7 = (flagB & 128) != 0;
+                boolean r7 = (flagResult & 128) != 0;
+                return !a7 && b7 || b7 && r7 || r7 && !a7 ? 1 : 0;
+            }
+        }
+        return bit(C);
+    }
+
+    private boolean zero() {
+        switch (flagOp) {
+            case FLAGS_ADD:
+            case FLAGS_NZV:
+                return low(flagResult) == 0;
+            case FLAGS_SUB:
+                return low(flagResult) == 0 && flagZero;
+        }
+        return Z;
+    }
+
+    private boolean negative() {
+        if (flagOp == FLAGS_READY) return N;
+        return (flagResult & 128) != 0;
+    }
+
+    private int add(int a, int b, int c) {
+        flagOp = FLAGS_ADD;
+        flagA = a;
+        flagB = b;
+        flagCarry = c;
+        return flagResult = a + b + c;
+    }
+
+    private int sub(int a, int b, int c, boolean z) {
+        flagOp = FLAGS_SUB;
+        flagA = a;
+        flagB = b;
+        flagCarry = c;
+        flagZero = z;
+        return flagResult = a - b - c;
+    }
+
+    private int nzv(int r, boolean v) {
+        materializeCarries();
+        flagOp = FLAGS_NZV;
+        flagOverflow = v;
+        return flagResult = r;
+    }
+
+    private void branch(boolean taken, int offset) {
+        int npc = pc + 2;
+        if (taken) {
+            nextPC = offset * 2 + npc;
+            cyclesConsumed = cyclesConsumed + 2;
+        } else {
+            nextPC = npc;
+            cyclesConsumed++;
+        }
+    }
+
+    //
+    //  I N S T R U C T I O N S   T H A T   R E C O R D   F L A G S
+    // ------------------------------------------------------------
+    //
+
+    public void visit(LegacyInstr.ADC i) {
+        nextPC = pc + 2;
+        int c = carry();
+        int r = add(getRegisterUnsigned(i.r1), getRegisterUnsigned(i.r2), c);
+        writeRegisterByte(i.r1, low(r));
+        cyclesConsumed++;
+    }
+
+    public void visit(LegacyInstr.ADD i) {
+        nextPC = pc + 2;
+        int r = add(getRegisterUnsigned(i.r1), getRegisterUnsigned(i.r2), 0);
+        writeRegisterByte(i.r1, low(r));
+        cyclesConsumed++;
+    }
+
+    public void visit(LegacyInstr.LSL i) {
+        nextPC = pc + 2;
+        int a = getRegisterUnsigned(i.r1);
+        int r = add(a, a, 0);
+        writeRegisterByte(i.r1, low(r));
+        cyclesConsumed++;
+    }
+
+    public void visit(LegacyInstr.ROL i) {
+        nextPC = pc + 2;
+        int c = carry();
+        int a = getRegisterUnsigned(i.r1);
+        int r = add(a, a, c);
+        writeRegisterByte(i.r1, low(r));
+        cyclesConsumed++;
+    }
+
+    public void visit(LegacyInstr.SUB i) {
+        nextPC = pc + 2;
+        int r = sub(getRegisterByte(i.r1), getRegisterByte(i.r2), 0, true);
+        writeRegisterByte(i.r1, low(r));
+        cyclesConsumed++;
+    }
+
+    public void visit(LegacyInstr.SUBI i) {
+        nextPC = pc + 2;
+        int r = sub(getRegisterByte(i.r1), i.imm1, 0, true);
+        writeRegisterByte(i.r1, low(r));
+        cyclesConsumed++;
+    }
+
+    public void visit(LegacyInstr.SBC i) {
+        nextPC = pc + 2;
+        int c = carry();
+        boolean z = zero();
+        int r = sub(getRegisterByte(i.r1), getRegisterByte(i.r2), c, z);
+        writeRegisterByte(i.r1, low(r));
+        cyclesConsumed++;
+    }
+
+    public void visit(LegacyInstr.SBCI i) {
+        nextPC = pc + 2;
+        int c = carry();
+        boolean z = zero();
+        int r = sub(getRegisterByte(i.r1), i.imm1, c, z);
+        writeRegisterByte(i.r1, low(r));
+        cyclesConsumed++;
+    }
+
+    public void visit(LegacyInstr.CP i) {
+        nextPC = pc + 2;
+        sub(getRegisterByte(i.r1), getRegisterByte(i.r2), 0, true);
+        cyclesConsumed++;
+    }
+
+    public void visit(LegacyInstr.CPC i) {
+        nextPC = pc + 2;
+        int c = carry();
+        boolean z = zero();
+        sub(getRegisterByte(i.r1), getRegisterByte(i.r2), c, z);
+        cyclesConsumed++;
+    }
+
+    public void visit(LegacyInstr.CPI i) {
+        nextPC = pc + 2;
+        sub(getRegisterByte(i.r1), i.imm1, 0, true);
+        cyclesConsumed++;
+    }
+
+    public void visit(LegacyInstr.AND i) {
+        nextPC = pc + 2;
+        int r = nzv(getRegisterByte(i.r1) & getRegisterByte(i.r2), false);
+        writeRegisterByte(i.r1, low(r));
+        cyclesConsumed++;
+    }
+
+    public void visit(LegacyInstr.ANDI i) {
+        nextPC = pc + 2;
+        int r = nzv(getRegisterByte(i.r1) & i.imm1, false);
+        writeRegisterByte(i.r1, low(r));
+        cyclesConsumed++;
+    }
+
+    public void visit(LegacyInstr.CBR i) {
+        nextPC = pc + 2;
+        int r = nzv(getRegisterByte(i.r1) & ~i.imm1, false);
+        writeRegisterByte(i.r1, low(r));
+        cyclesConsumed++;
+    }
+
+    public void visit(LegacyInstr.OR i) {
+        nextPC = pc + 2;
+        int r = nzv(getRegisterByte(i.r1) | getRegisterByte(i.r2), false);
+        writeRegisterByte(i.r1, low(r));
+        cyclesConsumed++;
+    }
+
+    public void visit(LegacyInstr.ORI i) {
+        nextPC = pc + 2;
+        int r = nzv(getRegisterByte(i.r1) | i.imm1, false);
+        writeRegisterByte(i.r1, low(r));
+        cyclesConsumed++;
+    }
+
+    public void visit(LegacyInstr.SBR i) {
+        nextPC = pc + 2;
+        int r = nzv(getRegisterByte(i.r1) | i.imm1, false);
+        writeRegisterByte(i.r1, low(r));
+        cyclesConsumed++;
+    }
+
+    public void visit(LegacyInstr.EOR i) {
+        nextPC = pc + 2;
+        int r = nzv(getRegisterByte(i.r1) ^ getRegisterByte(i.r2), false);
+        writeRegisterByte(i.r1, low(r));
+        cyclesConsumed++;
+    }
+
+    public void visit(LegacyInstr.CLR i) {
+        nextPC = pc + 2;
+        nzv(0, false);
+        writeRegisterByte(i.r1, low(0));
+        cyclesConsumed++;
+    }
+
+    public void visit(LegacyInstr.TST i) {
+        nextPC = pc + 2;
+        nzv(getRegisterByte(i.r1), false);
+        cyclesConsumed++;
+    }
+
+    public void visit(LegacyInstr.INC i) {
+        nextPC = pc + 2;
+        int a = getRegisterUnsigned(i.r1);
+        int r = nzv(a + 1, a == 127);
+        writeRegisterByte(i.r1, low(r));
+        cyclesConsumed++;
+    }
+
+    public void visit(LegacyInstr.DEC i) {
+        nextPC = pc + 2;
+        int a = getRegisterUnsigned(i.r1);
+        int r = nzv(a - 1, a == 128);
+        writeRegisterByte(i.r1, low(r));
+        cyclesConsumed++;
+    }
+
+    //
+    //  B R A N C H E S   O N   A   S I N G L E   F L A G
+    // ------------------------------------------------------------
+    //
+
+    public void visit(LegacyInstr.BRCC i) {
+        branch(carry() == 0, i.imm1);
+    }
+
+    public void visit(LegacyInstr.BRCS i) {
+        branch(carry() != 0, i.imm1);
+    }
+
+    public void visit(LegacyInstr.BRSH i) {
+        branch(carry() == 0, i.imm1);
+    }
+
+    public void visit(LegacyInstr.BRLO i) {
+        branch(carry() != 0, i.imm1);
+    }
+
+    public void visit(LegacyInstr.BREQ i) {
+        branch(zero(), i.imm1);
+    }
+
+    public void visit(LegacyInstr.BRNE i) {
+        branch(!zero(), i.imm1);
+    }
+
+    public void visit(LegacyInstr.BRMI i) {
+        branch(negative(), i.imm1);
+    }
+
+    public void visit(LegacyInstr.BRPL i) {
+        branch(!negative(), i.imm1);
+    }
+
+    //
+    //  I N S T R U C T I O N S   T H A T   N E E D   A L L   F L A G S
+    // ------------------------------------------------------------
+    //
+
+    public void visit(LegacyInstr.ADIW i) {
+        materializeFlags();
+        super.visit(i);
+    }
+
+    public void visit(LegacyInstr.ASR i) {
+        materializeFlags();
+        super.visit(i);
+    }
+
+    public void visit(LegacyInstr.BRGE i) {
+        materializeFlags();
+        super.visit(i);
+    }
+
+    public void visit(LegacyInstr.BRHC i) {
+        materializeFlags();
+        super.visit(i);
+    }
+
+    public void visit(LegacyInstr.BRHS i) {
+        materializeFlags();
+        super.visit(i);
+    }
+
+    public void visit(LegacyInstr.BRLT i) {
+        materializeFlags();
+        super.visit(i);
+    }
+
+    public void visit(LegacyInstr.BRVC i) {
+        materializeFlags();
+        super.visit(i);
+    }
+
+    public void visit(LegacyInstr.BRVS i) {
+        materializeFlags();
+        super.visit(i);
+    }
+
+    public void visit(LegacyInstr.CLC i) {
+        materializeFlags();
+        super.visit(i);
+    }
+
+    public void visit(LegacyInstr.CLH i) {
+        materializeFlags();
+        super.visit(i);
+    }
+
+    public void visit(LegacyInstr.CLN i) {
+        materializeFlags();
+        super.visit(i);
+    }
+
+    public void visit(LegacyInstr.CLS i) {
+        materializeFlags();
+        super.visit(i);
+    }
+
+    public void visit(LegacyInstr.CLV i) {
+        materializeFlags();
+        super.visit(i);
+    }
+
+    public void visit(LegacyInstr.CLZ i) {
+        materializeFlags();
+        super.visit(i);
+    }
+
+    public void visit(LegacyInstr.COM i) {
+        materializeFlags();
+        super.visit(i);
+    }
+
+    public void visit(LegacyInstr.CPSE i) {
+        materializeFlags();
+        super.visit(i);
+    }
+
+    public void visit(LegacyInstr.FMUL i) {
+        materializeFlags();
+        super.visit(i);
+    }
+
+    public void visit(LegacyInstr.FMULS i) {
+        materializeFlags();
+        super.visit(i);
+    }
+
+    public void visit(LegacyInstr.FMULSU i) {
+        materializeFlags();
+        super.visit(i);
+    }
+
+    public void visit(LegacyInstr.LSR i) {
+        materializeFlags();
+        super.visit(i);
+    }
+
+    public void visit(LegacyInstr.MUL i) {
+        materializeFlags();
+        super.visit(i);
+    }
+
+    public void visit(LegacyInstr.MULS i) {
+        materializeFlags();
+        super.visit(i);
+    }
+
+    public void visit(LegacyInstr.MULSU i) {
+        materializeFlags();
+        super.visit(i);
+    }
+
+    public void visit(LegacyInstr.NEG i) {
+        materializeFlags();
+        super.visit(i);
+    }
+
+    public void visit(LegacyInstr.ROR i) {
+        materializeFlags();
+        super.visit(i);
+    }
+
+    public void visit(LegacyInstr.SBIW i) {
+        materializeFlags();
+        super.visit(i);
+    }
+
+    public void visit(LegacyInstr.SEC i) {
+        materializeFlags();
+        super.visit(i);
+    }
+
+    public void visit(LegacyInstr.SEH i) {
+        materializeFlags();
+        super.visit(i);
+    }
+
+    public void visit(LegacyInstr.SEN i) {
+        materializeFlags();
+        super.visit(i);
+    }
+
+    public void visit(LegacyInstr.SES i) {
+        materializeFlags();
+        super.visit(i);
+    }
+
+    public void visit(LegacyInstr.SEV i) {
+        materializeFlags();
+        super.visit(i);
+    }
+
+    public void visit(LegacyInstr.SEZ i) {
+        materializeFlags();
+        super.visit(i);
+    }
+}
@@ -36,7 +36,6 @@ import avrora.arch.legacy.LegacyInstr;
 import avrora.arch.legacy.LegacyInstrVisitor;
 import cck.text.StringUtil;
 import cck.text.Verbose;
-import cck.util.Util;
 
 /**
  * The <code>CFGBuilder</code> class is a visitor that builds a representation of the control flow graph for a
@@ -129,10 +128,13 @@ class CFGBuilder implements LegacyInstrVisitor {
                 size = ii.instr.getSize();
             }
 
-            // check for any jumps into the middle of this instruction
-            for (int cntr = 1; cntr < size; cntr++) {
-                if (info[pc + cntr].start || info[pc + cntr].instr != null) {
-                    Util.warning("misaligned branch target at " + StringUtil.addrToString(pc + cntr));
+            // check for any jumps into the middle of this instruction; these arise when constant data in
+            // the flash is disassembled as instructions, so they are only reported when verbose
+            if (printer.enabled) {
+                for (int cntr = 1; cntr < size; cntr++) {
+                    if (info[pc + cntr].start || info[pc + cntr].instr != null) {
+                        printer.println("CFGBuilder: misaligned branch target at " + StringUtil.addrToString(pc + cntr));
+                    }
                 }
             }
 
@@ -275,6 +275,15 @@ public class Program {
 
     }
 
+    /**
+     * The <code>getIndirectEdgeMap()</code> method returns the map from each callsite to the list of its
+     * possible targets, which is used to save the indirect edges of the program in a program cache.
+     * @return a map from <code>java.lang.Integer</code> callsites to lists of targets
+     */
+    Map getIndirectEdgeMap() {
+        return indirectEdges;
+    }
+
     /**
      * The <code>getArchitecture()</code> method returns a reference to the <code>AbstractArchitecture</code>
      * object that represents the instruction set architecture for this program.
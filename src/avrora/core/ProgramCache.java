@@ -0,0 +1,538 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package avrora.core;
+
+import avrora.Version;
+import avrora.arch.legacy.*;
+import cck.util.Option;
+import cck.util.Options;
+import cck.util.Util;
+import java.io.*;
+import java.lang.reflect.Field;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * The <code>ProgramCache</code> class implements an on-disk cache of decoded programs. Each entry is
+ * keyed by a hash of the contents of the input files together with the loader options, and stores the
+ * flash bytes, the decoded instructions, the symbols and the indirect edges of the program in a compact
+ * binary format that is memory-mapped when it is read back. A repeated load of the same program can
+ * therefore skip parsing and disassembly altogether.
+ *
+ * <p>
+ * The key also includes a fingerprint of the simulator itself, i.e. its version and the class files of the
+ * program representation and of this cache, so that entries written by a different build of Avrora are
+ * never loaded in place of a fresh decoding.
+ *
+ * <p>
+ * Only programs for the legacy AVR architecture are cached; other programs are simply not stored.
+ */
+public class ProgramCache {
+
+    protected static final int MAGIC = 0x41505243; // "APRC"
+    protected static final int VERSION = 1;
+
+    protected static final byte REGISTER = 0;
+    protected static final byte CONSTANT = 1;
+
+    /**
+     * The <code>FINGERPRINT_CLASSES</code> field stores the classes whose class files make up the fingerprint
+     * of the simulator; a change to any of them may change how a program is decoded or stored.
+     */
+    protected static final Class[] FINGERPRINT_CLASSES = {
+        ProgramCache.class, Program.class, SourceMapping.class, LegacyArchitecture.class,
+        LegacyInstr.class, LegacyInstrProto.class, LegacyOperand.class, LegacyRegister.class
+    };
+
+    private static String fingerprint;
+
+    protected final File directory;
+
+    /**
+     * The constructor for the <code>ProgramCache</code> class creates a new cache that stores its entries
+     * in the specified directory. The directory is created when the first entry is stored.
+     * @param dir the directory in which to store cached programs
+     */
+    public ProgramCache(File dir) {
+        directory = dir;
+    }
+
+    /**
+     * The <code>computeKey()</code> method computes the key of the cache entry for the given input files,
+     * which is a hash of the fingerprint of the simulator, the input format, the options of the program
+     * reader, and the name extension and contents of each file.
+     * @param format the name of the input format
+     * @param opts the options of the program reader that will load the program
+     * @param args the names of the input files
+     * @return a string that uniquely identifies the decoded program
+     * @throws IOException if one of the input files cannot be read
+     */
+    public String computeKey(String format, Options opts, String[] args) throws IOException {
+        MessageDigest md = newDigest();
+        update(md, getFingerprint());
+        update(md, format);
+        List list = new ArrayList(opts.getAllOptions());
+        Collections.sort(list, Option.COMPARATOR);
+        Iterator i = list.iterator();
+        while ( i.hasNext() ) {
+            Option o = (Option)i.next();
+            update(md, o.getName());
+            update(md, o.stringValue());
+        }
+        byte[] buffer = new byte[8192];
+        for ( int cntr = 0; cntr < args.length; cntr++ ) {
+            String fname = args[cntr];
+            update(md, fname.substring(fname.lastIndexOf('.') + 1));
+            FileInputStream fis = new FileInputStream(fname);
+            try {
+                for ( int len = fis.read(buffer); len > 0; len = fis.read(buffer) )
+                    md.update(buffer, 0, len);
+            } finally {
+                fis.close();
+            }
+        }
+        return toHex(md.digest());
+    }
+
+    /**
+     * The <code>getFingerprint()</code> method computes the fingerprint of this build of the simulator,
+     * which consists of its version and a hash of the class files of the program representation and of
+     * this cache. When a class file cannot be found, e.g. because the classes were loaded by an unusual
+     * class loader, the name of the class stands in for its contents.
+     * @return a string that identifies this build of the simulator
+     * @throws IOException if one of the class files cannot be read
+     */
+    public static synchronized String getFingerprint() throws IOException {
+        if ( fingerprint != null ) return fingerprint;
+        MessageDigest md = newDigest();
+        byte[] buffer = new byte[8192];
+        for ( int cntr = 0; cntr < FINGERPRINT_CLASSES.length; cntr++ ) {
+            Class c = FINGERPRINT_CLASSES[cntr];
+            String name = c.getName();
+            update(md, name);
+            InputStream is = c.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1) + ".class");
+            if ( is == null ) continue;
+            try {
+                for ( int len = is.read(buffer); len > 0; len = is.read(buffer) )
+                    md.update(buffer, 0, len);
+            } finally {
+                is.close();
+            }
+        }
+        fingerprint = Version.TAG + " " + toHex(md.digest());
+        return fingerprint;
+    }
+
+    private static String toHex(byte[] digest) {
+        StringBuffer buf = new StringBuffer(digest.length * 2);
+        for ( int cntr = 0; cntr < digest.length; cntr++ ) {
+            buf.append(Character.forDigit((digest[cntr] >> 4) & 0xf, 16));
+            buf.append(Character.forDigit(digest[cntr] & 0xf, 16));
+        }
+        return buf.toString();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch ( NoSuchAlgorithmException e ) {
+            throw Util.unexpected(e);
+        }
+    }
+
+    private static void update(MessageDigest md, String s) throws IOException {
+        md.update(s.getBytes("UTF-8"));
+        md.update((byte)0);
+    }
+
+    /**
+     * The <code>load()</code> method loads a program from the cache. The cache file is mapped into memory
+     * and decoded directly from the mapping. If there is no entry for the given key, or the entry was written
+     * by an incompatible version or is truncated, this method will return null.
+     * @param key the key of the program as computed by <code>computeKey()</code>
+     * @return the program stored in the cache; null if there is no valid entry for the key
+     * @throws IOException if the cache file exists but cannot be read
+     */
+    public Program load(String key) throws IOException {
+        File f = getFile(key);
+        if ( !f.exists() ) return null;
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            FileChannel ch = raf.getChannel();
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if ( buf.remaining() < 8 || buf.getInt() != MAGIC || buf.getInt() != VERSION ) return null;
+            return new Decoder(buf).decode();
+        } catch ( BufferUnderflowException e ) {
+            return null;
+        } catch ( IndexOutOfBoundsException e ) {
+            return null;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * The <code>store()</code> method writes the specified program into the cache under the given key.
+     * The entry is first written to a temporary file and then renamed, so that concurrent loaders never
+     * observe a partially written entry. Programs that are not for the legacy AVR architecture are not
+     * stored.
+     * @param key the key of the program as computed by <code>computeKey()</code>
+     * @param p the program to store
+     * @throws IOException if the cache entry could not be written
+     */
+    public void store(String key, Program p) throws IOException {
+        if ( p.getArchitecture() != LegacyArchitecture.INSTANCE ) return;
+        directory.mkdirs();
+        File tmp = File.createTempFile(key, ".tmp", directory);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            new Encoder(p).encode(out);
+        } finally {
+            out.close();
+        }
+        File f = getFile(key);
+        if ( !tmp.renameTo(f) ) {
+            f.delete();
+            if ( !tmp.renameTo(f) ) tmp.delete();
+        }
+    }
+
+    protected File getFile(String key) {
+        return new File(directory, key + ".prog");
+    }
+
+    /**
+     * The <code>Encoder</code> class writes a program in the binary cache format. All strings are collected
+     * into a single table that is written first, so that the instruction and symbol records refer to them by
+     * index.
+     */
+    protected static class Encoder {
+        final Program program;
+        final HashMap stringMap = new HashMap();
+        final List strings = new ArrayList();
+
+        Encoder(Program p) {
+            program = p;
+        }
+
+        void encode(DataOutputStream out) throws IOException {
+            SourceMapping sm = program.getSourceMapping();
+            LegacyInstr[] instrs = (LegacyInstr[])program.flash_instrs;
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream bout = new DataOutputStream(body);
+
+            // write the instructions
+            int count = 0;
+            for ( int cntr = 0; cntr < instrs.length; cntr++ )
+                if ( instrs[cntr] != null ) count++;
+            bout.writeInt(count);
+            for ( int cntr = 0; cntr < instrs.length; cntr++ ) {
+                LegacyInstr i = instrs[cntr];
+                if ( i == null ) continue;
+                bout.writeInt(cntr);
+                bout.writeInt(string(i.getClass().getName()));
+                writeOperands(bout, i);
+            }
+
+            // write the source mapping
+            bout.writeBoolean(sm != null);
+            if ( sm != null ) {
+                bout.writeInt(sm.labels.size());
+                Iterator i = sm.labels.entrySet().iterator();
+                while ( i.hasNext() ) {
+                    Map.Entry e = (Map.Entry)i.next();
+                    SourceMapping.Location l = (SourceMapping.Location)e.getValue();
+                    bout.writeInt(string((String)e.getKey()));
+                    bout.writeInt(string(l.section));
+                    bout.writeInt(l.vma_addr);
+                    bout.writeInt(l.lma_addr);
+                }
+                bout.writeInt(sm.reverseMap.size());
+                i = sm.reverseMap.entrySet().iterator();
+                while ( i.hasNext() ) {
+                    Map.Entry e = (Map.Entry)i.next();
+                    bout.writeInt(((Integer)e.getKey()).intValue());
+                    bout.writeInt(string((String)e.getValue()));
+                }
+            }
+
+            // write the indirect edges
+            Map edges = program.getIndirectEdgeMap();
+            bout.writeInt(edges.size());
+            Iterator i = edges.entrySet().iterator();
+            while ( i.hasNext() ) {
+                Map.Entry e = (Map.Entry)i.next();
+                List targets = (List)e.getValue();
+                bout.writeInt(((Integer)e.getKey()).intValue());
+                bout.writeInt(targets.size());
+                Iterator t = targets.iterator();
+                while ( t.hasNext() ) bout.writeInt(((Integer)t.next()).intValue());
+            }
+            bout.flush();
+
+            // the header, string table and flash contents precede the records that refer to them
+            out.writeInt(program.program_start);
+            out.writeInt(program.program_end);
+            out.writeInt(strings.size());
+            Iterator s = strings.iterator();
+            while ( s.hasNext() ) {
+                byte[] b = ((String)s.next()).getBytes("UTF-8");
+                out.writeInt(b.length);
+                out.write(b);
+            }
+            out.write(program.flash_data);
+            body.writeTo(out);
+        }
+
+        int string(String s) {
+            if ( s == null ) return -1;
+            Integer i = (Integer)stringMap.get(s);
+            if ( i == null ) {
+                i = new Integer(strings.size());
+                strings.add(s);
+                stringMap.put(s, i);
+            }
+            return i.intValue();
+        }
+
+        void writeOperands(DataOutputStream out, LegacyInstr i) throws IOException {
+            if ( i instanceof LegacyInstr.REGREG_class ) {
+                LegacyInstr.REGREG_class c = (LegacyInstr.REGREG_class)i;
+                out.writeByte(2);
+                writeReg(out, c.r1);
+                writeReg(out, c.r2);
+            } else if ( i instanceof LegacyInstr.REGIMM_class ) {
+                LegacyInstr.REGIMM_class c = (LegacyInstr.REGIMM_class)i;
+                out.writeByte(2);
+                writeReg(out, c.r1);
+                writeImm(out, c.imm1);
+            } else if ( i instanceof LegacyInstr.IMMREG_class ) {
+                LegacyInstr.IMMREG_class c = (LegacyInstr.IMMREG_class)i;
+                out.writeByte(2);
+                writeImm(out, c.imm1);
+                writeReg(out, c.r1);
+            } else if ( i instanceof LegacyInstr.REG_class ) {
+                out.writeByte(1);
+                writeReg(out, ((LegacyInstr.REG_class)i).r1);
+            } else if ( i instanceof LegacyInstr.IMMIMM_class ) {
+                LegacyInstr.IMMIMM_class c = (LegacyInstr.IMMIMM_class)i;
+                out.writeByte(2);
+                writeImm(out, c.imm1);
+                writeImm(out, c.imm2);
+            } else if ( i instanceof LegacyInstr.IMMWORD_class ) {
+                LegacyInstr.IMMWORD_class c = (LegacyInstr.IMMWORD_class)i;
+                out.writeByte(2);
+                writeImm(out, c.imm1);
+                writeImm(out, c.imm2);
+            } else if ( i instanceof LegacyInstr.IMM_class ) {
+                out.writeByte(1);
+                writeImm(out, ((LegacyInstr.IMM_class)i).imm1);
+            } else if ( i instanceof LegacyInstr.WORD_class ) {
+                out.writeByte(1);
+                writeImm(out, ((LegacyInstr.WORD_class)i).imm1);
+            } else if ( i instanceof LegacyInstr.REGREGIMM_class ) {
+                LegacyInstr.REGREGIMM_class c = (LegacyInstr.REGREGIMM_class)i;
+                out.writeByte(3);
+                writeReg(out, c.r1);
+                writeReg(out, c.r2);
+                writeImm(out, c.imm1);
+            } else if ( i instanceof LegacyInstr.REGIMMREG_class ) {
+                LegacyInstr.REGIMMREG_class c = (LegacyInstr.REGIMMREG_class)i;
+                out.writeByte(3);
+                writeReg(out, c.r1);
+                writeImm(out, c.imm1);
+                writeReg(out, c.r2);
+            } else {
+                out.writeByte(0);
+            }
+        }
+
+        void writeReg(DataOutputStream out, LegacyRegister r) throws IOException {
+            out.writeByte(REGISTER);
+            out.writeInt(string(r.getName()));
+        }
+
+        void writeImm(DataOutputStream out, int v) throws IOException {
+            out.writeByte(CONSTANT);
+            out.writeInt(v);
+        }
+    }
+
+    /**
+     * The <code>Decoder</code> class reconstructs a program from a buffer in the binary cache format.
+     * Instructions are rebuilt through the prototype of their class from the stored operand values; the
+     * prototypes are looked up by class so that only the instruction classes that the program actually uses
+     * are loaded. The stored values are the fields of the instructions themselves, so the prototypes are
+     * given a program counter of -1, which makes the relative branch encoding (<code>target - pc - 1</code>)
+     * the identity.
+     */
+    protected static class Decoder {
+        final ByteBuffer buf;
+        final HashMap prototypes = new HashMap();
+        String[] strings;
+
+        Decoder(ByteBuffer b) {
+            buf = b;
+        }
+
+        Program decode() throws IOException {
+            int start = buf.getInt();
+            int end = buf.getInt();
+            strings = new String[buf.getInt()];
+            for ( int cntr = 0; cntr < strings.length; cntr++ ) {
+                byte[] b = new byte[buf.getInt()];
+                buf.get(b);
+                strings[cntr] = new String(b, "UTF-8");
+            }
+
+            Program p = new Program(LegacyArchitecture.INSTANCE, start, end);
+            buf.get(p.flash_data);
+
+            // read the instructions
+            int count = buf.getInt();
+            for ( int cntr = 0; cntr < count; cntr++ ) {
+                int offset = buf.getInt();
+                LegacyInstrProto proto = getPrototype(buf.getInt());
+                if ( proto == null ) return null;
+                LegacyOperand[] ops = new LegacyOperand[buf.get()];
+                for ( int op = 0; op < ops.length; op++ ) ops[op] = readOperand();
+                p.flash_instrs[offset] = proto.build(-1, ops);
+            }
+
+            // read the source mapping
+            if ( buf.get() != 0 ) {
+                SourceMapping sm = new SourceMapping(p);
+                int labels = buf.getInt();
+                for ( int cntr = 0; cntr < labels; cntr++ ) {
+                    String name = string(buf.getInt());
+                    String section = string(buf.getInt());
+                    int vma = buf.getInt();
+                    sm.newLocation(section, name, vma, buf.getInt());
+                }
+                sm.reverseMap.clear();
+                int names = buf.getInt();
+                for ( int cntr = 0; cntr < names; cntr++ ) {
+                    Integer addr = new Integer(buf.getInt());
+                    sm.reverseMap.put(addr, string(buf.getInt()));
+                }
+                p.setSourceMapping(sm);
+            }
+
+            // read the indirect edges
+            int callsites = buf.getInt();
+            for ( int cntr = 0; cntr < callsites; cntr++ ) {
+                int callsite = buf.getInt();
+                int targets = buf.getInt();
+                for ( int t = 0; t < targets; t++ ) p.addIndirectEdge(callsite, buf.getInt());
+            }
+            return p;
+        }
+
+        String string(int index) {
+            return index < 0 ? null : strings[index];
+        }
+
+        LegacyOperand readOperand() {
+            byte kind = buf.get();
+            int val = buf.getInt();
+            if ( kind == REGISTER ) return new Reg(LegacyRegister.getRegisterByName(string(val)));
+            return new Const(val);
+        }
+
+        LegacyInstrProto getPrototype(int index) {
+            Integer key = new Integer(index);
+            LegacyInstrProto proto = (LegacyInstrProto)prototypes.get(key);
+            if ( proto == null ) {
+                try {
+                    Field f = Class.forName(string(index)).getDeclaredField("prototype");
+                    f.setAccessible(true);
+                    proto = (LegacyInstrProto)f.get(null);
+                } catch ( Exception e ) {
+                    // the entry was written by a different version of the instruction set
+                    return null;
+                }
+                prototypes.put(key, proto);
+            }
+            return proto;
+        }
+    }
+
+    static class Reg implements LegacyOperand.Register {
+        final LegacyRegister reg;
+
+        Reg(LegacyRegister r) {
+            reg = r;
+        }
+
+        public LegacyOperand.Register asRegister() {
+            return this;
+        }
+
+        public LegacyOperand.Constant asConstant() {
+            return null;
+        }
+
+        public LegacyRegister getRegister() {
+            return reg;
+        }
+    }
+
+    static class Const implements LegacyOperand.Constant {
+        final int value;
+
+        Const(int v) {
+            value = v;
+        }
+
+        public LegacyOperand.Register asRegister() {
+            return null;
+        }
+
+        public LegacyOperand.Constant asConstant() {
+            return this;
+        }
+
+        public int getValue() {
+            return value;
+        }
+
+        public int getValueAsWord() {
+            return value;
+        }
+    }
+}
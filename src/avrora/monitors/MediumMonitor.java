@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2007, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package avrora.monitors;
+
+import avrora.sim.Simulator;
+import avrora.sim.platform.Platform;
+import avrora.sim.radio.*;
+import cck.text.*;
+
+import java.util.*;
+
+/**
+ * The <code>MediumMonitor</code> class reports how the radio media of a sensor network
+ * manage their transmission records. For each medium, it reports the number of transmissions,
+ * the number of transmission records that had to be allocated because none could be reused,
+ * and the number of times a receiver's buffer of candidate transmissions had to grow. Once
+ * the network reaches a steady state, the last two numbers should no longer increase.
+ */
+public class MediumMonitor extends MonitorFactory {
+
+    protected List radios = new LinkedList();
+
+    class Mon implements Monitor {
+
+        Mon(Simulator s) {
+            Platform platform = s.getMicrocontroller().getPlatform();
+            Object radio = platform.getDevice("radio");
+            if (radio instanceof Radio) radios.add(radio);
+        }
+
+        public void report() {
+            if (radios != null) {
+                TermUtil.printSeparator(Terminal.MAXLINE, "Medium monitor results");
+                Terminal.printGreen("Medium       transmissions       allocated    ring growths");
+                Terminal.nextln();
+                TermUtil.printThinSeparator();
+                // the media are attached after the monitors are created, so collect them now
+                Set media = new HashSet();
+                Iterator i = radios.iterator();
+                while (i.hasNext()) {
+                    Radio radio = (Radio)i.next();
+                    Medium medium = radio.getMedium();
+                    if (!media.add(medium)) continue;
+                    String name = radio.getClass().getName();
+                    name = name.substring(name.lastIndexOf('.') + 1);
+                    Terminal.print(StringUtil.leftJustify(name, 10));
+                    Terminal.print(StringUtil.rightJustify(medium.getTransmissionCount(), 16));
+                    Terminal.print(StringUtil.rightJustify(medium.getAllocationCount(), 16));
+                    Terminal.print(StringUtil.rightJustify(medium.getRingGrowthCount(), 16));
+                    Terminal.nextln();
+                }
+                radios = null;
+                Terminal.nextln();
+            }
+        }
+    }
+
+    public MediumMonitor() {
+        super("The \"medium\" monitor reports the number of transmissions in each radio medium " +
+                "of a sensor network, together with the number of transmission records and receiver " +
+                "buffers that had to be allocated to carry them.");
+    }
+
+    public Monitor newMonitor(Simulator s) {
+        return new Mon(s);
+    }
+}
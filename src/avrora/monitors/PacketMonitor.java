@@ -37,6 +37,7 @@
 
 package avrora.monitors;
 
+import avrora.sim.Checkpoint;
 import avrora.sim.Simulator;
 import avrora.sim.platform.Platform;
 import avrora.sim.radio.*;
@@ -69,7 +70,7 @@ public class PacketMonitor extends MonitorFactory {
 
     protected List monitors = new LinkedList();
 
-    class Mon implements Monitor, Medium.Probe {
+    class Mon implements Monitor, Medium.Probe, Checkpoint.Speculative {
         LinkedList bytes;
         final Simulator simulator;
         final SimPrinter printer;
@@ -99,6 +100,7 @@ public class PacketMonitor extends MonitorFactory {
 
             getStartSymbol(radio);
             monitors.add(this);
+            simulator.getCheckpointRegistry().addSpeculative("monitor.packet", this);
         }
 
         private void getStartSymbol(Radio radio) {
@@ -152,6 +154,27 @@ public class PacketMonitor extends MonitorFactory {
             bytes = new LinkedList();
         }
 
+        public Object saveSpeculative() {
+            return new Object[] { new LinkedList(bytes), new long[] { bytesTransmitted, packetsTransmitted,
+                bytesReceived, packetsReceived, bytesCorrupted, startCycle } };
+        }
+
+        public void restoreSpeculative(Object state, long time) {
+            Object[] s = (Object[])state;
+            bytes = new LinkedList((LinkedList)s[0]);
+            long[] c = (long[])s[1];
+            bytesTransmitted = (int)c[0];
+            packetsTransmitted = (int)c[1];
+            bytesReceived = (int)c[2];
+            packetsReceived = (int)c[3];
+            bytesCorrupted = (int)c[4];
+            startCycle = c[5];
+        }
+
+        public void commitSpeculative(Object state) {
+            // nothing to release.
+        }
+
         private StringBuffer renderPacket(String prefix) {
             StringBuffer buf = new StringBuffer(3 * bytes.size() + 45);
             SimUtil.getIDTimeString(buf, simulator);
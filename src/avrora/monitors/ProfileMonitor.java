@@ -33,6 +33,8 @@
 package avrora.monitors;
 
 import avrora.arch.AbstractInstr;
+import avrora.arch.legacy.LegacyInstr;
+import avrora.core.ControlFlowGraph;
 import avrora.core.Program;
 import avrora.sim.Simulator;
 import avrora.sim.State;
@@ -56,6 +58,13 @@ public class ProfileMonitor extends MonitorFactory {
             "This option specifies whether the profiling will be exact or periodic. When " +
             "this option is set to non-zero, then a sample of the program counter is taken at " +
             "the specified period in clock cycles, rather than through probes at each instruction.");
+    public final Option.Bool BLOCKS = newOption("block-counters", false,
+            "This option selects whether the profiling will be done with a counter at the beginning " +
+            "of each basic block of the program's control flow graph, rather than through a global " +
+            "probe on every instruction. The counts of the other instructions of each block are " +
+            "derived from the counter of the block, which allows the simulator to stay on its " +
+            "fast path. The profile is exact unless the program jumps into the middle of a basic block " +
+            "through an indirect jump or call.");
     public final Option.Bool CLASSES = newOption("instr-classes", false,
             "This option selects whether the profiling monitor will generate a report of the " +
             "types of instructions that were executed most frequently by the program.");
@@ -71,6 +80,8 @@ public class ProfileMonitor extends MonitorFactory {
         public final long[] icount;
         public final long[] itime;
 
+        protected ControlFlowGraph cfg;
+
         Mon(Simulator s) {
             simulator = s;
             program = s.getProgram();
@@ -84,6 +95,9 @@ public class ProfileMonitor extends MonitorFactory {
             if ( period > 0 ) {
                 // insert the periodic probe
                 s.insertEvent(new PeriodicProfile(period), period);
+            } else if ( BLOCKS.get() ) {
+                // insert a counter at the beginning of each basic block
+                insertBlockProbes();
             } else if ( CYCLES.get() ) {
                 // insert the count and cycles probe
                 s.insertProbe(new CCProbe());
@@ -93,6 +107,61 @@ public class ProfileMonitor extends MonitorFactory {
             }
         }
 
+        /**
+         * The <code>insertBlockProbes()</code> method inserts a count probe at the first instruction of each
+         * basic block. Only the last instruction of a block can take a different number of cycles from one
+         * execution to the next (e.g. a conditional branch), so when cycles are recorded, such instructions
+         * get a probe that measures their cycles.
+         */
+        private void insertBlockProbes() {
+            cfg = program.getCFG();
+            CProbe count = new CProbe();
+            TProbe time = CYCLES.get() ? new TProbe() : null;
+            Iterator i = cfg.getBlockIterator();
+            while ( i.hasNext() ) {
+                ControlFlowGraph.Block b = (ControlFlowGraph.Block)i.next();
+                if ( b.getLength() == 0 ) continue;
+                simulator.insertProbe(count, b.getAddress());
+                if ( time != null && isConditional(b) ) simulator.insertProbe(time, b.getLastAddress());
+            }
+        }
+
+        private boolean isConditional(ControlFlowGraph.Block b) {
+            int count = 0;
+            Iterator i = b.getEdgeIterator();
+            while ( i.hasNext() ) {
+                ControlFlowGraph.Edge e = (ControlFlowGraph.Edge)i.next();
+                if ( "".equals(e.getType()) ) count++;
+            }
+            return count > 1;
+        }
+
+        /**
+         * The <code>computeBlockProfile()</code> method derives the count and cycles of each instruction from
+         * the counters of the basic blocks. If the node stopped in the middle of a block, the instructions of
+         * that block that it did not reach have been counted once too often.
+         */
+        private void computeBlockProfile() {
+            int stopPC = simulator.getState().getPC();
+            Iterator i = cfg.getBlockIterator();
+            while ( i.hasNext() ) {
+                ControlFlowGraph.Block b = (ControlFlowGraph.Block)i.next();
+                int pc = b.getAddress();
+                long count = icount[pc];
+                boolean stopped = pc < stopPC && stopPC <= b.getLastAddress();
+                boolean measured = isConditional(b);
+                Iterator ii = b.getInstrIterator();
+                while ( ii.hasNext() ) {
+                    LegacyInstr instr = (LegacyInstr)ii.next();
+                    if ( stopped && pc == stopPC ) count--;
+                    icount[pc] = count;
+                    if ( CYCLES.get() && !(measured && pc == b.getLastAddress()) )
+                        itime[pc] = count * instr.getCycles();
+                    pc += instr.getSize();
+                }
+            }
+        }
+
         /**
          * The <code>PeriodicProfile</code> class can be used as a simulator event to periodically
          * sample the program counter value. This can be used to get an approximation of
@@ -129,6 +198,22 @@ public class ProfileMonitor extends MonitorFactory {
             }
         }
 
+        /**
+         * The <code>TProbe</code> class implements a probe that keeps track of the number of
+         * cycles consumed by each instruction, but not its execution count.
+         */
+        public class TProbe implements Simulator.Probe {
+            protected long timeBegan;
+
+            public void fireBefore(State state, int pc) {
+                timeBegan = state.getCycles();
+            }
+
+            public void fireAfter(State state, int pc) {
+                itime[pc] += state.getCycles() - timeBegan;
+            }
+        }
+
         /**
          * The <code>CProbe</code> class implements a simple probe that keeps a count
          * of how many times each instruction in the program has been executed.
@@ -142,6 +227,7 @@ public class ProfileMonitor extends MonitorFactory {
 
         public void report() {
 
+            if ( cfg != null ) computeBlockProfile();
             computeTotals();
             reportProfile();
 
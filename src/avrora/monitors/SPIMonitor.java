@@ -97,6 +97,8 @@ public class SPIMonitor extends MonitorFactory {
                 AtmelMicrocontroller mcu = (AtmelMicrocontroller)s.getMicrocontroller();
                 SPI spi = (SPI)mcu.getDevice("spi");
                 conn.connect(spi);
+                // the bytes in flight on the socket cannot be saved
+                s.getCheckpointRegistry().addUnsupported("spi forwarder");
             }
         }
 
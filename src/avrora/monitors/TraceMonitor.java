@@ -33,6 +33,8 @@
 package avrora.monitors;
 
 import avrora.arch.AbstractInstr;
+import avrora.arch.legacy.LegacyRegister;
+import avrora.arch.legacy.LegacyState;
 import avrora.core.*;
 import avrora.sim.Simulator;
 import avrora.sim.State;
@@ -40,6 +42,7 @@ import avrora.sim.util.SimUtil;
 import cck.text.*;
 import cck.util.Option;
 import cck.util.Util;
+import java.io.IOException;
 import java.util.Iterator;
 
 /**
@@ -59,6 +62,17 @@ public class TraceMonitor extends MonitorFactory {
             "The \"trace-start\" option specifies the time to start the instruction trace, in " +
             "clock cycles. This option can be useful for diagnosing problems in long simulations " +
             "that happens after a given time is reached.");
+    final Option.Str FILE = newOption("trace-file", "",
+            "The \"trace-file\" option specifies a file to which the trace is written in a compact " +
+            "binary format instead of being printed. The nodes write their traces into separate " +
+            "buffers that are written to the file by a background thread, which is much faster than " +
+            "printing each instruction. The \"decode-trace\" action prints a trace file as text.");
+    final Option.Bool REGISTERS = newOption("trace-registers", false,
+            "When this option is set together with the \"trace-file\" option, the trace also records " +
+            "the new value of each general purpose register and the status register that is changed " +
+            "by an instruction.");
+
+    protected TraceWriter writer;
 
     /**
      * The <code>Monitor</code> class implements the monitor for the profiler. It contains a
@@ -72,13 +86,26 @@ public class TraceMonitor extends MonitorFactory {
         public int count;
         int nesting;
 
+        final TraceWriter.NodeTrace trace;
+        final byte[] registers;
+        boolean pending;
+        int pendingPC;
+        long pendingTime;
+
         public class GlobalProbe implements Simulator.Probe {
             public void fireBefore(State s, int addr) {
-                print(s, s.getInstr(addr));
+                if ( trace != null ) {
+                    pending = true;
+                    pendingPC = addr;
+                    pendingTime = simulator.getClock().getCount();
+                } else {
+                    print(s, s.getInstr(addr));
+                }
             }
 
             public void fireAfter(State s, int addr) {
                 count++;
+                if ( pending ) recordPending(s);
             }
         }
 
@@ -97,7 +124,8 @@ public class TraceMonitor extends MonitorFactory {
                 traceNum++;
                 if ( nesting == 0 ) {
                     print("trace ("+pair+") begin: "+traceNum+" --------------------------");
-                    print(s, s.getInstr(addr));
+                    if ( trace != null ) record(s, addr, simulator.getClock().getCount());
+                    else print(s, s.getInstr(addr));
                     simulator.insertProbe(PROBE);
                 } else {
                     print("nested ("+pair+") begin: "+traceNum+" --------------------------");
@@ -136,6 +164,31 @@ public class TraceMonitor extends MonitorFactory {
 
         int nextpc;
 
+        private void recordPending(State s) {
+            pending = false;
+            record(s, pendingPC, pendingTime);
+            if ( registers != null ) recordRegisters((LegacyState)s);
+        }
+
+        private void record(State s, int addr, long time) {
+            trace.record(time, addr, s.getInstr(addr).getSize());
+        }
+
+        private void recordRegisters(LegacyState s) {
+            for ( int cntr = 0; cntr < TraceWriter.SREG; cntr++ ) {
+                byte val = s.getRegisterByte(LegacyRegister.getRegisterByNumber(cntr));
+                if ( val != registers[cntr] ) {
+                    registers[cntr] = val;
+                    trace.recordRegister(cntr, val);
+                }
+            }
+            byte sreg = s.getSREG();
+            if ( sreg != registers[TraceWriter.SREG] ) {
+                registers[TraceWriter.SREG] = sreg;
+                trace.recordRegister(TraceWriter.SREG, sreg);
+            }
+        }
+
         private void print(State s, AbstractInstr i) {
             //"#k{%x}: #k{%s} %s", color, pc, color, i.getVariant(), i.getOperands()
             StringBuffer buf = new StringBuffer(100);
@@ -150,6 +203,12 @@ public class TraceMonitor extends MonitorFactory {
         }
 
         private void print(String s) {
+            if ( trace != null ) {
+                // the instruction that reached an end point comes before the message
+                if ( pending ) recordPending(simulator.getState());
+                trace.message(simulator.getClock().getCount(), s);
+                return;
+            }
             String idstr = SimUtil.getIDTimeString(simulator);
             Terminal.println(idstr+s);
         }
@@ -158,6 +217,15 @@ public class TraceMonitor extends MonitorFactory {
             simulator = s;
             program = s.getProgram();
             PROBE = new GlobalProbe();
+            TraceWriter w = getWriter();
+            if ( w != null ) {
+                trace = w.newNodeTrace(s.getID(), s.getClock().getHZ(), program);
+                boolean regs = REGISTERS.get() && s.getState() instanceof LegacyState;
+                registers = regs ? new byte[TraceWriter.SREG + 1] : null;
+            } else {
+                trace = null;
+                registers = null;
+            }
             long time = TIME.get();
             if ( time > 0 ) {
                 // if start time is specified, add an event to start the global probe
@@ -212,6 +280,11 @@ public class TraceMonitor extends MonitorFactory {
          * number of executions of each instruction, compressed for basic blocks.
          */
         public void report() {
+            if ( trace != null ) {
+                // the last instruction may have been stopped before it completed, e.g. by a timeout
+                if ( pending ) recordPending(simulator.getState());
+                trace.close();
+            }
             TermUtil.printSeparator("Trace results for node "+simulator.getID());
             long cycles = simulator.getClock().getCount();
             float ipc = count / (float)cycles;
@@ -242,4 +315,15 @@ public class TraceMonitor extends MonitorFactory {
     public Monitor newMonitor(Simulator s) {
         return new Mon(s);
     }
+
+    protected synchronized TraceWriter getWriter() {
+        if ( writer == null && !FILE.isBlank() ) {
+            try {
+                writer = new TraceWriter(FILE.get(), 1 << 16, 64);
+            } catch (IOException e) {
+                Util.userError("Cannot create trace file", FILE.get());
+            }
+        }
+        return writer;
+    }
 }
@@ -0,0 +1,359 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package avrora.monitors;
+
+import avrora.core.Program;
+import cck.util.Util;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
+import java.util.zip.CRC32;
+
+/**
+ * The <code>TraceWriter</code> class writes the instruction traces of one or more nodes to a file in a
+ * compact binary format. Each node encodes its records into its own direct buffer; full buffers are handed
+ * to a background thread that writes them to the file, so that the simulation threads neither format text
+ * nor contend for a common lock for every instruction.
+ * <p/>
+ * The file begins with <code>MAGIC</code> and <code>VERSION</code>, followed by chunks. Each chunk begins
+ * with its kind and the ID of the node:
+ * <ul>
+ * <li><code>NODE</code> chunks store the clock frequency of the node and the checksum and length of its
+ * program, so that the decoder can find the program that the node ran.
+ * <li><code>RECORDS</code> chunks store the time and the expected PC before their first record, the
+ * length of the records in bytes, and then the records.
+ * <li><code>MESSAGE</code> chunks store a time and a string, e.g. the beginning of a traced region.
+ * </ul>
+ * Each record describes one instruction. It begins with a byte whose bit 0 indicates that the PC follows
+ * (it is omitted when the instruction follows the previous one) and whose bit 1 indicates that register
+ * writes follow. The upper six bits store the cycles since the previous record; the value
+ * <code>LONG_DELTA</code> indicates that the remainder of the delta follows. Numbers are stored as
+ * variable-length integers of seven bits per byte, lowest first. The register writes are a count followed
+ * by pairs of register number and new value, where number <code>SREG</code> stands for the status register.
+ */
+public class TraceWriter {
+
+    public static final int MAGIC = 0x41565452; // "AVTR"
+    public static final int VERSION = 1;
+
+    public static final byte NODE = 1;
+    public static final byte RECORDS = 2;
+    public static final byte MESSAGE = 3;
+
+    public static final int PC = 1;
+    public static final int REGS = 2;
+    public static final int LONG_DELTA = 63;
+    public static final int SREG = 32;
+
+    /**
+     * The <code>HEADER_SIZE</code> field stores the size of the header of a <code>RECORDS</code> chunk,
+     * which is reserved at the beginning of each buffer and filled in when the buffer is flushed.
+     */
+    protected static final int HEADER_SIZE = 21;
+    protected static final int MAX_RECORD = 1 + 10 + 5 + 1 + 2 * (SREG + 1);
+
+    protected final FileChannel channel;
+    protected final int bufferSize;
+    protected final int maxBuffers;
+    protected final LinkedList queue;
+    protected final LinkedList free;
+    protected final Thread thread;
+
+    protected int allocated;
+    protected int users;
+    protected boolean closed;
+    protected IOException error;
+
+    /**
+     * The constructor for the <code>TraceWriter</code> class creates the trace file, writes its header,
+     * and starts the thread that writes the buffers of the nodes to it.
+     * @param fname the name of the file to write the trace to
+     * @param bsize the size of each buffer in bytes
+     * @param mbufs the maximum number of buffers that may be allocated; a node that needs another buffer
+     * beyond that waits until the writer has written one
+     * @throws IOException if the file cannot be created
+     */
+    public TraceWriter(String fname, int bsize, int mbufs) throws IOException {
+        channel = new FileOutputStream(fname).getChannel();
+        bufferSize = bsize;
+        maxBuffers = mbufs;
+        queue = new LinkedList();
+        free = new LinkedList();
+
+        ByteBuffer header = ByteBuffer.allocate(8);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.flip();
+        while ( header.hasRemaining() ) channel.write(header);
+
+        thread = new Thread("trace-writer") {
+            public void run() {
+                writeBuffers();
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * The <code>NodeTrace</code> class encodes the trace of a single node. It must only be used by the
+     * thread that runs the node.
+     */
+    public class NodeTrace {
+        protected final int id;
+        protected ByteBuffer buffer;
+        protected long time;
+        protected int nextPC;
+        protected long baseTime;
+        protected int basePC;
+        protected int header;
+        protected int regPos;
+        protected int regCount;
+
+        protected NodeTrace(int i) {
+            id = i;
+            buffer = allocate();
+            start();
+        }
+
+        /**
+         * The <code>record()</code> method begins the record for an instruction. The register writes of the
+         * instruction can then be added with <code>recordRegister()</code>.
+         * @param t the time at which the instruction began executing
+         * @param pc the address of the instruction
+         * @param size the size of the instruction in bytes
+         */
+        public void record(long t, int pc, int size) {
+            if ( buffer.remaining() < MAX_RECORD ) flush();
+            long delta = t - time;
+            int flags = pc == nextPC ? 0 : PC;
+            header = buffer.position();
+            if ( delta < LONG_DELTA ) {
+                buffer.put((byte)(flags | (int)delta << 2));
+            } else {
+                buffer.put((byte)(flags | LONG_DELTA << 2));
+                putNumber(delta - LONG_DELTA);
+            }
+            if ( flags != 0 ) putNumber(pc);
+            regCount = 0;
+            time = t;
+            nextPC = pc + size;
+        }
+
+        /**
+         * The <code>recordRegister()</code> method adds a register write to the current record.
+         * @param reg the number of the register, or <code>SREG</code> for the status register
+         * @param value the new value of the register
+         */
+        public void recordRegister(int reg, int value) {
+            if ( regCount == 0 ) {
+                buffer.put(header, (byte)(buffer.get(header) | REGS));
+                regPos = buffer.position();
+                buffer.put((byte)0);
+            }
+            buffer.put((byte)reg);
+            buffer.put((byte)value);
+            buffer.put(regPos, (byte)++regCount);
+        }
+
+        /**
+         * The <code>message()</code> method adds a message to the trace, after the records so far.
+         * @param t the time of the message
+         * @param msg the text of the message
+         */
+        public void message(long t, String msg) {
+            flush();
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + msg.length());
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeByte(MESSAGE);
+                out.writeInt(id);
+                out.writeLong(t);
+                out.writeUTF(msg);
+                submit(ByteBuffer.wrap(bytes.toByteArray()));
+            } catch (IOException e) {
+                throw Util.unexpected(e);
+            }
+        }
+
+        /**
+         * The <code>flush()</code> method hands the records so far to the writer thread.
+         */
+        public void flush() {
+            int length = buffer.position() - HEADER_SIZE;
+            if ( length == 0 ) return;
+            buffer.put(0, RECORDS);
+            buffer.putInt(1, id);
+            buffer.putLong(5, baseTime);
+            buffer.putInt(13, basePC);
+            buffer.putInt(17, length);
+            buffer.flip();
+            submit(buffer);
+            buffer = allocate();
+            start();
+        }
+
+        /**
+         * The <code>close()</code> method flushes the records of this node and closes the trace file once
+         * every node has been closed.
+         */
+        public void close() {
+            flush();
+            recycle(buffer);
+            buffer = null;
+            release();
+        }
+
+        private void start() {
+            buffer.position(HEADER_SIZE);
+            baseTime = time;
+            basePC = nextPC;
+        }
+
+        private void putNumber(long val) {
+            while ( (val & ~0x7fL) != 0 ) {
+                buffer.put((byte)(val & 0x7f | 0x80));
+                val >>>= 7;
+            }
+            buffer.put((byte)val);
+        }
+    }
+
+    /**
+     * The <code>newNodeTrace()</code> method creates the trace for a node and records which program the
+     * node runs.
+     * @param id the ID of the node
+     * @param hz the frequency of the main clock of the node
+     * @param p the program that the node runs
+     * @return a new trace for the node
+     */
+    public NodeTrace newNodeTrace(int id, long hz, Program p) {
+        synchronized ( this ) {
+            users++;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(21);
+        buf.put(NODE);
+        buf.putInt(id);
+        buf.putLong(hz);
+        buf.putInt(checksum(p));
+        buf.putInt(p.program_length);
+        buf.flip();
+        submit(buf);
+        return new NodeTrace(id);
+    }
+
+    /**
+     * The <code>checksum()</code> method computes the checksum of the code of a program that identifies it
+     * in a trace.
+     * @param p the program
+     * @return a checksum of the bytes of the program
+     */
+    public static int checksum(Program p) {
+        CRC32 crc = new CRC32();
+        for ( int addr = p.program_start; addr < p.program_end; addr++ )
+            crc.update(p.readProgramByte(addr));
+        return (int)crc.getValue();
+    }
+
+    synchronized ByteBuffer allocate() {
+        try {
+            while ( free.isEmpty() && allocated >= maxBuffers && error == null ) wait();
+        } catch (InterruptedException e) {
+            throw Util.unexpected(e);
+        }
+        checkError();
+        if ( !free.isEmpty() ) return (ByteBuffer)free.removeFirst();
+        allocated++;
+        return ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    synchronized void submit(ByteBuffer buf) {
+        checkError();
+        queue.addLast(buf);
+        notifyAll();
+    }
+
+    synchronized void recycle(ByteBuffer buf) {
+        if ( buf.isDirect() ) {
+            buf.clear();
+            free.addLast(buf);
+            notifyAll();
+        }
+    }
+
+    void release() {
+        synchronized ( this ) {
+            if ( --users > 0 ) return;
+            closed = true;
+            notifyAll();
+        }
+        try {
+            thread.join();
+            channel.close();
+        } catch (InterruptedException e) {
+            throw Util.unexpected(e);
+        } catch (IOException e) {
+            error = e;
+        }
+        checkError();
+    }
+
+    private void checkError() {
+        if ( error != null ) throw Util.failure("cannot write trace: " + error.getMessage());
+    }
+
+    private synchronized ByteBuffer take() throws InterruptedException {
+        while ( queue.isEmpty() && !closed ) wait();
+        return queue.isEmpty() ? null : (ByteBuffer)queue.removeFirst();
+    }
+
+    private synchronized void failed(IOException e) {
+        error = e;
+        queue.clear();
+        notifyAll();
+    }
+
+    void writeBuffers() {
+        try {
+            for ( ByteBuffer buf = take(); buf != null; buf = take() ) {
+                while ( buf.hasRemaining() ) channel.write(buf);
+                recycle(buf);
+            }
+        } catch (IOException e) {
+            failed(e);
+        } catch (InterruptedException e) {
+            failed(new InterruptedIOException());
+        }
+    }
+}
@@ -60,4 +60,14 @@ public interface ActiveRegister {
      */
     public void write(byte val);
 
+    /**
+     * The <code>ActiveRegister.Stable</code> interface marks registers whose value changes only when the
+     * register is written or when a simulation event fires, and for which reading the register again
+     * returns the same value without any further effect. The interpreter may skip over a loop that only
+     * polls such registers until the next event fires. An instance of <code>RWRegister</code> itself is stable;
+     * subclasses, which may compute their value when read, must implement this interface to be treated as
+     * stable.
+     */
+    public interface Stable extends ActiveRegister {
+    }
 }
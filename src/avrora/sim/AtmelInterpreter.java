@@ -38,6 +38,7 @@ import avrora.arch.legacy.*;
 import avrora.core.Program;
 import avrora.sim.mcu.RegisterSet;
 import avrora.sim.util.*;
+import java.io.*;
 import avrora.sim.state.VolatileBehavior;
 import cck.util.Arithmetic;
 import cck.util.Util;
@@ -48,7 +49,8 @@ import cck.util.Util;
  *
  * @author Ben L. Titzer
  */
-public abstract class AtmelInterpreter extends Interpreter implements LegacyInstrVisitor {
+public abstract class AtmelInterpreter extends Interpreter implements LegacyInstrVisitor, Checkpoint.Component,
+        Checkpoint.Speculative {
 
     public static final boolean INSTRUMENTED = true;
     public static final boolean UNINSTRUMENTED = false;
@@ -74,6 +76,8 @@ public abstract class AtmelInterpreter extends Interpreter implements LegacyInst
     protected final int sram_max;
     protected MulticastWatch[] sram_watches;
     protected final VolatileBehavior[] sram_volatile;
+    protected final VolatileBehavior[] sram_access;
+    protected final VolatileBehavior sram_plain;
 
     protected final ActiveRegister[] ioregs;
 
@@ -102,6 +106,13 @@ public abstract class AtmelInterpreter extends Interpreter implements LegacyInst
 
     protected boolean justReturnedFromInterrupt;
 
+    /**
+     * The <code>stoppedInLoop</code> field records whether the last call to <code>stop()</code> interrupted the
+     * inner loop of the interpreter, in which case a resumed run must not check for interrupts before
+     * the next instruction, since the interrupted run would not have either.
+     */
+    protected boolean stoppedInLoop;
+
     public class StateImpl implements LegacyState {
 
         /**
@@ -165,6 +176,7 @@ public abstract class AtmelInterpreter extends Interpreter implements LegacyInst
          * @return the value of the status register as a byte.
          */
         public byte getSREG() {
+            materializeFlags();
             int value = 0;
             if (I) value |= LegacyState.SREG_I_MASK;
             if (T) value |= LegacyState.SREG_T_MASK;
@@ -353,9 +365,9 @@ public abstract class AtmelInterpreter extends Interpreter implements LegacyInst
 
         // create the behavior for the volatile region
         sram_volatile = new VolatileBehavior[sram_start];
-        VolatileBehavior b = new VolatileBehavior();
+        sram_plain = new VolatileBehavior();
         for ( int i = 0; i < sram_volatile.length; i++ )
-            sram_volatile[i] = b;
+            sram_volatile[i] = sram_plain;
         // support the old ActiveRegisters with wrappers
         ioregs = registers.share();
         for ( int i = 0; i < ioregs.length; i++ )
@@ -364,27 +376,226 @@ public abstract class AtmelInterpreter extends Interpreter implements LegacyInst
         // set up the status register volatile
         sram_volatile[toSRAM(SREG)] = new SREGBehavior();
 
+        // instrumented accesses go through a behavior only for volatile or watched addresses
+        sram_access = new VolatileBehavior[sram_max];
+        for ( int i = 0; i < sram_volatile.length; i++ )
+            updateAccess(i);
+
         // allocate FLASH
         flash = pr.codeSegmentFactory.newCodeSegment("flash", this, p);
-        // for performance, we share a reference to the LegacyInstr[] array representing flash
-        // TODO: implement share() method
-        shared_instr = flash.shareCode(null);
+        // for performance, we share a reference to the LegacyInstr[] array representing flash;
+        // the segment replaces the array when it makes a private copy of shared code
+        shared_instr = flash.shareCode(new CodeSegment.CodeSharer() {
+            public void update(LegacyInstr[] segment) {
+                shared_instr = segment;
+            }
+        });
 
         // initialize the interrupt table
         interrupts = new InterruptTable(this, pr.num_interrupts);
 
         SPL_reg = (RWRegister) ioregs[pr.getIOReg("SPL")];
         SPH_reg = (RWRegister) ioregs[pr.getIOReg("SPH")];
+
+        simulator.getCheckpointRegistry().addComponent("interpreter", this);
     }
 
     public void start() {
+        if ( stoppedInLoop ) {
+            // resume exactly like a run restored from a checkpoint taken at this point
+            justReturnedFromInterrupt = true;
+            stoppedInLoop = false;
+        }
         shouldRun = true;
         runLoop();
     }
 
     public void stop() {
         shouldRun = false;
+        stoppedInLoop = innerLoop;
+        innerLoop = false;
+    }
+
+    /**
+     * The <code>breakLoop()</code> method extends the default implementation for a run that has been
+     * stopped in the inner loop by an event of the current instruction. Since the uninterrupted run would
+     * have checked for interrupts after the instruction, the resumed run must check for them as well.
+     */
+    protected void breakLoop() {
         innerLoop = false;
+        stoppedInLoop = false;
+    }
+
+    /**
+     * The <code>isIdle()</code> method returns whether this interpreter is sleeping with no pending
+     * interrupt. In that case only an event can post an interrupt that wakes the node.
+     * @return true if the node is sleeping and no interrupt is pending
+     */
+    public boolean isIdle() {
+        return sleeping && interrupts.getPendingInterrupts() == 0;
+    }
+
+    /**
+     * The <code>saveState()</code> method writes the architectural state of the processor to a checkpoint,
+     * including the registers, the SRAM, the status flags, the IO registers, the interrupt table, and the
+     * flash. It must only be called while the interpreter is stopped.
+     * @param out the output to write the state to
+     * @throws IOException if the state cannot be written
+     */
+    public void saveState(DataOutput out) throws IOException {
+        saveProcessorState(out);
+        out.writeInt(sram.length);
+        out.write(sram);
+        flash.saveState(out);
+    }
+
+    /**
+     * The <code>restoreState()</code> method restores the architectural state of the processor from a
+     * checkpoint. No watches, probes, or IO register behaviors are triggered.
+     * @param in the input to read the state from
+     * @throws IOException if the state cannot be read
+     */
+    public void restoreState(DataInput in) throws IOException {
+        restoreProcessorState(in);
+        if ( in.readInt() != sram.length )
+            throw Util.failure("checkpoint SRAM size does not match microcontroller");
+        in.readFully(sram);
+        flash.restoreState(in);
+    }
+
+    /**
+     * The <code>saveProcessorState()</code> method writes the state of the processor apart from the SRAM
+     * and the flash, i.e. the program counter, the status flags, the interrupt table, and the IO registers.
+     * Subclasses that have further state extend this method.
+     * @param out the output to write the state to
+     * @throws IOException if the state cannot be written
+     */
+    protected void saveProcessorState(DataOutput out) throws IOException {
+        materializeFlags();
+        out.writeInt(pc);
+        out.writeInt(nextPC);
+        out.writeInt(cyclesConsumed);
+        out.writeInt(bootPC);
+        out.writeInt(interruptBase);
+        out.writeByte(state.getSREG());
+        out.writeLong(delayCycles);
+        out.writeBoolean(sleeping);
+        out.writeBoolean(justReturnedFromInterrupt || stoppedInLoop);
+        interrupts.saveState(out);
+        registers.saveState(out);
+    }
+
+    /**
+     * The <code>restoreProcessorState()</code> method restores the state written by
+     * <code>saveProcessorState()</code>.
+     * @param in the input to read the state from
+     * @throws IOException if the state cannot be read
+     */
+    protected void restoreProcessorState(DataInput in) throws IOException {
+        pc = in.readInt();
+        nextPC = in.readInt();
+        cyclesConsumed = in.readInt();
+        bootPC = in.readInt();
+        interruptBase = in.readInt();
+        byte sreg = in.readByte();
+        I = Arithmetic.getBit(sreg, LegacyState.SREG_I);
+        T = Arithmetic.getBit(sreg, LegacyState.SREG_T);
+        H = Arithmetic.getBit(sreg, LegacyState.SREG_H);
+        S = Arithmetic.getBit(sreg, LegacyState.SREG_S);
+        V = Arithmetic.getBit(sreg, LegacyState.SREG_V);
+        N = Arithmetic.getBit(sreg, LegacyState.SREG_N);
+        Z = Arithmetic.getBit(sreg, LegacyState.SREG_Z);
+        C = Arithmetic.getBit(sreg, LegacyState.SREG_C);
+        delayCycles = in.readLong();
+        sleeping = in.readBoolean();
+        justReturnedFromInterrupt = in.readBoolean();
+        stoppedInLoop = false;
+        interrupts.restoreState(in);
+        registers.restoreState(in);
+    }
+
+    /**
+     * The <code>SavedState</code> class holds the state of the processor saved in memory. The SRAM is
+     * saved in blocks, and each block that has not changed since the previous snapshot shares the array
+     * saved for that snapshot.
+     */
+    protected static class SavedState {
+        protected byte[] processor;
+        protected byte[][] sram;
+        protected Object flash;
+    }
+
+    private static final int SRAM_BLOCK = 64;
+
+    // the state saved or restored last, against which the SRAM blocks of the next state are compared
+    protected SavedState lastSaved;
+
+    /**
+     * The <code>saveSpeculative()</code> method saves the state of the processor in memory, sharing every
+     * block of the SRAM and the flash that has not changed since the last state saved or restored.
+     * @return an object holding the state of the processor
+     */
+    public Object saveSpeculative() {
+        SavedState s = new SavedState();
+        try {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buf);
+            saveProcessorState(out);
+            out.flush();
+            s.processor = buf.toByteArray();
+        } catch (IOException e) {
+            throw Util.unexpected(e);
+        }
+        byte[][] prev = lastSaved == null ? null : lastSaved.sram;
+        s.sram = new byte[(sram.length + SRAM_BLOCK - 1) / SRAM_BLOCK][];
+        for ( int cntr = 0; cntr < s.sram.length; cntr++ ) {
+            int off = cntr * SRAM_BLOCK;
+            int len = Math.min(SRAM_BLOCK, sram.length - off);
+            if ( prev != null && sameBlock(prev[cntr], off, len) ) {
+                s.sram[cntr] = prev[cntr];
+            } else {
+                s.sram[cntr] = new byte[len];
+                System.arraycopy(sram, off, s.sram[cntr], 0, len);
+            }
+        }
+        s.flash = flash.saveSpeculative();
+        lastSaved = s;
+        return s;
+    }
+
+    private boolean sameBlock(byte[] block, int off, int len) {
+        for ( int cntr = 0; cntr < len; cntr++ ) {
+            if ( block[cntr] != sram[off + cntr] ) return false;
+        }
+        return true;
+    }
+
+    /**
+     * The <code>restoreSpeculative()</code> method restores a state saved by <code>saveSpeculative()</code>.
+     * No watches, probes, or IO register behaviors are triggered.
+     * @param state the object returned by <code>saveSpeculative()</code>
+     * @param time the time up to which the node will repeat its earlier execution
+     */
+    public void restoreSpeculative(Object state, long time) {
+        SavedState s = (SavedState)state;
+        try {
+            restoreProcessorState(new DataInputStream(new ByteArrayInputStream(s.processor)));
+        } catch (IOException e) {
+            throw Util.unexpected(e);
+        }
+        for ( int cntr = 0; cntr < s.sram.length; cntr++ )
+            System.arraycopy(s.sram[cntr], 0, sram, cntr * SRAM_BLOCK, s.sram[cntr].length);
+        flash.restoreSpeculative(s.flash, time);
+        lastSaved = s;
+    }
+
+    /**
+     * The <code>commitSpeculative()</code> method does nothing, since the processor keeps no history
+     * apart from its saved states.
+     * @param state the oldest state that may still be restored
+     */
+    public void commitSpeculative(Object state) {
+        // do nothing.
     }
 
     public State getState() {
@@ -425,7 +636,7 @@ public abstract class AtmelInterpreter extends Interpreter implements LegacyInst
      */
     public void setEnabled(int inum, boolean enabled) {
         if ( enabled ) {
-            innerLoop = false;
+            breakLoop();
             interrupts.enable(inum);
         } else interrupts.disable(inum);
     }
@@ -457,7 +668,7 @@ public abstract class AtmelInterpreter extends Interpreter implements LegacyInst
      * @param p the probe to insert
      */
     protected void insertProbe(Simulator.Probe p) {
-        innerLoop = false;
+        breakLoop();
         globalProbe.add(p);
     }
 
@@ -478,7 +689,7 @@ public abstract class AtmelInterpreter extends Interpreter implements LegacyInst
      * @param b the probe to remove
      */
     public void removeProbe(Simulator.Probe b) {
-        innerLoop = false;
+        breakLoop();
         globalProbe.remove(b);
     }
 
@@ -495,6 +706,7 @@ public abstract class AtmelInterpreter extends Interpreter implements LegacyInst
         MulticastWatch w = sram_watches[data_addr];
         if (w == null) w = sram_watches[data_addr] = new MulticastWatch();
         w.add(p);
+        updateAccess(data_addr);
     }
 
     /**
@@ -510,6 +722,45 @@ public abstract class AtmelInterpreter extends Interpreter implements LegacyInst
         MulticastWatch w = sram_watches[data_addr];
         if (w == null) return;
         w.remove(p);
+        updateAccess(data_addr);
+    }
+
+    /**
+     * The <code>updateAccess()</code> method recomputes the behavior used by instrumented accesses to the
+     * specified address. Plain memory that is not watched has no behavior at all, so that a load or store
+     * to it is only a bounds check and an array access. Watched addresses get a behavior that calls the
+     * watches around the volatile behavior of the address, if any. This method must be called whenever
+     * the volatile behavior or the watches of an address change.
+     * @param addr the data address whose behavior to recompute
+     */
+    protected void updateAccess(int addr) {
+        if (addr < 0 || addr >= sram_access.length) return;
+        VolatileBehavior b = addr < sram_start ? sram_volatile[addr] : null;
+        if (b == sram_plain) b = null;
+        MulticastWatch w = sram_watches == null ? null : sram_watches[addr];
+        if (w != null && !w.isEmpty()) b = new WatchBehavior(addr, w, b);
+        sram_access[addr] = b;
+    }
+
+    /**
+     * The <code>isStableAddress()</code> method checks whether reading the specified data address has no
+     * effect other than returning its value, and whether that value can change only when the address is
+     * written or when an event fires. This holds for plain memory and for IO registers that are plain
+     * <code>RWRegister</code> instances or are marked as <code>ActiveRegister.Stable</code>, as long as
+     * the address is not watched.
+     * @param addr the data address to check
+     * @return true if repeated reads of the address return the same value until the next write or event
+     */
+    protected boolean isStableAddress(int addr) {
+        if (addr < 0 || addr >= sram_access.length) return false;
+        if (addr >= sram_start) return sram_access[addr] == null;
+        VolatileBehavior b = sram_volatile[addr];
+        // a watched address has a behavior of its own for instrumented accesses
+        if (sram_access[addr] != (b == sram_plain ? null : b)) return false;
+        if (b == sram_plain || b instanceof SREGBehavior) return true;
+        if (!(b instanceof IORegBehavior)) return false;
+        ActiveRegister reg = ((IORegBehavior)b).reg;
+        return reg.getClass() == RWRegister.class || reg instanceof ActiveRegister.Stable;
     }
 
     /**
@@ -530,7 +781,7 @@ public abstract class AtmelInterpreter extends Interpreter implements LegacyInst
      * @param cycles the number of cycles to delay the execution
      */
     protected void delay(long cycles) {
-        innerLoop = false;
+        breakLoop();
         delayCycles += cycles;
     }
 
@@ -606,6 +857,7 @@ public abstract class AtmelInterpreter extends Interpreter implements LegacyInst
     }
 
     public boolean getFlag(int bit) {
+        materializeFlags();
         switch (bit) {
             case LegacyState.SREG_I: return I;
             case LegacyState.SREG_T: return T;
@@ -620,6 +872,7 @@ public abstract class AtmelInterpreter extends Interpreter implements LegacyInst
     }
 
     public void setFlag(int bit, boolean on) {
+        materializeFlags();
         switch (bit) {
             case LegacyState.SREG_I:
                 if (on) enableInterrupts();
@@ -635,6 +888,16 @@ public abstract class AtmelInterpreter extends Interpreter implements LegacyInst
         }
     }
 
+    /**
+     * The <code>materializeFlags()</code> method brings the H, S, V, N, Z and C flag fields up to date. It
+     * is called before the flags are read or written from outside of the instruction that computes them.
+     * Interpreters that compute the flags eagerly have nothing to do; an interpreter that defers the
+     * computation of the flags overrides this method.
+     */
+    protected void materializeFlags() {
+        // the default interpreter computes all flags eagerly
+    }
+
     protected void setIORegBit(int ior, int bit, boolean on) {
         byte curv = readSRAM(INSTRUMENTED, toSRAM(ior));
         curv = Arithmetic.setBit(curv, bit, on);
@@ -659,18 +922,11 @@ public abstract class AtmelInterpreter extends Interpreter implements LegacyInst
     }
 
     private byte readSRAM(boolean w, int addr) {
-        if ( addr < 0 ) {
-            // an error.
-            return fireReadError(w, addr);
-        } else if ( addr < sram.length ) {
+        if ( addr >= 0 && addr < sram.length ) {
             // a valid RAM access.
-            // PERFORMANCE: consider wrapping in if(sram_watches)
-            byte val;
-            fireBeforeRead(w, addr);
-            if ( addr < sram_start ) val = sram[addr] = readVolatile(addr);
-            else val = sram[addr];
-            fireAfterRead(w, addr, val);
-            return val;
+            VolatileBehavior b = w ? sram_access[addr] : getVolatile(addr);
+            if ( b == null ) return sram[addr];
+            return sram[addr] = (byte) b.read(sram[addr] & 0xff);
         } else {
             // an error.
             return fireReadError(w, addr);
@@ -678,22 +934,21 @@ public abstract class AtmelInterpreter extends Interpreter implements LegacyInst
     }
 
     private void writeSRAM(boolean w, int addr, byte val) {
-        if ( addr < 0 ) {
-            // an error.
-            fireWriteError(w, addr, val);
-        } else if ( addr < sram.length ) {
+        if ( addr >= 0 && addr < sram.length ) {
             // a valid RAM access.
-            // PERFORMANCE: consider wrapping in if(sram_watches)
-            fireBeforeWrite(w, addr, val);
-            if ( addr < sram_start ) sram[addr] = writeVolatile(addr, val);
-            else sram[addr] = val;
-            fireAfterWrite(w, addr, val);
+            VolatileBehavior b = w ? sram_access[addr] : getVolatile(addr);
+            if ( b == null ) sram[addr] = val;
+            else sram[addr] = (byte) b.write(sram[addr] & 0xff, val & 0xff);
         } else {
             // an error.
             fireWriteError(w, addr, val);
         }
     }
 
+    private VolatileBehavior getVolatile(int addr) {
+        return addr < sram_start ? sram_volatile[addr] : null;
+    }
+
     private void fireWriteError(boolean w, int addr, byte val) {
         if ( w && error_watch != null ) error_watch.fireBeforeWrite(state, addr, val);
     }
@@ -719,6 +974,7 @@ public abstract class AtmelInterpreter extends Interpreter implements LegacyInst
 
     private class SREGBehavior extends VolatileBehavior {
         public int read(int cur) {
+            materializeFlags();
             int val = 0;
             if (I) val |= LegacyState.SREG_I_MASK;
             if (T) val |= LegacyState.SREG_T_MASK;
@@ -731,6 +987,7 @@ public abstract class AtmelInterpreter extends Interpreter implements LegacyInst
             return (byte) val;
         }
         public int write(int cur, int nv) {
+            materializeFlags();
             boolean enabled = (nv & LegacyState.SREG_I_MASK) != 0;
             if (enabled) enableInterrupts();
             else disableInterrupts();
@@ -745,41 +1002,37 @@ public abstract class AtmelInterpreter extends Interpreter implements LegacyInst
         }
     }
 
-    private byte readVolatile(int addr) {
-        VolatileBehavior behavior = sram_volatile[addr];
-        return (byte) behavior.read(sram[addr] & 0xff);
-    }
-
-    private byte writeVolatile(int addr, byte val) {
-        VolatileBehavior behavior = sram_volatile[addr];
-        return (byte) behavior.write(sram[addr] & 0xff, val & 0xff);
-    }
-
-    private void fireBeforeRead(boolean w, int addr) {
-        if ( w && sram_watches != null ) {
-            Simulator.Watch p = sram_watches[addr];
-            if ( p != null ) p.fireBeforeRead(state, addr);
-        }
-    }
-
-    private void fireAfterRead(boolean w, int addr, byte val) {
-        if ( w && sram_watches != null ) {
-            Simulator.Watch p = sram_watches[addr];
-            if ( p != null ) p.fireAfterRead(state, addr, val);
+    /**
+     * The <code>WatchBehavior</code> class is the behavior of a watched address. It calls the watches
+     * before and after the access and performs the access through the volatile behavior of the address,
+     * if there is one.
+     */
+    private class WatchBehavior extends VolatileBehavior {
+        final int addr;
+        final Simulator.Watch watch;
+        final VolatileBehavior behavior;
+
+        WatchBehavior(int a, Simulator.Watch w, VolatileBehavior b) {
+            addr = a;
+            watch = w;
+            behavior = b;
         }
-    }
 
-    private void fireBeforeWrite(boolean w, int addr, byte val) {
-        if ( w && sram_watches != null ) {
-            Simulator.Watch p = sram_watches[addr];
-            if ( p != null ) p.fireBeforeWrite(state, addr, val);
+        public int read(int cur) {
+            watch.fireBeforeRead(state, addr);
+            // the watch may have changed the memory
+            cur = sram[addr] & 0xff;
+            int val = behavior == null ? cur : behavior.read(cur);
+            watch.fireAfterRead(state, addr, (byte)val);
+            return val;
         }
-    }
 
-    private void fireAfterWrite(boolean w, int addr, byte val) {
-        if ( w && sram_watches != null ) {
-            Simulator.Watch p = sram_watches[addr];
-            if ( p != null ) p.fireAfterWrite(state, addr, val);
+        public int write(int cur, int nv) {
+            watch.fireBeforeWrite(state, addr, (byte)nv);
+            cur = sram[addr] & 0xff;
+            int val = behavior == null ? nv : behavior.write(cur, nv);
+            watch.fireAfterWrite(state, addr, (byte)nv);
+            return val;
         }
     }
 
@@ -913,6 +1166,7 @@ public abstract class AtmelInterpreter extends Interpreter implements LegacyInst
      */
     public void installIOReg(int ioreg, ActiveRegister reg) {
         sram_volatile[toSRAM(ioreg)] = new IORegBehavior(reg);
+        updateAccess(toSRAM(ioreg));
         ioregs[ioreg] = reg;
     }
 
@@ -926,6 +1180,7 @@ public abstract class AtmelInterpreter extends Interpreter implements LegacyInst
 
     public void installVolatileBehavior(int addr, VolatileBehavior b) {
         sram_volatile[addr] = b;
+        updateAccess(addr);
     }
 
     /**
@@ -1037,7 +1292,7 @@ public abstract class AtmelInterpreter extends Interpreter implements LegacyInst
      */
     public void enableInterrupts() {
         I = true;
-        innerLoop = false;
+        breakLoop();
         interrupts.enableAll();
     }
 
@@ -1055,8 +1310,10 @@ public abstract class AtmelInterpreter extends Interpreter implements LegacyInst
      */
     protected void commit() {
         pc = nextPC;
-        clock.advance(cyclesConsumed);
+        // an event fired by the clock may end the run; the cycles must not be counted again
+        int cycles = cyclesConsumed;
         cyclesConsumed = 0;
+        clock.advance(cycles);
     }
 
 }
@@ -0,0 +1,512 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package avrora.sim;
+
+import avrora.sim.clock.EventQueue;
+import avrora.sim.clock.MainClock;
+import cck.text.StringUtil;
+import cck.util.Util;
+import java.io.*;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The <code>Checkpoint</code> class saves the complete state of a stopped simulation into a compact binary
+ * file and restores a freshly instantiated simulation from such a file, so that the simulation continues
+ * exactly where it left off.
+ * <p/>
+ * The state is not captured by reflection. Instead, every piece of simulated hardware that holds state
+ * registers a <code>Checkpoint.Component</code> with the <code>Checkpoint.Registry</code> of its simulator
+ * (or of the simulation, for state shared between nodes such as a radio medium), under a name that is the
+ * same in every instance built from the same options. Each event that a component may have pending in the
+ * event queue is registered under a name as well; pending events are stored by name with their remaining
+ * delays. Events that are not registered, such as timeouts, synchronizer events, and monitor events, are
+ * not saved; the restored simulation keeps the ones that it created itself, relative to the restore point,
+ * except that <code>Simulation</code> moves the timeout of each node back to the absolute time it stands for.
+ * <p/>
+ * The file is a GZIP-compressed stream of <code>DataOutput</code> records: a header, the global components
+ * of the simulation, and then for each node its cycle count, its components, and its pending events.
+ * <p/>
+ * A <code>Checkpoint.Snapshot</code> captures the state of a single running node in memory instead, so that
+ * a synchronizer can roll the node back to it. Snapshots also include the state registered as
+ * <code>Checkpoint.Speculative</code>, which refers to objects shared with other nodes and therefore cannot
+ * be written to a file.
+ */
+public class Checkpoint {
+
+    public static final int MAGIC = 0x41564350; // "AVCP"
+    public static final int VERSION = 5;
+
+    /**
+     * The <code>Component</code> interface is implemented by each part of the simulation that has state
+     * to save. A component is restored into an object that has been built exactly like the one that was
+     * saved, so it only needs to write the values that change while the simulation runs. Restoring must
+     * not insert events or fire probes.
+     */
+    public interface Component {
+        public void saveState(DataOutput out) throws IOException;
+        public void restoreState(DataInput in) throws IOException;
+    }
+
+    /**
+     * The <code>Speculative</code> interface is implemented by state of a node that can be saved in memory
+     * for a later rollback. A component may implement it to save its state more cheaply than by writing it
+     * out, e.g. by sharing the unchanged parts with the state it saved last. State that refers to objects
+     * shared with other nodes implements only this interface and is registered with
+     * <code>Registry.addSpeculative()</code>.
+     */
+    public interface Speculative {
+        /**
+         * The <code>saveSpeculative()</code> method captures the current state. The returned object is
+         * never modified by the caller.
+         * @return an object holding the state
+         */
+        public Object saveSpeculative();
+
+        /**
+         * The <code>restoreSpeculative()</code> method restores a state captured earlier. The node will
+         * then run again exactly as before up to the specified time, so that changes it made to state
+         * shared with other nodes before that time remain valid and can be kept rather than undone. It is
+         * called after the pending events of the node have been restored and must not fire probes.
+         * @param state the state returned by an earlier call to <code>saveSpeculative()</code>
+         * @param time the time in clock cycles up to which the node will repeat its earlier execution
+         */
+        public void restoreSpeculative(Object state, long time);
+
+        /**
+         * The <code>commitSpeculative()</code> method informs the state that it will never be rolled back
+         * to a point before the specified state, so that any history kept for earlier states can be
+         * discarded.
+         * @param state the oldest state that may still be restored
+         */
+        public void commitSpeculative(Object state);
+    }
+
+    /**
+     * The <code>Registry</code> class collects the components and events of one simulator (or of the
+     * simulation as a whole) under stable names.
+     */
+    public static class Registry {
+        protected final LinkedHashMap components = new LinkedHashMap();
+        protected final LinkedHashMap speculative = new LinkedHashMap();
+        protected final HashMap events = new HashMap();
+        protected final IdentityHashMap eventNames = new IdentityHashMap();
+        protected String unsupported;
+
+        /**
+         * The <code>addComponent()</code> method registers a component whose state is part of a checkpoint.
+         * Components are saved and restored in the order in which they are registered.
+         * @param name the unique name of the component
+         * @param c the component
+         */
+        public void addComponent(String name, Component c) {
+            if ( components.containsKey(name) )
+                throw Util.failure("checkpoint component " + StringUtil.quote(name) + " registered twice");
+            components.put(name, c);
+        }
+
+        /**
+         * The <code>addEvent()</code> method registers an event that may be pending in the event queue when
+         * a checkpoint is taken.
+         * @param name the unique name of the event
+         * @param e the event
+         */
+        public void addEvent(String name, Simulator.Event e) {
+            if ( events.containsKey(name) )
+                throw Util.failure("checkpoint event " + StringUtil.quote(name) + " registered twice");
+            events.put(name, e);
+            eventNames.put(e, name);
+        }
+
+        /**
+         * The <code>removeEvent()</code> method removes a previously registered event, for example when a
+         * device replaces the event object with a new one.
+         * @param name the name of the event
+         */
+        public void removeEvent(String name) {
+            Object e = events.remove(name);
+            if ( e != null ) eventNames.remove(e);
+        }
+
+        /**
+         * The <code>addFSM()</code> method registers a finite state machine and its transition event.
+         * @param name the unique name of the state machine
+         * @param fsm the state machine
+         */
+        public void addFSM(String name, FiniteStateMachine fsm) {
+            addComponent(name, fsm);
+            addEvent(name + ".transition", fsm.transEvent);
+        }
+
+        /**
+         * The <code>addSpeculative()</code> method registers state that is only saved in snapshots held in
+         * memory. It replaces any state previously registered under the same name, e.g. when a radio is
+         * connected to a different medium.
+         * @param name the unique name of the state
+         * @param s the state
+         */
+        public void addSpeculative(String name, Speculative s) {
+            speculative.put(name, s);
+        }
+
+        /**
+         * The <code>addUnsupported()</code> method records that a device whose state cannot be saved is part
+         * of this simulator. Any attempt to save a checkpoint of the simulator will then fail with an error
+         * that names the device, rather than silently producing a checkpoint that does not resume correctly.
+         * @param name the name of the device
+         */
+        public void addUnsupported(String name) {
+            if ( unsupported == null ) unsupported = name;
+        }
+
+        protected void save(DataOutputStream out) throws IOException {
+            out.writeInt(components.size());
+            Iterator i = components.entrySet().iterator();
+            while ( i.hasNext() ) {
+                Map.Entry e = (Map.Entry)i.next();
+                ByteArrayOutputStream buf = new ByteArrayOutputStream();
+                DataOutputStream cout = new DataOutputStream(buf);
+                ((Component)e.getValue()).saveState(cout);
+                cout.flush();
+                out.writeUTF((String)e.getKey());
+                out.writeInt(buf.size());
+                buf.writeTo(out);
+            }
+        }
+
+        protected void restore(DataInputStream in) throws IOException {
+            int num = in.readInt();
+            if ( num != components.size() )
+                throw Util.failure("checkpoint has " + num + " components, but the simulation has " + components.size());
+            for ( int cntr = 0; cntr < num; cntr++ ) {
+                String name = in.readUTF();
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                Component c = (Component)components.get(name);
+                if ( c == null )
+                    throw Util.failure("checkpoint component " + StringUtil.quote(name) + " not found in simulation");
+                DataInputStream cin = new DataInputStream(new ByteArrayInputStream(data));
+                c.restoreState(cin);
+                if ( cin.available() != 0 )
+                    throw Util.failure("checkpoint component " + StringUtil.quote(name) + " does not match simulation");
+            }
+        }
+
+        protected Object[] saveSpeculative(Object[] prev) {
+            Object[] states = new Object[components.size() + speculative.size()];
+            int cntr = 0;
+            Iterator i = components.values().iterator();
+            while ( i.hasNext() ) {
+                Component c = (Component)i.next();
+                if ( c instanceof Speculative ) {
+                    states[cntr] = ((Speculative)c).saveSpeculative();
+                } else {
+                    byte[] data = saveBytes(c);
+                    // share the bytes of the last snapshot if the component has not changed since
+                    if ( prev != null && Arrays.equals(data, (byte[])prev[cntr]) ) data = (byte[])prev[cntr];
+                    states[cntr] = data;
+                }
+                cntr++;
+            }
+            i = speculative.values().iterator();
+            while ( i.hasNext() ) states[cntr++] = ((Speculative)i.next()).saveSpeculative();
+            return states;
+        }
+
+        protected void restoreSpeculative(Object[] states, long time) {
+            int cntr = 0;
+            Iterator i = components.values().iterator();
+            while ( i.hasNext() ) {
+                Component c = (Component)i.next();
+                if ( c instanceof Speculative ) {
+                    ((Speculative)c).restoreSpeculative(states[cntr], time);
+                } else {
+                    try {
+                        c.restoreState(new DataInputStream(new ByteArrayInputStream((byte[])states[cntr])));
+                    } catch (IOException e) {
+                        throw Util.unexpected(e);
+                    }
+                }
+                cntr++;
+            }
+            i = speculative.values().iterator();
+            while ( i.hasNext() ) ((Speculative)i.next()).restoreSpeculative(states[cntr++], time);
+        }
+
+        protected void commitSpeculative(Object[] states) {
+            int cntr = 0;
+            Iterator i = components.values().iterator();
+            while ( i.hasNext() ) {
+                Object c = i.next();
+                if ( c instanceof Speculative ) ((Speculative)c).commitSpeculative(states[cntr]);
+                cntr++;
+            }
+            i = speculative.values().iterator();
+            while ( i.hasNext() ) ((Speculative)i.next()).commitSpeculative(states[cntr++]);
+        }
+
+        private static byte[] saveBytes(Component c) {
+            try {
+                ByteArrayOutputStream buf = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(buf);
+                c.saveState(out);
+                out.flush();
+                return buf.toByteArray();
+            } catch (IOException e) {
+                throw Util.unexpected(e);
+            }
+        }
+    }
+
+    /**
+     * The <code>Snapshot</code> class holds the complete state of one node in memory, including all of its
+     * pending events, so that the node can later be rolled back to it while the other nodes keep running.
+     * Saving is incremental: components that have not changed since the previous snapshot of the node share
+     * its saved state, and components that implement <code>Speculative</code> save only what they need.
+     * A snapshot must be taken while the node is stopped at an instruction boundary.
+     */
+    public static class Snapshot {
+        public final long time;
+        protected final Object[] states;
+        protected final Simulator.Event[] events;
+        protected final long[] deltas;
+
+        /**
+         * The constructor for the <code>Snapshot</code> class captures the current state of a node.
+         * @param sim the simulator of the node
+         * @param prev the previous snapshot of the same node, or null if there is none
+         */
+        public Snapshot(Simulator sim, Snapshot prev) {
+            MainClock clock = sim.getClock();
+            time = clock.getCount();
+            states = sim.getCheckpointRegistry().saveSpeculative(prev == null ? null : prev.states);
+            final List el = new ArrayList();
+            final List dl = new ArrayList();
+            clock.accept(new EventQueue.Visitor() {
+                public void visit(Simulator.Event e, long delta) {
+                    el.add(e);
+                    dl.add(new Long(delta));
+                }
+            });
+            events = (Simulator.Event[])el.toArray(new Simulator.Event[el.size()]);
+            deltas = new long[events.length];
+            for ( int cntr = 0; cntr < deltas.length; cntr++ ) deltas[cntr] = ((Long)dl.get(cntr)).longValue();
+        }
+
+        /**
+         * The <code>restore()</code> method rolls the node back to the state in this snapshot, replacing
+         * every pending event with the events that were pending when the snapshot was taken. The node must
+         * then repeat its earlier execution up to the specified time, i.e. none of its inputs before that
+         * time may have changed since.
+         * @param sim the simulator of the node, which must be stopped
+         * @param until the time in clock cycles up to which the node will repeat its earlier execution
+         */
+        public void restore(Simulator sim, long until) {
+            MainClock clock = sim.getClock();
+            final List pending = new ArrayList();
+            clock.accept(new EventQueue.Visitor() {
+                public void visit(Simulator.Event e, long delta) {
+                    pending.add(e);
+                }
+            });
+            for ( int cntr = 0; cntr < pending.size(); cntr++ ) clock.removeEvent((Simulator.Event)pending.get(cntr));
+            clock.setCount(time);
+            // same-cycle events fire in reverse insertion order
+            for ( int cntr = events.length - 1; cntr >= 0; cntr-- ) clock.insertEvent(events[cntr], deltas[cntr]);
+            sim.getCheckpointRegistry().restoreSpeculative(states, until);
+        }
+
+        /**
+         * The <code>commit()</code> method informs the state of the node that it will never be rolled back
+         * to a point before this snapshot.
+         * @param sim the simulator of the node
+         */
+        public void commit(Simulator sim) {
+            sim.getCheckpointRegistry().commitSpeculative(states);
+        }
+    }
+
+    /**
+     * The <code>RandomComponent</code> class is a random number generator whose state can be saved. It
+     * produces exactly the same sequence as <code>java.util.Random</code>, whose seed is not accessible,
+     * by performing the same linear congruential step on a seed that it keeps itself.
+     */
+    public static class RandomComponent extends Random implements Component {
+        private static final long serialVersionUID = 1L;
+        private static final long MULTIPLIER = 0x5DEECE66DL;
+        private static final long ADDEND = 0xBL;
+        private static final long MASK = (1L << 48) - 1;
+
+        private long seed;
+
+        public RandomComponent(long s) {
+            super(s);
+        }
+
+        public synchronized void setSeed(long s) {
+            seed = (s ^ MULTIPLIER) & MASK;
+            super.setSeed(s);
+        }
+
+        protected synchronized int next(int bits) {
+            seed = (seed * MULTIPLIER + ADDEND) & MASK;
+            return (int)(seed >>> (48 - bits));
+        }
+
+        public synchronized void saveState(DataOutput out) throws IOException {
+            out.writeLong(seed);
+        }
+
+        public synchronized void restoreState(DataInput in) throws IOException {
+            seed = in.readLong();
+        }
+    }
+
+    /**
+     * The <code>save()</code> method writes the state of a simulation to the specified file. All nodes
+     * must have been stopped at an instruction boundary.
+     * @param sim the simulation to save
+     * @param fname the name of the file to create
+     * @throws IOException if the file cannot be written
+     */
+    public static void save(Simulation sim, String fname) throws IOException {
+        // check every node before creating the file
+        Iterator i = sim.getNodeIterator();
+        while ( i.hasNext() ) checkNode(((Simulation.Node)i.next()).getSimulator());
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(fname))));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sim.getNumberOfNodes());
+            sim.getCheckpointRegistry().save(out);
+            i = sim.getNodeIterator();
+            while ( i.hasNext() ) saveNode(((Simulation.Node)i.next()).getSimulator(), out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * The <code>restore()</code> method restores the state of a simulation from the specified file. The
+     * simulation must have been created with the same options as the one that was saved, and its nodes
+     * must have been instantiated but not yet started.
+     * @param sim the simulation to restore
+     * @param fname the name of the checkpoint file
+     * @throws IOException if the file cannot be read
+     */
+    public static void restore(Simulation sim, String fname) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(fname))));
+        try {
+            if ( in.readInt() != MAGIC )
+                throw Util.failure(StringUtil.quote(fname) + " is not a checkpoint file");
+            if ( in.readInt() != VERSION )
+                throw Util.failure(StringUtil.quote(fname) + " has an unsupported checkpoint version");
+            int num = in.readInt();
+            if ( num != sim.getNumberOfNodes() )
+                throw Util.failure("checkpoint has " + num + " nodes, but the simulation has " + sim.getNumberOfNodes());
+            sim.getCheckpointRegistry().restore(in);
+            Iterator i = sim.getNodeIterator();
+            while ( i.hasNext() ) restoreNode(((Simulation.Node)i.next()).getSimulator(), in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * The <code>checkNode()</code> method checks that the state of the specified node can be saved,
+     * reporting a user error if its interpreter or any of its devices does not support checkpoints.
+     * @param sim the simulator of the node to check
+     */
+    public static void checkNode(Simulator sim) {
+        Registry r = sim.getCheckpointRegistry();
+        if ( !r.components.containsKey("interpreter") )
+            Util.userError("Interpreter of node " + sim.getID() + " does not support checkpoints");
+        if ( r.unsupported != null )
+            Util.userError("Device of node " + sim.getID() + " does not support checkpoints", r.unsupported);
+    }
+
+    private static void saveNode(Simulator sim, DataOutputStream out) throws IOException {
+        final Registry r = sim.getCheckpointRegistry();
+        MainClock clock = sim.getClock();
+        out.writeInt(sim.getID());
+        out.writeLong(clock.getCount());
+        r.save(out);
+
+        final List names = new ArrayList();
+        final List deltas = new ArrayList();
+        clock.accept(new EventQueue.Visitor() {
+            public void visit(Simulator.Event e, long delta) {
+                String name = (String)r.eventNames.get(e);
+                if ( name == null ) return;
+                names.add(name);
+                deltas.add(new Long(delta));
+            }
+        });
+        out.writeInt(names.size());
+        for ( int cntr = 0; cntr < names.size(); cntr++ ) {
+            out.writeUTF((String)names.get(cntr));
+            out.writeLong(((Long)deltas.get(cntr)).longValue());
+        }
+    }
+
+    private static void restoreNode(Simulator sim, DataInputStream in) throws IOException {
+        Registry r = sim.getCheckpointRegistry();
+        MainClock clock = sim.getClock();
+        int id = in.readInt();
+        if ( id != sim.getID() )
+            throw Util.failure("checkpoint has node " + id + " where the simulation has node " + sim.getID());
+
+        // take out the events that the checkpoint accounts for, then move to the saved time
+        Iterator i = r.events.values().iterator();
+        while ( i.hasNext() ) clock.removeEvent((Simulator.Event)i.next());
+        clock.setCount(in.readLong());
+
+        r.restore(in);
+
+        int num = in.readInt();
+        Simulator.Event[] events = new Simulator.Event[num];
+        long[] deltas = new long[num];
+        for ( int cntr = 0; cntr < num; cntr++ ) {
+            String name = in.readUTF();
+            events[cntr] = (Simulator.Event)r.events.get(name);
+            if ( events[cntr] == null )
+                throw Util.failure("checkpoint event " + StringUtil.quote(name) + " not found in node " + id);
+            deltas[cntr] = in.readLong();
+        }
+        // same-cycle events fire in reverse insertion order
+        for ( int cntr = num - 1; cntr >= 0; cntr-- )
+            clock.insertEvent(events[cntr], deltas[cntr]);
+    }
+}
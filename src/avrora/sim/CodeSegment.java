@@ -36,7 +36,10 @@ import avrora.arch.legacy.*;
 import avrora.core.Program;
 import avrora.sim.util.MulticastProbe;
 import cck.util.Util;
+import java.io.*;
 import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
  * The <code>CodeSegment</code> class represents a segment of memory that stores executable
@@ -99,10 +102,64 @@ public class CodeSegment extends Segment {
      */
     protected LegacyInstr[] segment_instr;
 
-    protected final NoLegacyInstr NO_INSTR = new NoLegacyInstr();
+    // must be initialized before NO_INSTR, which is constructed with these properties
+    private static final LegacyInstrProperties NO_INSTR_PROPS = new LegacyInstrProperties("<none>", "<none>", 2, 1);
+
+    protected static final NoLegacyInstr NO_INSTR = new NoLegacyInstr();
 
     protected CodeSharer codeSharer;
 
+    /**
+     * The <code>sharedInstr</code> and <code>sharedData</code> fields record whether the instruction
+     * and byte arrays of this segment are still the ones shared with every other segment that loaded
+     * the same program. A segment makes a private copy of an array before it first modifies it.
+     */
+    protected boolean sharedInstr;
+    protected boolean sharedData;
+
+    /**
+     * The <code>writes</code> field counts the modifications of the flash bytes, so that a snapshot of an
+     * unmodified flash can share the bytes saved for the previous snapshot.
+     */
+    protected int writes;
+    protected int savedWrites;
+    protected byte[] savedData;
+
+    /**
+     * The <code>images</code> field caches the loaded image of each program, so that the nodes of a
+     * simulation that run the same program share one copy of the decoded instructions and flash bytes.
+     */
+    private static final Map images = new WeakHashMap();
+
+    /**
+     * The <code>Image</code> class holds the contents of the flash after a program has been loaded.
+     * Its arrays are shared between code segments and must never be modified.
+     */
+    private static class Image {
+        final LegacyInstr[] instr;
+        final byte[] data;
+
+        Image(Program p, int size) {
+            instr = new LegacyInstr[size];
+            data = new byte[size];
+            Arrays.fill(instr, NO_INSTR);
+            Arrays.fill(data, DEFAULT_VALUE);
+            for (int cntr = p.program_start; cntr < p.program_end;) {
+                LegacyInstr i = (LegacyInstr)p.readInstr(cntr);
+                if (i != null) {
+                    instr[cntr] = i;
+                    cntr += i.getSize();
+                } else {
+                    cntr += 2;
+                }
+            }
+
+            // now initialize the flash data
+            for (int cntr = p.program_start; cntr < p.program_end; cntr++)
+                data[cntr] = p.readProgramByte(cntr);
+        }
+    }
+
     /**
      * The <code>CodeSharer</code> interface is used to allow sharing of the underlying array
      * representing the code. Only the interpreter should share this representation. If there
@@ -147,20 +204,64 @@ public class CodeSegment extends Segment {
      * @param p the program to be loaded into the flash memory
      */
     public void load(Program p) {
-        Arrays.fill(segment_instr, NO_INSTR);
-        for (int cntr = p.program_start; cntr < p.program_end;) {
-            LegacyInstr i = (LegacyInstr)p.readInstr(cntr);
-            if (i != null) {
-                segment_instr[cntr] = i;
-                cntr += i.getSize();
-            } else {
-                cntr += 2;
+        Image image = getImage(p, length);
+        segment_instr = image.instr;
+        segment_data = image.data;
+        sharedInstr = true;
+        sharedData = true;
+        if ( codeSharer != null ) codeSharer.update(segment_instr);
+        if ( sharer != null ) sharer.update(segment_data);
+    }
+
+    private static Image getImage(Program p, int size) {
+        synchronized ( images ) {
+            Image image = (Image)images.get(p);
+            if ( image == null || image.data.length != size ) {
+                image = new Image(p, size);
+                images.put(p, image);
             }
+            return image;
         }
+    }
 
-        // now initialize the flash data
-        for (int cntr = p.program_start; cntr < p.program_end; cntr++)
-            segment_data[cntr] = p.readProgramByte(cntr);
+    /**
+     * The <code>share()</code> method allows sharing of the underlying array representing the values of
+     * memory. Since the caller may write to the array, the segment first makes a private copy of it.
+     * @param s the sharer to allow access to this segment's internal data
+     * @return the byte array that is the underlying representation of the memory
+     */
+    public byte[] share(Sharer s) {
+        unshareData();
+        return super.share(s);
+    }
+
+    protected void direct_write(int address, byte val) {
+        unshareData();
+        writes++;
+        segment_data[address] = val;
+    }
+
+    /**
+     * The <code>unshareData()</code> method gives this segment a private copy of its bytes if they are
+     * still shared with other segments.
+     */
+    protected void unshareData() {
+        if ( sharedData ) {
+            segment_data = (byte[])segment_data.clone();
+            sharedData = false;
+            if ( sharer != null ) sharer.update(segment_data);
+        }
+    }
+
+    /**
+     * The <code>unshareInstr()</code> method gives this segment a private copy of its instructions if
+     * they are still shared with other segments.
+     */
+    protected void unshareInstr() {
+        if ( sharedInstr ) {
+            segment_instr = (LegacyInstr[])segment_instr.clone();
+            sharedInstr = false;
+        }
     }
 
     /**
@@ -238,8 +339,80 @@ public class CodeSegment extends Segment {
         }
     }
 
+    /**
+     * The <code>saveState()</code> method writes the contents of the flash to a checkpoint. The decoded
+     * instructions are not saved; they are derived from the program and from the flash contents.
+     * @param out the output to write the state to
+     * @throws IOException if the state cannot be written
+     */
+    public void saveState(DataOutput out) throws IOException {
+        out.writeInt(segment_data.length);
+        out.write(segment_data);
+    }
+
+    /**
+     * The <code>restoreState()</code> method restores the contents of the flash from a checkpoint. Each
+     * byte that differs from the current contents is updated with <code>restoreByte()</code>.
+     * @param in the input to read the state from
+     * @throws IOException if the state cannot be read
+     */
+    public void restoreState(DataInput in) throws IOException {
+        if ( in.readInt() != segment_data.length )
+            throw Util.failure("checkpoint flash size does not match program");
+        byte[] data = new byte[segment_data.length];
+        in.readFully(data);
+        for ( int cntr = 0; cntr < data.length; cntr++ ) {
+            if ( data[cntr] != segment_data[cntr] ) restoreByte(cntr, data[cntr]);
+        }
+    }
+
+    /**
+     * The <code>restoreByte()</code> method updates a single byte of the flash while a checkpoint is
+     * restored. In a segment that cannot be reprogrammed, flash only changes through
+     * <code>AtmelInterpreter.writeFlashByte()</code>, which does not redecode instructions either.
+     * @param address the address of the byte
+     * @param val the new value of the byte
+     */
+    protected void restoreByte(int address, byte val) {
+        unshareData();
+        writes++;
+        segment_data[address] = val;
+    }
+
+    /**
+     * The <code>saveSpeculative()</code> method saves the contents of the flash in memory. The bytes are
+     * only copied if the flash was written since the last time they were saved; bytes that are still
+     * shared with other segments are never modified and are not copied at all.
+     * @return an object holding the contents of the flash
+     */
+    public Object saveSpeculative() {
+        if ( savedData == null || savedWrites != writes ) {
+            savedData = sharedData ? segment_data : (byte[])segment_data.clone();
+            savedWrites = writes;
+        }
+        return savedData;
+    }
+
+    /**
+     * The <code>restoreSpeculative()</code> method restores the contents of the flash saved by
+     * <code>saveSpeculative()</code>, updating each byte that differs with <code>restoreByte()</code>.
+     * @param state the object returned by <code>saveSpeculative()</code>
+     * @param time the time up to which the node will repeat its earlier execution
+     */
+    public void restoreSpeculative(Object state, long time) {
+        byte[] data = (byte[])state;
+        if ( data == savedData && savedWrites == writes ) return;
+        for ( int cntr = 0; cntr < data.length; cntr++ ) {
+            if ( data[cntr] != segment_data[cntr] ) restoreByte(cntr, data[cntr]);
+        }
+        savedData = data;
+        savedWrites = writes;
+    }
+
     protected void writeInstr(int address, LegacyInstr i) {
+        unshareInstr();
         segment_instr[address] = i;
+        if ( codeSharer != null ) codeSharer.update(segment_instr);
     }
 
     /**
@@ -303,9 +476,7 @@ public class CodeSegment extends Segment {
         }
     }
 
-    static LegacyInstrProperties NO_INSTR_PROPS = new LegacyInstrProperties("<none>", "<none>", 2, 1);
-
-    private class NoLegacyInstr extends LegacyInstr {
+    private static class NoLegacyInstr extends LegacyInstr {
 
         NoLegacyInstr() {
             super(NO_INSTR_PROPS);
@@ -330,7 +501,10 @@ public class CodeSegment extends Segment {
          * @param v the visitor to accept
          */
         public void accept(LegacyInstrVisitor v) {
-            throw new InterpreterError.NoSuchInstructionException(interpreter.getState().getPC());
+            // the instruction is shared by all segments, so only an interpreter can tell where it is
+            if (v instanceof AtmelInterpreter)
+                throw new InterpreterError.NoSuchInstructionException(((AtmelInterpreter)v).getState().getPC());
+            throw Util.failure("no instruction here");
         }
 
         /**
@@ -35,6 +35,7 @@ package avrora.sim;
 import avrora.sim.clock.Clock;
 import avrora.sim.util.MulticastFSMProbe;
 import cck.util.Util;
+import java.io.*;
 
 /**
  * The <code>FiniteStateMachine</code> class represents a model of a finite state machine that
@@ -42,7 +43,7 @@ import cck.util.Util;
  *
  * @author Ben L. Titzer
  */
-public class FiniteStateMachine {
+public class FiniteStateMachine implements Checkpoint.Component {
 
     /**
      * The <code>Probe</code> interface allows observation of the state changes of a finite
@@ -308,6 +309,30 @@ public class FiniteStateMachine {
         return states[state].name;
     }
 
+    /**
+     * The <code>saveState()</code> method writes the current state of this machine, including a transition
+     * that is in progress, to a checkpoint. The pending transition event itself is saved with the event queue.
+     * @param out the output to write the state to
+     * @throws IOException if the state cannot be written
+     */
+    public void saveState(DataOutput out) throws IOException {
+        out.writeInt(curState);
+        out.writeInt(transEvent.oldState);
+        out.writeInt(transEvent.newState);
+    }
+
+    /**
+     * The <code>restoreState()</code> method restores the state of this machine from a checkpoint. No probes
+     * are fired.
+     * @param in the input to read the state from
+     * @throws IOException if the state cannot be read
+     */
+    public void restoreState(DataInput in) throws IOException {
+        curState = in.readInt();
+        transEvent.oldState = in.readInt();
+        transEvent.newState = in.readInt();
+    }
+
     /**
      * The <code>getCurrentStateName()</code> method retrieves the name for the current state.
      * @return a string representation of the name of the current state
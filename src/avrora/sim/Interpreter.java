@@ -54,6 +54,15 @@ public abstract class Interpreter {
      */
     protected boolean innerLoop;
 
+    /**
+     * The <code>breakLoop()</code> method breaks out of the execution loop after the current instruction
+     * when something in the simulation changes, so that the interpreter checks for interrupts before
+     * the next instruction.
+     */
+    protected void breakLoop() {
+        innerLoop = false;
+    }
+
     /**
      * The <code>simulator</code> field stores a reference to the simulator that this interpreter instance
      * corresponds to. There should be a one-to-one mapping between instances of the <code>Simulator</code>
@@ -131,6 +140,16 @@ public abstract class Interpreter {
      */
     public abstract State getState();
 
+    /**
+     * The <code>isIdle()</code> method returns whether this interpreter is asleep with no interrupt that
+     * could wake it. An idle node does nothing until the next event in its queue fires, which allows a
+     * synchronizer to treat it as having already reached the time of that event.
+     * @return true if the node will not execute any instructions before its next event fires
+     */
+    public boolean isIdle() {
+        return false;
+    }
+
     protected Interpreter(Simulator sim) {
         // set up the reference to the simulator
         this.simulator = sim;
@@ -53,4 +53,15 @@ public abstract class InterpreterFactory {
      * @return a new instance of the <code>Interpreter</code> class for the program
      */
     public abstract Interpreter newInterpreter(Simulator s, Program p, MCUProperties pr);
+
+    /**
+     * The <code>skipBusyWaits()</code> method returns a factory for interpreters of the same kind that
+     * detect busy-wait loops and skip their iterations up to the next event. Interpreters that cannot
+     * detect busy-wait loops ignore this request and return this factory.
+     * @return an instance of the <code>InterpreterFactory</code> class that creates interpreters which
+     * skip busy-wait loops
+     */
+    public InterpreterFactory skipBusyWaits() {
+        return this;
+    }
 }
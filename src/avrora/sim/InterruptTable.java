@@ -34,6 +34,7 @@ package avrora.sim;
 
 import avrora.sim.util.MulticastInterruptProbe;
 import cck.util.Arithmetic;
+import java.io.*;
 
 /**
  * The <code>InterruptTable</code> class encapsulates the functionality relating to handling
@@ -87,7 +88,7 @@ public class InterruptTable {
      * @param inum the interrupt number to post
      */
     public void post(int inum) {
-        interpreter.innerLoop = false;
+        interpreter.breakLoop();
         posted = Arithmetic.setBit(posted, inum, true);
         pending = posted & enabled;
         MulticastInterruptProbe probe = probes[inum];
@@ -308,4 +309,26 @@ public class InterruptTable {
     public int getNumberOfInterrupts() {
         return numInterrupts;
     }
+
+    /**
+     * The <code>saveState()</code> method writes the posted and enabled interrupts to a checkpoint.
+     * @param out the output to write the state to
+     * @throws IOException if the state cannot be written
+     */
+    public void saveState(DataOutput out) throws IOException {
+        out.writeLong(posted);
+        out.writeLong(enabled);
+    }
+
+    /**
+     * The <code>restoreState()</code> method restores the posted and enabled interrupts from a checkpoint
+     * without firing any interrupt probes.
+     * @param in the input to read the state from
+     * @throws IOException if the state cannot be read
+     */
+    public void restoreState(DataInput in) throws IOException {
+        posted = in.readLong();
+        enabled = in.readLong();
+        pending = posted & enabled;
+    }
 }
@@ -35,6 +35,8 @@ package avrora.sim;
 import avrora.Defaults;
 import avrora.core.LoadableProgram;
 import avrora.monitors.MonitorFactory;
+import avrora.sim.clock.EventQueue;
+import avrora.sim.clock.MainClock;
 import avrora.sim.clock.Synchronizer;
 import avrora.sim.mcu.MicrocontrollerFactory;
 import avrora.sim.mcu.AtmelMicrocontroller;
@@ -74,6 +76,22 @@ public abstract class Simulation extends HelpCategory {
     public final Option.Str MCU = newOption("mcu", "atmega128",
             "This option selects the microcontroller from a library of supported " +
             "microcontroller models.");
+    public final Option.Str INTERPRETER = newOption("interpreter", "legacy",
+            "This option selects the execution engine used to interpret AVR programs in the " +
+            "simulator. The \"legacy\" interpreter dispatches each instruction separately. The " +
+            "\"lazy-flags\" interpreter computes the status flags only when an instruction or the " +
+            "simulator actually reads them.");
+    public final Option.Bool SKIP_BUSY_WAITS = newOption("skip-busy-waits", false,
+            "This option enables the detection of busy-wait loops in the \"legacy\" and \"lazy-flags\" " +
+            "interpreters. A busy-wait loop is a small loop that only polls IO registers or memory, for " +
+            "example waiting for a flag of the USART, SPI or ADC to be set. When an iteration of such a " +
+            "loop leaves the state of the program unchanged, the interpreter skips the iterations up to " +
+            "the next event, keeping the cycle count exact.");
+    public final Option.Str EVENT_QUEUE = newOption("event-queue", "delta",
+            "This option selects the data structure that stores the events scheduled on the clock of " +
+            "each node. The \"delta\" queue is a list of the differences between the event times, while " +
+            "the \"wheel\" queue is a hierarchical timing wheel that inserts and removes events in " +
+            "constant time. Both fire the events in exactly the same order.");
     public final Option.Long RANDOMSEED = newOption("random-seed", 0,
             "This option is used to seed a pseudo-random number generator used in the " +
             "simulation. If this option is set to non-zero, then its value is used as " +
@@ -82,7 +100,8 @@ public abstract class Simulation extends HelpCategory {
             "chosen based on system parameters that vary from run to run.");
     public final Option.Double SECONDS = newOption("seconds", 0.0,
             "This option is used to terminate the " +
-            "simulation after the specified number of simulated seconds have passed.");
+            "simulation after the specified number of simulated seconds have passed. In a simulation " +
+            "resumed from a checkpoint, the time still counts from the start of the original simulation.");
     public final Option.List MONITORS = newOptionList("monitors", "",
             "This option specifies a list of monitors to be attached to the program. " +
             "Monitors collect information about the execution of the program while it " +
@@ -125,6 +144,7 @@ public abstract class Simulation extends HelpCategory {
         protected Platform platform;
         protected Simulator simulator;
         protected SimulatorThread thread;
+        protected ClockCycleTimeout timeout;
 
         /**
          * The constructor for the <code>Node</code> class creates a representation of a new node that
@@ -151,7 +171,7 @@ public abstract class Simulation extends HelpCategory {
          */
         protected void instantiate() {
             // create the simulator object
-            platform = platformFactory.newPlatform(id, path.getProgram());
+            platform = platformFactory.newPlatform(id, getInterpreter(), getEventQueue(), path.getProgram());
             simulator = platform.getMicrocontroller().getSimulator();
             processTimeout();
             processInterruptSched();
@@ -184,10 +204,26 @@ public abstract class Simulation extends HelpCategory {
             double secs = SECONDS.get();
             if ( secs > 0 ) {
                 long cycles = (long)(secs * simulator.getClock().getHZ());
-                simulator.insertEvent(new ClockCycleTimeout(simulator, cycles), cycles);
+                timeout = new ClockCycleTimeout(simulator, cycles);
+                simulator.insertEvent(timeout, cycles);
             }
         }
 
+        /**
+         * The <code>restoreTimeout()</code> method moves the timeout of this node after its state has been
+         * restored from a checkpoint, so that the timeout still counts from the start of the simulation
+         * rather than from the restore point.
+         */
+        protected void restoreTimeout() {
+            if ( timeout == null ) return;
+            MainClock clock = simulator.getClock();
+            long delta = timeout.timeout - clock.getCount();
+            if ( delta <= 0 )
+                Util.userError("Checkpoint is not before the end of the simulation", "node " + id);
+            clock.removeEvent(timeout);
+            simulator.insertEvent(timeout, delta);
+        }
+
         private void processInterruptSched() {
             if ( id != 0 ) return;
             if ( !SCHEDULE.isBlank() ) {
@@ -303,6 +339,11 @@ public abstract class Simulation extends HelpCategory {
 
     protected Synchronizer synchronizer;
 
+    protected final Checkpoint.Registry checkpointRegistry = new Checkpoint.Registry();
+    protected String restoreFile;
+    protected double checkpointSeconds;
+    protected LinkedList checkpointEvents;
+
     /**
      * The construcotr for the <code>Simulation</code> class creates a new simulation. This is intended to be
      * called only by subclasses of Simulation, and expects a short string representing the name of the simulation
@@ -377,12 +418,75 @@ public abstract class Simulation extends HelpCategory {
     public Random getRandom() {
         if ( random == null ) {
             long seed = RANDOMSEED.get();
-            if ( seed != 0 ) random = new Random(seed);
-            else random = new Random();
+            if ( seed == 0 ) seed = new Random().nextLong();
+            Checkpoint.RandomComponent r = new Checkpoint.RandomComponent(seed);
+            checkpointRegistry.addComponent("random", r);
+            random = r;
         }
         return random;
     }
 
+    /**
+     * The <code>getCheckpointRegistry()</code> method retrieves the registry for state that is shared by
+     * the nodes of this simulation, such as the random number generator and radio media, and that must
+     * be saved in a checkpoint. The state of each node is registered with its own simulator.
+     * @return a reference to the checkpoint registry of this simulation
+     */
+    public Checkpoint.Registry getCheckpointRegistry() {
+        return checkpointRegistry;
+    }
+
+    /**
+     * The <code>restoreFrom()</code> method requests that the simulation, when it is started, resumes from
+     * the specified checkpoint file instead of from the reset state. The simulation must be configured with
+     * the same options and programs as the one that was saved.
+     * @param fname the name of the checkpoint file
+     */
+    public void restoreFrom(String fname) {
+        restoreFile = fname;
+    }
+
+    /**
+     * The <code>checkpointAt()</code> method requests that every node stops at the first instruction
+     * boundary after the specified simulated time, so that the state of the simulation can be saved with
+     * <code>Checkpoint.save()</code> after it has been joined.
+     * @param seconds the simulated time in seconds at which to stop the nodes
+     */
+    public void checkpointAt(double seconds) {
+        checkpointSeconds = seconds;
+    }
+
+    /**
+     * The <code>reachedCheckpoint()</code> method checks whether every node of the simulation was stopped
+     * at the time requested with <code>checkpointAt()</code>, rather than terminating before it.
+     * @return true if all of the nodes reached the checkpoint time; false otherwise
+     */
+    public boolean reachedCheckpoint() {
+        if ( checkpointEvents == null ) return false;
+        Iterator i = checkpointEvents.iterator();
+        while ( i.hasNext() ) {
+            if ( !((CheckpointEvent)i.next()).reached ) return false;
+        }
+        return true;
+    }
+
+    /**
+     * The <code>CheckpointEvent</code> class stops a node when the checkpoint time is reached.
+     */
+    protected static class CheckpointEvent implements Simulator.Event {
+        protected final Simulator simulator;
+        protected boolean reached;
+
+        CheckpointEvent(Simulator s) {
+            simulator = s;
+        }
+
+        public void fire() {
+            reached = true;
+            simulator.stop();
+        }
+    }
+
     private void grow() {
         Node[] nnodes = new Node[nodes.length*2];
         System.arraycopy(nodes, 0, nnodes, 0, nodes.length);
@@ -425,6 +529,8 @@ public abstract class Simulation extends HelpCategory {
         if ( running ) return;
 
         instantiateNodes();
+        if ( restoreFile != null ) restoreCheckpoint();
+        if ( checkpointSeconds > 0 ) scheduleCheckpoint();
         synchronizer.start();
         running = true;
     }
@@ -440,6 +546,33 @@ public abstract class Simulation extends HelpCategory {
         }
     }
 
+    protected void restoreCheckpoint() {
+        try {
+            Checkpoint.restore(this, restoreFile);
+        } catch (IOException e) {
+            throw Util.unexpected(e);
+        }
+        for ( int cntr = 0; cntr < nodes.length; cntr++ ) {
+            if ( nodes[cntr] != null ) nodes[cntr].restoreTimeout();
+        }
+    }
+
+    protected void scheduleCheckpoint() {
+        checkpointEvents = new LinkedList();
+        for ( int cntr = 0; cntr < nodes.length; cntr++ ) {
+            Node n = nodes[cntr];
+            if ( n == null ) continue;
+            Checkpoint.checkNode(n.simulator);
+            MainClock clock = n.simulator.getClock();
+            long delta = (long)(checkpointSeconds * clock.getHZ()) - clock.getCount();
+            if ( delta <= 0 )
+                throw Util.failure("checkpoint time is not after the start of node " + n.id);
+            CheckpointEvent e = new CheckpointEvent(n.simulator);
+            n.simulator.insertEvent(e, delta);
+            checkpointEvents.add(e);
+        }
+    }
+
     /**
      * The <code>pause()</code> method pauses the simulation. This method is synchronous in the sense that it will
      * not return until all nodes in the simulation are guaranteed to be paused (i.e. no longer making progress).
@@ -569,6 +702,25 @@ public abstract class Simulation extends HelpCategory {
         }
     }
 
+    /**
+     * The <code>getInterpreter()</code> method is a helper method that consults the value of the
+     * \"interpreter\" and \"skip-busy-waits\" command line options and returns the factory for the
+     * interpreters of the nodes.
+     * @return an instance of the <code>InterpreterFactory</code> class for the selected interpreter
+     */
+    protected InterpreterFactory getInterpreter() {
+        return Defaults.getInterpreter(INTERPRETER.get(), SKIP_BUSY_WAITS.get());
+    }
+
+    /**
+     * The <code>getEventQueue()</code> method is a helper method that consults the value of the
+     * \"event-queue\" command line option and returns the factory for the event queues of the nodes.
+     * @return an instance of the <code>EventQueue.Factory</code> interface for the selected queue
+     */
+    protected EventQueue.Factory getEventQueue() {
+        return Defaults.getEventQueue(EVENT_QUEUE.get());
+    }
+
     /**
      * The <code>processMonitorList()</code> method builds a list of <code>MonitorFactory</code> instances
      * from the list of strings given as an option at the command line. The list of
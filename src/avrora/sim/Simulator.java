@@ -35,6 +35,7 @@ package avrora.sim;
 import avrora.arch.legacy.LegacyInstr;
 import avrora.core.Program;
 import avrora.sim.clock.MainClock;
+import avrora.sim.mcu.DefaultMCU;
 import avrora.sim.mcu.Microcontroller;
 import avrora.sim.output.EventBuffer;
 
@@ -82,6 +83,12 @@ public class Simulator {
      */
     protected EventBuffer events;
 
+    /**
+     * The <code>checkpointRegistry</code> field stores the components and events of this node that are saved
+     * in a checkpoint.
+     */
+    protected final Checkpoint.Registry checkpointRegistry = new Checkpoint.Registry();
+
     /**
      * The constructor creates the internal data structures and initial state of the processor. It constructs
      * an instance of the simulator that is ready to have devices attached, IO registers probed, and probes
@@ -99,6 +106,12 @@ public class Simulator {
         clock = mcu.getClockDomain().getMainClock();
         interpreter = f.newInterpreter(this, program, microcontroller.getProperties());
         events = new EventBuffer(this, 16, EventBuffer.WRAPAROUND);
+
+        // the pins and sleep mode of the microcontroller follow the processor state in a checkpoint
+        if ( mcu instanceof DefaultMCU ) {
+            checkpointRegistry.addComponent("mcu", (DefaultMCU)mcu);
+            checkpointRegistry.addFSM("mcu.sleep", ((DefaultMCU)mcu).getFSM());
+        }
     }
 
     /**
@@ -449,6 +462,15 @@ public class Simulator {
         return events;
     }
 
+    /**
+     * The <code>getCheckpointRegistry()</code> method retrieves the registry in which the interpreter and
+     * the devices of this node register the state that is saved in a checkpoint.
+     * @return a reference to the checkpoint registry of this simulator
+     */
+    public Checkpoint.Registry getCheckpointRegistry() {
+        return checkpointRegistry;
+    }
+
     /**
      * The <code>getID()</code> method simply returns this node's unique ID.
      * @return the unique ID of this node
@@ -95,8 +95,8 @@ public class SimulatorThread extends Thread {
      */
     public void run() {
         try {
-            Simulator simulator = node.getSimulator();
-            simulator.start();
+            if ( synchronizer != null ) synchronizer.runNode(node);
+            else node.getSimulator().start();
         } catch (SimAction.TimeoutException te) {
             // suppress timeout exceptions.
         } catch (SimAction.BreakPointException e) {
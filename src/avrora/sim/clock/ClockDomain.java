@@ -49,12 +49,14 @@ public class ClockDomain {
 
     /**
      * The constructor for the <code>ClockDomain</code> class constructs the main clock (from which
-     * all other clocks are derived). It accepts as a parameter the speed of the main clock.
+     * all other clocks are derived). It accepts as a parameter the speed of the main clock and the
+     * factory that creates the event queue of the main clock.
      * @param mainHz the speed of the main clock in cycles per second
+     * @param qf the factory that creates the event queue of the main clock
      */
-    public ClockDomain(long mainHz) {
+    public ClockDomain(long mainHz, EventQueue.Factory qf) {
         clockMap = new HashMap();
-        mainClock = new MainClock("main", mainHz);
+        mainClock = new MainClock("main", mainHz, qf);
         clockMap.put("main", mainClock);
     }
 
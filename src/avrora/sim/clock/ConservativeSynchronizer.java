@@ -0,0 +1,583 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package avrora.sim.clock;
+
+import avrora.actions.SimAction;
+import avrora.sim.Simulation;
+import avrora.sim.Simulator;
+import cck.text.StringUtil;
+import cck.text.Terminal;
+import cck.util.Util;
+import java.util.*;
+
+/**
+ * The <code>ConservativeSynchronizer</code> class implements a synchronizer that runs the nodes of a
+ * simulation on a fixed-size pool of worker threads rather than one thread per node. Each node is executed
+ * in batches; a batch runs the node up to its safe horizon, which is the earliest time of any other node
+ * plus the lookahead. The lookahead is the smallest distance between a node's time and the time that it
+ * waits for, as declared through <code>addLookahead()</code> (e.g. by the radio medium), so that a node
+ * running within its horizon never needs to block waiting for its neighbors.
+ * <p/>
+ * If a node does need to wait (e.g. because an event fired slightly past the horizon), its worker thread
+ * blocks and another worker is started in its place, so that the nodes being waited on can always make
+ * progress.
+ */
+public class ConservativeSynchronizer extends Synchronizer {
+
+    protected final int numWorkers;
+    protected final HashMap nodeMap;
+    protected final HashMap simMap;
+    protected final LinkedList nodeList;
+    protected final LinkedList ready;
+    protected NodeState[] nodes;
+
+    /**
+     * The <code>times</code> field stores the live nodes ordered by their time, which gives the earliest
+     * and second earliest times without scanning all of the nodes.
+     */
+    protected final NodeHeap times;
+
+    /**
+     * The <code>waiting</code> field stores the nodes that are neither running nor ready because they
+     * have reached their horizon, ordered by their time.
+     */
+    protected final NodeHeap waiting;
+
+    /**
+     * The <code>lookahead</code> field stores the minimum number of cycles between the time of any node and
+     * the time that it waits for its neighbors to reach. <code>Long.MAX_VALUE</code> indicates that the nodes
+     * do not wait for each other at all.
+     */
+    protected long lookahead;
+
+    protected int workers;
+    protected int blocked;
+    protected int live;
+    protected int workerCount;
+    protected boolean started;
+    protected boolean stopped;
+
+    protected NodeState minNode;
+    protected long minTime;
+    protected long nextTime;
+
+    /**
+     * The constructor for the <code>ConservativeSynchronizer</code> class creates a new synchronizer that
+     * will run the nodes on the specified number of worker threads.
+     * @param w the number of worker threads to run the nodes on
+     */
+    public ConservativeSynchronizer(int w) {
+        numWorkers = w;
+        nodeMap = new HashMap();
+        simMap = new HashMap();
+        nodeList = new LinkedList();
+        ready = new LinkedList();
+        times = new NodeHeap(0);
+        waiting = new NodeHeap(1);
+        lookahead = Long.MAX_VALUE;
+    }
+
+    /**
+     * The <code>NodeHeap</code> class implements a binary heap of nodes ordered by their time. Each node
+     * records its position in the heap so that it can be removed or its time updated in logarithmic time.
+     */
+    protected static class NodeHeap {
+        protected final int slot;
+        protected NodeState[] heap;
+        protected int size;
+
+        protected NodeHeap(int s) {
+            slot = s;
+            heap = new NodeState[16];
+        }
+
+        protected NodeState first() {
+            return size > 0 ? heap[0] : null;
+        }
+
+        protected long secondTime() {
+            if ( size < 2 ) return Long.MAX_VALUE;
+            if ( size == 2 ) return heap[1].time;
+            return Math.min(heap[1].time, heap[2].time);
+        }
+
+        protected void add(NodeState n) {
+            if ( size == heap.length ) {
+                NodeState[] nheap = new NodeState[heap.length * 2];
+                System.arraycopy(heap, 0, nheap, 0, size);
+                heap = nheap;
+            }
+            siftUp(n, size++);
+        }
+
+        protected void remove(NodeState n) {
+            int pos = n.heapPos[slot];
+            if ( pos < 0 ) return;
+            n.heapPos[slot] = -1;
+            NodeState last = heap[--size];
+            heap[size] = null;
+            if ( last != n ) {
+                siftUp(last, pos);
+                if ( heap[pos] == last ) siftDown(last, pos);
+            }
+        }
+
+        protected void update(NodeState n) {
+            siftDown(n, n.heapPos[slot]);
+        }
+
+        protected void lower(NodeState n) {
+            int pos = n.heapPos[slot];
+            if ( pos >= 0 ) siftUp(n, pos);
+        }
+
+        private void siftUp(NodeState n, int pos) {
+            while ( pos > 0 ) {
+                int parent = (pos - 1) >> 1;
+                NodeState p = heap[parent];
+                if ( p.time <= n.time ) break;
+                place(p, pos);
+                pos = parent;
+            }
+            place(n, pos);
+        }
+
+        private void siftDown(NodeState n, int pos) {
+            while ( true ) {
+                int child = 2 * pos + 1;
+                if ( child >= size ) break;
+                if ( child + 1 < size && heap[child + 1].time < heap[child].time ) child++;
+                NodeState c = heap[child];
+                if ( n.time <= c.time ) break;
+                place(c, pos);
+                pos = child;
+            }
+            place(n, pos);
+        }
+
+        private void place(NodeState n, int pos) {
+            heap[pos] = n;
+            n.heapPos[slot] = pos;
+        }
+    }
+
+    /**
+     * The <code>NodeState</code> class stores the scheduling state of a node. It is also the event that
+     * is inserted into the node's queue at the horizon of a batch to stop the node.
+     */
+    protected class NodeState implements Simulator.Event {
+        protected final Simulation.Node node;
+        protected final Simulator simulator;
+        protected final MainClock clock;
+
+        /**
+         * The <code>time</code> field stores a lower bound on the time of the node; it is exact while the
+         * node is not running.
+         */
+        protected long time;
+
+        /**
+         * The <code>safe</code> field stores the time that all other nodes were known to have reached
+         * when the current batch began, so that most waits can return without taking the lock.
+         */
+        protected long safe;
+        protected long horizon;
+
+        protected boolean running;
+        protected boolean paused;
+        protected boolean done;
+        protected final int[] heapPos = { -1, -1 };
+
+        /**
+         * The <code>inbox</code> field stores the events inserted by other nodes that have not yet been
+         * transferred into the queue of this node, as pairs of the time and the event.
+         */
+        protected final LinkedList inbox = new LinkedList();
+
+        protected NodeState(Simulation.Node n) {
+            node = n;
+            simulator = n.getSimulator();
+            clock = simulator.getClock();
+        }
+
+        /**
+         * The <code>fire()</code> method is called when the node reaches the horizon of its current batch.
+         * It stops the simulator so that the worker thread can move on to another node.
+         */
+        public void fire() {
+            paused = true;
+            simulator.stop();
+        }
+    }
+
+    /**
+     * The <code>Worker</code> class implements a thread of the pool that repeatedly takes a node that is
+     * ready and runs it up to its horizon.
+     */
+    protected class Worker extends Thread {
+        protected NodeState current;
+
+        protected Worker(int num) {
+            super("worker-" + num);
+        }
+
+        public void run() {
+            try {
+                for ( NodeState n = nextNode(); n != null; n = nextNode() ) {
+                    current = n;
+                    runBatch(n);
+                    current = null;
+                }
+            } finally {
+                retire();
+            }
+        }
+
+        private void runBatch(NodeState n) {
+            boolean finished = true;
+            try {
+                if ( n.horizon != Long.MAX_VALUE )
+                    n.clock.insertEvent(n, n.horizon - n.clock.getCount());
+                n.paused = false;
+                n.simulator.start();
+                finished = !n.paused;
+            } catch (SimAction.TimeoutException te) {
+                // suppress timeout exceptions.
+            } catch (SimAction.BreakPointException e) {
+                Terminal.printYellow("Simulation terminated");
+                Terminal.println(": breakpoint at " + StringUtil.addrToString(e.address) + " reached.");
+            } catch (Util.Error e) {
+                e.report();
+            } finally {
+                finishBatch(n, finished);
+            }
+        }
+    }
+
+    /**
+     * The <code>addNode()</code> method adds a node to this synchronization group.
+     * This method should only be called before the <code>start()</code> method is
+     * called.
+     * @param n the simulator representing the node to add to this group
+     */
+    public synchronized void addNode(Simulation.Node n) {
+        if ( nodeMap.containsKey(n) ) return;
+        NodeState s = new NodeState(n);
+        nodeMap.put(n, s);
+        simMap.put(s.simulator, s);
+        nodeList.add(s);
+    }
+
+    /**
+     * The <code>removeNode()</code> method removes a node from this synchronization
+     * group, and wakes any nodes that might be waiting on it.
+     * @param n the simulator thread to remove from this synchronization group
+     */
+    public synchronized void removeNode(Simulation.Node n) {
+        NodeState s = (NodeState)nodeMap.get(n);
+        if ( s == null ) return;
+        if ( !started ) {
+            nodeMap.remove(n);
+            simMap.remove(s.simulator);
+            nodeList.remove(s);
+            return;
+        }
+        if ( s.running ) s.simulator.stop();
+        waiting.remove(s);
+        markDone(s);
+        schedule();
+    }
+
+    /**
+     * The <code>addLookahead()</code> method informs this synchronizer of the minimum distance between a
+     * node's time and the time that it waits for. The smallest value is used as the lookahead.
+     * @param cycles the minimum distance in clock cycles between a node's time and the time it
+     * waits for
+     */
+    public synchronized void addLookahead(long cycles) {
+        if ( cycles > 0 && cycles < lookahead ) lookahead = cycles;
+    }
+
+    /**
+     * The <code>insertEvent()</code> method inserts an event into the queue of another node. Since the
+     * target may be running in another worker thread, the event is stored in the target's inbox and
+     * transferred to its queue before its next batch; the lookahead guarantees that this batch does not
+     * start later than the event. If the target is not running and its time had been advanced past the
+     * event (e.g. because it was idle), its time is moved back. The sending node may be running towards a
+     * horizon that was computed from the later time of the target, so its horizon is moved back as well,
+     * so that it cannot run past an answer from the target.
+     * @param target the simulator of the node into whose queue to insert the event
+     * @param e the event to insert
+     * @param time the time in clock cycles at which the event should fire
+     */
+    public void insertEvent(Simulator target, Simulator.Event e, long time) {
+        NodeState n = (NodeState)simMap.get(target);
+        if ( n == null ) {
+            super.insertEvent(target, e, time);
+            return;
+        }
+        Thread thread = Thread.currentThread();
+        if ( thread instanceof Worker && ((Worker)thread).current == n ) {
+            // the target is running in this thread
+            super.insertEvent(target, e, time);
+            return;
+        }
+        synchronized ( this ) {
+            if ( n.done ) return;
+            n.inbox.add(new Long(time));
+            n.inbox.add(e);
+            if ( !n.running && time <= n.time ) {
+                n.time = Math.max(time - 1, n.clock.getCount());
+                times.lower(n);
+                waiting.lower(n);
+                schedule();
+                if ( thread instanceof Worker ) shrinkHorizon(((Worker)thread).current);
+            }
+        }
+    }
+
+    /**
+     * The <code>waitForNeighbors()</code> method is called from within the execution
+     * of a node when that node needs to wait for its neighbors to catch up to it
+     * in execution time. Within a batch, the other nodes are usually known to have
+     * reached the time already; otherwise the worker thread is blocked until they do.
+     * @param time the time that all other nodes must reach
+     */
+    public void waitForNeighbors(long time) {
+        Thread thread = Thread.currentThread();
+        if ( !(thread instanceof Worker) ) return;
+        NodeState n = ((Worker)thread).current;
+        if ( n == null || time <= n.safe ) return;
+
+        synchronized ( this ) {
+            // the time of this node is now known exactly, which may allow others to progress
+            long now = n.clock.getCount();
+            if ( now > n.time ) {
+                setTime(n, now);
+                schedule();
+            }
+            long others = othersTime(n);
+            if ( others < time ) {
+                blocked++;
+                compensate();
+                try {
+                    while ( (others = othersTime(n)) < time && !stopped ) wait();
+                } catch (InterruptedException e) {
+                    throw Util.unexpected(e);
+                } finally {
+                    blocked--;
+                }
+            }
+            n.safe = others;
+        }
+    }
+
+    /**
+     * The <code>start()</code> method starts the worker threads, which will run the nodes in batches
+     * until all of them have terminated.
+     */
+    public synchronized void start() {
+        if ( started ) return;
+        nodes = (NodeState[])nodeList.toArray(new NodeState[nodeList.size()]);
+        for ( int cntr = 0; cntr < nodes.length; cntr++ ) {
+            NodeState n = nodes[cntr];
+            n.time = n.clock.getCount();
+            times.add(n);
+            waiting.add(n);
+        }
+        live = nodes.length;
+        started = true;
+        schedule();
+        int count = Math.min(numWorkers, nodes.length);
+        for ( int cntr = 0; cntr < count; cntr++ ) spawn();
+    }
+
+    /**
+     * The <code>join()</code> method will block the caller until all of the threads in
+     * this synchronization interval have terminated, either through <code>stop()</code>
+     * being called, or terminating normally such as through a timeout.
+     */
+    public synchronized void join() throws InterruptedException {
+        while ( workers > 0 ) wait();
+    }
+
+    /**
+     * The <code>pause()</code> method temporarily pauses the simulation. The nodes are
+     * not guaranteed to stop at the same global time. This method will return when all
+     * threads in the simulation have been paused and will no longer make progress until
+     * the <code>start()</code> method is called again.
+     */
+    public synchronized void pause() {
+        throw Util.unimplemented();
+    }
+
+    /**
+     * The <code>stop()</code> method will terminate all the simulation threads. It is
+     * not guaranteed to stop all the simulation threads at the same global time.
+     */
+    public synchronized void stop() {
+        stopped = true;
+        if ( nodes != null ) {
+            for ( int cntr = 0; cntr < nodes.length; cntr++ )
+                if ( nodes[cntr].running ) nodes[cntr].simulator.stop();
+        }
+        notifyAll();
+    }
+
+    /**
+     * The <code>synch()</code> method will pause all of the nodes at the same global time.
+     * This method can only be called when the simulation is paused. It will run all threads
+     * forward until the global time specified and pause them.
+     * @param globalTime the global time in clock cycles to run all threads ahead to
+     */
+    public synchronized void synch(long globalTime) {
+        throw Util.unimplemented();
+    }
+
+    synchronized NodeState nextNode() {
+        try {
+            while ( true ) {
+                if ( stopped || live == 0 || workers - blocked > numWorkers ) return null;
+                if ( !ready.isEmpty() ) {
+                    NodeState n = (NodeState)ready.removeFirst();
+                    if ( n.done ) continue;
+                    n.running = true;
+                    drainInbox(n);
+                    n.safe = othersTime(n);
+                    n.horizon = horizon(n);
+                    return n;
+                }
+                wait();
+            }
+        } catch (InterruptedException e) {
+            throw Util.unexpected(e);
+        }
+    }
+
+    synchronized void finishBatch(NodeState n, boolean finished) {
+        n.running = false;
+        if ( finished || stopped ) markDone(n);
+        else if ( !n.done ) {
+            // an idle node will not affect the others before its next event
+            drainInbox(n);
+            setTime(n, idleUntil(n.simulator));
+            waiting.add(n);
+        }
+        schedule();
+    }
+
+    synchronized void retire() {
+        workers--;
+        // replace a worker that terminated abnormally
+        compensate();
+        notifyAll();
+    }
+
+    private void compensate() {
+        if ( live > 0 && !stopped && workers - blocked < numWorkers ) spawn();
+    }
+
+    private void spawn() {
+        workers++;
+        new Worker(workerCount++).start();
+    }
+
+    private void drainInbox(NodeState n) {
+        while ( !n.inbox.isEmpty() ) {
+            long time = ((Long)n.inbox.removeFirst()).longValue();
+            Simulator.Event e = (Simulator.Event)n.inbox.removeFirst();
+            super.insertEvent(n.simulator, e, time);
+        }
+    }
+
+    /**
+     * The <code>shrinkHorizon()</code> method moves the horizon of the node running in the calling thread
+     * back after the time of another node has been moved back. It must be called with the lock held.
+     * @param n the node running in the calling thread
+     */
+    private void shrinkHorizon(NodeState n) {
+        if ( n == null || !n.running ) return;
+        long h = horizon(n);
+        if ( h < n.horizon ) {
+            n.clock.removeEvent(n);
+            n.clock.insertEvent(n, Math.max(0, h - n.clock.getCount()));
+            n.horizon = h;
+        }
+        n.safe = Math.min(n.safe, othersTime(n));
+    }
+
+    private void markDone(NodeState n) {
+        if ( n.done ) return;
+        n.done = true;
+        times.remove(n);
+        n.time = Long.MAX_VALUE;
+        live--;
+    }
+
+    private void setTime(NodeState n, long time) {
+        n.time = time;
+        times.update(n);
+    }
+
+    /**
+     * The <code>schedule()</code> method recomputes the earliest times of the nodes and moves any waiting
+     * node whose horizon is now beyond its time to the ready list. It must be called with the lock held.
+     */
+    private void schedule() {
+        updateTimes();
+        while ( waiting.size > 0 ) {
+            NodeState n = waiting.first();
+            if ( horizon(n) <= n.time ) break;
+            waiting.remove(n);
+            ready.add(n);
+        }
+        notifyAll();
+    }
+
+    private void updateTimes() {
+        minNode = times.first();
+        minTime = minNode == null ? Long.MAX_VALUE : minNode.time;
+        nextTime = times.secondTime();
+    }
+
+    private long othersTime(NodeState n) {
+        return n == minNode ? nextTime : minTime;
+    }
+
+    private long horizon(NodeState n) {
+        long others = othersTime(n);
+        if ( others > Long.MAX_VALUE - lookahead ) return Long.MAX_VALUE;
+        return others + lookahead;
+    }
+}
@@ -53,8 +53,16 @@ import avrora.sim.Simulator;
  * internal cache of objects. Thus, it does not create garbage over its execution and never uses more space
  * than is required to store the maximum encountered simultaneous events. It does not use standard libraries,
  * casts, virtual dispatch, etc.
+ *
+ * @see TimingWheel
  */
-public class DeltaQueue {
+public class DeltaQueue extends EventQueue {
+
+    public static final Factory FACTORY = new Factory() {
+        public EventQueue newEventQueue() {
+            return new DeltaQueue();
+        }
+    };
 
     /**
      * The <code>EventList</code> class represents a link in the list of events for a given <code>Link</code>
@@ -121,8 +129,10 @@ public class DeltaQueue {
 
         void fire() {
             for (EventList pos = events; pos != null; pos = pos.next) {
+                firing = pos.next;
                 pos.event.fire();
             }
+            firing = null;
         }
     }
 
@@ -132,6 +142,12 @@ public class DeltaQueue {
      */
     protected Link head;
 
+    /**
+     * The <code>firing</code> field stores the events of the link being fired that have not fired yet.
+     * They are no longer in the queue, but they are still the first events to fire.
+     */
+    protected EventList firing;
+
     /**
      * The <code>freeLinks</code> field stores a reference to any free links that have become unused during
      * the processing of events. A free list is used to prevent garbage from accumulating.
@@ -144,12 +160,6 @@ public class DeltaQueue {
      */
     protected EventList freeEventLists;
 
-    /**
-     * The <code>count</code> field stores the total number of cycles that this queue has been advanced, i.e.
-     * the sum of all <code>advance()</code> calls.
-     */
-    protected long count;
-
     /**
      * The <code>add</code> method adds an event to be executed in the future.
      *
@@ -315,18 +325,24 @@ public class DeltaQueue {
      * @return the number of clock cycles until the first event will fire
      */
     public long getFirstEventTime() {
+        if (firing != null) return 0;
         if (head != null) return head.delta;
         return -1;
     }
 
     /**
-     * The <code>getCount()</code> gets the total cumulative count of all the <code>advance()</code> calls on
-     * this delta queue.
+     * The <code>accept()</code> method visits each event in the queue in the order in which the events will
+     * fire, together with the number of cycles remaining until each fires.
      *
-     * @return the total number of cycles this queue has been advanced
+     * @param v the visitor to call for each event
      */
-    public long getCount() {
-        return count;
+    public void accept(Visitor v) {
+        long delta = 0;
+        for (Link pos = head; pos != null; pos = pos.next) {
+            delta += pos.delta;
+            for (EventList e = pos.events; e != null; e = e.next)
+                v.visit(e.event, delta);
+        }
     }
 
     private void free(Link l) {
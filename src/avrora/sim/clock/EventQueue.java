@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package avrora.sim.clock;
+
+import avrora.sim.Simulator;
+
+/**
+ * The <code>EventQueue</code> class represents a queue of events that are scheduled to fire at some
+ * number of clock cycles in the future. It is the interface between the main clock of a node and the
+ * data structure that actually stores the events. Every implementation must preserve the same
+ * semantics, so that the choice of the queue never changes the result of a simulation:
+ * <p/>
+ * Events that are scheduled for the same cycle fire in the reverse order in which they were inserted.
+ * An advance of zero cycles never fires any events. Events inserted for the current cycle while
+ * the queue is being advanced will fire during that advance only if the end of the advance has not
+ * been reached yet; otherwise they fire in the next call to <code>advance()</code> or
+ * <code>skipAhead()</code>.
+ */
+public abstract class EventQueue {
+
+    /**
+     * The <code>Factory</code> class is used to create a new event queue for each clock in the
+     * simulation.
+     */
+    public interface Factory {
+        public EventQueue newEventQueue();
+    }
+
+    /**
+     * The <code>Visitor</code> interface is used to enumerate the events currently in the queue, for
+     * example when the state of a node is saved into a checkpoint.
+     */
+    public interface Visitor {
+        public void visit(Simulator.Event e, long delta);
+    }
+
+    /**
+     * The <code>count</code> field stores the total number of cycles that this queue has been advanced, i.e.
+     * the sum of all <code>advance()</code> calls.
+     */
+    protected long count;
+
+    /**
+     * The <code>insertEvent()</code> method adds an event to be executed in the future.
+     *
+     * @param e      the event to add
+     * @param cycles the number of clock cycles in the future
+     */
+    public abstract void insertEvent(Simulator.Event e, long cycles);
+
+    /**
+     * The <code>removeEvent()</code> method removes all occurrences of the specified event within the queue.
+     *
+     * @param e the event to remove
+     */
+    public abstract void removeEvent(Simulator.Event e);
+
+    /**
+     * The <code>advance()</code> method advances timesteps through the queue by the specified number of clock
+     * cycles, processing any events.
+     *
+     * @param cycles the number of clock cycles to advance
+     */
+    public abstract void advance(long cycles);
+
+    /**
+     * The <code>skipAhead()</code> method skips ahead to the next event in the queue and fires it.
+     */
+    public abstract void skipAhead();
+
+    /**
+     * The <code>getFirstEventTime()</code> method gets the number of clock cycles until the first event will
+     * fire.
+     *
+     * @return the number of clock cycles until the first event will fire; -1 if there are no events
+     */
+    public abstract long getFirstEventTime();
+
+    /**
+     * The <code>getCount()</code> gets the total cumulative count of all the <code>advance()</code> calls on
+     * this queue.
+     *
+     * @return the total number of cycles this queue has been advanced
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * The <code>accept()</code> method visits every event in the queue together with the number of cycles
+     * until it fires. Events are visited in the order in which they will fire, so that inserting them
+     * again in the reverse order reproduces the queue exactly. An event that occurs several times in the
+     * queue is visited once per occurrence.
+     *
+     * @param v the visitor to call for each event
+     */
+    public abstract void accept(Visitor v);
+
+    /**
+     * The <code>setCount()</code> method moves this queue to the specified absolute time without firing any
+     * events. Events already in the queue keep their remaining delays. This method is used when restoring a
+     * node from a checkpoint.
+     *
+     * @param c the new cycle count of this queue
+     */
+    public void setCount(long c) {
+        count = c;
+    }
+}
@@ -46,16 +46,17 @@ public class MainClock extends Clock {
     /**
      * The <code>eventQueue</code> field stores a reference to the event queue for this node.
      */
-    protected final DeltaQueue eventQueue;
+    protected final EventQueue eventQueue;
 
     /**
      * The <code>MainClock()</code> method creates a main clock with the specified name and frequency.
      * @param n the name of this clock
      * @param hz the number of cycles per second for this clock
+     * @param qf the factory that creates the event queue of this clock
      */
-    public MainClock(String n, long hz) {
+    public MainClock(String n, long hz, EventQueue.Factory qf) {
         super(n, hz);
-        eventQueue = new DeltaQueue();
+        eventQueue = qf.newEventQueue();
     }
 
     /**
@@ -117,4 +118,24 @@ public class MainClock extends Clock {
     public void skipAhead() {
         eventQueue.skipAhead();
     }
+
+    /**
+     * The <code>accept()</code> method visits each event in this clock's queue in the order in which
+     * the events will fire.
+     *
+     * @param v the visitor to call for each event
+     */
+    public void accept(EventQueue.Visitor v) {
+        eventQueue.accept(v);
+    }
+
+    /**
+     * The <code>setCount()</code> method sets the cycle count of this clock without firing any events.
+     * It is only used when restoring the state of a node from a checkpoint.
+     *
+     * @param c the new cycle count
+     */
+    public void setCount(long c) {
+        eventQueue.setCount(c);
+    }
 }
@@ -0,0 +1,295 @@
+/**
+ * Copyright (c) 2007, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package avrora.sim.clock;
+
+import avrora.sim.*;
+
+import java.util.*;
+
+import cck.util.Util;
+
+/**
+ * The <code>NeighborhoodSynchronizer</code> class runs each node in its own thread, like the
+ * <code>RippleSynchronizer</code>, but a node that waits for its neighbors only waits for the nodes
+ * that have been declared as its sources with <code>addNeighbor()</code>, for example the nodes whose
+ * transmissions its radio can hear. Nodes that cannot influence each other run independently,
+ * so a large network with local connectivity no longer advances at the pace of its slowest node.
+ */
+public class NeighborhoodSynchronizer extends Synchronizer {
+
+    protected final long notifyPeriod;
+    protected final HashMap nodeMap;
+    protected final HashMap threadMap;
+
+    /**
+     * The constructor for the <code>NeighborhoodSynchronizer</code> class creates a new synchronizer
+     * that publishes the progress of each idle or busy node at least every <code>p</code> cycles.
+     * @param p the period in clock cycles at which each node reports its progress
+     */
+    public NeighborhoodSynchronizer(long p) {
+        notifyPeriod = p;
+        nodeMap = new HashMap();
+        threadMap = new HashMap();
+    }
+
+    /**
+     * The <code>NodeState</code> class stores the published time of one node together with the
+     * nodes it waits for and the nodes that wait for it. It is also the event inserted into the
+     * node's queue to periodically publish its progress, so that nodes waiting for it can make
+     * progress even when it never waits itself.
+     */
+    protected class NodeState implements Simulator.Event {
+
+        protected final SimulatorThread thread;
+        protected final MainClock clock;
+        protected final List sourceList;
+        protected final List sinkList;
+        protected NodeState[] sources;
+        protected NodeState[] sinks;
+        protected boolean removed;
+
+        // the time up to which this node is known to have executed
+        protected volatile long time;
+        // set while this node's thread is blocked waiting for one of its sources
+        protected volatile boolean blocked;
+
+        protected NodeState(SimulatorThread t) {
+            thread = t;
+            clock = t.getSimulator().getClock();
+            sourceList = new ArrayList();
+            sinkList = new ArrayList();
+        }
+
+        /**
+         * This constructor creates the state of a node that is not run by this synchronizer, whose
+         * time is published by some other means.
+         */
+        protected NodeState() {
+            thread = null;
+            clock = null;
+            sourceList = new ArrayList();
+            sinkList = new ArrayList();
+        }
+
+        /**
+         * The <code>fire()</code> method of this event is called by the event queue of the node
+         * as it reaches this point in time. It publishes the node's progress and reinserts the event.
+         */
+        public void fire() {
+            if (!removed) {
+                long now = clock.getCount();
+                // an idle node can report the time of its next event right away
+                long next = idleUntil(thread.getSimulator());
+                advance(this, next);
+                clock.insertEvent(this, next > now ? next - now : notifyPeriod);
+            }
+        }
+    }
+
+    /**
+     * The <code>addNeighbor()</code> method declares that the specified sink node may need to wait
+     * for the source node, for example because it can receive the source's radio transmissions.
+     * This method should only be called after both nodes are added and before <code>start()</code>
+     * is called.
+     * @param sink the node that waits
+     * @param source the node that is waited for
+     */
+    public synchronized void addNeighbor(Simulation.Node sink, Simulation.Node source) {
+        NodeState si = (NodeState)nodeMap.get(sink);
+        NodeState so = (NodeState)nodeMap.get(source);
+        if (si == null || so == null || si == so || si.sourceList.contains(so)) return;
+        si.sourceList.add(so);
+        so.sinkList.add(si);
+    }
+
+    protected void advance(NodeState n, long time) {
+        if (time <= n.time) return;
+        n.time = time;
+        // wake any sinks that might be waiting for this time; the volatile write of the time and the
+        // volatile read of the blocked flag pair up with the sink's write of the flag and read of the time
+        NodeState[] s = n.sinks;
+        for (int cntr = 0; cntr < s.length; cntr++) {
+            NodeState sink = s[cntr];
+            if (sink.blocked) {
+                synchronized (sink) {
+                    sink.notifyAll();
+                }
+            }
+        }
+    }
+
+    private void waitFor(NodeState n, NodeState source, long time) throws InterruptedException {
+        synchronized (n) {
+            n.blocked = true;
+            try {
+                while (source.time < time) n.wait();
+            } finally {
+                n.blocked = false;
+            }
+        }
+    }
+
+    /**
+     * The <code>start()</code> method starts the threads executing, and the synchronizer
+     * will add whatever synchronization to their execution that is necessary to preserve
+     * the global timing properties of simulation.
+     */
+    public synchronized void start() {
+        Iterator i = nodeMap.values().iterator();
+        while (i.hasNext()) {
+            NodeState n = (NodeState)i.next();
+            n.sources = (NodeState[])n.sourceList.toArray(new NodeState[n.sourceList.size()]);
+            n.sinks = (NodeState[])n.sinkList.toArray(new NodeState[n.sinkList.size()]);
+            n.time = n.removed ? Long.MAX_VALUE : n.clock.getCount();
+        }
+        Iterator threadIterator = threadMap.keySet().iterator();
+        while (threadIterator.hasNext()) {
+            SimulatorThread thread = (SimulatorThread)threadIterator.next();
+            thread.start();
+        }
+    }
+
+    /**
+     * The <code>join()</code> method will block the caller until all of the threads in
+     * this synchronization interval have terminated, either through <code>stop()</code>
+     * being called, or terminating normally such as through a timeout.
+     */
+    public void join() throws InterruptedException {
+        Iterator threadIterator = threadMap.keySet().iterator();
+        while (threadIterator.hasNext()) {
+            SimulatorThread thread = (SimulatorThread)threadIterator.next();
+            thread.join();
+        }
+    }
+
+    /**
+     * The <code>stop()</code> method will terminate all the simulation threads. It is
+     * not guaranteed to stop all the simulation threads at the same global time.
+     */
+    public synchronized void stop() {
+        Iterator threadIterator = threadMap.keySet().iterator();
+        while (threadIterator.hasNext()) {
+            SimulatorThread thread = (SimulatorThread)threadIterator.next();
+            thread.getSimulator().stop();
+        }
+    }
+
+    /**
+     * The <code>pause()</code> method temporarily pauses the simulation. The nodes are
+     * not guaranteed to stop at the same global time. This method will return when all
+     * threads in the simulation have been paused and will no longer make progress until
+     * the <code>start()</code> method is called again.
+     */
+    public synchronized void pause() {
+        throw Util.unimplemented();
+    }
+
+    /**
+     * The <code>synch()</code> method will pause all of the nodes at the same global time.
+     * This method can only be called when the simulation is paused. It will run all threads
+     * forward until the global time specified and pause them.
+     * @param globalTime the global time in clock cycles to run all threads ahead to
+     */
+    public synchronized void synch(long globalTime) {
+        throw Util.unimplemented();
+    }
+
+    /**
+     * The <code>addNode()</code> method adds a node to this synchronization group.
+     * This method should only be called before the <code>start()</code> method is
+     * called.
+     * @param t the simulator representing the node to add to this group
+     */
+    public synchronized void addNode(Simulation.Node t) {
+        // if we already have this thread, do nothing
+        SimulatorThread st = t.getThread();
+        if (threadMap.containsKey(st)) return;
+
+        st.setSynchronizer(this);
+
+        // create a new state for this node and insert its notify event into the node's queue
+        NodeState n = newNodeState(st);
+        threadMap.put(st, n);
+        nodeMap.put(t, n);
+        n.clock.insertEvent(n, notifyPeriod);
+    }
+
+    /**
+     * The <code>newNodeState()</code> method creates the state that this synchronizer keeps for a node.
+     * @param st the thread of the node
+     * @return a new state for the node
+     */
+    protected NodeState newNodeState(SimulatorThread st) {
+        return new NodeState(st);
+    }
+
+    /**
+     * The <code>removeNode()</code> method removes a node from this synchronization
+     * group, and wakes any nodes that might be waiting on it.
+     * @param t the simulator thread to remove from this synchronization group
+     */
+    public void removeNode(Simulation.Node t) {
+        NodeState n;
+        synchronized (this) {
+            n = (NodeState)nodeMap.get(t);
+            if (n == null) return;
+            n.removed = true;
+        }
+        // a removed node never influences its sinks again
+        if (n.sinks != null) advance(n, Long.MAX_VALUE);
+    }
+
+    /**
+     * The <code>waitForNeighbors()</code> method is called from within the execution
+     * of a node when that node needs to wait for its neighbors to catch up to it
+     * in execution time. The node will be blocked until each of its sources has
+     * reached the specified time.
+     */
+    public void waitForNeighbors(long time) {
+        // get the current simulator thread
+        SimulatorThread thread = (SimulatorThread)Thread.currentThread();
+        NodeState n = (NodeState)threadMap.get(thread);
+        try {
+            long now = n.clock.getCount();
+            assert time <= now;
+            advance(n, now);
+            NodeState[] s = n.sources;
+            for (int cntr = 0; cntr < s.length; cntr++) {
+                if (s[cntr].time < time) waitFor(n, s[cntr], time);
+            }
+        } catch (InterruptedException e) {
+            throw Util.unimplemented();
+        }
+    }
+
+}
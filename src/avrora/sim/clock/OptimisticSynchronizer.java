@@ -0,0 +1,431 @@
+/**
+ * Copyright (c) 2007, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package avrora.sim.clock;
+
+import avrora.actions.SimAction;
+import avrora.sim.*;
+import cck.text.Terminal;
+import java.io.*;
+
+import java.util.*;
+
+/**
+ * The <code>OptimisticSynchronizer</code> class implements the Time Warp protocol. Each node runs in its
+ * own thread and never waits for its neighbors; a receiver simply sees what its neighbors have done so
+ * far. When a node later changes state that a neighbor has already looked at (a straggler, e.g. a
+ * transmission that began before the time of a receiver that has run ahead), the neighbor is rolled back
+ * to a snapshot taken before the change and runs again. A node that is rolled back after it has changed
+ * state of its own cancels those changes, which in turn rolls back the neighbors that have seen them.
+ * <p/>
+ * Each node takes a snapshot of its state (see <code>Checkpoint.Snapshot</code>) at a fixed interval.
+ * Snapshots older than the global virtual time, which is the earliest time that any node may still be
+ * rolled back to, are discarded. The neighbors of each node are declared with <code>addNeighbor()</code>
+ * as for the <code>NeighborhoodSynchronizer</code>. All nodes must support checkpoints, and the shared
+ * state between them, such as a radio medium, must be prepared for speculative execution (see
+ * <code>Medium.setSpeculative()</code>).
+ * <p/>
+ * The output that a node prints, e.g. from its monitors, is held back until the global virtual time has
+ * passed the snapshot before it, so that output printed by an execution that is later rolled back is
+ * discarded and only the output of the final execution appears.
+ */
+public class OptimisticSynchronizer extends NeighborhoodSynchronizer {
+
+    protected final long snapshotPeriod;
+    protected final long window;
+    protected OptimisticState[] states;
+    protected int rollbacks;
+
+    // the number of nodes that wait for the global time to pass some time
+    protected volatile int throttled;
+
+    /**
+     * The constructor for the <code>OptimisticSynchronizer</code> class creates a new synchronizer that
+     * publishes the progress of each node at least every <code>p</code> cycles and takes a snapshot of
+     * each node every <code>s</code> cycles. No node runs more than <code>w</code> cycles ahead of the
+     * global virtual time, unless <code>w</code> is zero.
+     * @param p the period in clock cycles at which each node reports its progress
+     * @param s the period in clock cycles at which each node saves its state
+     * @param w the maximum number of cycles that a node may run ahead, or zero for no limit
+     */
+    public OptimisticSynchronizer(long p, long s, long w) {
+        super(p);
+        snapshotPeriod = s;
+        window = w;
+    }
+
+    /**
+     * The <code>OptimisticState</code> class extends the state kept for each node with the times at
+     * which the node last looked at and changed state shared with its neighbors, its pending rollback,
+     * and its snapshots.
+     */
+    protected class OptimisticState extends NodeState {
+
+        // the time of the latest observation of the neighbors' state
+        protected volatile long readTime = -1;
+        // the time of the latest change to state observed by the neighbors
+        protected volatile long changeTime = -1;
+        // the time before which the node must be rolled back, or Long.MAX_VALUE if there is none
+        protected volatile long rollbackTo = Long.MAX_VALUE;
+        // set while the node's thread waits for the global time
+        protected volatile boolean waiting;
+
+        // the times of the changes to state observed by the neighbors that a rollback may still undo
+        protected final LinkedList changes = new LinkedList();
+        protected final LinkedList snapshots = new LinkedList();
+        protected final SnapshotEvent snapshotEvent = new SnapshotEvent(this);
+        protected boolean snapshotDue;
+
+        // the output printed by the node that a rollback may still discard
+        protected final OutputBuffer output = new OutputBuffer();
+
+        protected OptimisticState(SimulatorThread t) {
+            super(t);
+        }
+
+        /**
+         * The <code>fire()</code> method of this event publishes the node's progress, holds the node back
+         * if it has run too far ahead of the others, and stops the node if it must be rolled back.
+         */
+        public void fire() {
+            super.fire();
+            if ( window > 0 ) throttle(this);
+            if ( rollbackTo != Long.MAX_VALUE ) thread.getSimulator().stop();
+        }
+    }
+
+    /**
+     * The <code>Saved</code> class records a snapshot of a node together with the time of its latest
+     * observation when the snapshot was taken.
+     */
+    protected static class Saved {
+        protected final Checkpoint.Snapshot snapshot;
+        protected final long readTime;
+        protected final long output;
+
+        protected Saved(Checkpoint.Snapshot s, long r, long o) {
+            snapshot = s;
+            readTime = r;
+            output = o;
+        }
+    }
+
+    /**
+     * The <code>OutputBuffer</code> class holds the output of a node until it is final. Positions in the
+     * output are counted from the beginning of the simulation, so that they remain valid after the final
+     * part has been written out.
+     */
+    protected static class OutputBuffer extends ByteArrayOutputStream {
+        protected PrintStream target;
+        protected long written;
+
+        protected synchronized long position() {
+            return written + count;
+        }
+
+        protected synchronized void discard(long pos) {
+            count = (int)(pos - written);
+        }
+
+        protected synchronized void commit(long pos) {
+            int len = (int)(pos - written);
+            if ( len <= 0 ) return;
+            synchronized ( Terminal.class ) {
+                // synchronize on the terminal to prevent interleaved output
+                target.write(buf, 0, len);
+                target.flush();
+            }
+            System.arraycopy(buf, len, buf, 0, count - len);
+            count -= len;
+            written = pos;
+        }
+    }
+
+    /**
+     * The <code>SnapshotEvent</code> class stops a node periodically so that its thread can take a
+     * snapshot at an instruction boundary.
+     */
+    protected class SnapshotEvent implements Simulator.Event {
+        protected final OptimisticState state;
+
+        protected SnapshotEvent(OptimisticState s) {
+            state = s;
+        }
+
+        public void fire() {
+            state.snapshotDue = true;
+            // the node's own thread takes the snapshot, or performs a pending rollback first
+            state.clock.insertEvent(this, snapshotPeriod);
+            state.thread.getSimulator().stop();
+        }
+    }
+
+    protected NodeState newNodeState(SimulatorThread st) {
+        OptimisticState n = new OptimisticState(st);
+        n.clock.insertEvent(n.snapshotEvent, snapshotPeriod);
+        return n;
+    }
+
+    /**
+     * The <code>start()</code> method takes an initial snapshot of each node and starts the threads.
+     */
+    public synchronized void start() {
+        states = (OptimisticState[])nodeMap.values().toArray(new OptimisticState[nodeMap.size()]);
+        for ( int cntr = 0; cntr < states.length; cntr++ ) {
+            OptimisticState n = states[cntr];
+            Checkpoint.checkNode(n.thread.getSimulator());
+            n.snapshots.add(new Saved(new Checkpoint.Snapshot(n.thread.getSimulator(), null), -1, 0));
+        }
+        super.start();
+    }
+
+    /**
+     * The <code>runNode()</code> method runs a node in its thread. Each time the node is stopped, it takes
+     * a snapshot or performs a rollback and then resumes. When the node reaches the end of the simulation,
+     * it waits until none of the other nodes can roll it back any more. The output of the node is held
+     * back while it runs and written out when it becomes final.
+     * @param node the node to run
+     */
+    public void runNode(Simulation.Node node) {
+        OptimisticState n = (OptimisticState)nodeMap.get(node);
+        Simulator sim = node.getSimulator();
+        n.output.target = Terminal.getThreadOutput();
+        Terminal.setThreadOutput(new PrintStream(n.output, true));
+        try {
+            while ( true ) {
+                try {
+                    sim.start();
+                } catch (SimAction.TimeoutException e) {
+                    if ( !finish(n) ) throw e;
+                }
+                if ( n.rollbackTo != Long.MAX_VALUE ) rollback(n);
+                else if ( n.snapshotDue ) snapshot(n);
+                else return;
+            }
+        } finally {
+            Terminal.setThreadOutput(n.output.target);
+            n.output.commit(n.output.position());
+        }
+    }
+
+    private void throttle(OptimisticState n) {
+        waitForGlobalTime(n, n.clock.getCount() - window);
+    }
+
+    private boolean finish(OptimisticState n) {
+        long end = n.clock.getCount();
+        advance(n, end);
+        waitForGlobalTime(n, end);
+        return n.rollbackTo != Long.MAX_VALUE;
+    }
+
+    private void waitForGlobalTime(OptimisticState n, long time) {
+        synchronized (n) {
+            n.waiting = true;
+            synchronized (this) {
+                throttled++;
+            }
+            try {
+                // the write of the flag and the read of the times pair up with advance()
+                while ( n.rollbackTo == Long.MAX_VALUE && getGlobalTime() < time ) n.wait();
+            } catch (InterruptedException e) {
+                // stop waiting.
+            } finally {
+                n.waiting = false;
+                synchronized (this) {
+                    throttled--;
+                }
+            }
+        }
+    }
+
+    /**
+     * The <code>advance()</code> method publishes the progress of a node. Since the global time may
+     * have moved forward, the nodes that wait for it are woken up to check it again.
+     * @param n the node that has made progress
+     * @param time the time that the node has reached
+     */
+    protected void advance(NodeState n, long time) {
+        if ( time <= n.time ) return;
+        super.advance(n, time);
+        if ( throttled == 0 ) return;
+        for ( int cntr = 0; cntr < states.length; cntr++ ) {
+            OptimisticState w = states[cntr];
+            if ( w.waiting && w != n ) {
+                synchronized (w) {
+                    w.notifyAll();
+                }
+            }
+        }
+    }
+
+    private void snapshot(OptimisticState n) {
+        Simulator sim = n.thread.getSimulator();
+        n.snapshotDue = false;
+        Saved last = (Saved)n.snapshots.getLast();
+        n.snapshots.addLast(new Saved(new Checkpoint.Snapshot(sim, last.snapshot), n.readTime, n.output.position()));
+        advance(n, n.clock.getCount());
+
+        // keep the latest snapshot before the global time, and all later ones
+        long gvt = getGlobalTime();
+        boolean collected = false;
+        while ( n.snapshots.size() > 1 && ((Saved)n.snapshots.get(1)).snapshot.time < gvt ) {
+            n.snapshots.removeFirst();
+            collected = true;
+        }
+        if ( collected ) {
+            Saved first = (Saved)n.snapshots.getFirst();
+            first.snapshot.commit(sim);
+            // the output before the oldest snapshot can no longer be discarded
+            n.output.commit(first.output);
+        }
+        // a change at or before the global time can no longer be undone
+        while ( !n.changes.isEmpty() && ((Long)n.changes.getFirst()).longValue() <= gvt ) n.changes.removeFirst();
+    }
+
+    private void rollback(OptimisticState n) {
+        long target = n.rollbackTo;
+        while ( n.snapshots.size() > 1 && ((Saved)n.snapshots.getLast()).snapshot.time > target )
+            n.snapshots.removeLast();
+        Saved s = (Saved)n.snapshots.getLast();
+
+        // publish the earlier time before the request is cleared, so that the global time never passes it
+        n.time = s.snapshot.time;
+        // the node repeats its execution up to the target, so its earlier changes before it remain valid
+        s.snapshot.restore(n.thread.getSimulator(), target);
+        n.readTime = s.readTime;
+        n.output.discard(s.output);
+        long undone = undoChanges(n, target);
+        synchronized (this) {
+            // a request for an earlier time may have arrived in the meantime
+            if ( n.rollbackTo >= target ) n.rollbackTo = Long.MAX_VALUE;
+            rollbacks++;
+        }
+        // the neighbors that have seen changes made after the target must be rolled back to the earliest
+        if ( undone != Long.MAX_VALUE ) rollbackSinks(n, undone);
+    }
+
+    private long undoChanges(OptimisticState n, long target) {
+        // the changes made at the target itself are kept, since the node repeats its execution up to it
+        long undone = Long.MAX_VALUE;
+        Iterator i = n.changes.iterator();
+        while ( i.hasNext() ) {
+            long time = ((Long)i.next()).longValue();
+            if ( time > target ) {
+                undone = Math.min(undone, time);
+                i.remove();
+            }
+        }
+        return undone;
+    }
+
+    private void rollbackSinks(OptimisticState n, long time) {
+        NodeState[] s = n.sinks;
+        for ( int cntr = 0; cntr < s.length; cntr++ ) {
+            OptimisticState sink = (OptimisticState)s[cntr];
+            if ( sink.readTime > time ) requestRollback(sink, time);
+        }
+    }
+
+    private void requestRollback(OptimisticState n, long time) {
+        // the sender cannot advance until the request is visible to the computation of the global time
+        synchronized (this) {
+            if ( time < n.rollbackTo ) n.rollbackTo = time;
+        }
+        // the node stops itself at its next event or observation; only a waiting node must be woken
+        synchronized (n) {
+            n.notifyAll();
+        }
+    }
+
+    /**
+     * The <code>getGlobalTime()</code> method computes the global virtual time, i.e. the earliest time
+     * to which any node may still be rolled back. A node that has changed state at some time has already
+     * published a time no later than that, so the minimum over the published times and the pending
+     * rollbacks of all nodes is a lower bound.
+     * @return the global virtual time in clock cycles
+     */
+    public synchronized long getGlobalTime() {
+        long gvt = Long.MAX_VALUE;
+        for ( int cntr = 0; cntr < states.length; cntr++ ) {
+            OptimisticState n = states[cntr];
+            gvt = Math.min(gvt, Math.min(n.time, n.rollbackTo));
+        }
+        return gvt;
+    }
+
+    /**
+     * The <code>getRollbackCount()</code> method returns the number of rollbacks performed so far.
+     * @return the number of times a node was rolled back
+     */
+    public synchronized int getRollbackCount() {
+        return rollbacks;
+    }
+
+    /**
+     * The <code>waitForNeighbors()</code> method is called from within the execution of a node when the
+     * node is about to look at state shared with its neighbors. It does not wait; it records the time of
+     * the observation, so that a neighbor that later changes state before this time rolls the node back.
+     * If a rollback is already pending, the node is stopped to perform it.
+     */
+    public void waitForNeighbors(long time) {
+        SimulatorThread thread = (SimulatorThread)Thread.currentThread();
+        OptimisticState n = (OptimisticState)threadMap.get(thread);
+        long now = n.clock.getCount();
+        n.readTime = now;
+        advance(n, now);
+        // reading the change times of the sources makes their changes visible to this thread
+        long changed = -1;
+        NodeState[] s = n.sources;
+        for ( int cntr = 0; cntr < s.length; cntr++ )
+            changed = Math.max(changed, ((OptimisticState)s[cntr]).changeTime);
+        if ( n.rollbackTo != Long.MAX_VALUE ) thread.getSimulator().stop();
+    }
+
+    /**
+     * The <code>notifyNeighbors()</code> method is called from within the execution of a node after it
+     * has changed state that its neighbors may observe. Each neighbor that has already observed the
+     * shared state at a later time is rolled back.
+     * @param time the time in clock cycles at which the change happened
+     */
+    public void notifyNeighbors(long time) {
+        OptimisticState n = (OptimisticState)threadMap.get(Thread.currentThread());
+        if ( n == null ) return;
+        n.changes.addLast(new Long(time));
+        n.changeTime = time;
+        NodeState[] s = n.sinks;
+        for ( int cntr = 0; cntr < s.length; cntr++ ) {
+            OptimisticState sink = (OptimisticState)s[cntr];
+            if ( sink.readTime > time ) requestRollback(sink, time);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/**
+ * Copyright (c) 2007, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package avrora.sim.clock;
+
+import avrora.sim.*;
+
+import java.util.*;
+
+/**
+ * The <code>PartitionSynchronizer</code> class synchronizes the nodes of one partition of a network
+ * that is simulated in several processes. It runs the local nodes like the
+ * <code>NeighborhoodSynchronizer</code>, but the sources of a local node may also include remote nodes,
+ * which are simulated in another process. The time of a remote node is published with
+ * <code>setRemoteTime()</code> as it arrives from that process, and the progress of each local node
+ * that a remote process waits for is announced to a <code>Boundary</code>, which forwards it.
+ */
+public class PartitionSynchronizer extends NeighborhoodSynchronizer {
+
+    /**
+     * The <code>PartitionSynchronizer.Boundary</code> interface is implemented by objects that send the
+     * progress of local nodes to another process. Its method is called from the thread of a node each
+     * time the node publishes a later time; it should only wake whatever sends the times, which it reads
+     * with <code>getTime()</code>.
+     */
+    public interface Boundary {
+        public void advanced();
+    }
+
+    protected static final Boundary[] NO_BOUNDARIES = new Boundary[0];
+
+    protected final HashMap remoteMap;
+    protected NodeState[] remoteStates;
+
+    /**
+     * The constructor for the <code>PartitionSynchronizer</code> class creates a new synchronizer
+     * that publishes the progress of each idle or busy node at least every <code>p</code> cycles.
+     * @param p the period in clock cycles at which each node reports its progress
+     */
+    public PartitionSynchronizer(long p) {
+        super(p);
+        remoteMap = new HashMap();
+        remoteStates = new NodeState[0];
+    }
+
+    /**
+     * The <code>PartitionState</code> class extends the state kept for each local node with the
+     * boundaries to which its progress is announced.
+     */
+    protected class PartitionState extends NodeState {
+        protected final List boundaryList = new ArrayList();
+        protected Boundary[] boundaries = NO_BOUNDARIES;
+
+        protected PartitionState(SimulatorThread t) {
+            super(t);
+        }
+    }
+
+    protected NodeState newNodeState(SimulatorThread st) {
+        return new PartitionState(st);
+    }
+
+    /**
+     * The <code>addRemoteNeighbor()</code> method declares that the specified local node may need to
+     * wait for the specified remote node. This method should only be called after the local node is
+     * added and before <code>start()</code> is called.
+     * @param sink the local node that waits
+     * @param source the number of the remote node that is waited for
+     */
+    public synchronized void addRemoteNeighbor(Simulation.Node sink, int source) {
+        NodeState si = (NodeState)nodeMap.get(sink);
+        if (si == null) return;
+        Integer key = new Integer(source);
+        NodeState so = (NodeState)remoteMap.get(key);
+        if (so == null) {
+            so = new NodeState();
+            remoteMap.put(key, so);
+        }
+        if (si.sourceList.contains(so)) return;
+        si.sourceList.add(so);
+        so.sinkList.add(si);
+    }
+
+    /**
+     * The <code>addBoundary()</code> method declares that the progress of the specified local node
+     * must be announced to the specified boundary. This method should only be called before
+     * <code>start()</code> is called.
+     * @param n the local node
+     * @param b the boundary to announce the node's progress to
+     */
+    public synchronized void addBoundary(Simulation.Node n, Boundary b) {
+        PartitionState s = (PartitionState)nodeMap.get(n);
+        if (s != null && !s.boundaryList.contains(b)) s.boundaryList.add(b);
+    }
+
+    /**
+     * The <code>start()</code> method prepares the states of the remote nodes, whose times start at
+     * zero, and starts the threads of the local nodes.
+     */
+    public synchronized void start() {
+        int max = -1;
+        Iterator i = remoteMap.keySet().iterator();
+        while (i.hasNext()) max = Math.max(max, ((Integer)i.next()).intValue());
+        remoteStates = new NodeState[max + 1];
+        i = remoteMap.entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry e = (Map.Entry)i.next();
+            NodeState n = (NodeState)e.getValue();
+            n.sources = new NodeState[0];
+            n.sinks = (NodeState[])n.sinkList.toArray(new NodeState[n.sinkList.size()]);
+            remoteStates[((Integer)e.getKey()).intValue()] = n;
+        }
+        i = nodeMap.values().iterator();
+        while (i.hasNext()) {
+            PartitionState n = (PartitionState)i.next();
+            n.boundaries = (Boundary[])n.boundaryList.toArray(new Boundary[n.boundaryList.size()]);
+        }
+        super.start();
+    }
+
+    /**
+     * The <code>setRemoteTime()</code> method publishes the time that a remote node has reached, waking
+     * the local nodes that wait for it. The remote process must already have forwarded everything that
+     * the node did before this time.
+     * @param id the number of the remote node
+     * @param time the time in clock cycles up to which the remote node is known to have executed
+     */
+    public void setRemoteTime(int id, long time) {
+        if (id >= 0 && id < remoteStates.length && remoteStates[id] != null) advance(remoteStates[id], time);
+    }
+
+    /**
+     * The <code>getTime()</code> method returns the time that the specified local node has published.
+     * Everything that the node did before this time has already happened.
+     * @param n the local node
+     * @return the time in clock cycles up to which the node is known to have executed
+     */
+    public long getTime(Simulation.Node n) {
+        return ((NodeState)nodeMap.get(n)).time;
+    }
+
+    protected void advance(NodeState n, long time) {
+        if (time <= n.time) return;
+        super.advance(n, time);
+        if (n instanceof PartitionState) {
+            Boundary[] b = ((PartitionState)n).boundaries;
+            for (int cntr = 0; cntr < b.length; cntr++) b[cntr].advanced();
+        }
+    }
+}
@@ -83,12 +83,16 @@ public class RippleSynchronizer extends Synchronizer {
         public void fire() {
             if (!removed) {
                 long now = clock.getCount();
+                // an idle node can report the time of its next event right away
+                long time = idleUntil(thread.getSimulator());
                 long delta;
                 synchronized (RippleSynchronizer.this) {
-                    lastLink = advance(now, currentWaitLink());
+                    lastLink = advance(time, currentWaitLink());
                     delta = lastLink.next.time - now;
                 }
-                if (delta < notifyPeriod) {
+                if (time > now) {
+                    clock.insertEvent(this, time - now);
+                } else if (delta < notifyPeriod) {
                     clock.insertEvent(this, delta);
                 } else {
                     clock.insertEvent(this, notifyPeriod);
@@ -32,8 +32,11 @@
 
 package avrora.sim.clock;
 
+import avrora.actions.SimAction;
 import avrora.sim.Simulation;
 import avrora.sim.Simulator;
+import cck.text.StringUtil;
+import cck.text.Terminal;
 import cck.util.Util;
 
 /**
@@ -178,7 +181,10 @@ public class StepSynchronizer extends Synchronizer {
                         cycles[cntr] = sim.step();
                     } catch ( Throwable t) {
                         reportExit(sim, t);
-                        removeSimulator(threads[cntr]);
+                        removeSimulator(sim);
+                        // the next node has moved into this slot
+                        System.arraycopy(cycles, cntr + 1, cycles, cntr, numThreads - cntr);
+                        cntr--;
                     }
                 }
             }
@@ -194,11 +200,31 @@ public class StepSynchronizer extends Synchronizer {
     }
 
     void reportExit(Simulator s, Throwable t) {
-        throw Util.unimplemented();
+        if ( t instanceof SimAction.TimeoutException ) {
+            // suppress timeout exceptions.
+        } else if ( t instanceof SimAction.BreakPointException ) {
+            Terminal.printYellow("Simulation terminated");
+            Terminal.println(": breakpoint at " + StringUtil.addrToString(((SimAction.BreakPointException)t).address) + " reached.");
+        } else if ( t instanceof Util.Error ) {
+            ((Util.Error)t).report();
+        } else {
+            throw Util.unexpected(t);
+        }
     }
 
     void removeSimulator(Simulator s) {
-        throw Util.unimplemented();
+        for ( int cntr = 0; cntr < numThreads; cntr++ ) {
+            if ( threads[cntr] == s ) {
+                System.arraycopy(threads, cntr + 1, threads, cntr, numThreads - cntr - 1);
+                threads[--numThreads] = null;
+                break;
+            }
+        }
+        // the simulation ends when its last node is removed
+        if ( numThreads == 0 ) {
+            shouldRun = false;
+            innerLoop = false;
+        }
     }
 
     /**
@@ -33,6 +33,7 @@
 package avrora.sim.clock;
 
 import avrora.sim.Simulation;
+import avrora.sim.Simulator;
 import avrora.sim.SimulatorThread;
 import cck.util.Util;
 
@@ -70,6 +71,27 @@ public abstract class Synchronizer {
      */
     public abstract void waitForNeighbors(long time);
 
+    /**
+     * The <code>notifyNeighbors()</code> method is called from within the execution of a node when the node
+     * changes state that its neighbors may observe, e.g. when it begins a transmission or sends a byte. By
+     * default it is ignored, since a conservative synchronizer never lets a neighbor observe the state of
+     * a node before the node has reached the time of the observation.
+     * @param time the time in clock cycles at which the change happened
+     */
+    public void notifyNeighbors(long time) {
+        // do nothing.
+    }
+
+    /**
+     * The <code>runNode()</code> method is called by the thread of a node to execute the node. By default
+     * it starts the simulator of the node, which returns when the node is stopped or terminates.
+     * Synchronizers that stop and restart nodes, e.g. to save their state, extend this method.
+     * @param n the node to run
+     */
+    public void runNode(Simulation.Node n) {
+        n.getSimulator().start();
+    }
+
     /**
      * The <code>start()</code> method starts the threads executing, and the synchronizer
      * will add whatever synchronization to their execution that is necessary to preserve
@@ -107,6 +129,49 @@ public abstract class Synchronizer {
      */
     public abstract void synch(long globalTime);
 
+    /**
+     * The <code>addLookahead()</code> method informs this synchronizer that some part of a node
+     * (e.g. a radio) never calls <code>waitForNeighbors()</code> for a time that is closer than
+     * the given number of cycles to the node's own time. Synchronizers that run nodes ahead of
+     * each other in bounded windows use the smallest such value; by default it is ignored.
+     * @param cycles the minimum distance in clock cycles between a node's time and the time it
+     * waits for
+     */
+    public void addLookahead(long cycles) {
+        // do nothing.
+    }
+
+    /**
+     * The <code>insertEvent()</code> method inserts an event into the queue of another node, for example
+     * when a signal sent by one node arrives at another. The time at which the event should fire is given
+     * in clock cycles of the target node and must be at least the lookahead (as declared through
+     * <code>addLookahead()</code>) later than the time of the sending node. By default, the event is
+     * inserted directly, which is only correct for synchronizers that run all nodes in one thread.
+     * @param target the simulator of the node into whose queue to insert the event
+     * @param e the event to insert
+     * @param time the time in clock cycles at which the event should fire
+     */
+    public void insertEvent(Simulator target, Simulator.Event e, long time) {
+        MainClock clock = target.getClock();
+        clock.insertEvent(e, Math.max(0, time - clock.getCount()));
+    }
+
+    /**
+     * The <code>idleUntil()</code> method computes the time up to which the specified node is known not
+     * to influence any other node. A node that is idle (asleep with no pending interrupt) does nothing
+     * until the next event in its queue fires, so it can be treated as having reached the cycle just
+     * before that event; any other node is only known to have reached its current time.
+     * @param sim the simulator of the node, which must not be running in another thread
+     * @return the time in clock cycles up to which the node will not interact with others
+     */
+    protected static long idleUntil(Simulator sim) {
+        MainClock clock = sim.getClock();
+        long now = clock.getCount();
+        if ( !sim.getInterpreter().isIdle() ) return now;
+        long delta = clock.getFirstEventDelta();
+        return delta > 1 ? now + delta - 1 : now;
+    }
+
     public static class Single extends Synchronizer {
 
         public Simulation.Node node;
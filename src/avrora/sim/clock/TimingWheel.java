@@ -0,0 +1,431 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package avrora.sim.clock;
+
+import avrora.sim.Simulator;
+import java.util.*;
+
+/**
+ * The <code>TimingWheel</code> class implements a hierarchical timing wheel for processing of scheduled
+ * events. Unlike the <code>DeltaQueue</code>, which must walk its list to insert or remove an event,
+ * the timing wheel stores each event in a slot that is computed directly from the absolute time at which
+ * the event fires, so that inserting and removing an event takes constant time regardless of how many
+ * other events are pending.
+ * <p/>
+ * The wheel has four levels of 256 slots each. The first level has one slot for each clock cycle of the
+ * current block of 256 cycles. Each higher level has one slot for each block of the level below it within
+ * the current block of the level above it. Events that are further in the future than the last level
+ * covers are kept in an overflow list. As the clock enters a new block, the events in the corresponding
+ * slot of the higher level are moved (cascaded) down to the lower levels. Each event is cascaded at most
+ * once per level, so the cost of cascading is amortized constant per event.
+ * <p/>
+ * The lists in each slot are kept in the reverse order of insertion, and cascading preserves that order,
+ * so that events that fire in the same clock cycle fire in exactly the same order as with the
+ * <code>DeltaQueue</code>. A map from each event to its pending entries allows <code>removeEvent()</code>
+ * to find them without scanning the wheel. Entries are recycled through a free list to avoid creating
+ * garbage.
+ */
+public class TimingWheel extends EventQueue {
+
+    public static final Factory FACTORY = new Factory() {
+        public EventQueue newEventQueue() {
+            return new TimingWheel();
+        }
+    };
+
+    protected static final int LEVELS = 4;
+    protected static final int BITS = 8;
+    protected static final int SLOTS = 1 << BITS;
+    protected static final int MASK = SLOTS - 1;
+
+    /**
+     * The <code>OVERFLOW</code> field stores the index of the list that stores the events that are too far
+     * in the future for any level of the wheel.
+     */
+    protected static final int OVERFLOW = LEVELS * SLOTS;
+
+    /**
+     * The <code>DETACHED</code> field marks an entry that is not in any list, i.e. because it is currently
+     * being fired.
+     */
+    protected static final int DETACHED = -1;
+
+    /**
+     * The <code>Node</code> class represents a pending occurrence of an event. It is a link in the list of
+     * its slot in the wheel and also a link in the list of all occurrences of the same event.
+     */
+    protected static class Node {
+        Simulator.Event event;
+        long time;
+        int slot;
+
+        Node next;
+        Node prev;
+
+        Node enext;
+        Node eprev;
+    }
+
+    /**
+     * The <code>slots</code> field stores the head of the list for each slot of each level, followed by the
+     * head of the overflow list.
+     */
+    protected final Node[] slots = new Node[OVERFLOW + 1];
+
+    /**
+     * The <code>occupied</code> field stores a bitmap for each level that records which slots of the level
+     * contain events, so that the next event can be found without visiting every slot.
+     */
+    protected final long[] occupied = new long[OVERFLOW >> 6];
+
+    /**
+     * The <code>events</code> field maps each event to the first of its pending occurrences.
+     */
+    protected final IdentityHashMap events = new IdentityHashMap();
+
+    protected Node freeNodes;
+    protected int size;
+
+    /**
+     * The <code>firing</code> field stores the detached entries of the slot being fired that have not fired
+     * yet. They are no longer in the wheel, but they are still the first events to fire.
+     */
+    protected Node firing;
+
+    /**
+     * The <code>nextTime</code> field caches the absolute time of the earliest event in the wheel. It is
+     * only valid when <code>nextValid</code> is true.
+     */
+    protected long nextTime = Long.MAX_VALUE;
+    protected boolean nextValid = true;
+
+    /**
+     * The <code>insertEvent()</code> method adds an event to be executed in the future.
+     *
+     * @param e      the event to add
+     * @param cycles the number of clock cycles in the future
+     */
+    public void insertEvent(Simulator.Event e, long cycles) {
+        if ( cycles < 0 ) cycles = 0;
+        Node n = newNode(e, count + cycles);
+        place(n);
+        size++;
+        if ( nextValid && n.time < nextTime ) nextTime = n.time;
+
+        // link the node into the list of occurrences of this event
+        Node first = (Node)events.put(e, n);
+        n.enext = first;
+        if ( first != null ) first.eprev = n;
+    }
+
+    /**
+     * The <code>removeEvent()</code> method removes all occurrences of the specified event within the wheel.
+     * Occurrences that are currently being fired are not affected.
+     *
+     * @param e the event to remove
+     */
+    public void removeEvent(Simulator.Event e) {
+        Node n = (Node)events.remove(e);
+        while ( n != null ) {
+            Node next = n.enext;
+            unlink(n);
+            size--;
+            if ( n.time == nextTime ) nextValid = false;
+            free(n);
+            n = next;
+        }
+    }
+
+    /**
+     * The <code>advance()</code> method advances timesteps through the wheel by the specified number of clock
+     * cycles, processing any events.
+     *
+     * @param cycles the number of clock cycles to advance
+     */
+    public void advance(long cycles) {
+        long target = count + cycles;
+        if ( size == 0 || getNextTime() > target ) {
+            // fast path: no events fire
+            moveTo(target);
+            return;
+        }
+
+        while ( count < target ) {
+            long time = getNextTime();
+            if ( time > target ) break;
+            moveTo(time);
+            fire(time);
+        }
+
+        moveTo(target);
+    }
+
+    /**
+     * The <code>skipAhead()</code> method skips ahead to the next event in the wheel and fires it.
+     */
+    public void skipAhead() {
+        if ( size == 0 ) {
+            moveTo(count + 1);
+            return;
+        }
+
+        long time = getNextTime();
+        moveTo(time);
+        fire(time);
+    }
+
+    /**
+     * The <code>getFirstEventTime()</code> method gets the number of clock cycles until the first event will
+     * fire.
+     *
+     * @return the number of clock cycles until the first event will fire; -1 if there are no events
+     */
+    public long getFirstEventTime() {
+        if ( firing != null ) return 0;
+        if ( size == 0 ) return -1;
+        return getNextTime() - count;
+    }
+
+    /**
+     * The <code>accept()</code> method visits each event in the wheel in the order in which the events
+     * will fire. The wheel itself is ordered only by slot, so the nodes are gathered and sorted by time;
+     * the sort is stable, which keeps the order of events that share a slot.
+     *
+     * @param v the visitor to call for each event
+     */
+    public void accept(Visitor v) {
+        List list = new ArrayList(size);
+        for ( int slot = 0; slot < slots.length; slot++ )
+            for ( Node n = slots[slot]; n != null; n = n.next ) list.add(n);
+        Collections.sort(list, TIME_ORDER);
+        for ( Iterator i = list.iterator(); i.hasNext(); ) {
+            Node n = (Node)i.next();
+            v.visit(n.event, n.time - count);
+        }
+    }
+
+    /**
+     * The <code>setCount()</code> method moves the wheel to a new absolute time. Because nodes store
+     * absolute times and are placed relative to the current count, all events are taken out and
+     * inserted again with their remaining delays.
+     *
+     * @param c the new cycle count of this queue
+     */
+    public void setCount(long c) {
+        final List events = new ArrayList(size);
+        final List deltas = new ArrayList(size);
+        accept(new Visitor() {
+            public void visit(Simulator.Event e, long delta) {
+                events.add(e);
+                deltas.add(new Long(delta));
+            }
+        });
+        for ( int cntr = events.size() - 1; cntr >= 0; cntr-- )
+            removeEvent((Simulator.Event)events.get(cntr));
+        count = c;
+        nextTime = Long.MAX_VALUE;
+        nextValid = true;
+        for ( int cntr = events.size() - 1; cntr >= 0; cntr-- )
+            insertEvent((Simulator.Event)events.get(cntr), ((Long)deltas.get(cntr)).longValue());
+    }
+
+    private static final Comparator TIME_ORDER = new Comparator() {
+        public int compare(Object a, Object b) {
+            long ta = ((Node)a).time;
+            long tb = ((Node)b).time;
+            return ta < tb ? -1 : ta == tb ? 0 : 1;
+        }
+    };
+
+    private long getNextTime() {
+        if ( !nextValid ) {
+            nextTime = computeNextTime();
+            nextValid = true;
+        }
+        return nextTime;
+    }
+
+    private long computeNextTime() {
+        if ( size == 0 ) return Long.MAX_VALUE;
+
+        // the first occupied slot of the first level is exactly the next time
+        int slot = firstOccupied(0);
+        if ( slot >= 0 ) return (count & ~(long)MASK) | slot;
+
+        // otherwise the next event is in the first occupied slot of a higher level
+        for ( int level = 1; level < LEVELS; level++ ) {
+            slot = firstOccupied(level);
+            if ( slot >= 0 ) return minTime(slots[level * SLOTS + slot]);
+        }
+
+        return minTime(slots[OVERFLOW]);
+    }
+
+    private int firstOccupied(int level) {
+        int base = level * (SLOTS >> 6);
+        for ( int cntr = 0; cntr < (SLOTS >> 6); cntr++ ) {
+            long bits = occupied[base + cntr];
+            if ( bits != 0 ) return (cntr << 6) + Long.numberOfTrailingZeros(bits);
+        }
+        return -1;
+    }
+
+    private static long minTime(Node n) {
+        long min = Long.MAX_VALUE;
+        for ( ; n != null; n = n.next )
+            if ( n.time < min ) min = n.time;
+        return min;
+    }
+
+    /**
+     * The <code>moveTo()</code> method moves the current time of the wheel forward to the specified time,
+     * which must not be later than the next event. If the new time is in a different block, the events in
+     * the slot of the highest level that changed are cascaded to the lower levels. All lower levels are
+     * empty at this point because all the events that they contained were earlier than the new time.
+     *
+     * @param time the new time of the wheel
+     */
+    private void moveTo(long time) {
+        long diff = time ^ count;
+        count = time;
+        if ( (diff >>> BITS) == 0 ) return;
+
+        int level;
+        if ( (diff >>> (LEVELS * BITS)) != 0 ) {
+            cascade(OVERFLOW);
+            return;
+        }
+        for ( level = LEVELS - 1; level > 0; level-- ) {
+            if ( (diff >>> (level * BITS)) != 0 ) break;
+        }
+        cascade(level * SLOTS + (int)((time >>> (level * BITS)) & MASK));
+    }
+
+    private void cascade(int slot) {
+        Node n = slots[slot];
+        if ( n == null ) return;
+        slots[slot] = null;
+        if ( slot < OVERFLOW ) clearOccupied(slot);
+
+        // re-insert the entries from oldest to newest to preserve their order
+        while ( n.next != null ) n = n.next;
+        while ( n != null ) {
+            Node prev = n.prev;
+            place(n);
+            n = prev;
+        }
+    }
+
+    private void fire(long time) {
+        int slot = (int)(time & MASK);
+        Node list = slots[slot];
+        slots[slot] = null;
+        clearOccupied(slot);
+        nextValid = false;
+
+        // detach the entries first so that they are not affected by removals during firing
+        for ( Node n = list; n != null; n = n.next ) {
+            unlinkEvent(n);
+            n.slot = DETACHED;
+            size--;
+        }
+
+        Node n = list;
+        while ( n != null ) {
+            Node next = n.next;
+            Simulator.Event e = n.event;
+            free(n);
+            firing = next;
+            e.fire();
+            n = next;
+        }
+        firing = null;
+    }
+
+    private void place(Node n) {
+        long diff = n.time ^ count;
+        int slot;
+        if ( (diff >>> BITS) == 0 ) slot = (int)(n.time & MASK);
+        else if ( (diff >>> (2 * BITS)) == 0 ) slot = SLOTS + (int)((n.time >>> BITS) & MASK);
+        else if ( (diff >>> (3 * BITS)) == 0 ) slot = 2 * SLOTS + (int)((n.time >>> (2 * BITS)) & MASK);
+        else if ( (diff >>> (4 * BITS)) == 0 ) slot = 3 * SLOTS + (int)((n.time >>> (3 * BITS)) & MASK);
+        else slot = OVERFLOW;
+
+        Node head = slots[slot];
+        n.slot = slot;
+        n.prev = null;
+        n.next = head;
+        if ( head != null ) head.prev = n;
+        else if ( slot < OVERFLOW ) occupied[slot >> 6] |= 1L << (slot & 63);
+        slots[slot] = n;
+    }
+
+    private void unlink(Node n) {
+        if ( n.next != null ) n.next.prev = n.prev;
+        if ( n.prev != null ) {
+            n.prev.next = n.next;
+        } else {
+            slots[n.slot] = n.next;
+            if ( n.next == null && n.slot < OVERFLOW ) clearOccupied(n.slot);
+        }
+    }
+
+    private void unlinkEvent(Node n) {
+        if ( n.enext != null ) n.enext.eprev = n.eprev;
+        if ( n.eprev != null ) n.eprev.enext = n.enext;
+        else if ( n.enext != null ) events.put(n.event, n.enext);
+        else events.remove(n.event);
+    }
+
+    private void clearOccupied(int slot) {
+        occupied[slot >> 6] &= ~(1L << (slot & 63));
+    }
+
+    private Node newNode(Simulator.Event e, long time) {
+        Node n = freeNodes;
+        if ( n == null ) n = new Node();
+        else freeNodes = n.next;
+        n.event = e;
+        n.time = time;
+        return n;
+    }
+
+    private void free(Node n) {
+        n.event = null;
+        n.prev = null;
+        n.enext = null;
+        n.eprev = null;
+        n.next = freeNodes;
+        freeNodes = n;
+    }
+}
@@ -55,6 +55,10 @@ public class EnergyControl {
         //energy consumption
         private final LinkedList subscriber;
 
+        //indicates whether someone is interested in energy
+        //data of these consumers
+        private boolean active;
+
         Instance() {
             consumer = new LinkedList();
             subscriber = new LinkedList();
@@ -92,19 +96,13 @@ public class EnergyControl {
 
     }
 
-    private static Instance currentInstance;
-
-    //indicates whether someone is interested in energy
-    //data
-    private static boolean active; 
-
-    /**
-     * create a new instance of energy control
-     */
-    static {
-        active = false;
-        currentInstance = new Instance();
-    }
+    // each thread that creates nodes has its own current instance, so that simulations
+    // running in different threads of the same virtual machine do not share consumers
+    private static final ThreadLocal currentInstance = new ThreadLocal() {
+        protected Object initialValue() {
+            return new Instance();
+        }
+    };
 
     /**
      * add consumer
@@ -112,8 +110,9 @@ public class EnergyControl {
      * @param energy consumer
      */
     public static void addConsumer(Energy energy) {
-        currentInstance.consumer.add(energy);
-        if ( active ) energy.activate();
+        Instance instance = getCurrentInstance();
+        instance.consumer.add(energy);
+        if ( instance.active ) energy.activate();
     }
 
     /**
@@ -121,9 +120,10 @@ public class EnergyControl {
      * in energy information
      */
     public static void activate(){
-        if( !active ){
-            active = true;
-            Iterator it = currentInstance.consumer.iterator();
+        Instance instance = getCurrentInstance();
+        if( !instance.active ){
+            instance.active = true;
+            Iterator it = instance.consumer.iterator();
             while( it.hasNext() ){
                 ((Energy)it.next()).activate();
             }
@@ -131,10 +131,24 @@ public class EnergyControl {
     }
 
     public static Instance getCurrentInstance() {
-        return currentInstance;
+        Instance instance = (Instance)currentInstance.get();
+        if ( instance == null ) {
+            instance = new Instance();
+            currentInstance.set(instance);
+        }
+        return instance;
     }
 
     public static void nextInstance() {
-        currentInstance = new Instance();
+        currentInstance.set(new Instance());
+    }
+
+    /**
+     * The <code>clearInstance()</code> method drops the current instance of this thread, so that the
+     * consumers and monitors of a finished simulation are no longer referenced by a thread that goes
+     * on to run other simulations.
+     */
+    public static void clearInstance() {
+        currentInstance.set(null);
     }
 }
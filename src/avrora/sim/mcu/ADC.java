@@ -34,6 +34,7 @@ package avrora.sim.mcu;
 
 import avrora.sim.*;
 import avrora.sim.state.*;
+import java.io.*;
 
 /**
  * The <code>ADC</code> class represents an on-chip device on the ATMega series of microcontroller that is
@@ -42,7 +43,7 @@ import avrora.sim.state.*;
  * @author Daniel Lee
  * @author Ben L. Titzer
  */
-public class ADC extends AtmelInternalDevice {
+public class ADC extends AtmelInternalDevice implements Checkpoint.Component {
 
 
     public static final float VBG_LEVEL = 1.0f;
@@ -105,6 +106,32 @@ public class ADC extends AtmelInternalDevice {
         installIOReg("ADCSRA", ADCSRA_reg);
 
         interpreter.getInterruptTable().registerInternalNotification(ADCSRA_reg, interruptNum);
+
+        simulator.getCheckpointRegistry().addComponent(name, this);
+        simulator.getCheckpointRegistry().addEvent(name + ".conversion", ADCSRA_reg.conversion);
+    }
+
+    /**
+     * The <code>saveState()</code> method writes the reference voltage and the state of a conversion
+     * in progress to a checkpoint. The register values themselves are saved by the register set.
+     * @param out the output to write the state to
+     * @throws IOException if the state cannot be written
+     */
+    public void saveState(DataOutput out) throws IOException {
+        out.writeFloat(voltageRef);
+        out.writeInt(ADCSRA_reg.cycles);
+        out.writeBoolean(ADCSRA_reg.converting);
+    }
+
+    /**
+     * The <code>restoreState()</code> method restores the state of this ADC from a checkpoint.
+     * @param in the input to read the state from
+     * @throws IOException if the state cannot be read
+     */
+    public void restoreState(DataInput in) throws IOException {
+        voltageRef = in.readFloat();
+        ADCSRA_reg.cycles = in.readInt();
+        ADCSRA_reg.converting = in.readBoolean();
     }
 
     /**
@@ -197,7 +224,7 @@ public class ADC extends AtmelInternalDevice {
     /**
      * <code>ControlRegister</code> defines the behavior of the ADC control register,
      */
-    protected class ControlRegister extends RWRegister implements InterruptTable.Notification {
+    protected class ControlRegister extends RWRegister implements ActiveRegister.Stable, InterruptTable.Notification {
 
         final ConversionEvent conversion = new ConversionEvent();
 
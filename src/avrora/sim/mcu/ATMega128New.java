@@ -33,7 +33,6 @@
 package avrora.sim.mcu;
 
 import avrora.arch.avr.AVRProperties;
-import avrora.arch.legacy.LegacyInterpreter;
 import avrora.core.Program;
 import avrora.sim.*;
 import avrora.sim.clock.ClockDomain;
@@ -361,15 +360,15 @@ public class ATMega128New extends ATMegaClassic {
          * @return a <code>Microcontroller</code> instance that represents the specific hardware device with the
          *         program loaded onto it
          */
-        public Microcontroller newMicrocontroller(int id, ClockDomain cd, Program p) {
-            return new ATMega128New(id, cd, p);
+        public Microcontroller newMicrocontroller(int id, InterpreterFactory f, ClockDomain cd, Program p) {
+            return new ATMega128New(id, f, cd, p);
         }
 
     }
 
-    public ATMega128New(int id, ClockDomain cd, Program p) {
+    public ATMega128New(int id, InterpreterFactory f, ClockDomain cd, Program p) {
         super(cd, props, new FiniteStateMachine(cd.getMainClock(), MODE_ACTIVE, idleModeNames, transitionTimeMatrix));
-        simulator = new Simulator(id, LegacyInterpreter.FACTORY, this, p);
+        simulator = new Simulator(id, f, this, p);
         interpreter = (AtmelInterpreter)simulator.getInterpreter();
         MCUCR_reg = getIOReg("MCUCR");
         installPins();
@@ -39,11 +39,11 @@ package avrora.sim.mcu;
 import java.util.HashMap;
 
 import avrora.arch.avr.AVRProperties;
-import avrora.arch.legacy.LegacyInterpreter;
 import avrora.core.Program;
 import avrora.sim.ActiveRegister;
 import avrora.sim.AtmelInterpreter;
 import avrora.sim.FiniteStateMachine;
+import avrora.sim.InterpreterFactory;
 import avrora.sim.Simulator;
 import avrora.sim.clock.ClockDomain;
 import cck.util.Arithmetic;
@@ -340,15 +340,15 @@ public class ATMega169 extends ATMegaFamilyNew {
          * @return a <code>Microcontroller</code> instance that represents the specific hardware device with the
          *         program loaded onto it
          */
-        public Microcontroller newMicrocontroller(int id, ClockDomain cd, Program p) {
-            return new ATMega169(id, cd, p);
+        public Microcontroller newMicrocontroller(int id, InterpreterFactory f, ClockDomain cd, Program p) {
+            return new ATMega169(id, f, cd, p);
         }
 
     }
 
-    public ATMega169(int id, ClockDomain cd, Program p) {
+    public ATMega169(int id, InterpreterFactory f, ClockDomain cd, Program p) {
         super(cd, props, new FiniteStateMachine(cd.getMainClock(), MODE_ACTIVE, idleModeNames, transitionTimeMatrix));
-        simulator = new Simulator(id, LegacyInterpreter.FACTORY, this, p);
+        simulator = new Simulator(id, f, this, p);
         interpreter = (AtmelInterpreter)simulator.getInterpreter();
         MCUCR_reg = getIOReg("MCUCR");
         installPins();
@@ -35,6 +35,7 @@ package avrora.sim.mcu;
 import avrora.arch.avr.AVRProperties;
 import avrora.core.Program;
 import avrora.sim.FiniteStateMachine;
+import avrora.sim.InterpreterFactory;
 import avrora.sim.clock.ClockDomain;
 
 /**
@@ -93,8 +94,8 @@ public class ATMega88 extends ATMegaX8 {
          *         represents the specific hardware device with the
          *         program loaded onto it
          */
-        public Microcontroller newMicrocontroller(int id, ClockDomain cd, Program p) {
-            return new ATMega88(id, cd, p);
+        public Microcontroller newMicrocontroller(int id, InterpreterFactory f, ClockDomain cd, Program p) {
+            return new ATMega88(id, f, cd, p);
         }
 
     }
@@ -107,8 +108,8 @@ public class ATMega88 extends ATMegaX8 {
     private static final int[][] transitionTimeMatrix = 
 	FiniteStateMachine.buildBimodalTTM(idleModeNames.length, 0, wakeupTimes, new int[wakeupTimes.length]);
 
-    public ATMega88(int id, ClockDomain cd, Program p) {
-        super(id, props, cd, p, transitionTimeMatrix);
+    public ATMega88(int id, InterpreterFactory f, ClockDomain cd, Program p) {
+        super(id, f, props, cd, p, transitionTimeMatrix);
     }
 
 }
@@ -94,6 +94,10 @@ public abstract class ATMegaClassic extends ATMegaFamilyNew {
             return 0xFF;
         }
 
+        protected int truncate(int count) {
+            return (byte) count;
+        }
+
         public void resetMode(int WGMn) {
             mode = modes[WGMn];
         }
@@ -189,6 +193,10 @@ public abstract class ATMegaClassic extends ATMegaFamilyNew {
             return 0xFFFF;
         }
 
+        protected int truncate(int count) {
+            return count & 0xFFFF;
+        }
+
         public void resetMode(int WGMn) {
             mode = modes[WGMn];
         }
@@ -270,7 +278,7 @@ public abstract class ATMegaClassic extends ATMegaFamilyNew {
 
             protected void decode(byte val) {
                 // TODO: if there is a change, remove ticker and requeue?
-                timerClock = Arithmetic.getBit(val, AS0) ? externalClock : mainClock;
+                setTimerClock(Arithmetic.getBit(val, AS0) ? externalClock : mainClock);
             }
 
         }
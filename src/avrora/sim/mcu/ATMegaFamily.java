@@ -87,7 +87,7 @@ public abstract class ATMegaFamily extends AtmelMicrocontroller {
     }
 
     // TODO: migrate flag register to use InterruptFlag
-    public static class FlagRegister extends RWRegister {
+    public static class FlagRegister extends RWRegister implements ActiveRegister.Stable {
 
         class Notification implements InterruptTable.Notification {
             final int bit;
@@ -147,7 +147,7 @@ public abstract class ATMegaFamily extends AtmelMicrocontroller {
 
     }
 
-    public static class MaskRegister extends RWRegister {
+    public static class MaskRegister extends RWRegister implements ActiveRegister.Stable {
 
         /**
          * The <code>mapping</code> array maps a bit number (0-7) to an interrupt number (0-35). This is used
@@ -273,7 +273,7 @@ public abstract class ATMegaFamily extends AtmelMicrocontroller {
 
             protected void decode(byte val) {
                 // TODO: if there is a change, remove ticker and requeue?
-                timerClock = Arithmetic.getBit(val, AS0) ? externalClock : mainClock;
+                setTimerClock(Arithmetic.getBit(val, AS0) ? externalClock : mainClock);
             }
 
 
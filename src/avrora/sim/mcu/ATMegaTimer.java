@@ -69,6 +69,7 @@ public abstract class ATMegaTimer extends AtmelInternalDevice {
 
     protected final Clock externalClock;
     Clock timerClock;
+    final Counter counter = new Counter();
     int timerNumber;
     /*
      * Fields shared by all ATMega timers.
@@ -100,6 +101,9 @@ public abstract class ATMegaTimer extends AtmelInternalDevice {
 
         externalClock = m.getClock("external");
         timerClock = mainClock;
+
+        // the lazy counter and comparator state of these timers is not checkpointed
+        simulator.getCheckpointRegistry().addUnsupported(name);
     }
 
     private RegisterSet.Field newPeriodField() {
@@ -113,7 +117,9 @@ public abstract class ATMegaTimer extends AtmelInternalDevice {
     private RegisterSet.Field newWGMField() {
         return new RegisterSet.Field() {
             public void update() {
+                counter.sync();
                 resetMode(value);
+                counter.reschedule();
             }
         };
     }
@@ -133,22 +139,27 @@ public abstract class ATMegaTimer extends AtmelInternalDevice {
         if (nPeriod == 0) {
             if (timerEnabled) {
                 if (devicePrinter.enabled) devicePrinter.println(name + " disabled");
-                timerClock.removeEvent(mode);
+                counter.stop();
                 timerEnabled = false;
             }
             return;
         }
-        if (timerEnabled) {
-            timerClock.removeEvent(mode);
-        }
         if (devicePrinter.enabled)
             devicePrinter.println(name + " enabled: period = " + nPeriod + " mode = " + WGMn.value);
         period = nPeriod;
         timerEnabled = true;
-        timerClock.insertEvent(mode, period);
+        counter.start(timerClock, period);
 
     }
 
+    /**
+     * Changes the clock source of this timer. The change takes effect after the next tick.
+     */
+    protected void setTimerClock(Clock c) {
+        timerClock = c;
+        counter.setClock(c);
+    }
+
     /**
      * Resets the mode according to the WGMn bits.
      */
@@ -164,6 +175,12 @@ public abstract class ATMegaTimer extends AtmelInternalDevice {
      */
     public abstract void setCounter(int count);
 
+    /**
+     * Returns the value of the counter after writing the given value, i.e. the value truncated to the
+     * size of the counter register.
+     */
+    protected abstract int truncate(int count);
+
     /*
      * Returns the counter register name.
      */
@@ -184,6 +201,46 @@ public abstract class ATMegaTimer extends AtmelInternalDevice {
         TOVn.flag();
     }
 
+    /**
+     * Returns the number of ticks until the counter, starting at <code>count</code> and counting in the
+     * direction <code>dir</code>, is compared against <code>value</code>. If the counter never reaches
+     * the value, returns the number of ticks of one full cycle of the counter.
+     */
+    long ticksTo(int count, int value, int dir) {
+        int range = getMax() + 1;
+        int prev = value - dir;
+        if (truncate(prev) != prev) return range;
+        int ticks = ((dir > 0 ? value - count : count - value) - 1) % range;
+        if (ticks < 0) ticks += range;
+        return ticks + 1;
+    }
+
+    /**
+     * The <code>Counter</code> class drives the current mode of the timer from the timer clock. Ticks that
+     * only count are skipped over, and an event is scheduled only for the next tick at which the mode
+     * signals TOP, BOTTOM or an overflow, or at which a comparator matches.
+     */
+    class Counter extends LazyTicker {
+        protected long nextEvent() {
+            if (compareMatchBlocked) return 1;
+            int count = getCounter();
+            int dir = mode.strategy.direction();
+            long ticks = mode.strategy.ticksToEvent(count);
+            Iterator i = comparators.values().iterator();
+            while (i.hasNext()) ticks = Math.min(ticks, ticksTo(count, ((Comparator)i.next()).read(), dir));
+            return ticks;
+        }
+
+        protected void skip(long ticks) {
+            setCounter((int)(getCounter() + ticks * mode.strategy.direction()));
+            compareMatchBlocked = false;
+        }
+
+        protected void tick() {
+            mode.tick();
+        }
+    }
+
     /**
      * The <code>TopValue</code> interface allows the mode-specific TOP value to be abstracted.  Depending on
      * the mode, TOP may be either defined by a register or by a constant.
@@ -248,13 +305,13 @@ public abstract class ATMegaTimer extends AtmelInternalDevice {
 
     /**
      * The <code>Mode</code> implements the mode dependent, periodic behavior of the timer. It emulates the
-     * operation of the timer at each clock cycle and uses the global timed event queue to achieve the correct
-     * periodic behavior.
+     * operation of the timer at each tick and computes how many ticks remain until the next tick that
+     * has an effect, so that the <code>Counter</code> can skip the ticks in between.
      * <p/>
      * The Mode abstract the specifics of the timer mode into a simpler interface, allowing the commonality
      * between the different ATMega timers to be implemented by a single, fairly simple set of methods.
      */
-    protected /*final*/ class Mode implements Simulator.Event {
+    protected /*final*/ class Mode {
 
         /**
          * A mode-dependint TOP value, either a constant or a register, typically COMnA or COMnI.
@@ -321,9 +378,9 @@ public abstract class ATMegaTimer extends AtmelInternalDevice {
         }
 
         /**
-         * Called by the appropriate clock whenever the strategy should tick.
+         * Called by the counter whenever the strategy should tick.
          */
-        public void fire() {
+        public void tick() {
             int value = getCounter();
             if (devicePrinter.enabled) {
                 devicePrinter.println(name + " [" + getCounterName() + " = " + value);
@@ -347,8 +404,6 @@ public abstract class ATMegaTimer extends AtmelInternalDevice {
 
             // XXX: verify the timing on this.
             compareMatchBlocked = false;
-
-            if (period != 0) timerClock.insertEvent(this, period);
         }
 
         protected void registerWritten(BufferedRegister reg) {
@@ -359,11 +414,24 @@ public abstract class ATMegaTimer extends AtmelInternalDevice {
 
             protected abstract int nextValue(int count);
 
+            /**
+             * Returns the number of ticks until the strategy signals TOP, BOTTOM or an overflow.
+             */
+            protected abstract long ticksToEvent(int count);
+
+            protected int direction() {
+                return 1;
+            }
+
             protected abstract void registerWritten(BufferedRegister reg);
         }
 
         protected class NORMAL extends Strategy {
 
+            protected long ticksToEvent(int count) {
+                return ticksTo(count, getMax() + 1, 1);
+            }
+
             protected int nextValue(int count) {
                 count++;
                 if (getMax() + 1 == count) {
@@ -381,6 +449,10 @@ public abstract class ATMegaTimer extends AtmelInternalDevice {
 
         protected class CTC extends Strategy {
 
+            protected long ticksToEvent(int count) {
+                return Math.min(ticksTo(count, getTop(), 1), ticksTo(count, getMax() + 1, 1));
+            }
+
             protected int nextValue(int count) {
                 count++;
 
@@ -405,6 +477,10 @@ public abstract class ATMegaTimer extends AtmelInternalDevice {
 
             boolean zero = false;
 
+            protected long ticksToEvent(int count) {
+                return zero ? 1 : ticksTo(count, getTop(), 1);
+            }
+
             protected int nextValue(int count) {
                 count++;
 
@@ -430,6 +506,15 @@ public abstract class ATMegaTimer extends AtmelInternalDevice {
 
         protected class PWM extends Strategy {
 
+            protected long ticksToEvent(int count) {
+                int dir = direction();
+                return Math.min(ticksTo(count, getTop(), dir), ticksTo(count, 0, dir));
+            }
+
+            protected int direction() {
+                return countUp ? 1 : -1;
+            }
+
             protected int nextValue(int count) {
                 if (countUp) count++;
                 else count--;
@@ -455,6 +540,15 @@ public abstract class ATMegaTimer extends AtmelInternalDevice {
 
         protected class FC_PWM extends Strategy {
 
+            protected long ticksToEvent(int count) {
+                int dir = direction();
+                return Math.min(ticksTo(count, getTop(), dir), ticksTo(count, 0, dir));
+            }
+
+            protected int direction() {
+                return countUp ? 1 : -1;
+            }
+
             protected int nextValue(int count) {
                 if (countUp) count++;
                 else count--;
@@ -616,11 +710,14 @@ public abstract class ATMegaTimer extends AtmelInternalDevice {
         }
 
         public void write(byte val) {
+            counter.sync();
             register.write(val);
             compareMatchBlocked = true;
+            counter.reschedule();
         }
 
         public byte read() {
+            counter.sync();
             return register.read();
         }
 
@@ -671,11 +768,13 @@ public abstract class ATMegaTimer extends AtmelInternalDevice {
         public void write(byte val) {
             value = val;
             mode.registerWritten(this);
+            counter.reschedule();
         }
 
         public void write(int val) {
             value = val;
             mode.registerWritten(this);
+            counter.reschedule();
         }
 
         public int readBuffer() {
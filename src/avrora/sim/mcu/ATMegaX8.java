@@ -33,7 +33,6 @@
 package avrora.sim.mcu;
 
 import avrora.arch.avr.AVRProperties;
-import avrora.arch.legacy.LegacyInterpreter;
 import avrora.core.Program;
 import avrora.sim.*;
 import avrora.sim.clock.ClockDomain;
@@ -285,11 +284,11 @@ public abstract class ATMegaX8 extends ATMegaFamilyNew {
 
     }
 
-    public ATMegaX8(int id, AVRProperties props, ClockDomain cd, Program p, 
+    public ATMegaX8(int id, InterpreterFactory f, AVRProperties props, ClockDomain cd, Program p, 
 		    int[][] transitionTimeMatrix) {
         super(cd, props, 
 	      new FiniteStateMachine(cd.getMainClock(), MODE_ACTIVE, idleModeNames, transitionTimeMatrix));
-        simulator = new Simulator(id, LegacyInterpreter.FACTORY, this, p);
+        simulator = new Simulator(id, f, this, p);
         interpreter = (AtmelInterpreter)simulator.getInterpreter();
         MCUCR_reg = getIOReg("MCUCR");
         installPins();
@@ -34,6 +34,7 @@
 
 package avrora.sim.mcu;
 
+import avrora.sim.Checkpoint;
 import avrora.sim.FiniteStateMachine;
 import avrora.sim.Simulator;
 import avrora.sim.output.SimPrinter;
@@ -41,11 +42,12 @@ import avrora.sim.clock.Clock;
 import avrora.sim.clock.ClockDomain;
 import avrora.sim.platform.Platform;
 import avrora.sim.util.SimUtil;
+import java.io.*;
 
 /**
  * @author Ben L. Titzer
  */
-public abstract class DefaultMCU implements Microcontroller {
+public abstract class DefaultMCU implements Microcontroller, Checkpoint.Component {
 
     protected final Microcontroller.Pin[] pins;
     protected final RegisterSet registers;
@@ -71,6 +73,38 @@ public abstract class DefaultMCU implements Microcontroller {
         return sleepState;
     }
 
+    /**
+     * The <code>saveState()</code> method writes the state of the pins of this microcontroller to a
+     * checkpoint. The IO registers are saved with the interpreter, and the sleep mode with its state machine.
+     * @param out the output to write the state to
+     * @throws IOException if the state cannot be written
+     */
+    public void saveState(DataOutput out) throws IOException {
+        for ( int cntr = 0; cntr < pins.length; cntr++ ) {
+            if ( !(pins[cntr] instanceof Pin) ) continue;
+            Pin p = (Pin)pins[cntr];
+            out.writeBoolean(p.level);
+            out.writeBoolean(p.outputDir);
+            out.writeBoolean(p.pullup);
+        }
+    }
+
+    /**
+     * The <code>restoreState()</code> method restores the state of the pins from a checkpoint without
+     * writing to any connected devices.
+     * @param in the input to read the state from
+     * @throws IOException if the state cannot be read
+     */
+    public void restoreState(DataInput in) throws IOException {
+        for ( int cntr = 0; cntr < pins.length; cntr++ ) {
+            if ( !(pins[cntr] instanceof Pin) ) continue;
+            Pin p = (Pin)pins[cntr];
+            p.level = in.readBoolean();
+            p.outputDir = in.readBoolean();
+            p.pullup = in.readBoolean();
+        }
+    }
+
     /**
      * The <code>getRegisterSet()</code> method gets a reference to the register set of the microcontroller.
      * The register set contains all of the IO registers for this microcontroller.
@@ -32,12 +32,15 @@
 
 package avrora.sim.mcu;
 
+import avrora.sim.ActiveRegister;
+import avrora.sim.Checkpoint;
 import avrora.sim.RWRegister;
 import avrora.sim.Simulator;
 import avrora.sim.state.BooleanView;
 import avrora.sim.state.RegisterUtil;
 import cck.util.Arithmetic;
 import cck.text.StringUtil;
+import java.io.*;
 
 /**
  * This is an implementation of the non-volatile EEPROM on the ATMega128 microcontroller.
@@ -45,7 +48,7 @@ import cck.text.StringUtil;
  * @author Daniel Lee
  * @author Sascha Silbe
  */
-public class EEPROM extends AtmelInternalDevice {
+public class EEPROM extends AtmelInternalDevice implements Checkpoint.Component {
 
     final int EEPROM_SIZE, EEPROM_SIZE_numBits;
 
@@ -100,6 +103,42 @@ public class EEPROM extends AtmelInternalDevice {
         installIOReg("EECR", EECR_reg);
         installIOReg("EEARL", EEARL_reg);
         installIOReg("EEARH", EEARH_reg);
+
+        simulator.getCheckpointRegistry().addComponent(name, this);
+        simulator.getCheckpointRegistry().addEvent(name + ".ticker", ticker);
+        simulator.getCheckpointRegistry().addEvent(name + ".write", writeFinishedEvent);
+    }
+
+    /**
+     * The <code>saveState()</code> method writes the contents of the EEPROM and the state of a read or
+     * write operation in progress to a checkpoint.
+     * @param out the output to write the state to
+     * @throws IOException if the state cannot be written
+     */
+    public void saveState(DataOutput out) throws IOException {
+        out.write(EEPROM_data);
+        out.writeBoolean(masterWriteEnable);
+        out.writeBoolean(writeEnable);
+        out.writeBoolean(readEnable);
+        out.writeInt(writeCount);
+        out.writeBoolean(writeEnableWritten);
+        out.writeBoolean(readEnableWritten);
+    }
+
+    /**
+     * The <code>restoreState()</code> method restores the contents and the state of the EEPROM from a
+     * checkpoint.
+     * @param in the input to read the state from
+     * @throws IOException if the state cannot be read
+     */
+    public void restoreState(DataInput in) throws IOException {
+        in.readFully(EEPROM_data);
+        masterWriteEnable = in.readBoolean();
+        writeEnable = in.readBoolean();
+        readEnable = in.readBoolean();
+        writeCount = in.readInt();
+        writeEnableWritten = in.readBoolean();
+        readEnableWritten = in.readBoolean();
     }
 
     public int getSize() {
@@ -138,7 +177,7 @@ public class EEPROM extends AtmelInternalDevice {
         }
     }
 
-    protected class EECRReg extends RWRegister {
+    protected class EECRReg extends RWRegister implements ActiveRegister.Stable {
 
         final BooleanView _eerie = RegisterUtil.booleanView(this, EERIE);
         final BooleanView _eere = RegisterUtil.booleanView(this, EERE);
@@ -0,0 +1,255 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package avrora.sim.mcu;
+
+import avrora.sim.Simulator;
+import avrora.sim.clock.Clock;
+import java.io.*;
+
+/**
+ * The <code>LazyTicker</code> class drives a timer/counter from its clock without inserting an event
+ * into the clock for every tick. Most ticks of a timer only increment or decrement the counter; only
+ * ticks that reach TOP, BOTTOM, an overflow, or a compare value have an effect on the rest of the system.
+ * The ticker asks the timer how many ticks remain until the next such tick and schedules a single event
+ * for it. The ticks in between are accounted for lazily, either when that event fires or when the
+ * program accesses the timer and calls <code>sync()</code>.
+ * <p/>
+ * Ticks occur at exactly the same clock cycles as if the timer were ticked individually: the phase of
+ * the ticks is determined by the time at which the timer was last started, and a change of the clock
+ * source takes effect after the next tick.
+ * <p/>
+ * Whenever the program changes a register that influences which tick is the next one with an effect,
+ * the timer must call <code>sync()</code> before the change and <code>reschedule()</code> after it.
+ */
+public abstract class LazyTicker implements Simulator.Event {
+
+    /**
+     * The <code>clock</code> field stores the clock on which the last tick was counted and on which the
+     * next event is scheduled.
+     */
+    protected Clock clock;
+
+    /**
+     * The <code>nextClock</code> field stores the clock that drives the ticks after the next tick.
+     */
+    protected Clock nextClock;
+
+    protected long period;
+
+    /**
+     * The <code>lastTick</code> field stores the count of the clock at the last tick that has been
+     * accounted for.
+     */
+    protected long lastTick;
+
+    /**
+     * The <code>pending</code> field stores the number of ticks after <code>lastTick</code> at which the
+     * event is scheduled, or zero if no event is scheduled.
+     */
+    protected long pending;
+
+    private boolean updating;
+
+    /**
+     * The <code>nextEvent()</code> method computes the number of ticks, counting from the current state of
+     * the timer, up to and including the next tick that does anything other than counting.
+     *
+     * @return the number of ticks until the next tick that must be performed in full; zero if no tick
+     * has any effect, i.e. the timer is stopped.
+     */
+    protected abstract long nextEvent();
+
+    /**
+     * The <code>skip()</code> method advances the counter of the timer over a number of ticks that have no
+     * effect other than counting.
+     *
+     * @param ticks the number of ticks to skip
+     */
+    protected abstract void skip(long ticks);
+
+    /**
+     * The <code>tick()</code> method performs a single tick of the timer in full.
+     */
+    protected abstract void tick();
+
+    /**
+     * The <code>start()</code> method starts the ticker on the specified clock. The first tick occurs one
+     * period after the current time.
+     *
+     * @param c the clock that drives the timer
+     * @param p the number of cycles of the clock per tick; a period of zero ticks only once, immediately
+     */
+    public void start(Clock c, long p) {
+        stop();
+        clock = nextClock = c;
+        period = p;
+        lastTick = c.getCount();
+        schedule();
+    }
+
+    /**
+     * The <code>stop()</code> method accounts for the ticks up to the current time and stops the ticker.
+     */
+    public void stop() {
+        if ( pending == 0 ) return;
+        sync();
+        clock.removeEvent(this);
+        pending = 0;
+    }
+
+    /**
+     * The <code>setClock()</code> method changes the clock that drives the timer. The next tick still
+     * happens on the old clock, and the ticks after it happen on the new clock.
+     *
+     * @param c the new clock for the timer
+     */
+    public void setClock(Clock c) {
+        if ( pending == 0 ) {
+            clock = nextClock = c;
+        } else if ( c != nextClock ) {
+            nextClock = c;
+            reschedule();
+        }
+    }
+
+    /**
+     * The <code>sync()</code> method brings the counter of the timer up to date with the current time of
+     * the clock by skipping over the ticks that have elapsed since the last tick was accounted for.
+     */
+    public void sync() {
+        if ( pending <= 1 || updating ) return;
+        long ticks = (clock.getCount() - lastTick) / period;
+        if ( ticks >= pending ) ticks = pending - 1;
+        if ( ticks > 0 ) {
+            lastTick += ticks * period;
+            pending -= ticks;
+            updating = true;
+            skip(ticks);
+            updating = false;
+        }
+    }
+
+    /**
+     * The <code>reschedule()</code> method recomputes the next tick that must be performed in full after
+     * the state of the timer has changed and moves the event accordingly.
+     */
+    public void reschedule() {
+        if ( pending == 0 || updating ) return;
+        sync();
+        clock.removeEvent(this);
+        schedule();
+    }
+
+    /**
+     * The <code>fire()</code> method is called by the clock at the next tick that must be performed in
+     * full. It skips the ticks before it, performs the tick, and schedules the next event.
+     */
+    public void fire() {
+        updating = true;
+        if ( pending > 1 ) skip(pending - 1);
+        pending = 0;
+        clock = nextClock;
+        lastTick = clock.getCount();
+        tick();
+        updating = false;
+        if ( period != 0 ) schedule();
+    }
+
+    private void schedule() {
+        long ticks = (period == 0 || clock != nextClock) ? 1 : nextEvent();
+        pending = ticks;
+        if ( ticks > 0 ) clock.insertEvent(this, lastTick + ticks * period - clock.getCount());
+    }
+
+    /**
+     * The <code>saveState()</code> method writes the state of this ticker to a checkpoint. The clocks are
+     * saved as indices into the array of clocks that may drive the ticker; the pending event itself is saved
+     * with the event queue.
+     * @param out the output to write the state to
+     * @param clocks the clocks that may drive this ticker
+     * @throws IOException if the state cannot be written
+     */
+    public void saveState(DataOutput out, Clock[] clocks) throws IOException {
+        out.writeInt(indexOf(clocks, clock));
+        out.writeInt(indexOf(clocks, nextClock));
+        out.writeLong(period);
+        out.writeLong(lastTick);
+        out.writeLong(pending);
+    }
+
+    /**
+     * The <code>restoreState()</code> method restores the state of this ticker from a checkpoint.
+     * @param in the input to read the state from
+     * @param clocks the clocks that may drive this ticker, in the same order as when it was saved
+     * @throws IOException if the state cannot be read
+     */
+    public void restoreState(DataInput in, Clock[] clocks) throws IOException {
+        int c = in.readInt();
+        int nc = in.readInt();
+        clock = c < 0 ? null : clocks[c];
+        nextClock = nc < 0 ? null : clocks[nc];
+        period = in.readLong();
+        lastTick = in.readLong();
+        pending = in.readLong();
+    }
+
+    private static int indexOf(Clock[] clocks, Clock c) {
+        for ( int cntr = 0; cntr < clocks.length; cntr++ )
+            if ( clocks[cntr] == c ) return cntr;
+        return -1;
+    }
+
+    /**
+     * The <code>ticksUp()</code> method computes the number of ticks it takes a counter that counts up
+     * by one to go from one value to another.
+     *
+     * @param count the current value of the counter
+     * @param value the value to reach
+     * @return the number of ticks; <code>Long.MAX_VALUE</code> if the value is never reached
+     */
+    public static long ticksUp(int count, int value) {
+        return value > count ? value - count : Long.MAX_VALUE;
+    }
+
+    /**
+     * The <code>ticksDown()</code> method computes the number of ticks it takes a counter that counts down
+     * by one to go from one value to another.
+     *
+     * @param count the current value of the counter
+     * @param value the value to reach
+     * @return the number of ticks; <code>Long.MAX_VALUE</code> if the value is never reached
+     */
+    public static long ticksDown(int count, int value) {
+        return value < count ? count - value : Long.MAX_VALUE;
+    }
+}
@@ -33,6 +33,7 @@
 package avrora.sim.mcu;
 
 import avrora.core.Program;
+import avrora.sim.InterpreterFactory;
 import avrora.sim.clock.ClockDomain;
 
 /**
@@ -48,10 +49,13 @@ public interface MicrocontrollerFactory {
      * particular program. It will construct an instance of the <code>Simulator</code> class that has all the
      * properties of this hardware device and has been initialized with the specified program.
      *
+     * @param id the ID number of the microcontroller to create
+     * @param f the interpreter factory that creates the interpreter executing the program
+     * @param cd the clock domain of the microcontroller
      * @param p the program to load onto the microcontroller
      * @return a <code>Microcontroller</code> instance that represents the specific hardware device with the
      *         program loaded onto it
      */
-    public Microcontroller newMicrocontroller(int id, ClockDomain cd, Program p);
+    public Microcontroller newMicrocontroller(int id, InterpreterFactory f, ClockDomain cd, Program p);
 
 }
@@ -36,8 +36,8 @@ import avrora.sim.ActiveRegister;
 import avrora.sim.RWRegister;
 import cck.text.StringUtil;
 import cck.util.Util;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.io.*;
+import java.util.*;
 
 /**
  * The <code>RegisterSet</code> class is a utility that simplifies the implementation
@@ -172,7 +172,7 @@ public class RegisterSet {
      * directly read and written by the program. This IO register implements writes
      * that alter multiple fields and subfields in the register set.
      */
-    public class MultiFieldRegister implements ActiveRegister {
+    public class MultiFieldRegister implements ActiveRegister.Stable {
 
         byte value;
         final SubRegWriter[] subFields;
@@ -317,4 +317,55 @@ public class RegisterSet {
         fwriter.fobject = fo;
         return fo;
     }
+
+    /**
+     * The <code>saveState()</code> method writes the values of the plain IO registers and of all fields
+     * to a checkpoint. Registers that have been replaced by a device are saved by that device.
+     * @param out the output to write the state to
+     * @throws IOException if the state cannot be written
+     */
+    public void saveState(DataOutput out) throws IOException {
+        out.writeInt(registers.length);
+        for ( int cntr = 0; cntr < registers.length; cntr++ ) {
+            ActiveRegister r = registers[cntr];
+            if ( r instanceof RWRegister ) out.writeByte(((RWRegister)r).value);
+            else if ( r instanceof MultiFieldRegister ) out.writeByte(((MultiFieldRegister)r).value);
+        }
+        String[] names = getFieldNames();
+        for ( int cntr = 0; cntr < names.length; cntr++ ) {
+            FieldWriter fw = (FieldWriter)fields.get(names[cntr]);
+            out.writeInt(fw.fobject.value);
+            out.writeInt(fw.value);
+            out.writeInt(fw.writtenMask);
+        }
+    }
+
+    /**
+     * The <code>restoreState()</code> method restores the values of the plain IO registers and of all
+     * fields from a checkpoint. The values are stored directly; no write behavior is triggered.
+     * @param in the input to read the state from
+     * @throws IOException if the state cannot be read
+     */
+    public void restoreState(DataInput in) throws IOException {
+        if ( in.readInt() != registers.length )
+            throw Util.failure("checkpoint IO register count does not match microcontroller");
+        for ( int cntr = 0; cntr < registers.length; cntr++ ) {
+            ActiveRegister r = registers[cntr];
+            if ( r instanceof RWRegister ) ((RWRegister)r).value = in.readByte();
+            else if ( r instanceof MultiFieldRegister ) ((MultiFieldRegister)r).value = in.readByte();
+        }
+        String[] names = getFieldNames();
+        for ( int cntr = 0; cntr < names.length; cntr++ ) {
+            FieldWriter fw = (FieldWriter)fields.get(names[cntr]);
+            fw.fobject.value = in.readInt();
+            fw.value = in.readInt();
+            fw.writtenMask = in.readInt();
+        }
+    }
+
+    private String[] getFieldNames() {
+        String[] names = (String[])fields.keySet().toArray(new String[fields.size()]);
+        Arrays.sort(names);
+        return names;
+    }
 }
@@ -41,6 +41,7 @@ import avrora.sim.output.SimPrinter;
 import cck.text.StringUtil;
 import cck.util.Arithmetic;
 import cck.util.Util;
+import java.io.*;
 
 /**
  * The <code>ReprogrammableCodeSegment</code> class represents a flash segment that stores code. This segment
@@ -175,6 +176,11 @@ public class ReprogrammableCodeSegment extends CodeSegment {
      */
     final SPMCSR_reg SPMCSR;
 
+    /**
+     * The <code>updates</code> field counts the page erase and page write operations that are in progress.
+     */
+    int updates;
+
     /**
      * The <code>ERASE_CYCLES</code> field stores the number of cycles needed to complete an erase operation.
      */
@@ -223,6 +229,66 @@ public class ReprogrammableCodeSegment extends CodeSegment {
         WRITE_CYCLES = (int)((mainClock.getHZ() * WRITE_MS_MAX / 1000));
 
         flashPrinter = SimUtil.getPrinter(bi.getSimulator(), "atmel.flash");
+        bi.getSimulator().getCheckpointRegistry().addEvent("flash.spmcsr.reset", SPMCSR.reset);
+    }
+
+    /**
+     * The <code>saveState()</code> method writes the flash and the temporary page buffer to a checkpoint.
+     * A page erase or page write that is still in progress cannot be saved.
+     * @param out the output to write the state to
+     * @throws IOException if the state cannot be written
+     */
+    public void saveState(DataOutput out) throws IOException {
+        if ( updates > 0 )
+            throw Util.failure("cannot checkpoint while a flash page update is in progress");
+        super.saveState(out);
+        out.write(buffer);
+    }
+
+    /**
+     * The <code>restoreState()</code> method restores the flash and the temporary page buffer from a
+     * checkpoint.
+     * @param in the input to read the state from
+     * @throws IOException if the state cannot be read
+     */
+    public void restoreState(DataInput in) throws IOException {
+        super.restoreState(in);
+        in.readFully(buffer);
+    }
+
+    /**
+     * The <code>saveSpeculative()</code> method saves the flash and the temporary page buffer in memory.
+     * @return an object holding the contents of the flash and the page buffer
+     */
+    public Object saveSpeculative() {
+        if ( updates > 0 )
+            throw Util.failure("cannot save flash while a page update is in progress");
+        return new Object[] { super.saveSpeculative(), buffer.clone() };
+    }
+
+    /**
+     * The <code>restoreSpeculative()</code> method restores the flash and the temporary page buffer saved
+     * by <code>saveSpeculative()</code>.
+     * @param state the object returned by <code>saveSpeculative()</code>
+     * @param time the time up to which the node will repeat its earlier execution
+     */
+    public void restoreSpeculative(Object state, long time) {
+        Object[] s = (Object[])state;
+        super.restoreSpeculative(s[0], time);
+        byte[] b = (byte[])s[1];
+        System.arraycopy(b, 0, buffer, 0, b.length);
+    }
+
+    /**
+     * The <code>restoreByte()</code> method updates a byte of the flash that was reprogrammed before the
+     * checkpoint was taken, so the instruction at that address is disassembled again when it is executed.
+     * @param address the address of the byte
+     * @param val the new value of the byte
+     */
+    protected void restoreByte(int address, byte val) {
+        super.restoreByte(address, val);
+        int iaddr = address & ~1;
+        replaceInstr(iaddr, new DisassembleLegacyInstr(iaddr));
     }
 
     /**
@@ -269,12 +335,14 @@ public class ReprogrammableCodeSegment extends CodeSegment {
     private void pageErase(int pagenum, int pageoffset) {
         mainClock.removeEvent(SPMCSR.reset);
         SPMCSR.setBusy();
+        updates++;
         mainClock.insertEvent(new EraseEvent(pagenum), ERASE_CYCLES);
     }
 
     private void pageWrite(int pagenum, int pageoffset) {
         mainClock.removeEvent(SPMCSR.reset);
         SPMCSR.setBusy();
+        updates++;
         mainClock.insertEvent(new WriteEvent(pagenum, buffer), WRITE_CYCLES);
         resetBuffer();
     }
@@ -322,6 +390,7 @@ public class ReprogrammableCodeSegment extends CodeSegment {
                 if ( (offset & 1) == 0)
                     replaceInstr(baddr, new DisassembleLegacyInstr(baddr));
             }
+            updates--;
             SPMCSR.reset();
         }
     }
@@ -353,6 +422,7 @@ public class ReprogrammableCodeSegment extends CodeSegment {
                 if ( (offset & 1) == 0)
                     replaceInstr(baddr, new DisassembleLegacyInstr(baddr));
             }
+            updates--;
             SPMCSR.reset();
         }
     }
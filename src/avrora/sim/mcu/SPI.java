@@ -36,13 +36,14 @@ import avrora.sim.*;
 import avrora.sim.state.*;
 import cck.text.StringUtil;
 import cck.util.Arithmetic;
+import java.io.*;
 
 /**
  * Serial Peripheral Interface. Used on the <code>Mica2</code> platform for radio communication.
  *
  * @author Daniel Lee, Simon Han
  */
-public class SPI extends AtmelInternalDevice implements SPIDevice, InterruptTable.Notification {
+public class SPI extends AtmelInternalDevice implements SPIDevice, InterruptTable.Notification, Checkpoint.Component {
 
     final SPDReg SPDR_reg;
     final SPCRReg SPCR_reg;
@@ -85,6 +86,7 @@ public class SPI extends AtmelInternalDevice implements SPIDevice, InterruptTabl
     }
 
     public void connect(SPIDevice d) {
+        // the state of a connected device is not saved with this SPI; the device must register it
         connectedDevice = d;
     }
 
@@ -112,6 +114,42 @@ public class SPI extends AtmelInternalDevice implements SPIDevice, InterruptTabl
         installIOReg("SPCR", SPCR_reg);
 
         interpreter.getInterruptTable().registerInternalNotification(this, interruptNum);
+
+        simulator.getCheckpointRegistry().addComponent(name, this);
+        simulator.getCheckpointRegistry().addEvent(name + ".transfer", transferEvent);
+    }
+
+    /**
+     * The <code>saveState()</code> method writes the state of a transfer in progress and of the data
+     * registers to a checkpoint. The connected device must save its own state.
+     * @param out the output to write the state to
+     * @throws IOException if the state cannot be written
+     */
+    public void saveState(DataOutput out) throws IOException {
+        out.writeBoolean(spifAccessed);
+        out.writeInt(period);
+        out.writeBoolean(transferEvent.transmitting);
+        out.writeByte(transferEvent.frame == null ? 0 : transferEvent.frame.data);
+        out.writeByte(SPDR_reg.receiveReg.value);
+        out.writeByte(SPDR_reg.transmitReg.value);
+        out.writeBoolean(SPCR_reg.prev_spie);
+        out.writeByte(SPSR_reg.prev_value);
+    }
+
+    /**
+     * The <code>restoreState()</code> method restores the state of this SPI from a checkpoint.
+     * @param in the input to read the state from
+     * @throws IOException if the state cannot be read
+     */
+    public void restoreState(DataInput in) throws IOException {
+        spifAccessed = in.readBoolean();
+        period = in.readInt();
+        transferEvent.transmitting = in.readBoolean();
+        transferEvent.frame = newFrame(in.readByte());
+        SPDR_reg.receiveReg.value = in.readByte();
+        SPDR_reg.transmitReg.value = in.readByte();
+        SPCR_reg.prev_spie = in.readBoolean();
+        SPSR_reg.prev_value = in.readByte();
     }
 
     /**
@@ -264,7 +302,7 @@ public class SPI extends AtmelInternalDevice implements SPIDevice, InterruptTabl
     /**
      * SPI status register.
      */
-    class SPSReg extends RWRegister {
+    class SPSReg extends RWRegister implements ActiveRegister.Stable {
 
         static final int SPIF = 7;
         static final int WCOL = 6;
@@ -32,10 +32,12 @@
 
 package avrora.sim.mcu;
 
+import avrora.sim.Checkpoint;
 import avrora.sim.RWRegister;
 import avrora.sim.Simulator;
 import avrora.sim.state.BooleanView;
 import avrora.sim.clock.Clock;
+import java.io.*;
 
 /**
  * The <code>Timer16Bit</code> class emulates the functionality and behavior of a 16-bit timer on the
@@ -45,7 +47,7 @@ import avrora.sim.clock.Clock;
  *
  * @author Daniel Lee
  */
-public abstract class Timer16Bit extends AtmelInternalDevice {
+public abstract class Timer16Bit extends AtmelInternalDevice implements Checkpoint.Component {
 
     // Timer/Counter Modes of Operations
     public static final int MODE_NORMAL = 0;
@@ -116,6 +118,7 @@ public abstract class Timer16Bit extends AtmelInternalDevice {
         class FOC_Field extends RegisterSet.Field {
             public void update() {
                 if ( value == 1 ) {
+                    counter.sync();
                     if ( read16(TCNTnH_reg, TCNTnL_reg) == read() ) {
                         output();
                     }
@@ -169,7 +172,8 @@ public abstract class Timer16Bit extends AtmelInternalDevice {
     final PairedRegister TCNTn_reg;
 
     final OutputCompareUnit[] compareUnits;
-    final Simulator.Event[] tickers;
+    final Mode[] tickers;
+    final Counter counter = new Counter();
 
     final RWRegister highTempReg;
 
@@ -177,7 +181,7 @@ public abstract class Timer16Bit extends AtmelInternalDevice {
     final RWRegister ICRnL_reg;
     final PairedRegister ICRn_reg;
 
-    Simulator.Event ticker;
+    Mode ticker;
 
     final RegisterSet.Field WGMn;
     final RegisterSet.Field CSn;
@@ -263,8 +267,78 @@ public abstract class Timer16Bit extends AtmelInternalDevice {
         installIOReg("ICR"+n+"H", highTempReg);
         installIOReg("ICR"+n+"L", ICRn_reg);
 
-        tickers = new Simulator.Event[16];
+        tickers = new Mode[16];
         installTickers();
+
+        simulator.getCheckpointRegistry().addComponent(name, this);
+        simulator.getCheckpointRegistry().addEvent(name + ".counter", counter);
+    }
+
+    /**
+     * The <code>saveState()</code> method writes the state of this timer that is not visible in its IO
+     * registers to a checkpoint, including the counter, the input capture and output compare registers,
+     * and the counting direction of the phase correct modes.
+     * @param out the output to write the state to
+     * @throws IOException if the state cannot be written
+     */
+    public void saveState(DataOutput out) throws IOException {
+        out.writeByte(TCNTnH_reg.value);
+        out.writeByte(TCNTnL_reg.value);
+        out.writeByte(ICRnH_reg.value);
+        out.writeByte(ICRnL_reg.value);
+        for ( int cntr = 0; cntr < compareUnits.length; cntr++ ) {
+            OutputCompareUnit ocu = compareUnits[cntr];
+            out.writeByte(ocu.OCRnXH_reg.value);
+            out.writeByte(ocu.OCRnXH_reg.register.value);
+            out.writeByte(ocu.OCRnXL_reg.value);
+            out.writeByte(ocu.OCRnXL_reg.register.value);
+        }
+        int tnum = -1;
+        for ( int cntr = 0; cntr < tickers.length; cntr++ ) {
+            Mode m = tickers[cntr];
+            if ( m == ticker ) tnum = cntr;
+            if ( m instanceof Mode_PWM_PNF ) out.writeByte(((Mode_PWM_PNF)m).increment);
+            else if ( m instanceof Mode_PWMPhaseCorrect ) out.writeByte(((Mode_PWMPhaseCorrect)m).increment);
+        }
+        out.writeInt(tnum);
+        out.writeLong(period);
+        out.writeBoolean(blockCompareMatch);
+        out.writeBoolean(inputCapturePin.level);
+        counter.saveState(out, getClocks());
+    }
+
+    /**
+     * The <code>restoreState()</code> method restores the state of this timer from a checkpoint.
+     * @param in the input to read the state from
+     * @throws IOException if the state cannot be read
+     */
+    public void restoreState(DataInput in) throws IOException {
+        TCNTnH_reg.value = in.readByte();
+        TCNTnL_reg.value = in.readByte();
+        ICRnH_reg.value = in.readByte();
+        ICRnL_reg.value = in.readByte();
+        for ( int cntr = 0; cntr < compareUnits.length; cntr++ ) {
+            OutputCompareUnit ocu = compareUnits[cntr];
+            ocu.OCRnXH_reg.value = in.readByte();
+            ocu.OCRnXH_reg.register.value = in.readByte();
+            ocu.OCRnXL_reg.value = in.readByte();
+            ocu.OCRnXL_reg.register.value = in.readByte();
+        }
+        for ( int cntr = 0; cntr < tickers.length; cntr++ ) {
+            Mode m = tickers[cntr];
+            if ( m instanceof Mode_PWM_PNF ) ((Mode_PWM_PNF)m).increment = in.readByte();
+            else if ( m instanceof Mode_PWMPhaseCorrect ) ((Mode_PWMPhaseCorrect)m).increment = in.readByte();
+        }
+        int tnum = in.readInt();
+        ticker = tnum < 0 ? null : tickers[tnum];
+        period = in.readLong();
+        blockCompareMatch = in.readBoolean();
+        inputCapturePin.level = in.readBoolean();
+        counter.restoreState(in, getClocks());
+    }
+
+    private Clock[] getClocks() {
+        return new Clock[] { mainClock, externalClock };
     }
 
     private void installTickers() {
@@ -294,8 +368,10 @@ public abstract class Timer16Bit extends AtmelInternalDevice {
     }
 
     void captureInput() {
+        counter.sync();
         ICRnL_reg.write(TCNTnL_reg.value);
         ICRnH_reg.write(TCNTnH_reg.value);
+        counter.reschedule();
         xTIFR_reg.flagBit(ICFn);
         interpreter.getInterruptTable().post(inputCaptureInterrupt);
     }
@@ -339,11 +415,14 @@ public abstract class Timer16Bit extends AtmelInternalDevice {
         }
 
         public void write(byte val) {
+            counter.sync();
             low.write(val);
             high.write(highTempReg.read());
+            counter.reschedule();
         }
 
         public byte read() {
+            counter.sync();
             highTempReg.write(high.read());
             return low.read();
         }
@@ -401,22 +480,70 @@ public abstract class Timer16Bit extends AtmelInternalDevice {
         if (nPeriod == 0) {
             // disable the timer.
             if (devicePrinter.enabled) devicePrinter.println("Timer" + n + " disabled");
-            if (ticker != null) timerClock.removeEvent(ticker);
+            counter.stop();
         } else {
             // enable the timer.
             if (devicePrinter.enabled)
                 devicePrinter.println("Timer" + n + " enabled: period = " + nPeriod + " mode = " + WGMn.value);
-            if (ticker != null) timerClock.removeEvent(ticker);
+            counter.stop();
             ticker = tickers[WGMn.value];
             period = nPeriod;
-            timerClock.insertEvent(ticker, period);
+            counter.start(timerClock, period);
         }
     }
 
-    public void resetTicker(Simulator.Event e) {
-        if (ticker != null) simulator.removeEvent(ticker);
+    public void resetTicker(Mode e) {
+        counter.stop();
         ticker = e;
-        simulator.insertEvent(e, period);
+        counter.start(timerClock, period);
+    }
+
+    /**
+     * The <code>Counter</code> class drives the current mode of the timer from the timer clock. Ticks that
+     * only count are skipped over, and an event is scheduled only for the next overflow, TOP, BOTTOM or
+     * compare match.
+     */
+    class Counter extends LazyTicker {
+        protected long nextEvent() {
+            if (blockCompareMatch) return 1;
+            int count = read16(TCNTnH_reg, TCNTnL_reg);
+            long ticks = ticker.ticksToEvent(count);
+            if (ticks == 0) return 0;
+            int increment = ticker.increment();
+            for ( int cntr = 0; cntr < compareUnits.length; cntr++ ) {
+                int compare = compareUnits[cntr].read();
+                if (increment > 0) ticks = Math.min(ticks, LazyTicker.ticksUp(count, compare));
+                else ticks = Math.min(ticks, ticksDown(count, compare));
+            }
+            return ticks;
+        }
+
+        protected void skip(long ticks) {
+            int count = (int)(read16(TCNTnH_reg, TCNTnL_reg) + ticks * ticker.increment());
+            TCNTnH_reg.value = (byte)(count >> 8);
+            TCNTnL_reg.value = (byte)count;
+        }
+
+        protected void tick() {
+            ticker.fire();
+        }
+    }
+
+    /**
+     * The <code>Mode</code> class implements the behavior of the timer in a particular mode. Its
+     * <code>fire()</code> method performs a single tick of the timer.
+     */
+    protected abstract class Mode implements Simulator.Event {
+        /**
+         * The <code>ticksToEvent()</code> method computes how many ticks it takes in this mode until the
+         * counter reaches TOP, BOTTOM, or overflows, ignoring compare matches.
+         * @return the number of ticks; zero if the counter never changes in this mode
+         */
+        abstract long ticksToEvent(int count);
+
+        int increment() {
+            return 1;
+        }
     }
 
     /**
@@ -455,13 +582,25 @@ public abstract class Timer16Bit extends AtmelInternalDevice {
         }
     }
 
-    protected class Mode_Reserved implements Simulator.Event {
+    protected class Mode_Reserved extends Mode {
+        long ticksToEvent(int count) {
+            return 0;
+        }
+
+        int increment() {
+            return 0;
+        }
+
         public void fire() {
             // do nothing in the reserved mode.
         }
     }
 
-    protected class Mode_Normal implements Simulator.Event {
+    protected class Mode_Normal extends Mode {
+        long ticksToEvent(int count) {
+            return count < MAX ? MAX - count : 1;
+        }
+
         public void fire() {
             int ncount = read16(TCNTnH_reg, TCNTnL_reg) + 1;
             int ocount = ncount;
@@ -473,7 +612,7 @@ public abstract class Timer16Bit extends AtmelInternalDevice {
         }
     }
 
-    protected class Mode_CTC implements Simulator.Event {
+    protected class Mode_CTC extends Mode {
         protected final RWRegister compareRegHigh;
         protected final RWRegister compareRegLow;
 
@@ -482,6 +621,14 @@ public abstract class Timer16Bit extends AtmelInternalDevice {
             compareRegLow = compareRegL;
         }
 
+        long ticksToEvent(int count) {
+            long ticks = count < MAX ? MAX - count : 1;
+            if (compareRegHigh != null) {
+                ticks = Math.min(ticks, LazyTicker.ticksUp(count, read16(compareRegHigh, compareRegLow)));
+            }
+            return ticks;
+        }
+
         public void fire() {
             int ncount = read16(TCNTnH_reg, TCNTnL_reg) + 1;
             int ocount = ncount;
@@ -497,7 +644,7 @@ public abstract class Timer16Bit extends AtmelInternalDevice {
         }
     }
 
-    protected class Mode_FastPWM implements Simulator.Event {
+    protected class Mode_FastPWM extends Mode {
         protected final int top;
         protected final RWRegister compareRegHigh;
         protected final RWRegister compareRegLow;
@@ -507,6 +654,15 @@ public abstract class Timer16Bit extends AtmelInternalDevice {
             compareRegHigh = compareRegH;
             compareRegLow = compareRegL;
         }
+
+        long ticksToEvent(int count) {
+            int top = this.top;
+            if (compareRegHigh != null) {
+                top = read16(compareRegHigh, compareRegLow);
+            }
+            return Math.min(LazyTicker.ticksUp(count, top), MAX + 1 - count);
+        }
+
         public void fire() {
             int ncount = read16(TCNTnH_reg, TCNTnL_reg) + 1;
             int top = this.top;
@@ -523,7 +679,7 @@ public abstract class Timer16Bit extends AtmelInternalDevice {
         }
     }
 
-    protected class Mode_PWM_PNF implements Simulator.Event {
+    protected class Mode_PWM_PNF extends Mode {
         protected byte increment = 1;
         protected final RWRegister compareRegHigh;
         protected final RWRegister compareRegLow;
@@ -532,6 +688,15 @@ public abstract class Timer16Bit extends AtmelInternalDevice {
             compareRegHigh = compareRegH;
             compareRegLow = compareRegL;
         }
+
+        long ticksToEvent(int count) {
+            int top = compareRegHigh != null ? read16(compareRegHigh, compareRegLow) : -1;
+            return ticksToTurn(count, increment, top);
+        }
+
+        int increment() {
+            return increment;
+        }
         public void fire() {
             int ncount = read16(TCNTnH_reg, TCNTnL_reg) + increment;
 
@@ -553,7 +718,7 @@ public abstract class Timer16Bit extends AtmelInternalDevice {
         }
     }
 
-    protected class Mode_PWMPhaseCorrect implements Simulator.Event {
+    protected class Mode_PWMPhaseCorrect extends Mode {
         protected byte increment = 1;
         protected final int top;
         protected final RWRegister compareRegHigh;
@@ -564,6 +729,18 @@ public abstract class Timer16Bit extends AtmelInternalDevice {
             compareRegHigh = compareRegH;
             compareRegLow = compareRegL;
         }
+
+        long ticksToEvent(int count) {
+            int top = this.top;
+            if (compareRegHigh != null) {
+                top = read16(compareRegHigh, compareRegLow);
+            }
+            return ticksToTurn(count, increment, top);
+        }
+
+        int increment() {
+            return increment;
+        }
         public void fire() {
             int ncount = read16(TCNTnH_reg, TCNTnL_reg) + increment;
             int top = this.top;
@@ -586,6 +763,24 @@ public abstract class Timer16Bit extends AtmelInternalDevice {
         }
     }
 
+    /**
+     * The <code>ticksToTurn()</code> method computes how many ticks it takes a counter in a phase correct
+     * PWM mode to reach TOP when counting up, or BOTTOM when counting down.
+     * @param count the current value of the counter
+     * @param increment the direction of counting
+     * @param top the TOP value; -1 if there is none
+     * @return the number of ticks until the counter changes direction
+     */
+    static long ticksToTurn(int count, int increment, int top) {
+        if (increment > 0) {
+            if (top < 0) return MAX + 1 - count;
+            return top > count ? top - count : 1;
+        } else {
+            if (top >= 0 && count - 1 >= top) return 1;
+            return count > BOTTOM ? count - BOTTOM : 1;
+        }
+    }
+
     private void tickerFinish(Simulator.Event ticker, int ocount, int ncount) {
         // the compare match should be performed in any case.
         if (!blockCompareMatch) {
@@ -595,8 +790,6 @@ public abstract class Timer16Bit extends AtmelInternalDevice {
         write16(ncount, TCNTnH_reg, TCNTnL_reg);
         // make sure timings on this are correct
         blockCompareMatch = false;
-
-        if (period != 0) timerClock.insertEvent(ticker, period);
     }
 
     private void flushOCRnx() {
@@ -32,18 +32,20 @@
 
 package avrora.sim.mcu;
 
+import avrora.sim.Checkpoint;
 import avrora.sim.RWRegister;
 import avrora.sim.Simulator;
 import avrora.sim.state.RegisterView;
 import avrora.sim.state.RegisterUtil;
 import avrora.sim.clock.Clock;
+import java.io.*;
 
 /**
  * Base class of 8-bit timers. Timer0 and Timer2 are subclasses of this.
  *
  * @author Daniel Lee
  */
-public abstract class Timer8Bit extends AtmelInternalDevice {
+public abstract class Timer8Bit extends AtmelInternalDevice implements Checkpoint.Component {
     public static final int MODE_NORMAL = 0;
     public static final int MODE_PWM = 1;
     public static final int MODE_CTC = 2;
@@ -57,14 +59,15 @@ public abstract class Timer8Bit extends AtmelInternalDevice {
 
     protected final int n; // number of timer. 0 for Timer0, 2 for Timer2
 
-    protected Simulator.Event ticker;
+    protected Mode ticker;
     protected final Clock externalClock;
     protected Clock timerClock;
 
     protected int period;
 
     final AtmelMicrocontroller.Pin outputComparePin;
-    final Simulator.Event[] tickers;
+    final Mode[] tickers;
+    final Counter counter = new Counter();
 
     /* pg. 93 of manual. Block compareMatch for one period after
      * TCNTn is written to. */
@@ -105,8 +108,48 @@ public abstract class Timer8Bit extends AtmelInternalDevice {
         installIOReg("TCNT"+n, TCNTn_reg);
         installIOReg("OCR"+n, OCRn_reg);
 
-        tickers = new Simulator.Event[4];
+        tickers = new Mode[4];
         installTickers();
+
+        simulator.getCheckpointRegistry().addComponent(name, this);
+        simulator.getCheckpointRegistry().addEvent(name + ".counter", counter);
+    }
+
+    /**
+     * The <code>saveState()</code> method writes the state of this timer that is not visible in its IO
+     * registers to a checkpoint.
+     * @param out the output to write the state to
+     * @throws IOException if the state cannot be written
+     */
+    public void saveState(DataOutput out) throws IOException {
+        out.writeInt(TCCRn_reg.mode);
+        out.writeInt(TCCRn_reg.scale);
+        out.writeByte(OCRn_reg.register.value);
+        out.writeBoolean(blockCompareMatch);
+        out.writeByte(((Mode_PWM)tickers[MODE_PWM]).increment);
+        out.writeBoolean(timerClock == externalClock);
+        counter.saveState(out, getClocks());
+    }
+
+    /**
+     * The <code>restoreState()</code> method restores the state of this timer from a checkpoint.
+     * @param in the input to read the state from
+     * @throws IOException if the state cannot be read
+     */
+    public void restoreState(DataInput in) throws IOException {
+        TCCRn_reg.mode = in.readInt();
+        TCCRn_reg.scale = in.readInt();
+        ticker = TCCRn_reg.mode < 0 ? null : tickers[TCCRn_reg.mode];
+        period = TCCRn_reg.scale < 0 ? 0 : periods[TCCRn_reg.scale];
+        OCRn_reg.register.value = in.readByte();
+        blockCompareMatch = in.readBoolean();
+        ((Mode_PWM)tickers[MODE_PWM]).increment = in.readByte();
+        timerClock = in.readBoolean() ? externalClock : mainClock;
+        counter.restoreState(in, getClocks());
+    }
+
+    private Clock[] getClocks() {
+        return new Clock[] { mainClock, externalClock };
     }
 
     private void installTickers() {
@@ -116,6 +159,16 @@ public abstract class Timer8Bit extends AtmelInternalDevice {
         tickers[MODE_PWM] = new Mode_PWM();
     }
 
+    /**
+     * The <code>setTimerClock()</code> method changes the clock source of this timer. The change takes
+     * effect after the next tick.
+     * @param c the new clock that drives this timer
+     */
+    protected void setTimerClock(Clock c) {
+        timerClock = c;
+        counter.setClock(c);
+    }
+
     protected void compareMatch() {
         if (devicePrinter.enabled) {
             boolean enabled = TIMSK_reg.readBit(OCIEn);
@@ -145,8 +198,15 @@ public abstract class Timer8Bit extends AtmelInternalDevice {
     protected class TCNTnRegister extends RWRegister {
 
         public void write(byte val) {
+            counter.sync();
             value = val;
             blockCompareMatch = true;
+            counter.reschedule();
+        }
+
+        public byte read() {
+            counter.sync();
+            return value;
         }
 
     }
@@ -167,6 +227,7 @@ public abstract class Timer8Bit extends AtmelInternalDevice {
             super.write(val);
             if (TCCRn_reg.mode == MODE_NORMAL || TCCRn_reg.mode == MODE_CTC) {
                 flush();
+                counter.reschedule();
             }
         }
 
@@ -213,13 +274,13 @@ public abstract class Timer8Bit extends AtmelInternalDevice {
             int nscale = CSn.getValue();
             // if the scale or the mode has changed
             if (nmode != mode || nscale != scale) {
-                if (ticker != null) timerClock.removeEvent(ticker);
+                counter.stop();
                 mode = nmode;
                 scale = nscale;
                 ticker = tickers[mode];
                 period = periods[scale];
                 if (period != 0) {
-                    timerClock.insertEvent(ticker, period);
+                    counter.start(timerClock, period);
                 }
             }
         }
@@ -250,7 +311,51 @@ public abstract class Timer8Bit extends AtmelInternalDevice {
         }
     }
 
-    class Mode_Normal implements Simulator.Event {
+    /**
+     * The <code>Counter</code> class drives the current mode of the timer from the timer clock. Ticks that
+     * only count are skipped over, and an event is scheduled only for the next overflow, TOP or compare
+     * match.
+     */
+    class Counter extends LazyTicker {
+        protected long nextEvent() {
+            if (blockCompareMatch) return 1;
+            int count = TCNTn_reg.value & 0xff;
+            int compare = OCRn_reg.read() & 0xff;
+            long ticks = ticker.ticksToEvent(count);
+            if (ticker.increment() > 0) return Math.min(ticks, LazyTicker.ticksUp(count, compare));
+            else return Math.min(ticks, ticksDown(count, compare));
+        }
+
+        protected void skip(long ticks) {
+            TCNTn_reg.value = (byte)(TCNTn_reg.value + ticks * ticker.increment());
+        }
+
+        protected void tick() {
+            ticker.fire();
+        }
+    }
+
+    /**
+     * The <code>Mode</code> class implements the behavior of the timer in a particular mode. Its
+     * <code>fire()</code> method performs a single tick of the timer.
+     */
+    abstract class Mode implements Simulator.Event {
+        /**
+         * The <code>ticksToEvent()</code> method computes how many ticks it takes in this mode until the
+         * counter reaches TOP, BOTTOM, or overflows, ignoring compare matches.
+         */
+        abstract long ticksToEvent(int count);
+
+        int increment() {
+            return 1;
+        }
+    }
+
+    class Mode_Normal extends Mode {
+        long ticksToEvent(int count) {
+            return count < MAX ? MAX - count : 1;
+        }
+
         public void fire() {
             int ncount = 1 + (TCNTn_reg.read() & 0xff);
             int ocount = ncount;
@@ -262,8 +367,18 @@ public abstract class Timer8Bit extends AtmelInternalDevice {
         }
     }
 
-    class Mode_PWM implements Simulator.Event {
+    class Mode_PWM extends Mode {
         protected byte increment = 1;
+
+        long ticksToEvent(int count) {
+            if (increment > 0) return count < MAX ? MAX - count : 1;
+            else return count > BOTTOM ? count - BOTTOM : 1;
+        }
+
+        int increment() {
+            return increment;
+        }
+
         public void fire() {
             int ncount = increment + (TCNTn_reg.read() & 0xff);
             int ocount = ncount;
@@ -281,7 +396,11 @@ public abstract class Timer8Bit extends AtmelInternalDevice {
         }
     }
 
-    class Mode_CTC implements Simulator.Event {
+    class Mode_CTC extends Mode {
+        long ticksToEvent(int count) {
+            return Math.min(LazyTicker.ticksUp(count, OCRn_reg.read() & 0xff), MAX + 1 - count);
+        }
+
         public void fire() {
             int ncount = 1 + (TCNTn_reg.read() & 0xff);
             int ocount = ncount;
@@ -292,7 +411,11 @@ public abstract class Timer8Bit extends AtmelInternalDevice {
         }
     }
 
-    class Mode_FastPWM implements Simulator.Event {
+    class Mode_FastPWM extends Mode {
+        long ticksToEvent(int count) {
+            return count < MAX ? MAX - count : 1;
+        }
+
         public void fire() {
             int ncount = 1 + (TCNTn_reg.read() & 0xff);
             int ocount = ncount;
@@ -311,7 +434,5 @@ public abstract class Timer8Bit extends AtmelInternalDevice {
         }
         TCNTn_reg.write((byte)ncount);
         blockCompareMatch = false;
-
-        timerClock.insertEvent(ticker, period);
     }
 }
@@ -40,6 +40,7 @@ import cck.text.StringUtil;
 import cck.util.Arithmetic;
 import cck.util.Util;
 
+import java.io.*;
 import java.util.LinkedList;
 
 /**
@@ -54,7 +55,7 @@ import java.util.LinkedList;
  * @author Daniel Lee
  * @author Ben L. Titzer
  */
-public class USART extends AtmelInternalDevice {
+public class USART extends AtmelInternalDevice implements Checkpoint.Component {
 
     static final int RXCn = 7;
     static final int TXCn = 6;
@@ -223,10 +224,66 @@ public class USART extends AtmelInternalDevice {
         installIOReg(properties.UBRR_name+"H", UBRRnH_reg);
 
         connect(new SerialPrinter());
+
+        simulator.getCheckpointRegistry().addComponent(name, this);
+        simulator.getCheckpointRegistry().addEvent(name + ".transmit", transmitter.transmit);
+        simulator.getCheckpointRegistry().addEvent(name + ".receive", receiver.receive);
+    }
+
+    /**
+     * The <code>saveState()</code> method writes the state of the transmitter, the receiver, and the
+     * receive buffer of this USART to a checkpoint. A device connected to the USART other than the default
+     * serial printer must save its own state.
+     * @param out the output to write the state to
+     * @throws IOException if the state cannot be written
+     */
+    public void saveState(DataOutput out) throws IOException {
+        out.writeInt(period);
+        out.writeInt(UBRRMultiplier);
+        out.writeByte(UDRn_reg.transmitRegister.value);
+        out.writeBoolean(transmitter.transmitting);
+        saveFrame(out, transmitter.transmit.frame);
+        out.writeBoolean(receiver.receiving);
+        saveFrame(out, receiver.receive.frame);
+        UDRn_reg.receiveRegister.saveState(out);
+        if ( connectedDevice instanceof SerialPrinter ) out.writeInt(((SerialPrinter)connectedDevice).count);
+    }
+
+    /**
+     * The <code>restoreState()</code> method restores the state of this USART from a checkpoint.
+     * @param in the input to read the state from
+     * @throws IOException if the state cannot be read
+     */
+    public void restoreState(DataInput in) throws IOException {
+        period = in.readInt();
+        UBRRMultiplier = in.readInt();
+        UDRn_reg.transmitRegister.value = in.readByte();
+        transmitter.transmitting = in.readBoolean();
+        transmitter.transmit.frame = restoreFrame(in);
+        receiver.receiving = in.readBoolean();
+        receiver.receive.frame = restoreFrame(in);
+        UDRn_reg.receiveRegister.restoreState(in);
+        if ( connectedDevice instanceof SerialPrinter ) ((SerialPrinter)connectedDevice).count = in.readInt();
+    }
+
+    static void saveFrame(DataOutput out, Frame f) throws IOException {
+        out.writeBoolean(f != null);
+        if ( f == null ) return;
+        out.writeInt(f.value);
+        out.writeInt(f.size);
+    }
+
+    static Frame restoreFrame(DataInput in) throws IOException {
+        if ( !in.readBoolean() ) return null;
+        int value = in.readInt();
+        int size = in.readInt();
+        return new Frame((byte)value, Arithmetic.getBit(value, 8), size);
     }
 
     public void connect(USARTDevice d) {
         connectedDevice = d;
+        // only the default printer's state is saved with this USART
+        if ( !(d instanceof SerialPrinter) ) simulator.getCheckpointRegistry().addUnsupported(name + " device");
     }
 
     void updatePeriod() {
@@ -388,6 +445,23 @@ public class USART extends AtmelInternalDevice {
                 }
             }
 
+            void saveState(DataOutput out) throws IOException {
+                out.writeInt(readyQueue.size());
+                for ( int cntr = 0; cntr < readyQueue.size(); cntr++ )
+                    saveFrame(out, ((USARTFrameWrapper)readyQueue.get(cntr)).frame);
+            }
+
+            void restoreState(DataInput in) throws IOException {
+                waitQueue.addAll(readyQueue);
+                readyQueue.clear();
+                int num = in.readInt();
+                for ( int cntr = 0; cntr < num; cntr++ ) {
+                    USARTFrameWrapper w = (USARTFrameWrapper)waitQueue.removeLast();
+                    w.frame = restoreFrame(in);
+                    readyQueue.addLast(w);
+                }
+            }
+
             private class USARTFrameWrapper {
                 Frame frame;
             }
@@ -400,7 +474,7 @@ public class USART extends AtmelInternalDevice {
      * UCSRnA (<code>ControlRegisterA</code>) is one of three control/status registers for the USART.
      * The high three bits are actually interrupt flag bits.
      */
-    protected class ControlRegisterA extends RWRegister {
+    protected class ControlRegisterA extends RWRegister implements ActiveRegister.Stable {
 
         final ATMegaFamily.InterruptFlag UDRE_flag;
         final ATMegaFamily.InterruptFlag TXC_flag;
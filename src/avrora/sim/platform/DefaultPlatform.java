@@ -33,7 +33,9 @@
 package avrora.sim.platform;
 
 import avrora.core.Program;
+import avrora.sim.InterpreterFactory;
 import avrora.sim.clock.ClockDomain;
+import avrora.sim.clock.EventQueue;
 import avrora.sim.mcu.Microcontroller;
 import avrora.sim.mcu.MicrocontrollerFactory;
 
@@ -83,13 +85,15 @@ public class DefaultPlatform extends Platform {
          * ID number, using the interpreter created by the given interpreter factory, containing the specified
          * progarm.
          * @param id the ID number of the platform to create
+         * @param f the interpreter factory that creates the interpreter executing the program
+         * @param q the factory that creates the event queue of the main clock
          * @param p the program to load into the platform
          * @return a new instance of the <code>Platform</code> interface for this platform
          */
-        public Platform newPlatform(int id, Program p) {
-            ClockDomain cd = new ClockDomain(mainClockSpeed);
+        public Platform newPlatform(int id, InterpreterFactory f, EventQueue.Factory q, Program p) {
+            ClockDomain cd = new ClockDomain(mainClockSpeed, q);
             cd.newClock("external", extClockSpeed);
-            return new DefaultPlatform(id, mcf.newMicrocontroller(id, cd, p));
+            return new DefaultPlatform(id, mcf.newMicrocontroller(id, f, cd, p));
         }
     }
 
@@ -36,6 +36,7 @@
 
 package avrora.sim.platform;
 
+import avrora.sim.Checkpoint;
 import avrora.sim.FiniteStateMachine;
 import avrora.sim.Simulator;
 import avrora.sim.clock.Clock;
@@ -44,6 +45,9 @@ import avrora.sim.mcu.Microcontroller;
 import avrora.sim.util.SimUtil;
 import cck.text.Terminal;
 import cck.text.Verbose;
+import cck.util.Util;
+import java.io.*;
+import java.util.IdentityHashMap;
 
 /**
  * The <code>ExternalFlash</code> class implements the necessary functionality of the
@@ -58,7 +62,7 @@ import cck.text.Verbose;
  *
  * @author Thomas Gaertner
  */
-public class ExternalFlash {
+public class ExternalFlash implements Checkpoint.Component, Checkpoint.Speculative {
 
     protected final Simulator sim;
     protected final Clock clock;
@@ -103,6 +107,10 @@ public class ExternalFlash {
     public Memory memory;
 
     protected final FiniteStateMachine stateMachine;
+    protected final Delay busy = new Delay();
+
+    // pages created before the latest speculative save are shared with it and copied before a write
+    private int generation;
 
     /**
      * The <code>Memory</code> class simulates the Dataflash Memory
@@ -124,9 +132,11 @@ public class ExternalFlash {
 
     private class Page {
         public short[] bytes;
+        final int created;
 
         protected Page() {
             bytes = new short[264];
+            created = generation;
         }
 		void debug() {
 			int i;
@@ -158,6 +168,156 @@ public class ExternalFlash {
 
         //setup energy recording
         new Energy("flash", modeAmpere, stateMachine);
+
+        Checkpoint.Registry registry = sim.getCheckpointRegistry();
+        registry.addComponent("flash", this);
+        registry.addFSM("flash.fsm", stateMachine);
+        registry.addEvent("flash.busy", busy);
+    }
+
+    /**
+     * The <code>saveState()</code> method writes the serial interface state and the contents of the
+     * dataflash to a checkpoint. Since the buffers and the pages may share <code>Page</code> objects
+     * after a transfer, each page is written once and later references to it are written as an index.
+     * @param out the output to write the state to
+     * @throws IOException if the state cannot be written
+     */
+    public void saveState(DataOutput out) throws IOException {
+        saveInterface(out);
+
+        Page[] all = getAllPages();
+        IdentityHashMap seen = new IdentityHashMap();
+        for ( int cntr = 0; cntr < all.length; cntr++ ) {
+            Integer prev = (Integer)seen.get(all[cntr]);
+            if ( prev != null ) {
+                out.writeInt(prev.intValue());
+                continue;
+            }
+            seen.put(all[cntr], new Integer(cntr));
+            out.writeInt(-1);
+            short[] bytes = all[cntr].bytes;
+            for ( int pos = 0; pos < bytes.length; pos++ ) out.writeShort(bytes[pos]);
+        }
+    }
+
+    private void saveInterface(DataOutput out) throws IOException {
+        out.writeBoolean(isSelected);
+        out.writeBoolean(isReading);
+        out.writeInt(dfOpcode);
+        out.writeInt(dfPageAddress);
+        out.writeInt(dfByteOffset);
+        out.writeInt(dfTempByte);
+        out.writeShort(dfStatus);
+        out.writeLong(dfDelay);
+        out.writeDouble(delay);
+        out.writeBoolean(so);
+        out.writeBoolean(si);
+        out.writeInt(icOffset);
+        out.writeInt(icPage);
+        out.writeBoolean(tick);
+        out.writeShort(step);
+        out.writeByte(i);
+    }
+
+    /**
+     * The <code>restoreState()</code> method restores the state of this dataflash from a checkpoint.
+     * @param in the input to read the state from
+     * @throws IOException if the state cannot be read
+     */
+    public void restoreState(DataInput in) throws IOException {
+        restoreInterface(in);
+
+        Page[] all = new Page[memory.pages.length + 2];
+        for ( int cntr = 0; cntr < all.length; cntr++ ) {
+            int prev = in.readInt();
+            if ( prev >= 0 ) {
+                all[cntr] = all[prev];
+                continue;
+            }
+            all[cntr] = new Page();
+            short[] bytes = all[cntr].bytes;
+            for ( int pos = 0; pos < bytes.length; pos++ ) bytes[pos] = in.readShort();
+        }
+        setAllPages(all);
+    }
+
+    private void restoreInterface(DataInput in) throws IOException {
+        isSelected = in.readBoolean();
+        isReading = in.readBoolean();
+        dfOpcode = in.readInt();
+        dfPageAddress = in.readInt();
+        dfByteOffset = in.readInt();
+        dfTempByte = in.readInt();
+        dfStatus = in.readShort();
+        dfDelay = in.readLong();
+        delay = in.readDouble();
+        so = in.readBoolean();
+        si = in.readBoolean();
+        icOffset = in.readInt();
+        icPage = in.readInt();
+        tick = in.readBoolean();
+        step = in.readShort();
+        i = in.readByte();
+    }
+
+    /**
+     * The <code>saveSpeculative()</code> method saves the state of this dataflash in memory. Rather than
+     * copying the contents, the pages are shared with the saved state and copied on the next write.
+     * @return the saved state
+     */
+    public Object saveSpeculative() {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(buf);
+            saveInterface(out);
+            out.flush();
+        } catch (IOException e) {
+            throw Util.unexpected(e);
+        }
+        generation++;
+        return new Object[] { buf.toByteArray(), getAllPages() };
+    }
+
+    public void restoreSpeculative(Object state, long time) {
+        Object[] s = (Object[])state;
+        try {
+            restoreInterface(new DataInputStream(new ByteArrayInputStream((byte[])s[0])));
+        } catch (IOException e) {
+            throw Util.unexpected(e);
+        }
+        setAllPages((Page[])s[1]);
+    }
+
+    public void commitSpeculative(Object state) {
+        // the saved pages are released with the state.
+    }
+
+    private Page[] getAllPages() {
+        Page[] all = new Page[memory.pages.length + 2];
+        System.arraycopy(memory.pages, 0, all, 0, memory.pages.length);
+        all[memory.pages.length] = memory.buffer1;
+        all[memory.pages.length + 1] = memory.buffer2;
+        return all;
+    }
+
+    private void setAllPages(Page[] all) {
+        System.arraycopy(all, 0, memory.pages, 0, memory.pages.length);
+        memory.buffer1 = all[memory.pages.length];
+        memory.buffer2 = all[memory.pages.length + 1];
+    }
+
+    private Page getWritable(Page p) {
+        if ( p.created == generation ) return p;
+        // the page is shared with a saved state; replace every reference to it with a copy
+        Page copy = new Page();
+        System.arraycopy(p.bytes, 0, copy.bytes, 0, p.bytes.length);
+        Page[] pages = memory.pages;
+        for ( int cntr = 0; cntr < pages.length; cntr++ ) {
+            if ( pages[cntr] == p ) pages[cntr] = copy;
+        }
+        if ( memory.buffer1 == p ) memory.buffer1 = copy;
+        if ( memory.buffer2 == p ) memory.buffer2 = copy;
+        return copy;
     }
 
     private Page getMemoryPage(int num) {
@@ -186,7 +346,7 @@ public class ExternalFlash {
     }
 
     private void setBuffer1(int offset, short value) {
-        this.memory.buffer1.bytes[offset] = value;
+        getWritable(this.memory.buffer1).bytes[offset] = value;
     }
 
     private Page getBuffer2() {
@@ -202,7 +362,7 @@ public class ExternalFlash {
     }
 
     private void setBuffer2(int offset, short value) {
-        this.memory.buffer2.bytes[offset] = value;
+        getWritable(this.memory.buffer2).bytes[offset] = value;
     }
 
     private void copyBuffer1toPage(int num) {
@@ -346,7 +506,7 @@ public class ExternalFlash {
                 // Dataflash is busy
                 dfStatus &= ~DF_STATUS_READY;
                 dfDelay = clock.millisToCycles(delay / 1000);  //cycles until access is finished
-                clock.insertEvent(new Delay(), dfDelay);
+                clock.insertEvent(busy, dfDelay);
 
                 // reset values
                 dfOpcode = 0;
@@ -107,6 +107,7 @@ public class LED implements Microcontroller.Pin.Output {
         state = new FiniteStateMachine(clk, startMode, modeName, 0);
         probe = new LEDProbe();
         new Energy(c, modeAmpere, state);
+        sim.getCheckpointRegistry().addFSM("led." + c.toLowerCase(), state);
     }
 
     public void write(boolean level) {
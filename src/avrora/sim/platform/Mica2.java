@@ -33,8 +33,10 @@
 package avrora.sim.platform;
 
 import avrora.core.Program;
+import avrora.sim.InterpreterFactory;
 import avrora.sim.Simulator;
 import avrora.sim.clock.ClockDomain;
+import avrora.sim.clock.EventQueue;
 import avrora.sim.mcu.*;
 import avrora.sim.platform.sensors.LightSensor;
 import avrora.sim.platform.sensors.SensorBoard;
@@ -61,14 +63,16 @@ public class Mica2 extends Platform {
          * The <code>newPlatform()</code> method is a factory method used to create new instances of the
          * <code>Mica2</code> class.
          * @param id the integer ID of the node
+         * @param f the interpreter factory that creates the interpreter of the node
+         * @param q the factory that creates the event queue of the main clock
          * @param p the program to load onto the node
          * @return a new instance of the <code>Mica2</code> platform
          */
-        public Platform newPlatform(int id, Program p) {
-            ClockDomain cd = new ClockDomain(MAIN_HZ);
+        public Platform newPlatform(int id, InterpreterFactory f, EventQueue.Factory q, Program p) {
+            ClockDomain cd = new ClockDomain(MAIN_HZ, q);
             cd.newClock("external", EXT_HZ);
 
-            return new Mica2(new ATMega128(id, cd, p));
+            return new Mica2(new ATMega128(id, f, cd, p));
         }
     }
 
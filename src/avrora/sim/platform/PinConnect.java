@@ -32,6 +32,7 @@
 
 package avrora.sim.platform;
 
+import avrora.sim.FiniteStateMachine;
 import avrora.sim.Simulator;
 import avrora.sim.SimulatorThread;
 import avrora.sim.clock.StepSynchronizer;
@@ -48,15 +49,12 @@ import java.util.LinkedList;
 
 public class PinConnect {
 
-    public static final PinConnect pinConnect;
-
-    static {
-        pinConnect = new PinConnect();
-    }
-
     private final PinEvent pinEvent;
     public final Synchronizer synchronizer;
 
+    // whether changes of output pins are propagated as events instead of every cycle
+    protected final boolean eventDriven;
+
     // List of all the pin relationships
     protected LinkedList pinNodes;
     protected LinkedList pinConnections;
@@ -79,12 +77,34 @@ public class PinConnect {
     public static final int LED5 = 4;
     public static final int LED6 = 5;
     
+    /**
+     * The constructor for the <code>PinConnect</code> class creates an interconnect with the default
+     * synchronizer, which steps all nodes one cycle at a time and propagates the values of all pins
+     * after each cycle.
+     */
     public PinConnect() {
         // period = 1
         pinNodes = new LinkedList();
         pinConnections = new LinkedList();
         pinEvent = new PinEvent();
         synchronizer = new StepSynchronizer(pinEvent);
+        eventDriven = false;
+        numNodes = 0;
+    }
+
+    /**
+     * The constructor for the <code>PinConnect</code> class creates an interconnect that uses the specified
+     * synchronizer. The value of an output pin is then only propagated when it changes, by inserting an event
+     * into the queue of each receiving node after the propagation delay of the wire. The propagation delay is
+     * declared as lookahead so that the synchronizer can run the nodes in parallel.
+     * @param s the synchronizer to use for the nodes connected by wires
+     */
+    public PinConnect(Synchronizer s) {
+        pinNodes = new LinkedList();
+        pinConnections = new LinkedList();
+        pinEvent = new PinEvent();
+        synchronizer = s;
+        eventDriven = true;
         numNodes = 0;
     }
 
@@ -295,6 +315,11 @@ public class PinConnect {
             // add connections to the list
             pinConnections.add(localToNeighbor);
             pinConnections.add(neighborToLocal);
+
+            if (eventDriven) {
+                localToNeighbor.watchOutput();
+                neighborToLocal.watchOutput();
+            }
         }
 
         public void disconnectNodes(PinNode neighbor, int localSide, int neighborSide) {
@@ -382,6 +407,43 @@ public class PinConnect {
 
         }
 
+        // propagate changes of the output pin as events on the receiving nodes
+        protected void watchOutput() {
+            PinWire output = (PinWire) pinWires.getFirst();
+            output.state.insertProbe(new OutputProbe(output));
+            synchronizer.addLookahead(Math.max(1, output.propDelay));
+        }
+
+        /**
+         * The <code>OutputProbe</code> class watches the output wire of a link; when its level changes,
+         * it inserts an event into the queue of the node of each other wire that will write the new
+         * level to that wire after the propagation delay.
+         */
+        protected class OutputProbe implements FiniteStateMachine.Probe {
+            protected final PinWire output;
+
+            protected OutputProbe(PinWire output) {
+                this.output = output;
+            }
+
+            public void fireBeforeTransition(int beforeState, int afterState) {
+                // do nothing
+            }
+
+            public void fireAfterTransition(int beforeState, int afterState) {
+                if (beforeState == afterState || !output.outputReady()) return;
+
+                long time = output.sim.getClock().getCount() + Math.max(1, output.propDelay);
+                boolean level = afterState == 1;
+                Iterator i = pinWires.iterator();
+                while (i.hasNext()) {
+                    PinWire curr = (PinWire) i.next();
+                    if (curr != output)
+                        synchronizer.insertEvent(curr.sim, new WireChange(curr, level), time);
+                }
+            }
+        }
+
         // transmit the signals on this connection
         public void propagateSignals() {
 
@@ -439,6 +501,24 @@ public class PinConnect {
         }
     }
 
+    /**
+     * The <code>WireChange</code> class is an event that writes a new level to an input wire
+     * when a change of the output wire connected to it arrives.
+     */
+    protected static class WireChange implements Simulator.Event {
+        protected final PinWire wire;
+        protected final boolean level;
+
+        protected WireChange(PinWire wire, boolean level) {
+            this.wire = wire;
+            this.level = level;
+        }
+
+        public void fire() {
+            wire.wireOutput.write(level);
+        }
+    }
+
     protected class PinEvent implements Simulator.Event {
         public void fire() {
             // iterator over PinLinks
@@ -33,6 +33,8 @@
 package avrora.sim.platform;
 
 import avrora.core.Program;
+import avrora.sim.InterpreterFactory;
+import avrora.sim.clock.EventQueue;
 
 /**
  * The <code>PlatformFactory</code> interface represents a factory-style interface where an implementor can
@@ -44,12 +46,14 @@ public interface PlatformFactory {
 
     /**
      * The <code>newPlatform()</code> method creates a new instance of the platform with the specified
-     * ID number, using the interpreter created by the given interpreter factory, containing the specified
-     * progarm.
+     * ID number, using the interpreter created by the given interpreter factory and the event queue created by
+     * the given queue factory, containing the specified progarm.
      * @param id the ID number of the platform to create
+     * @param f the interpreter factory that creates the interpreter executing the program
+     * @param q the factory that creates the event queue of the main clock
      * @param p the program to load into the platform
      * @return a new instance of the <code>Platform</code> interface for this platform
      */
-    public Platform newPlatform(int id, Program p);
+    public Platform newPlatform(int id, InterpreterFactory f, EventQueue.Factory q, Program p);
 
 }
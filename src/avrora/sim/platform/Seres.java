@@ -33,8 +33,10 @@
 package avrora.sim.platform;
 
 import avrora.core.Program;
+import avrora.sim.InterpreterFactory;
 import avrora.sim.Simulator;
 import avrora.sim.clock.ClockDomain;
+import avrora.sim.clock.EventQueue;
 import avrora.sim.mcu.ATMega128;
 import avrora.sim.mcu.Microcontroller;
 import cck.text.Terminal;
@@ -51,6 +53,11 @@ public class Seres extends Platform {
     protected final Simulator sim;
     protected PinConnect pinConnect;
 
+    // transmit, receive and interrupt wires in the order north, east, south, west
+    protected PinWire[] txPins;
+    protected PinWire[] rxPins;
+    protected PinWire[] intPins;
+
     private Seres(Microcontroller m) {
         super(m);
         mcu = m;
@@ -61,11 +68,11 @@ public class Seres extends Platform {
 
     public static class Factory implements PlatformFactory {
 
-        public Platform newPlatform(int id, Program p) {
-            ClockDomain cd = new ClockDomain(7372800);
+        public Platform newPlatform(int id, InterpreterFactory f, EventQueue.Factory q, Program p) {
+            ClockDomain cd = new ClockDomain(7372800, q);
             cd.newClock("external", 32768);
 
-            return new Seres(new ATMega128(id, cd, p));
+            return new Seres(new ATMega128(id, f, cd, p));
         }
     }
 
@@ -140,10 +147,20 @@ public class Seres extends Platform {
         southPinInt.enableConnect();
         westPinInt.enableConnect();
 
-        // pin management device
-        pinConnect = PinConnect.pinConnect;
+        txPins = new PinWire[] { northPinTx, eastPinTx, southPinTx, westPinTx };
+        rxPins = new PinWire[] { northPinRx, eastPinRx, southPinRx, westPinRx };
+        intPins = new PinWire[] { northPinInt, eastPinInt, southPinInt, westPinInt };
+    }
 
-        pinConnect.addSeresNode(mcu, northPinTx, eastPinTx, southPinTx, westPinTx, northPinRx, eastPinRx, southPinRx, westPinRx, northPinInt, eastPinInt, southPinInt, westPinInt);
+    /**
+     * The <code>connect()</code> method adds the wires of this node to the pin management device of a
+     * simulation, which connects them to the wires of the other nodes of that simulation.
+     * @param pc the pin management device of the simulation
+     */
+    public void connect(PinConnect pc) {
+        pinConnect = pc;
+        pc.addSeresNode(mcu, txPins[0], txPins[1], txPins[2], txPins[3], rxPins[0], rxPins[1], rxPins[2], rxPins[3],
+                intPins[0], intPins[1], intPins[2], intPins[3]);
     }
 
 }
@@ -33,8 +33,10 @@
 package avrora.sim.platform;
 
 import avrora.core.Program;
+import avrora.sim.InterpreterFactory;
 import avrora.sim.Simulator;
 import avrora.sim.clock.ClockDomain;
+import avrora.sim.clock.EventQueue;
 import avrora.sim.mcu.ATMega128;
 import avrora.sim.mcu.Microcontroller;
 import cck.text.Terminal;
@@ -51,6 +53,11 @@ public class Superbot extends Platform {
     protected final Simulator sim;
     protected PinConnect pinConnect;
 
+    // transmit, receive and interrupt wires in the order LED1 through LED6
+    protected PinWire[] txPins;
+    protected PinWire[] rxPins;
+    protected PinWire[] intPins;
+
     private Superbot(Microcontroller m) {
     	super(m);
         mcu = m;
@@ -60,11 +67,11 @@ public class Superbot extends Platform {
 
 
     public static class Factory implements PlatformFactory {
-        public Platform newPlatform(int id, Program p) {
-            ClockDomain cd = new ClockDomain(7372800);
+        public Platform newPlatform(int id, InterpreterFactory f, EventQueue.Factory q, Program p) {
+            ClockDomain cd = new ClockDomain(7372800, q);
             cd.newClock("external", 32768);
 
-            return new Superbot(new ATMega128(id, cd, p));
+            return new Superbot(new ATMega128(id, f, cd, p));
         }
     }
     
@@ -164,12 +171,21 @@ public class Superbot extends Platform {
 		LED5PinInt.enableConnect();
 		LED6PinInt.enableConnect();
 
-		// pin management device
-        pinConnect = PinConnect.pinConnect;
-         
-        pinConnect.addSuperbotNode(mcu, LED1PinTx, LED2PinTx, LED3PinTx, LED4PinTx, LED5PinTx, LED6PinTx,
-        		LED1PinRx, LED2PinRx, LED3PinRx, LED4PinRx, LED5PinRx, LED6PinRx,
-				LED1PinInt, LED2PinInt, LED3PinInt, LED4PinInt, LED5PinInt, LED6PinInt);
+        txPins = new PinWire[] { LED1PinTx, LED2PinTx, LED3PinTx, LED4PinTx, LED5PinTx, LED6PinTx };
+        rxPins = new PinWire[] { LED1PinRx, LED2PinRx, LED3PinRx, LED4PinRx, LED5PinRx, LED6PinRx };
+        intPins = new PinWire[] { LED1PinInt, LED2PinInt, LED3PinInt, LED4PinInt, LED5PinInt, LED6PinInt };
+    }
+
+    /**
+     * The <code>connect()</code> method adds the wires of this node to the pin management device of a
+     * simulation, which connects them to the wires of the other nodes of that simulation.
+     * @param pc the pin management device of the simulation
+     */
+    public void connect(PinConnect pc) {
+        pinConnect = pc;
+        pc.addSuperbotNode(mcu, txPins[0], txPins[1], txPins[2], txPins[3], txPins[4], txPins[5],
+                rxPins[0], rxPins[1], rxPins[2], rxPins[3], rxPins[4], rxPins[5],
+                intPins[0], intPins[1], intPins[2], intPins[3], intPins[4], intPins[5]);
     }
 
 }
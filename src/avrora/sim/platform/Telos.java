@@ -36,8 +36,10 @@ package avrora.sim.platform;
 
 import avrora.arch.msp430.mcu.F1611;
 import avrora.core.Program;
+import avrora.sim.InterpreterFactory;
 import avrora.sim.Simulator;
 import avrora.sim.clock.ClockDomain;
+import avrora.sim.clock.EventQueue;
 import avrora.sim.mcu.Microcontroller;
 import cck.text.Terminal;
 
@@ -55,11 +57,13 @@ public class Telos extends Platform {
          * The <code>newPlatform()</code> method is a factory method used to create new instances of the
          * <code>Telos</code> class.
          * @param id the integer ID of the node
+         * @param f the interpreter factory for AVR programs, which is ignored since the MSP430 has its own
+         * @param q the factory that creates the event queue of the main clock
          * @param p the program to load onto the node
          * @return a new instance of the <code>Mica2</code> platform
          */
-        public Platform newPlatform(int id, Program p) {
-            ClockDomain cd = new ClockDomain(MAIN_HZ);
+        public Platform newPlatform(int id, InterpreterFactory f, EventQueue.Factory q, Program p) {
+            ClockDomain cd = new ClockDomain(MAIN_HZ, q);
             cd.newClock("external", EXT_HZ);
 
             return new Telos(new F1611(id, cd, p));
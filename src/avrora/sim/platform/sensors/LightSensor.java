@@ -32,15 +32,17 @@
 
 package avrora.sim.platform.sensors;
 
+import avrora.sim.Checkpoint;
 import avrora.sim.FiniteStateMachine;
 import avrora.sim.mcu.*;
+import java.io.*;
 
 /**
  * The <code>LightSensor</code> class implements a light sensor like that present on the Mica2.
  *
  * @author Ben L. Titzer
  */
-public class LightSensor extends Sensor {
+public class LightSensor extends Sensor implements Checkpoint.Component {
 
     protected final AtmelMicrocontroller mcu;
     protected final int channel;
@@ -60,6 +62,19 @@ public class LightSensor extends Sensor {
         fsm = new FiniteStateMachine(mcu.getClockDomain().getMainClock(), 0, names, 0);
         adcDevice = (ADC)mcu.getDevice("adc");
         adcDevice.connectADCInput(new ADCInput(), channel);
+        Checkpoint.Registry registry = mcu.getSimulator().getCheckpointRegistry();
+        registry.addComponent("light-sensor", this);
+        registry.addFSM("light-sensor.fsm", fsm);
+    }
+
+    public void saveState(DataOutput out) throws IOException {
+        out.writeBoolean(power);
+        out.writeBoolean(on);
+    }
+
+    public void restoreState(DataInput in) throws IOException {
+        power = in.readBoolean();
+        on = in.readBoolean();
     }
 
     class OnPin implements Microcontroller.Pin.Output {
@@ -63,6 +63,8 @@ public class ReplaySensorData implements SensorData {
         change = new ChangeReading();
         getNextReading();
         scheduleNextChange();
+        // the position in the replay file is not checkpointed
+        m.getSimulator().getCheckpointRegistry().addUnsupported("sensor data " + fn);
     }
 
     private void getNextReading() throws IOException {
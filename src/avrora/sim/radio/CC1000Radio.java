@@ -32,6 +32,7 @@
 
 package avrora.sim.radio;
 
+import avrora.sim.Checkpoint;
 import avrora.sim.FiniteStateMachine;
 import avrora.sim.Simulator;
 import avrora.sim.output.SimPrinter;
@@ -42,6 +43,7 @@ import avrora.sim.mcu.*;
 import avrora.sim.util.*;
 import cck.text.StringUtil;
 import cck.util.Arithmetic;
+import java.io.*;
 
 /**
  * The <code>CC1000Radio</code> class is a simulation of the CC1000 radio for use with avrora. The CC1000
@@ -51,7 +53,7 @@ import cck.util.Arithmetic;
  * @author Ben L. Titzer
  * @author Daniel Lee
  */
-public class CC1000Radio implements Radio {
+public class CC1000Radio implements Radio, Checkpoint.Component {
 
     private static final double FXOSC_FREQUENCY = 14745600.0;
 
@@ -180,11 +182,86 @@ public class CC1000Radio implements Radio {
         ATMegaFamily amcu = (ATMegaFamily) mcu;
         ticker = new SPITicker();
         ticker.spiDevice = (SPIDevice)amcu.getDevice("spi");
-        setMedium(createMedium(null, null));
+        setMedium(privateMedium = createMedium(null, null));
         rssiOutput = new RSSIOutput();
         ADC adc = ((ADC) amcu.getDevice("adc"));
         adc.connectADCInput(rssiOutput, 0);
         config = new SerialConfigurationInterface();
+
+        Checkpoint.Registry registry = sim.getCheckpointRegistry();
+        registry.addComponent("cc1000", this);
+        registry.addFSM("cc1000.fsm", stateMachine);
+        registry.addEvent("cc1000.spi", ticker);
+        registry.addEvent("cc1000.calibrate", CAL_reg.calibrate);
+    }
+
+    /**
+     * The <code>saveState()</code> method writes the registers, the configuration interface and the
+     * SPI buffers of this radio to a checkpoint. The medium is written as well when this radio has
+     * its own private medium; a medium shared between nodes is saved with the simulation.
+     * @param out the output to write the state to
+     * @throws IOException if the state cannot be written
+     */
+    public void saveState(DataOutput out) throws IOException {
+        for ( int cntr = 0; cntr < registers.length; cntr++ ) {
+            out.writeByte(registers[cntr].value);
+            out.writeBoolean(registers[cntr].written);
+        }
+        out.writeByte(MAIN_reg.oldVal);
+        out.writeBoolean(CAL_reg.calibrating);
+
+        out.writeByte(config.address);
+        out.writeBoolean(config.writeCommand);
+        out.writeInt(config.writeValue);
+        out.writeBoolean(config.inputPin);
+        out.writeByte(config.readData);
+        out.writeInt(config.bitsRead);
+        out.writeBoolean(config.PCLK_in.last);
+        out.writeBoolean(config.PALE_in.last);
+        out.writeBoolean(config.PDATA_out.outputPin);
+
+        out.writeBoolean(ticker.activated);
+        out.writeLong(spiTick);
+        out.writeByte(txBuffer);
+        out.writeInt(rxBuffer);
+
+        out.writeBoolean(medium == privateMedium);
+        if ( medium == privateMedium ) medium.saveState(out);
+    }
+
+    /**
+     * The <code>restoreState()</code> method restores the state of this radio from a checkpoint.
+     * Registers are restored without the side effects of writing them.
+     * @param in the input to read the state from
+     * @throws IOException if the state cannot be read
+     */
+    public void restoreState(DataInput in) throws IOException {
+        for ( int cntr = 0; cntr < registers.length; cntr++ ) {
+            byte val = in.readByte();
+            registers[cntr].restore(val, in.readBoolean());
+        }
+        MAIN_reg.oldVal = in.readByte();
+        CAL_reg.calibrating = in.readBoolean();
+
+        config.address = in.readByte();
+        config.writeCommand = in.readBoolean();
+        config.writeValue = in.readInt();
+        config.inputPin = in.readBoolean();
+        config.readData = in.readByte();
+        config.bitsRead = in.readInt();
+        config.PCLK_in.last = in.readBoolean();
+        config.PALE_in.last = in.readBoolean();
+        config.PDATA_out.outputPin = in.readBoolean();
+
+        ticker.activated = in.readBoolean();
+        spiTick = in.readLong();
+        txBuffer = in.readByte();
+        rxBuffer = in.readInt();
+
+        boolean priv = in.readBoolean();
+        if ( priv != (medium == privateMedium) )
+            throw new IOException("checkpoint and simulation disagree on the radio medium");
+        if ( priv ) medium.restoreState(in);
     }
 
     /**
@@ -207,6 +284,7 @@ public class CC1000Radio implements Radio {
         protected final String id; // name of this register
 
         protected byte value; // current value of this register
+        protected boolean written; // true once the value has been decoded by a write
 
         RadioRegister(String id, byte def) {
             this.id = id;
@@ -215,6 +293,7 @@ public class CC1000Radio implements Radio {
 
         public void write(byte val) {
             value = val;
+            written = true;
             decode(value);
             if (radioPrinter.enabled) {
                 printStatus();
@@ -223,6 +302,18 @@ public class CC1000Radio implements Radio {
 
         protected abstract void decode(byte val);
 
+        /**
+         * The <code>restore()</code> method sets the value of this register from a checkpoint. Registers
+         * whose decoding has side effects on the rest of the radio override this method.
+         * @param val the value of the register
+         * @param w true if the value had been written and decoded
+         */
+        protected void restore(byte val, boolean w) {
+            value = val;
+            written = w;
+            if (w) decode(val);
+        }
+
         protected void printStatus() {
             // default: do nothing
         }
@@ -274,14 +365,7 @@ public class CC1000Radio implements Radio {
 
         protected void decode(byte val) {
 
-            rxtx = Arithmetic.getBit(val, RXTX);
-            fReg = Arithmetic.getBit(val, F_REG);
-            rxPd = Arithmetic.getBit(val, RX_PD);
-            txPd = Arithmetic.getBit(val, TX_PD);
-            fsPd = Arithmetic.getBit(val, FS_PD);
-            corePd = Arithmetic.getBit(val, CORE_PD);
-            biasPd = Arithmetic.getBit(val, BIAS_PD);
-            resetN = Arithmetic.getBit(val, RESET_N);
+            decodeBits(val);
 
             if (rxPd) receiver.endReceive();
             else receiver.beginReceive();
@@ -308,8 +392,6 @@ public class CC1000Radio implements Radio {
                 }
             }
 
-            currentFrequencyRegister = fReg ? FREQ_B_reg : FREQ_A_reg;
-
             if (resetN && !Arithmetic.getBit(oldVal, RESET_N)) {
                 oldVal = val;
                 // TODO: reset the radio.
@@ -331,6 +413,24 @@ public class CC1000Radio implements Radio {
             oldVal = val;
         }
 
+        private void decodeBits(byte val) {
+            rxtx = Arithmetic.getBit(val, RXTX);
+            fReg = Arithmetic.getBit(val, F_REG);
+            rxPd = Arithmetic.getBit(val, RX_PD);
+            txPd = Arithmetic.getBit(val, TX_PD);
+            fsPd = Arithmetic.getBit(val, FS_PD);
+            corePd = Arithmetic.getBit(val, CORE_PD);
+            biasPd = Arithmetic.getBit(val, BIAS_PD);
+            resetN = Arithmetic.getBit(val, RESET_N);
+            currentFrequencyRegister = fReg ? FREQ_B_reg : FREQ_A_reg;
+        }
+
+        protected void restore(byte val, boolean w) {
+            value = val;
+            written = w;
+            if (w) decodeBits(val);
+        }
+
         protected void printStatus() {
             String rxtxS = rxtx ? "TX" : "RX";
             String fRegS = fReg ? "B" : "A";
@@ -530,6 +630,13 @@ public class CC1000Radio implements Radio {
                 stateMachine.transition(getPower() + 6);
         }
 
+        protected void restore(byte val, boolean w) {
+            value = val;
+            written = w;
+            paHighPower = (value & 0xf0) >> 4;
+            paLowPower = (value & 0x0f);
+        }
+
         protected int getPower() {
             return value & 0xff;
         }
@@ -664,13 +771,7 @@ public class CC1000Radio implements Radio {
 
         protected void decode(byte val) {
             boolean oldCalStart = calStart;
-            calStart = Arithmetic.getBit(val, 7);
-            calDual = Arithmetic.getBit(val, 6);
-            calWait = Arithmetic.getBit(val, 5);
-            calCurrent = Arithmetic.getBit(val, 4);
-            calComplete = Arithmetic.getBit(val, 3);
-
-            calIterate = (value & 0x7);
+            decodeBits(val);
 
             if (!oldCalStart && calStart && !calibrating) {
                 calibrating = true;
@@ -706,7 +807,23 @@ public class CC1000Radio implements Radio {
         }
 
         /** */
-        protected class Calibrate implements Simulator.Event {
+        private void decodeBits(byte val) {
+            calStart = Arithmetic.getBit(val, 7);
+            calDual = Arithmetic.getBit(val, 6);
+            calWait = Arithmetic.getBit(val, 5);
+            calCurrent = Arithmetic.getBit(val, 4);
+            calComplete = Arithmetic.getBit(val, 3);
+
+            calIterate = (value & 0x7);
+        }
+
+        protected void restore(byte val, boolean w) {
+            value = val;
+            written = w;
+            if (w) decodeBits(val);
+        }
+
+                protected class Calibrate implements Simulator.Event {
 
             public void fire() {
                 // TODO: multiple calls to decode()
@@ -1082,6 +1199,7 @@ public class CC1000Radio implements Radio {
     }
 
     protected Medium medium;
+    protected Medium privateMedium;
     protected Transmitter transmitter;
     protected Receiver receiver;
     protected SPITicker ticker;
@@ -1112,6 +1230,14 @@ public class CC1000Radio implements Radio {
         medium = m;
         transmitter = new Transmitter(m);
         receiver = new Receiver(m);
+
+        Checkpoint.Registry registry = sim.getCheckpointRegistry();
+        registry.removeEvent("cc1000.transmit");
+        registry.removeEvent("cc1000.receive");
+        registry.addEvent("cc1000.transmit", transmitter.ticker);
+        registry.addEvent("cc1000.receive", receiver.ticker);
+        registry.addSpeculative("cc1000.transmitter", transmitter);
+        registry.addSpeculative("cc1000.receiver", receiver);
     }
 
     public Medium getMedium() {
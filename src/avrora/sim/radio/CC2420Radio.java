@@ -33,6 +33,7 @@
  */
 package avrora.sim.radio;
 
+import avrora.sim.Checkpoint;
 import avrora.sim.Simulator;
 import avrora.sim.clock.Synchronizer;
 import avrora.sim.mcu.*;
@@ -42,6 +43,7 @@ import avrora.sim.util.SimUtil;
 import cck.text.StringUtil;
 import cck.util.Arithmetic;
 import cck.util.Util;
+import java.io.*;
 
 /**
  * The <code>CC2420Radio</code> implements a simulation of the CC2420 radio
@@ -49,7 +51,7 @@ import cck.util.Util;
  *
  * @author Ben L. Titzer
  */
-public class CC2420Radio implements Radio {
+public class CC2420Radio implements Radio, Checkpoint.Component {
 
     //-- Register addresses ---------------------------------------------------
     public static final int MAIN     = 0x10;
@@ -121,6 +123,7 @@ public class CC2420Radio implements Radio {
     protected final ByteFIFO rxFIFO = new ByteFIFO(FIFO_SIZE);
 
     protected Medium medium;
+    protected Medium privateMedium;
     protected Transmitter transmitter;
     protected Receiver receiver;
 
@@ -130,6 +133,12 @@ public class CC2420Radio implements Radio {
     // simplify the handling of radio states and state transitions.
     protected final Register statusRegister = new Register(8);
     protected boolean startingOscillator;
+    protected final Simulator.Event oscillator = new Simulator.Event() {
+        public void fire() {
+            oscStable.setValue(true);
+            startingOscillator = false;
+        }
+    };
     protected boolean SRXDEC_switched;
     protected boolean STXENC_switched;
 
@@ -184,13 +193,117 @@ public class CC2420Radio implements Radio {
 
         // create a private medium for this radio
         // the simulation may replace this later with a new one.
-        setMedium(createMedium(null, null));
+        setMedium(privateMedium = createMedium(null, null));
 
         // reset all registers
         reset();
         
         // get debugging channel.
         printer = SimUtil.getPrinter(mcu.getSimulator(), "radio.cc2420");
+
+        Checkpoint.Registry registry = sim.getCheckpointRegistry();
+        registry.addComponent("cc2420", this);
+        registry.addEvent("cc2420.oscillator", oscillator);
+    }
+
+    /**
+     * The <code>saveState()</code> method writes the registers, the FIFOs, the pins, the configuration
+     * interface and the state of the transmitter and receiver of this radio to a checkpoint. The medium
+     * is written as well when this radio has its own private medium; a medium shared between nodes is
+     * saved with the simulation.
+     * @param out the output to write the state to
+     * @throws IOException if the state cannot be written
+     */
+    public void saveState(DataOutput out) throws IOException {
+        for ( int cntr = 0; cntr < registers.length; cntr++ ) out.writeChar(registers[cntr]);
+        txFIFO.saveState(out);
+        rxFIFO.saveState(out);
+        out.writeByte(statusRegister.getValue());
+        out.writeBoolean(startingOscillator);
+        out.writeBoolean(SRXDEC_switched);
+        out.writeBoolean(STXENC_switched);
+
+        out.writeBoolean(FIFO_active);
+        out.writeBoolean(FIFOP_active);
+        out.writeBoolean(CCA_active);
+        out.writeBoolean(SFD_active);
+        out.writeBoolean(SCLK_pin.level);
+        out.writeBoolean(MISO_pin.level);
+        out.writeBoolean(MOSI_pin.level);
+        out.writeBoolean(CS_pin.level);
+        out.writeBoolean(FIFO_pin.level.getValue());
+        out.writeBoolean(FIFOP_pin.level.getValue());
+        out.writeBoolean(CCA_pin.level == oscStable);
+
+        out.writeInt(configCommand);
+        out.writeInt(configByteCnt);
+        out.writeInt(configRegAddr);
+        out.writeByte(configByteHigh);
+        out.writeInt(configRAMAddr);
+        out.writeInt(configRAMBank);
+
+        out.writeInt(transmitter.state);
+        out.writeInt(transmitter.counter);
+        out.writeInt(transmitter.length);
+        out.writeChar(transmitter.crc);
+        out.writeInt(receiver.state);
+        out.writeInt(receiver.counter);
+        out.writeInt(receiver.length);
+        out.writeChar(receiver.crc);
+        out.writeByte(receiver.crcLow);
+
+        out.writeBoolean(medium == privateMedium);
+        if ( medium == privateMedium ) medium.saveState(out);
+    }
+
+    /**
+     * The <code>restoreState()</code> method restores the state of this radio from a checkpoint.
+     * Registers are restored without the side effects of writing them.
+     * @param in the input to read the state from
+     * @throws IOException if the state cannot be read
+     */
+    public void restoreState(DataInput in) throws IOException {
+        for ( int cntr = 0; cntr < registers.length; cntr++ ) registers[cntr] = in.readChar();
+        txFIFO.restoreState(in);
+        rxFIFO.restoreState(in);
+        statusRegister.setValue(in.readByte());
+        startingOscillator = in.readBoolean();
+        SRXDEC_switched = in.readBoolean();
+        STXENC_switched = in.readBoolean();
+
+        FIFO_active = in.readBoolean();
+        FIFOP_active = in.readBoolean();
+        CCA_active = in.readBoolean();
+        SFD_active = in.readBoolean();
+        SCLK_pin.level = in.readBoolean();
+        MISO_pin.level = in.readBoolean();
+        MOSI_pin.level = in.readBoolean();
+        CS_pin.level = in.readBoolean();
+        FIFO_pin.level.setValue(in.readBoolean());
+        FIFOP_pin.level.setValue(in.readBoolean());
+        CCA_pin.level = in.readBoolean() ? oscStable : CCA_assessor;
+
+        configCommand = in.readInt();
+        configByteCnt = in.readInt();
+        configRegAddr = in.readInt();
+        configByteHigh = in.readByte();
+        configRAMAddr = in.readInt();
+        configRAMBank = in.readInt();
+
+        transmitter.state = in.readInt();
+        transmitter.counter = in.readInt();
+        transmitter.length = in.readInt();
+        transmitter.crc = in.readChar();
+        receiver.state = in.readInt();
+        receiver.counter = in.readInt();
+        receiver.length = in.readInt();
+        receiver.crc = in.readChar();
+        receiver.crcLow = in.readByte();
+
+        boolean priv = in.readBoolean();
+        if ( priv != (medium == privateMedium) )
+            throw new IOException("checkpoint and simulation disagree on the radio medium");
+        if ( priv ) medium.restoreState(in);
     }
 
     private void reset() {
@@ -348,12 +461,7 @@ public class CC2420Radio implements Radio {
     private void startOscillator() {
         if (!oscStable.getValue() && !startingOscillator) {
             startingOscillator = true;
-            sim.insertEvent(new Simulator.Event() {
-                public void fire() {
-                    oscStable.setValue(true);
-                    startingOscillator = false;
-                }
-            }, toCycles(XOSC_START_TIME));
+            sim.insertEvent(oscillator, toCycles(XOSC_START_TIME));
         }
     }
 
@@ -954,6 +1062,14 @@ public class CC2420Radio implements Radio {
         medium = m;
         transmitter = new Transmitter(m);
         receiver = new Receiver(m);
+
+        Checkpoint.Registry registry = sim.getCheckpointRegistry();
+        registry.removeEvent("cc2420.transmit");
+        registry.removeEvent("cc2420.receive");
+        registry.addEvent("cc2420.transmit", transmitter.ticker);
+        registry.addEvent("cc2420.receive", receiver.ticker);
+        registry.addSpeculative("cc2420.transmitter", transmitter);
+        registry.addSpeculative("cc2420.receiver", receiver);
     }
 
     public Medium getMedium() {
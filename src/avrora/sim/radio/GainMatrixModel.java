@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) 2007, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package avrora.sim.radio;
+
+import java.util.*;
+
+/**
+ * The <code>GainMatrixModel</code> class implements a radio model that decides reception by the
+ * signal to interference and noise ratio (SINR) of each byte. The gain of every link is computed
+ * once from the positions of the nodes in a topology, using a log-distance path loss model with
+ * optional static log-normal shadowing, and stored in a matrix indexed by node, so that no
+ * geometry is computed while the simulation runs.
+ * <p/>
+ * All nodes are assumed to transmit with the same power. A receiver locks onto a transmission whose
+ * received power is above the sensitivity of the radio. A byte is received correctly if the strongest
+ * of the transmissions that overlap it exceeds the sum of the others and the noise floor by the SINR
+ * threshold; otherwise all of its bits are marked as corrupted.
+ */
+public class GainMatrixModel implements Medium.Arbitrator, Medium.Neighborhood {
+
+    public static final double TX_POWER = 0.0;           // dBm
+    public static final double REFERENCE_LOSS = 40.0;    // dB at one meter
+    public static final double NOISE_FLOOR = -100.0;     // dBm
+    public static final double SENSITIVITY = -94.0;      // dBm
+
+    protected final int nodes;
+
+    /**
+     * The <code>power</code> field stores the power in milliwatts received by each node from each
+     * other node, indexed by <code>sender * nodes + receiver</code>.
+     */
+    protected final float[] power;
+
+    protected final float unknownPower;
+    protected final double noise;
+    protected final double sensitivity;
+    protected final double threshold;
+    protected int version;
+
+    /**
+     * The constructor for the <code>GainMatrixModel</code> class computes the received power of each
+     * link between the nodes of the specified topology.
+     * @param topology the positions of the nodes
+     * @param exponent the path loss exponent
+     * @param shadowing the standard deviation of the shadowing in dB, or zero for none
+     * @param sinr the SINR in dB above which a byte is received correctly
+     * @param seed the seed of the random numbers used for the shadowing
+     */
+    public GainMatrixModel(Topology topology, double exponent, double shadowing, double sinr, long seed) {
+        nodes = topology.getNodeCount();
+        power = new float[nodes * nodes];
+        noise = toMilliwatts(NOISE_FLOOR);
+        sensitivity = toMilliwatts(SENSITIVITY);
+        threshold = Math.pow(10, sinr / 10);
+        unknownPower = (float)toMilliwatts(TX_POWER - REFERENCE_LOSS);
+
+        Random random = new Random(seed);
+        for ( int s = 0; s < nodes; s++ ) {
+            RadiusModel.Position a = topology.getPosition(s);
+            for ( int r = 0; r < s; r++ ) {
+                RadiusModel.Position b = topology.getPosition(r);
+                double dx = a.x - b.x, dy = a.y - b.y, dz = a.z - b.z;
+                double dist = Math.max(1.0, Math.sqrt(dx * dx + dy * dy + dz * dz));
+                double loss = REFERENCE_LOSS + 10 * exponent * Math.log(dist) / Math.log(10);
+                if ( shadowing > 0 ) loss += shadowing * random.nextGaussian();
+                // links are symmetric
+                float p = (float)toMilliwatts(TX_POWER - loss);
+                power[s * nodes + r] = p;
+                power[r * nodes + s] = p;
+            }
+            power[s * nodes + s] = unknownPower;
+        }
+    }
+
+    private static double toMilliwatts(double dBm) {
+        return Math.pow(10, dBm / 10);
+    }
+
+    /**
+     * The <code>setNode()</code> method associates the transmitter and receiver of the specified radio
+     * with a node of the topology.
+     * @param radio the radio of the node
+     * @param id the number of the node in the topology
+     */
+    public synchronized void setNode(Radio radio, int id) {
+        if ( id < 0 || id >= nodes ) return;
+        radio.getTransmitter().nodeIndex = id;
+        radio.getReceiver().nodeIndex = id;
+        version++;
+    }
+
+    /**
+     * The <code>setNode()</code> method associates a transmitter that has no receiver in this model,
+     * such as a <code>RemoteTransmitter</code>, with a node of the topology.
+     * @param t the transmitter
+     * @param id the number of the node in the topology
+     */
+    public synchronized void setNode(Medium.Transmitter t, int id) {
+        if ( id < 0 || id >= nodes ) return;
+        t.nodeIndex = id;
+        version++;
+    }
+
+    protected float getPower(Medium.Transmitter t, Medium.Receiver r) {
+        int s = t.nodeIndex, d = r.nodeIndex;
+        // nodes that are not in the topology are as close as possible to every other node
+        if ( s < 0 || d < 0 ) return unknownPower;
+        return power[s * nodes + d];
+    }
+
+    public boolean lockTransmission(Medium.Receiver receiver, Medium.Transmission trans) {
+        return getPower(trans.origin, receiver) >= sensitivity;
+    }
+
+    public char mergeTransmissions(Medium.Receiver receiver, List it, long bit) {
+        assert it.size() > 0;
+        Medium.Transmission strongest = null;
+        double max = 0;
+        double total = noise;
+        for ( int cntr = 0; cntr < it.size(); cntr++ ) {
+            Medium.Transmission t = (Medium.Transmission)it.get(cntr);
+            double p = getPower(t.origin, receiver);
+            total += p;
+            if ( strongest == null || p > max ) {
+                strongest = t;
+                max = p;
+            }
+        }
+        int value = 0xff & strongest.getByteAtTime(bit);
+        if ( max < threshold * (total - max) ) value |= 0xff00; // all bits are corrupted
+        return (char)value;
+    }
+
+    public synchronized int getVersion() {
+        return version;
+    }
+
+    /**
+     * The <code>getNeighbors()</code> method adds to the list the receivers at which the transmissions of
+     * the specified transmitter are received above the noise floor, which includes those that cannot
+     * receive them but suffer their interference.
+     * @param t the transmitter
+     * @param receivers the receivers attached to the transmitter's medium
+     * @param result the list to which to add the neighboring receivers
+     */
+    public void getNeighbors(Medium.Transmitter t, Medium.Receiver[] receivers, List result) {
+        for ( int cntr = 0; cntr < receivers.length; cntr++ ) {
+            if ( getPower(t, receivers[cntr]) >= noise ) result.add(receivers[cntr]);
+        }
+    }
+}
@@ -35,9 +35,11 @@ package avrora.sim.radio;
 
 import avrora.sim.clock.Clock;
 import avrora.sim.clock.Synchronizer;
+import avrora.sim.Checkpoint;
 import avrora.sim.Simulator;
 import avrora.sim.util.TransactionalList;
 
+import java.io.*;
 import java.util.*;
 
 import cck.util.Arithmetic;
@@ -47,7 +49,7 @@ import cck.util.Arithmetic;
  *
  * @author Ben L. Titzer
  */
-public class Medium {
+public class Medium implements Checkpoint.Component {
 
     private static final int BYTE_SIZE = 8;
 
@@ -56,6 +58,43 @@ public class Medium {
         public char mergeTransmissions(Receiver receiver, List trans, long bit);
     }
 
+    /**
+     * The <code>Medium.Neighborhood</code> interface is implemented by arbitrators that know
+     * ahead of time which receivers are within reach of a transmitter. The medium uses it to
+     * build a neighbor table, so that each new transmission is only offered to the receivers
+     * that could possibly lock onto it. An arbitrator that does not implement this interface
+     * has every transmission offered to every receiver.
+     */
+    public interface Neighborhood {
+        /**
+         * The <code>getVersion()</code> method returns a number that changes whenever the
+         * neighbors of some transmitter may have changed, e.g. because a node was moved.
+         * @return the current version of the neighbor relation
+         */
+        public int getVersion();
+
+        /**
+         * The <code>getNeighbors()</code> method adds to the given list each of the receivers
+         * that can receive transmissions from the specified transmitter.
+         * @param t the transmitter
+         * @param receivers the receivers attached to the transmitter's medium
+         * @param result the list to which to add the neighboring receivers
+         */
+        public void getNeighbors(Transmitter t, Receiver[] receivers, List result);
+    }
+
+    /**
+     * The <code>Medium.Export</code> interface is implemented by objects that forward the transmissions
+     * made into this medium to a copy of the medium elsewhere, e.g. in another process that simulates
+     * a different part of the network. It is called from the thread of the transmitting node, at the
+     * time of the node at which the transmission begins, each byte is sent, and the transmission ends.
+     */
+    public interface Export {
+        public void beginTransmission(Transmitter t, Transmission tx);
+        public void transmitByte(Transmitter t, byte val);
+        public void endTransmission(Transmitter t, Transmission tx);
+    }
+
     public interface Probe {
         public void fireBeforeTransmit(Transmitter t, byte val);
         public void fireBeforeTransmitEnd(Transmitter t);
@@ -107,6 +146,9 @@ public class Medium {
         public final long cyclesPerBit;
         protected Probe.List probeList;
 
+        // the index of the node in the arbitrator's tables, or -1 if the arbitrator has none
+        protected int nodeIndex = -1;
+
         public boolean activated;
 
         protected TXRX(Medium m, Clock c) {
@@ -118,6 +160,9 @@ public class Medium {
             cyclesPerBit = (hz / bps);
             cyclesPerByte = BYTE_SIZE * cyclesPerBit;
             leadCycles = (medium.leadBits * hz / bps);
+            // receivers wait for a time later than one byte before their own only in an exact medium,
+            // and only when a sender has not yet written a byte that is being received
+            if (medium.synch != null) medium.synch.addLookahead(cyclesPerByte);
         }
 
         protected long getBitNum(long time) {
@@ -145,27 +190,46 @@ public class Medium {
      * clock-level synchronization so that clients only have to implement the
      * <code>nextByte()</code> routine.
      */
-    public static abstract class Transmitter extends TXRX {
+    public static abstract class Transmitter extends TXRX implements Checkpoint.Speculative {
 
         protected Transmission transmission;
         protected final Transmitter.Ticker ticker;
         protected boolean shutdown;
 
+        // in a speculative medium, the number of transmissions begun and the most recent of them,
+        // followed by those that a rollback left to be begun again by the repeated execution
+        protected long begun;
+        protected final LinkedList history = new LinkedList();
+        protected int replay;
+        protected final ReplayCheck replayCheck = new ReplayCheck();
+
+        // the neighbor table entry of this transmitter and the state it was computed for
+        protected Receiver[] neighbors;
+        protected int neighborCount;
+        protected int neighborVersion;
+
         protected Transmitter(Medium m, Clock c) {
             super(m, c);
             ticker = new Ticker();
+            m.addTransmitter(this);
         }
 
         public final void endTransmit() {
             if (activated) {
+                long end = transmission.end;
                 shutdown = true;
                 transmission.end();
+                if (medium.export != null) medium.export.endTransmission(this, transmission);
+                // a repeated execution that ends the transmission as before changes nothing
+                if (transmission.end != end) medium.notifyNeighbors(Math.min(end, transmission.end));
             }
         }
 
         public final void beginTransmit(double pow) {
             if ( !activated) {
-                transmission = medium.newTransmission(this, pow);
+                transmission = replay > 0 ? beginAgain(pow) : null;
+                if (transmission == null) transmission = medium.newTransmission(this, pow);
+                if (medium.export != null) medium.export.beginTransmission(this, transmission);
                 activated = true;
                 clock.insertEvent(ticker, leadCycles);
             }
@@ -178,6 +242,7 @@ public class Medium {
                 if (shutdown) {
                     // shut down the transmitter
                     if (probeList != null) probeList.fireBeforeTransmitEnd(Transmitter.this);
+                    medium.release(transmission);
                     transmission = null;
                     shutdown = false;
                     activated = false;
@@ -185,12 +250,138 @@ public class Medium {
                     // otherwise, transmit a single byte and add it to the buffer
                     int indx = transmission.counter++;
                     byte val = nextByte();
-                    transmission.data[indx] = val;
+                    if (medium.export != null) medium.export.transmitByte(Transmitter.this, val);
+                    if (transmission.data[indx] != val) {
+                        // receivers only need to know if they may have seen a different byte
+                        transmission.data[indx] = val;
+                        medium.notifyNeighbors(clock.getCount());
+                    }
                     if (probeList != null) probeList.fireBeforeTransmit(Transmitter.this, val);
                     clock.insertEvent(this, cyclesPerByte);
                 }
             }
         }
+
+        /**
+         * The <code>ReplayCheck</code> class checks that an execution repeated after a rollback begins
+         * and ends the transmissions kept from the earlier execution at the same times as before.
+         */
+        protected class ReplayCheck implements Simulator.Event {
+            public void fire() {
+                long now = clock.getCount();
+                if (activated && !shutdown && transmission.end < now) {
+                    // the transmission was not ended again; receivers may have seen it end
+                    long end = transmission.end;
+                    transmission.end = transmission.lastBit = Long.MAX_VALUE;
+                    medium.notifyNeighbors(end);
+                }
+                if (replay > 0 && nextReplay().start < now) cancelReplay();
+                scheduleReplayCheck();
+            }
+        }
+
+        private Transmission nextReplay() {
+            return (Transmission)history.get(history.size() - replay);
+        }
+
+        private Transmission beginAgain(double pow) {
+            Transmission t = nextReplay();
+            if (t.start == clock.getCount() && t.power == pow) {
+                replay--;
+                begun++;
+                t.counter = 0;
+                scheduleReplayCheck();
+                return t;
+            }
+            // the execution has diverged from the earlier one
+            cancelReplay();
+            return null;
+        }
+
+        private void cancelReplay() {
+            long start = nextReplay().start;
+            for ( ; replay > 0; replay-- ) ((Transmission)history.removeLast()).cancelled = true;
+            medium.notifyNeighbors(start);
+        }
+
+        private void scheduleReplayCheck() {
+            clock.removeEvent(replayCheck);
+            long next = Long.MAX_VALUE;
+            if (activated && !shutdown) next = transmission.end;
+            if (replay > 0) next = Math.min(next, nextReplay().start);
+            // check one cycle later, after an instruction at that time has begun or ended a transmission
+            if (next != Long.MAX_VALUE) clock.insertEvent(replayCheck, next + 1 - clock.getCount());
+        }
+
+        /**
+         * The <code>saveSpeculative()</code> method saves the state of this transmitter, including the
+         * progress of its current transmission, for a later rollback.
+         * @return an object holding the state of the transmitter
+         */
+        public Object saveSpeculative() {
+            return new TransmitterState(this);
+        }
+
+        /**
+         * The <code>restoreSpeculative()</code> method rolls this transmitter back to a saved state. The
+         * transmissions begun since that state was saved are kept if they began at or before the specified
+         * time, since the repeated execution will begin them again; as long as it does so, receivers that
+         * have seen them do not need to be rolled back. The later transmissions are cancelled, so that
+         * receivers stop seeing them, and transmissions that ended after the time are on the air again.
+         * @param state the object returned by <code>saveSpeculative()</code>
+         * @param time the time up to which the node will repeat its earlier execution
+         */
+        public void restoreSpeculative(Object state, long time) {
+            TransmitterState s = (TransmitterState)state;
+            int after = (int)(begun - s.begun) + replay;
+            for ( ; after > 0 && ((Transmission)history.getLast()).start > time; after-- )
+                ((Transmission)history.removeLast()).cancelled = true;
+            begun = s.begun;
+            replay = after;
+            activated = s.activated;
+            shutdown = s.shutdown;
+            transmission = s.transmission;
+            if (transmission != null) {
+                transmission.counter = s.counter;
+                reopen(transmission, time);
+            }
+            Iterator i = history.listIterator(history.size() - replay);
+            while (i.hasNext()) reopen((Transmission)i.next(), time);
+            scheduleReplayCheck();
+        }
+
+        private void reopen(Transmission t, long time) {
+            if (t.end > time) t.end = t.lastBit = Long.MAX_VALUE;
+        }
+
+        /**
+         * The <code>commitSpeculative()</code> method forgets the transmissions begun before the specified
+         * state, which can no longer be cancelled.
+         * @param state the oldest state that may still be restored
+         */
+        public void commitSpeculative(Object state) {
+            long keep = Math.min(begun - ((TransmitterState)state).begun + replay, history.size());
+            while (history.size() > keep) history.removeFirst();
+        }
+    }
+
+    /**
+     * The <code>TransmitterState</code> class holds the state of a transmitter saved for a rollback.
+     */
+    protected static class TransmitterState {
+        protected final boolean activated;
+        protected final boolean shutdown;
+        protected final Transmission transmission;
+        protected final int counter;
+        protected final long begun;
+
+        protected TransmitterState(Transmitter t) {
+            activated = t.activated;
+            shutdown = t.shutdown;
+            transmission = t.transmission;
+            begun = t.begun;
+            counter = transmission != null ? transmission.counter : 0;
+        }
     }
 
     /**
@@ -199,25 +390,49 @@ public class Medium {
      * its own clock-level synchronization. It receives transmissions that may be the
      * result of multiple interfering transmissions.
      */
-    public static abstract class Receiver extends TXRX {
+    public static abstract class Receiver extends TXRX implements Checkpoint.Speculative {
         private static final int BIT_DELAY = 1;
         protected boolean locked;
         public Receiver.Ticker ticker;
 
+        // the earliest first bit of a transmission that this receiver may not have seen yet
+        protected long windowBit;
+
+        // the transmissions offered to this receiver by transmitters within reach
+        protected final Ring candidates = new Ring();
+        // in a speculative medium, the number of transmissions offered and the most recent of them
+        protected long offerCount;
+        protected final LinkedList offered = new LinkedList();
+        // the list of intersecting transmissions, reused for every byte delivered
+        private final List intersection = new ArrayList();
+
         protected Receiver(Medium m, Clock c) {
             super(m, c);
             ticker = new Ticker();
+            m.addReceiver(this);
         }
 
         public final void beginReceive() {
             activated = true;
-            clock.insertEvent(ticker, leadCycles + cyclesPerByte);
+            windowBit = Long.MAX_VALUE;
+            clock.insertEvent(ticker, getIdlePeriod());
         }
 
         public final void endReceive() {
             activated = false;
             locked = false;
             clock.removeEvent(ticker);
+            synchronized(candidates) {
+                // a transmission offered by a sender that runs ahead may begin after the receiver is on again
+                long now = clock.getCount();
+                int kept = 0;
+                for ( int cntr = 0; cntr < candidates.count; cntr++ ) {
+                    Transmission t = candidates.get(cntr);
+                    if (!t.cancelled && t.start >= now) candidates.set(kept++, t);
+                    else medium.release(t);
+                }
+                candidates.truncate(kept);
+            }
         }
 
         public abstract void nextByte(boolean lock, byte b);
@@ -238,8 +453,19 @@ public class Medium {
 
             private void fireUnlocked(long time) {
                 long oneBitBeforeNow = getBitNum(time) - BIT_DELAY;
-                waitForNeighbors(time - leadCycles - cyclesPerByte);
-                Transmission tx = earliestNewTransmission(oneBitBeforeNow - BYTE_SIZE);
+                long bit = oneBitBeforeNow - BYTE_SIZE;
+                long wait = time - leadCycles - cyclesPerByte;
+                long known = Long.MAX_VALUE;
+                if (medium.exact) {
+                    // a transmission that began after the time waited for is only offered if its sender
+                    // ran ahead, so it is left for a later tick, which comes before its first byte is due
+                    wait = known = time - cyclesPerByte;
+                }
+                waitForNeighbors(wait);
+                // a transmission from a sender that lagged behind may only be offered now
+                Transmission tx = earliestNewTransmission(Math.min(windowBit, bit), bit, known);
+                // every transmission whose first bit is before the time waited for has now been offered
+                windowBit = getBitNum(time - cyclesPerByte) - BIT_DELAY;
                 if ( tx != null ) {
                     // there is a new transmission; calculate delivery of first byte.
                     long dcycle = getCycleTime(tx.firstBit + BYTE_SIZE + BIT_DELAY);
@@ -262,7 +488,7 @@ public class Medium {
                     }
                 }
                 // remain unlocked.
-                clock.insertEvent(this, leadCycles + cyclesPerByte);
+                clock.insertEvent(this, getIdlePeriod());
             }
 
             private void fireLocked(long time) {
@@ -272,22 +498,54 @@ public class Medium {
             }
 
             private void deliverByte(long oneBitBeforeNow) {
-                List it = getIntersection(oneBitBeforeNow - BYTE_SIZE);
-                if ( it != null ) {
-                    // merge transmissions into a single byte and send it to receiver
-                    char val = medium.arbitrator.mergeTransmissions(Receiver.this, it, oneBitBeforeNow - BYTE_SIZE);
-                    nextByte(true, (byte)val);
-                    if (probeList != null) probeList.fireAfterReceive(Receiver.this, val);
+                if ( receiveByte(oneBitBeforeNow - BYTE_SIZE) ) {
                     clock.insertEvent(this, cyclesPerByte);
                 } else {
-                    // all transmissions are over.
-                    locked = false;
-                    nextByte(false, (byte)0);
-                    if (probeList != null) probeList.fireAfterReceiveEnd(Receiver.this);
-                    clock.insertEvent(this, leadCycles + cyclesPerByte);
+                    endLock();
                 }
             }
 
+            private boolean receiveByte(long bit) {
+                List it = getIntersection(bit);
+                if ( it == null || !canLock(it) ) return false;
+                if (medium.exact) waitForBytes(it, bit);
+                // merge transmissions into a single byte and send it to receiver
+                char val = medium.arbitrator.mergeTransmissions(Receiver.this, it, bit);
+                nextByte(true, (byte)val);
+                if (probeList != null) probeList.fireAfterReceive(Receiver.this, val);
+                return true;
+            }
+
+            private boolean canLock(List it) {
+                // the lock is lost when only transmissions too weak to lock onto are left, e.g. interference
+                for ( int cntr = 0; cntr < it.size(); cntr++ ) {
+                    if (medium.arbitrator.lockTransmission(Receiver.this, (Transmission)it.get(cntr))) return true;
+                }
+                return false;
+            }
+
+            private void waitForBytes(List it, long bit) {
+                // a byte that is not aligned with a transmission also covers its next byte, which is
+                // written up to a byte after the time waited for, so wait for its sender to write it
+                long time = 0;
+                for ( int cntr = 0; cntr < it.size(); cntr++ ) {
+                    Transmission t = (Transmission)it.get(cntr);
+                    Transmitter o = t.origin;
+                    long last = (bit + BYTE_SIZE - 1 - t.firstBit) / BYTE_SIZE;
+                    time = Math.max(time, t.start + o.leadCycles + last * o.cyclesPerByte + 1);
+                }
+                if ( time > clock.getCount() - cyclesPerByte ) waitForNeighbors(time);
+            }
+
+            private void endLock() {
+                // all transmissions are over.
+                locked = false;
+                windowBit = Long.MAX_VALUE;
+                nextByte(false, (byte)0);
+                if (probeList != null) probeList.fireAfterReceiveEnd(Receiver.this);
+                clock.insertEvent(this, getIdlePeriod());
+            }
+
         }
         
         public final boolean isChannelClear() {
@@ -302,41 +560,128 @@ public class Medium {
             }
         }
 
-        private Transmission earliestNewTransmission(long bit) {
-            Transmission tx = null;
-            synchronized(medium) {
-                Iterator i = medium.transmissions.iterator();
-                while ( i.hasNext() ) {
+        protected void offer(Transmission t) {
+            synchronized(candidates) {
+                // a receiver that is turned off does not drop old transmissions by itself
+                if (!activated) prune(getBitNum(clock.getCount()) - BIT_DELAY - BYTE_SIZE);
+                if (candidates.add(t)) medium.ringGrown();
+                if (medium.speculative) {
+                    offered.addLast(t);
+                    offerCount++;
+                }
+            }
+        }
+
+        /**
+         * The <code>saveSpeculative()</code> method saves the state of this receiver, including the
+         * transmissions it has been offered, for a later rollback.
+         * @return an object holding the state of the receiver
+         */
+        public Object saveSpeculative() {
+            return new ReceiverState(this);
+        }
+
+        /**
+         * The <code>restoreSpeculative()</code> method rolls this receiver back to a saved state. The
+         * transmissions offered since that state was saved are offered again, unless they were cancelled,
+         * since the receiver may have dropped them after they expired.
+         * @param state the object returned by <code>saveSpeculative()</code>
+         * @param time the time up to which the node will repeat its earlier execution
+         */
+        public void restoreSpeculative(Object state, long time) {
+            ReceiverState s = (ReceiverState)state;
+            activated = s.activated;
+            locked = s.locked;
+            windowBit = s.windowBit;
+            synchronized(candidates) {
+                candidates.truncate(0);
+                for ( int cntr = 0; cntr < s.candidates.length; cntr++ ) {
+                    if (!s.candidates[cntr].cancelled) candidates.add(s.candidates[cntr]);
+                }
+                Iterator i = offered.listIterator((int)Math.max(0, offered.size() - (offerCount - s.offerCount)));
+                while (i.hasNext()) {
                     Transmission t = (Transmission)i.next();
-                    if (bit <= t.firstBit && medium.arbitrator.lockTransmission(Receiver.this, t)) {
+                    if (!t.cancelled) candidates.add(t);
+                }
+            }
+        }
+
+        /**
+         * The <code>commitSpeculative()</code> method forgets the transmissions offered before the specified
+         * state, which are already part of every state that may still be restored.
+         * @param state the oldest state that may still be restored
+         */
+        public void commitSpeculative(Object state) {
+            synchronized(candidates) {
+                long keep = Math.min(offerCount - ((ReceiverState)state).offerCount, offered.size());
+                while (offered.size() > keep) offered.removeFirst();
+            }
+        }
+
+        private Transmission earliestNewTransmission(long low, long bit, long known) {
+            Transmission tx = null;
+            synchronized(candidates) {
+                prune(bit);
+                for ( int cntr = 0; cntr < candidates.count; cntr++ ) {
+                    Transmission t = candidates.get(cntr);
+                    if (t.cancelled || !visible(t) || t.start >= known) continue;
+                    if (isNew(low, bit, t) && medium.arbitrator.lockTransmission(Receiver.this, t)) {
                         if ( tx == null ) tx = t;
                         else if ( t.firstBit < tx.firstBit ) tx = t;
-                    } else if (bit - 8 - 2 * medium.leadBits > t.lastBit) {
-                        // remove older transmissions
-                        i.remove();
                     }
                 }
             }
             return tx;
         }
 
+        private void prune(long bit) {
+            // the buffer is in the order the transmissions were offered, so the oldest ones expire first;
+            // one that ends after a later one is dropped when it reaches the front
+            while (candidates.count > 0) {
+                Transmission t = candidates.get(0);
+                if (!t.cancelled && !(visible(t) && expired(bit, t))) break;
+                medium.release(candidates.removeFirst());
+            }
+        }
+
         private List getIntersection(long bit) {
-            List it = null;
-            synchronized(medium) {
-                Iterator i = medium.transmissions.iterator();
-                while ( i.hasNext() ) {
-                    Transmission t = (Transmission)i.next();
-                    if (intersect(bit, t)) {
-                        if ( it == null ) it = new LinkedList();
-                        it.add(t);
-                    }
+            intersection.clear();
+            synchronized(candidates) {
+                prune(bit);
+                for ( int cntr = 0; cntr < candidates.count; cntr++ ) {
+                    Transmission t = candidates.get(cntr);
+                    if (!t.cancelled && visible(t) && intersect(bit, t)) intersection.add(t);
                 }
             }
-            return it;
+            return intersection.isEmpty() ? null : intersection;
+        }
+
+        private long getIdlePeriod() {
+            // an exact receiver must look for new transmissions within the lead time of each of them
+            return medium.exact ? leadCycles : leadCycles + cyclesPerByte;
+        }
+
+        private boolean isNew(long low, long bit, Transmission t) {
+            // a transmission that began before the current bit must still be on the air
+            return bit <= t.firstBit || low <= t.firstBit && bit < lastBit(t);
+        }
+
+        private boolean expired(long bit, Transmission t) {
+            return bit - 8 - 2 * medium.leadBits > lastBit(t);
         }
 
         private boolean intersect(long bit, Transmission t) {
-            return bit >= t.firstBit && bit < t.lastBit;
+            return bit >= t.firstBit && bit < lastBit(t);
+        }
+
+        private boolean visible(Transmission t) {
+            // a speculative receiver only sees what transmitters did before its own time
+            return !medium.speculative || t.start < clock.getCount();
+        }
+
+        private long lastBit(Transmission t) {
+            if (medium.speculative && t.end >= clock.getCount()) return Long.MAX_VALUE;
+            return t.lastBit;
         }
 
         private void waitForNeighbors(long gtime) {
@@ -344,6 +689,74 @@ public class Medium {
         }
     }
 
+    /**
+     * The <code>ReceiverState</code> class holds the state of a receiver saved for a rollback.
+     */
+    protected static class ReceiverState {
+        protected final boolean activated;
+        protected final boolean locked;
+        protected final long windowBit;
+        protected final Transmission[] candidates;
+        protected final long offerCount;
+
+        protected ReceiverState(Receiver r) {
+            activated = r.activated;
+            locked = r.locked;
+            windowBit = r.windowBit;
+            synchronized(r.candidates) {
+                candidates = new Transmission[r.candidates.count];
+                for ( int cntr = 0; cntr < candidates.length; cntr++ ) candidates[cntr] = r.candidates.get(cntr);
+                offerCount = r.offerCount;
+            }
+        }
+    }
+
+    /**
+     * The <code>Medium.Ring</code> class is a ring buffer of the transmissions offered to a
+     * receiver, ordered by the time they were offered. Transmissions are added at the back and
+     * expire from the front, so that neither moves the others. The buffer grows when it is full
+     * and never shrinks, so that a receiver reaches a steady state in which no allocation happens.
+     */
+    protected static class Ring {
+        protected Transmission[] buffer = new Transmission[8];
+        protected int first;
+        protected int count;
+
+        protected boolean add(Transmission t) {
+            boolean grown = false;
+            if (count == buffer.length) {
+                Transmission[] nbuffer = new Transmission[buffer.length * 2];
+                for ( int cntr = 0; cntr < count; cntr++ ) nbuffer[cntr] = get(cntr);
+                buffer = nbuffer;
+                first = 0;
+                grown = true;
+            }
+            buffer[(first + count++) & (buffer.length - 1)] = t;
+            return grown;
+        }
+
+        protected Transmission get(int indx) {
+            return buffer[(first + indx) & (buffer.length - 1)];
+        }
+
+        protected Transmission removeFirst() {
+            Transmission t = buffer[first];
+            buffer[first] = null;
+            first = (first + 1) & (buffer.length - 1);
+            count--;
+            return t;
+        }
+
+        protected void set(int indx, Transmission t) {
+            buffer[(first + indx) & (buffer.length - 1)] = t;
+        }
+
+        protected void truncate(int ncount) {
+            for ( int cntr = ncount; cntr < count; cntr++ ) set(cntr, null);
+            count = ncount;
+        }
+    }
+
     public static class BasicArbitrator implements Arbitrator {
         public boolean lockTransmission(Receiver receiver, Transmission trans) {
             return true;
@@ -370,25 +783,35 @@ public class Medium {
      * has a start time and a power level.
      */
     public class Transmission {
-        public final Transmitter origin;
-        public final long start;
-        public final long firstBit;
-        public final double power;
+        public Transmitter origin;
+        public long start;
+        public long firstBit;
+        public double power;
         public long lastBit;
         public long end;
 
         protected int counter;
-        protected byte[] data;
+        protected final byte[] data;
+        // guarded by the transmission itself, since transmitters and receivers release it concurrently
+        protected int references;
+
+        // set when the transmitter of a speculative medium is rolled back to before the transmission began
+        protected volatile boolean cancelled;
 
-        protected Transmission(Transmitter o, double pow) {
+        protected Transmission() {
+            data = new byte[Arithmetic.roundup(maxLength, BYTE_SIZE)];
+        }
+
+        protected void init(Transmitter o, double pow, long time) {
             origin = o;
             power = pow;
-            start = o.clock.getCount();
+            start = time;
             end = Long.MAX_VALUE;
             long l = start + o.leadCycles;
             firstBit = origin.getBitNum(l);
             lastBit = Long.MAX_VALUE;
-            data = new byte[Arithmetic.roundup(o.medium.maxLength, BYTE_SIZE)];
+            counter = 0;
+            cancelled = false;
         }
 
         public void end() {
@@ -401,8 +824,10 @@ public class Medium {
             int offset = (int) (bit - firstBit);
             int shift = offset & 0x7;
             int indx = offset / BYTE_SIZE;
+            // a speculative receiver may look past the end of a transmission that has not ended yet
+            if ( indx >= data.length ) return 0;
             int hi = 0xff & data[indx] << shift;
-            if ( shift > 0 ) {
+            if ( shift > 0 && indx + 1 < data.length ) {
                 int low = 0xff & data[1 + indx];
                 return (byte)(hi | low >> (BYTE_SIZE - shift));
             }
@@ -412,13 +837,30 @@ public class Medium {
 
     public final Synchronizer synch;
     public final Arbitrator arbitrator;
+    protected final Neighborhood neighborhood;
 
     public final int bitsPerSecond;
     public final int leadBits;
     public final int minLength;
     public final int maxLength;
 
-    protected List transmissions = new LinkedList();
+    // whether the nodes attached to this medium may be rolled back by an optimistic synchronizer
+    protected boolean speculative;
+    // whether what a receiver receives must not depend on how far ahead the other nodes are
+    protected boolean exact;
+
+    // the object that forwards the transmissions of this medium's transmitters, if any
+    protected Export export;
+
+    protected final List transmitters = new ArrayList();
+    protected final List receivers = new ArrayList();
+    protected Receiver[] receiverArray;
+
+    // recycled transmission records and the counters reported by the medium monitor, guarded by the pool
+    protected final List pool = new ArrayList();
+    protected long transmissionCount;
+    protected long allocationCount;
+    protected long ringsGrown;
 
     /**
      * The constructor for the <code>Medium</code> class creates a new shared transmission
@@ -444,14 +886,293 @@ public class Medium {
             arbitrator = new BasicArbitrator();
         else
             arbitrator = arb;
+        neighborhood = arbitrator instanceof Neighborhood ? (Neighborhood)arbitrator : null;
+    }
+
+    /**
+     * The <code>setSpeculative()</code> method prepares this medium for nodes that run speculatively and
+     * may be rolled back, e.g. by an <code>OptimisticSynchronizer</code>. Transmission records are then
+     * no longer recycled, since a rollback may bring a finished transmission back, and each receiver only
+     * sees transmissions that began, and ends of transmissions that happened, before its own time, so
+     * that what a receiver sees does not depend on how far ahead the other nodes happen to be.
+     * @param on true if the nodes may be rolled back; false otherwise
+     */
+    public void setSpeculative(boolean on) {
+        speculative = on;
+    }
+
+    /**
+     * The <code>setExact()</code> method prepares this medium for nodes that run ahead of each other by up
+     * to the lookahead, e.g. under a <code>ConservativeSynchronizer</code>, so that what a receiver
+     * receives does not depend on how far ahead the other nodes happen to be. Each receiver then only
+     * locks onto transmissions that began a byte before its own time, which every node has reached, and
+     * looks for them often enough to lock on before their first byte; and it waits for the senders to
+     * write each byte that it receives. This makes idle receivers check for transmissions more often.
+     * @param on true if the results must not depend on the progress of the other nodes; false otherwise
+     */
+    public void setExact(boolean on) {
+        exact = on;
+    }
+
+    /**
+     * The <code>setExport()</code> method sets the object that is informed of every transmission that
+     * the transmitters attached to this medium make, so that it can forward them to another medium.
+     * Transmissions inserted by a <code>RemoteTransmitter</code> are not exported.
+     * @param e the object to forward transmissions to, or null if they are not forwarded
+     */
+    public void setExport(Export e) {
+        export = e;
+    }
+
+    protected synchronized void addTransmitter(Transmitter t) {
+        transmitters.add(t);
     }
 
-    protected synchronized Transmission newTransmission(Transmitter o, double p) {
-        Transmission tx = new Transmission(o, p);
-        transmissions.add(tx);
+    protected synchronized void addReceiver(Receiver r) {
+        receivers.add(r);
+        receiverArray = null;
+    }
+
+    protected Transmission newTransmission(Transmitter o, double p) {
+        return newTransmission(o, p, o.clock.getCount());
+    }
+
+    protected Transmission newTransmission(Transmitter o, double p, long time) {
+        Receiver[] n = getNeighbors(o);
+        Transmission tx = allocTransmission();
+        synchronized(tx) {
+            tx.init(o, p, time);
+            // the transmission is referenced by its origin and by each receiver it is offered to
+            tx.references = 1 + n.length;
+        }
+        if (speculative) {
+            o.history.addLast(tx);
+            o.begun++;
+        }
+        for ( int cntr = 0; cntr < n.length; cntr++ ) n[cntr].offer(tx);
+        notifyNeighbors(tx.start);
         return tx;
     }
 
+    private void notifyNeighbors(long time) {
+        if (synch != null) synch.notifyNeighbors(time);
+    }
+
+    private Transmission allocTransmission() {
+        synchronized(pool) {
+            transmissionCount++;
+            int size = pool.size();
+            if (size > 0) return (Transmission)pool.remove(size - 1);
+            allocationCount++;
+        }
+        return new Transmission();
+    }
+
+    /**
+     * The <code>release()</code> method drops one reference to the specified transmission. When the
+     * transmitter and all of the receivers it was offered to have dropped it, the transmission record
+     * is cleared and returned to the pool for reuse by a later transmission. Only the record itself
+     * is locked to drop the reference, so that receivers of different nodes do not contend for the
+     * medium; the pool is only locked for the last reference.
+     * @param tx the transmission to release
+     */
+    protected void release(Transmission tx) {
+        synchronized(tx) {
+            if (--tx.references > 0 || speculative) return;
+        }
+        Arrays.fill(tx.data, 0, Math.min(tx.counter, tx.data.length), (byte)0);
+        tx.origin = null;
+        synchronized(pool) {
+            pool.add(tx);
+        }
+    }
+
+    /**
+     * The <code>getTransmissionCount()</code> method returns the number of transmissions that have
+     * been made into this medium.
+     * @return the number of transmissions begun in this medium
+     */
+    public long getTransmissionCount() {
+        synchronized(pool) {
+            return transmissionCount;
+        }
+    }
+
+    /**
+     * The <code>getAllocationCount()</code> method returns the number of transmission records that
+     * were allocated because none could be reused from the pool.
+     * @return the number of transmission records allocated by this medium
+     */
+    public long getAllocationCount() {
+        synchronized(pool) {
+            return allocationCount;
+        }
+    }
+
+    /**
+     * The <code>getRingGrowthCount()</code> method returns the number of times the candidate buffer
+     * of some receiver had to grow to hold the transmissions offered to it.
+     * @return the number of buffer growths in the receivers of this medium
+     */
+    public long getRingGrowthCount() {
+        synchronized(pool) {
+            return ringsGrown;
+        }
+    }
+
+    protected void ringGrown() {
+        synchronized(pool) {
+            ringsGrown++;
+        }
+    }
+
+    /**
+     * The <code>saveState()</code> method writes the transmissions in flight on this medium and the
+     * state of each transmitter and receiver attached to it to a checkpoint. Transmitters and receivers
+     * are identified by the order in which they were attached, which is the same in a simulation that
+     * is built from the same options. The tickers of the transmitters and receivers are saved with the
+     * event queue of their node.
+     * @param out the output to write the state to
+     * @throws IOException if the state cannot be written
+     */
+    public synchronized void saveState(DataOutput out) throws IOException {
+        out.writeInt(transmitters.size());
+        out.writeInt(receivers.size());
+        out.writeLong(getTransmissionCount());
+
+        // number every transmission that is still referenced by a transmitter or receiver
+        IdentityHashMap index = new IdentityHashMap();
+        List live = new ArrayList();
+        for ( int cntr = 0; cntr < transmitters.size(); cntr++ )
+            addLive(index, live, ((Transmitter)transmitters.get(cntr)).transmission);
+        for ( int cntr = 0; cntr < receivers.size(); cntr++ ) {
+            Receiver r = (Receiver)receivers.get(cntr);
+            synchronized(r.candidates) {
+                for ( int pos = 0; pos < r.candidates.count; pos++ ) addLive(index, live, r.candidates.get(pos));
+            }
+        }
+
+        out.writeInt(live.size());
+        for ( int cntr = 0; cntr < live.size(); cntr++ ) {
+            Transmission t = (Transmission)live.get(cntr);
+            out.writeInt(transmitters.indexOf(t.origin));
+            out.writeLong(t.start);
+            out.writeLong(t.firstBit);
+            out.writeDouble(t.power);
+            out.writeLong(t.lastBit);
+            out.writeLong(t.end);
+            out.writeInt(t.counter);
+            out.writeInt(t.references);
+            out.write(t.data, 0, Math.min(t.counter, t.data.length));
+        }
+
+        for ( int cntr = 0; cntr < transmitters.size(); cntr++ ) {
+            Transmitter t = (Transmitter)transmitters.get(cntr);
+            out.writeBoolean(t.activated);
+            out.writeBoolean(t.shutdown);
+            out.writeInt(indexOf(index, t.transmission));
+        }
+        for ( int cntr = 0; cntr < receivers.size(); cntr++ ) {
+            Receiver r = (Receiver)receivers.get(cntr);
+            out.writeBoolean(r.activated);
+            out.writeBoolean(r.locked);
+            out.writeLong(r.windowBit);
+            synchronized(r.candidates) {
+                out.writeInt(r.candidates.count);
+                for ( int pos = 0; pos < r.candidates.count; pos++ )
+                    out.writeInt(indexOf(index, r.candidates.get(pos)));
+            }
+        }
+    }
+
+    /**
+     * The <code>restoreState()</code> method restores the transmissions in flight and the state of
+     * the transmitters and receivers of this medium from a checkpoint.
+     * @param in the input to read the state from
+     * @throws IOException if the state cannot be read
+     */
+    public synchronized void restoreState(DataInput in) throws IOException {
+        int ntrans = in.readInt();
+        int nrecv = in.readInt();
+        if ( ntrans != transmitters.size() || nrecv != receivers.size() )
+            throw new IOException("medium has " + transmitters.size() + " transmitters and " + receivers.size()
+                    + " receivers, checkpoint has " + ntrans + " and " + nrecv);
+        long transmissions = in.readLong();
+        synchronized(pool) {
+            transmissionCount = transmissions;
+        }
+
+        Transmission[] live = new Transmission[in.readInt()];
+        for ( int cntr = 0; cntr < live.length; cntr++ ) {
+            Transmission t = new Transmission();
+            int origin = in.readInt();
+            t.origin = origin < 0 ? null : (Transmitter)transmitters.get(origin);
+            t.start = in.readLong();
+            t.firstBit = in.readLong();
+            t.power = in.readDouble();
+            t.lastBit = in.readLong();
+            t.end = in.readLong();
+            t.counter = in.readInt();
+            t.references = in.readInt();
+            in.readFully(t.data, 0, Math.min(t.counter, t.data.length));
+            live[cntr] = t;
+        }
+
+        for ( int cntr = 0; cntr < transmitters.size(); cntr++ ) {
+            Transmitter t = (Transmitter)transmitters.get(cntr);
+            t.activated = in.readBoolean();
+            t.shutdown = in.readBoolean();
+            int indx = in.readInt();
+            t.transmission = indx < 0 ? null : live[indx];
+        }
+        for ( int cntr = 0; cntr < receivers.size(); cntr++ ) {
+            Receiver r = (Receiver)receivers.get(cntr);
+            r.activated = in.readBoolean();
+            r.locked = in.readBoolean();
+            r.windowBit = in.readLong();
+            synchronized(r.candidates) {
+                r.candidates.truncate(0);
+                int count = in.readInt();
+                for ( int pos = 0; pos < count; pos++ ) r.candidates.add(live[in.readInt()]);
+            }
+        }
+    }
+
+    private static void addLive(IdentityHashMap index, List live, Transmission t) {
+        if ( t != null && !index.containsKey(t) ) {
+            index.put(t, new Integer(live.size()));
+            live.add(t);
+        }
+    }
+
+    private static int indexOf(IdentityHashMap index, Transmission t) {
+        return t == null ? -1 : ((Integer)index.get(t)).intValue();
+    }
+
+    /**
+     * The <code>getNeighbors()</code> method returns the receivers that a transmission from the
+     * specified transmitter must be offered to. The result is cached in the transmitter and only
+     * recomputed when receivers are added or the arbitrator reports a change of its neighbor relation.
+     * @param t the transmitter
+     * @return an array of the receivers that might receive transmissions from the transmitter
+     */
+    public synchronized Receiver[] getNeighbors(Transmitter t) {
+        int version = neighborhood == null ? 0 : neighborhood.getVersion();
+        if (t.neighbors == null || t.neighborCount != receivers.size() || t.neighborVersion != version) {
+            if (receiverArray == null) receiverArray = (Receiver[])receivers.toArray(new Receiver[receivers.size()]);
+            if (neighborhood == null) {
+                t.neighbors = receiverArray;
+            } else {
+                List list = new ArrayList();
+                neighborhood.getNeighbors(t, receiverArray, list);
+                t.neighbors = (Receiver[])list.toArray(new Receiver[list.size()]);
+            }
+            t.neighborCount = receivers.size();
+            t.neighborVersion = version;
+        }
+        return t.neighbors;
+    }
+
     public static boolean isCorruptedByte(char c) {
         return (c & 0xff00) != 0;
     }
@@ -13,7 +13,7 @@ import java.util.*;
  *
  * @author Ben L. Titzer
  */
-public class RadiusModel implements Medium.Arbitrator {
+public class RadiusModel implements Medium.Arbitrator, Medium.Neighborhood {
 
     protected final double minimumDistance;
     protected final double minimumDistanceSq;
@@ -21,6 +21,11 @@ public class RadiusModel implements Medium.Arbitrator {
     protected final double maximumDistanceSq;
     protected final Map positions;
 
+    // a grid of cells with the size of the maximum distance, mapping each cell to its receivers
+    protected final double cellSize;
+    protected final Map grid;
+    protected int version;
+
     public static final class Position {
         public final double x;
         public final double y;
@@ -39,6 +44,8 @@ public class RadiusModel implements Medium.Arbitrator {
         minimumDistance = minDist;
         minimumDistanceSq = minDist * minDist;
         positions = new HashMap();
+        cellSize = maxDist > 0 ? maxDist : 1.0;
+        grid = new HashMap();
     }
 
     public boolean lockTransmission(Medium.Receiver receiver, Medium.Transmission trans) {
@@ -69,14 +76,78 @@ public class RadiusModel implements Medium.Arbitrator {
     }
 
     public void setPosition(Radio radio, double x, double y, double z) {
-        Position pos = new Position(x, y, z);
-        positions.put(radio.getTransmitter(), pos);
-        positions.put(radio.getReceiver(), pos);
+        setPosition(radio, new Position(x, y, z));
     }
 
-    public void setPosition(Radio radio, Position pos) {
+    public synchronized void setPosition(Radio radio, Position pos) {
+        Medium.Receiver r = radio.getReceiver();
+        Position old = (Position)positions.get(r);
+        if (old != null) {
+            List cell = (List)grid.get(getCell(old));
+            if (cell != null) cell.remove(r);
+        }
         positions.put(radio.getTransmitter(), pos);
-        positions.put(radio.getReceiver(), pos);
+        positions.put(r, pos);
+        Long key = getCell(pos);
+        List cell = (List)grid.get(key);
+        if (cell == null) grid.put(key, cell = new LinkedList());
+        cell.add(r);
+        version++;
+    }
+
+    /**
+     * The <code>setPosition()</code> method sets the position of a transmitter that has no receiver
+     * in this model, such as a <code>RemoteTransmitter</code>.
+     * @param t the transmitter
+     * @param pos the position of the transmitter
+     */
+    public synchronized void setPosition(Medium.Transmitter t, Position pos) {
+        positions.put(t, pos);
+        version++;
+    }
+
+    public synchronized int getVersion() {
+        return version;
+    }
+
+    /**
+     * The <code>getNeighbors()</code> method adds the receivers within the maximum distance of the
+     * specified transmitter to the list. Only the grid cells adjacent to the transmitter's cell are
+     * searched. Nodes without a position are considered to be at distance zero from every other node.
+     * @param t the transmitter
+     * @param receivers the receivers attached to the transmitter's medium
+     * @param result the list to which to add the neighboring receivers
+     */
+    public synchronized void getNeighbors(Medium.Transmitter t, Medium.Receiver[] receivers, List result) {
+        Position a = (Position)positions.get(t);
+        for ( int cntr = 0; cntr < receivers.length; cntr++ ) {
+            if (a == null || !positions.containsKey(receivers[cntr])) result.add(receivers[cntr]);
+        }
+        if (a == null) return;
+        long cx = cellIndex(a.x), cy = cellIndex(a.y), cz = cellIndex(a.z);
+        for ( long x = cx - 1; x <= cx + 1; x++ )
+            for ( long y = cy - 1; y <= cy + 1; y++ )
+                for ( long z = cz - 1; z <= cz + 1; z++ ) {
+                    List cell = (List)grid.get(new Long(cellKey(x, y, z)));
+                    if (cell == null) continue;
+                    Iterator i = cell.iterator();
+                    while ( i.hasNext() ) {
+                        Medium.Receiver r = (Medium.Receiver)i.next();
+                        if (r.medium == t.medium && distanceSq(t, r) <= maximumDistanceSq) result.add(r);
+                    }
+                }
+    }
+
+    private Long getCell(Position pos) {
+        return new Long(cellKey(cellIndex(pos.x), cellIndex(pos.y), cellIndex(pos.z)));
+    }
+
+    private long cellIndex(double coord) {
+        return (long)Math.floor(coord / cellSize);
+    }
+
+    private static long cellKey(long x, long y, long z) {
+        return (x & 0x1fffff) << 42 | (y & 0x1fffff) << 21 | (z & 0x1fffff);
     }
 
     protected double distanceSq(Medium.Transmitter t, Medium.Receiver r) {
@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2007, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package avrora.sim.radio;
+
+import avrora.sim.clock.Clock;
+
+/**
+ * The <code>RemoteTransmitter</code> class represents, within a medium, the transmitter of a node that
+ * is simulated elsewhere, e.g. in another process that simulates a different part of the network. It
+ * does not transmit on its own; instead, the transmissions of the remote node are replayed into the
+ * medium through the <code>begin()</code>, <code>write()</code>, and <code>end()</code> methods, so that
+ * the local receivers see them exactly as if the node were local. These methods may be called from any
+ * thread, as long as the synchronizer ensures that no receiver looks at a time that the remote node has
+ * not yet reached.
+ */
+public class RemoteTransmitter extends Medium.Transmitter {
+
+    /**
+     * The constructor for the <code>RemoteTransmitter</code> class creates a new transmitter and
+     * attaches it to the specified medium.
+     * @param m the medium to insert the remote node's transmissions into
+     * @param c a clock with the same frequency as the clock of the remote node
+     */
+    public RemoteTransmitter(Medium m, Clock c) {
+        super(m, c);
+    }
+
+    /**
+     * The <code>nextByte()</code> method is never called, since a remote transmitter is never activated
+     * through <code>beginTransmit()</code>.
+     * @return zero
+     */
+    public byte nextByte() {
+        return 0;
+    }
+
+    /**
+     * The <code>begin()</code> method begins a new transmission of the remote node.
+     * @param time the time in clock cycles at which the remote node began the transmission
+     * @param pow the power of the transmission
+     */
+    public void begin(long time, double pow) {
+        if (activated) end(time);
+        transmission = medium.newTransmission(this, pow, time);
+        activated = true;
+    }
+
+    /**
+     * The <code>write()</code> method appends a byte to the current transmission of the remote node.
+     * @param val the value of the byte transmitted
+     */
+    public void write(byte val) {
+        if (activated && transmission.counter < transmission.data.length)
+            transmission.data[transmission.counter++] = val;
+    }
+
+    /**
+     * The <code>end()</code> method ends the current transmission of the remote node.
+     * @param time the time in clock cycles at which the remote node ended the transmission
+     */
+    public void end(long time) {
+        if (activated) {
+            transmission.end = time;
+            transmission.lastBit = transmission.firstBit + transmission.counter * 8;
+            medium.release(transmission);
+            transmission = null;
+            activated = false;
+        }
+    }
+}
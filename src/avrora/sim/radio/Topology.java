@@ -103,4 +103,8 @@ public class Topology {
     public RadiusModel.Position getPosition(int id) {
         return ((RadiusModel.Position)nodes.get(id));
     }
+
+    public int getNodeCount() {
+        return nodes.size();
+    }
 }
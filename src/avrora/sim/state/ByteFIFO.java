@@ -35,6 +35,7 @@ package avrora.sim.state;
 
 import cck.util.Util;
 
+import java.io.*;
 import java.util.Arrays;
 
 /**
@@ -157,6 +158,33 @@ public class ByteFIFO {
         Arrays.fill(data, (byte)0);
     }
 
+    /**
+     * The <code>saveState()</code> method writes the contents and the flags of this FIFO to a checkpoint.
+     * @param out the output to write the state to
+     * @throws IOException if the state cannot be written
+     */
+    public void saveState(DataOutput out) throws IOException {
+        out.write(data);
+        out.writeInt(head);
+        out.writeInt(used);
+        out.writeBoolean(underflow);
+        out.writeBoolean(overflow);
+    }
+
+    /**
+     * The <code>restoreState()</code> method restores the contents and the flags of this FIFO from a
+     * checkpoint.
+     * @param in the input to read the state from
+     * @throws IOException if the state cannot be read
+     */
+    public void restoreState(DataInput in) throws IOException {
+        in.readFully(data);
+        head = in.readInt();
+        used = in.readInt();
+        underflow = in.readBoolean();
+        overflow = in.readBoolean();
+    }
+
     private int wrap(int i) {
         if ( i >= data.length ) return i - data.length;
         return i;
@@ -0,0 +1,622 @@
+/**
+ * Copyright (c) 2007, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package avrora.sim.types;
+
+import avrora.sim.Simulation;
+import avrora.sim.clock.PartitionSynchronizer;
+import avrora.sim.radio.*;
+import cck.text.TermUtil;
+import cck.text.Terminal;
+import cck.util.Option;
+import cck.util.Options;
+import cck.util.Util;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ * The <code>Partition</code> class connects one partition of a sensor network that is simulated in
+ * several processes on the same machine to the processes that simulate the other partitions. The first
+ * process starts the others with the options and programs of its simulation and accepts their
+ * connections; the processes then connect to each other over loopback sockets, so that each pair of
+ * partitions has a link.
+ * <p/>
+ * A node of another partition that a local receiver can hear is represented in the local medium by a
+ * <code>RemoteTransmitter</code>. Each process tells each other process which of its nodes it needs;
+ * that process then forwards the transmissions of those nodes as they begin, send a byte, and end, and
+ * the times the nodes have reached as they advance. The messages of a link are written in a compact
+ * binary format: a one byte tag, the number of the node, and the time, power, or value. A node's time
+ * is only sent after everything the node did before that time, so the <code>PartitionSynchronizer</code>
+ * of the receiving process can let a local node wait for a remote node just like for a local one.
+ */
+public class Partition implements Medium.Export {
+
+    protected static final byte BEGIN = 1;
+    protected static final byte BYTE = 2;
+    protected static final byte END = 3;
+    protected static final byte TIME = 4;
+    protected static final byte BYE = 5;
+
+    // how long to wait in milliseconds for the other processes to connect
+    protected static final int CONNECT_TIMEOUT = 60000;
+
+    public final int index;
+    public final int count;
+    protected final int[] owner;
+    protected final PartitionSynchronizer synchronizer;
+
+    protected final Link[] links;
+    protected final RemoteTransmitter[] remotes;
+    protected final Simulation.Node[] locals;
+    protected final Medium.Transmitter[] transmitters;
+    protected final HashMap exports;
+    protected final List children;
+
+    /**
+     * The <code>Exported</code> class records the number of a local node whose transmissions are
+     * forwarded and the links they are forwarded to.
+     */
+    protected static class Exported {
+        protected final int id;
+        protected Link[] links = new Link[0];
+
+        protected Exported(int i) {
+            id = i;
+        }
+    }
+
+    /**
+     * The constructor for the <code>Partition</code> class creates the partition with the specified
+     * number; it must then be connected to the others with <code>launch()</code> or
+     * <code>connect()</code>.
+     * @param i the number of this partition
+     * @param c the number of partitions
+     * @param o the number of the partition of each node, as computed by <code>assign()</code>
+     * @param s the synchronizer of the local nodes
+     */
+    public Partition(int i, int c, int[] o, PartitionSynchronizer s) {
+        index = i;
+        count = c;
+        owner = o;
+        synchronizer = s;
+        links = new Link[c];
+        remotes = new RemoteTransmitter[o.length];
+        locals = new Simulation.Node[o.length];
+        transmitters = new Medium.Transmitter[o.length];
+        exports = new HashMap();
+        children = new LinkedList();
+    }
+
+    /**
+     * The <code>assign()</code> method divides the nodes of a network into partitions of nearly equal
+     * size. With a topology, the nodes are ordered by their position, so that each partition is a strip
+     * of the field and only the nodes near its edges can hear the nodes of other partitions; otherwise,
+     * each partition consists of consecutive node numbers. Every process computes the same assignment.
+     * @param nodes the number of nodes in the network
+     * @param topology the positions of the nodes, or null if there are none
+     * @param parts the number of partitions
+     * @return an array that contains the number of the partition of each node
+     */
+    public static int[] assign(int nodes, final Topology topology, int parts) {
+        Integer[] order = new Integer[nodes];
+        for ( int cntr = 0; cntr < nodes; cntr++ ) order[cntr] = new Integer(cntr);
+        if ( topology != null ) {
+            Arrays.sort(order, new Comparator() {
+                public int compare(Object o1, Object o2) {
+                    int a = ((Integer)o1).intValue();
+                    int b = ((Integer)o2).intValue();
+                    int c = compareNodes(topology, a, b);
+                    return c != 0 ? c : a - b;
+                }
+            });
+        }
+        int[] owner = new int[nodes];
+        for ( int cntr = 0; cntr < nodes; cntr++ )
+            owner[order[cntr].intValue()] = (int)((long)cntr * parts / nodes);
+        return owner;
+    }
+
+    private static int compareNodes(Topology topology, int a, int b) {
+        // nodes without a position come last
+        int n = topology.getNodeCount();
+        if ( a >= n || b >= n ) return (a >= n ? 1 : 0) - (b >= n ? 1 : 0);
+        RadiusModel.Position pa = topology.getPosition(a);
+        RadiusModel.Position pb = topology.getPosition(b);
+        if ( pa.x != pb.x ) return pa.x < pb.x ? -1 : 1;
+        if ( pa.y != pb.y ) return pa.y < pb.y ? -1 : 1;
+        if ( pa.z != pb.z ) return pa.z < pb.z ? -1 : 1;
+        return 0;
+    }
+
+    /**
+     * The <code>isLocal()</code> method checks whether the specified node is simulated in this partition.
+     * @param id the number of the node
+     * @return true if the node belongs to this partition; false otherwise
+     */
+    public boolean isLocal(int id) {
+        return owner[id] == index;
+    }
+
+    /**
+     * The <code>launch()</code> method is called in the first partition. It starts a process for each
+     * of the other partitions that simulates the same programs with the options of this simulation and
+     * the specified extra options, and waits until they have connected. The command line of this process
+     * is not reused, since it may run other simulations as well, e.g. those of a batch.
+     * @param options the options of this simulation
+     * @param programs the programs of this simulation
+     * @param extra further options for the other processes, which override the options of this simulation
+     * @throws IOException if a process cannot be started or does not connect
+     */
+    public void launch(Options options, String[] programs, String[] extra) throws IOException {
+        ServerSocket server = new ServerSocket(0, count, InetAddress.getByName(null));
+        try {
+            server.setSoTimeout(CONNECT_TIMEOUT);
+            for ( int part = 1; part < count; part++ )
+                children.add(new Child(part, getCommand(part, server.getLocalPort(), options, programs, extra)));
+
+            int[] ports = new int[count];
+            for ( int cntr = 1; cntr < count; cntr++ ) {
+                Link l = new Link(server.accept());
+                int part = l.in.readInt();
+                if ( part <= 0 || part >= count || links[part] != null )
+                    throw new IOException("unexpected connection from partition " + part);
+                ports[part] = l.in.readInt();
+                links[part] = l;
+            }
+            // tell every process where to reach the others
+            for ( int part = 1; part < count; part++ ) {
+                for ( int cntr = 0; cntr < count; cntr++ ) links[part].out.writeInt(ports[cntr]);
+                links[part].out.flush();
+            }
+        } catch (SocketTimeoutException e) {
+            throw Util.failure("Partitions did not connect within " + CONNECT_TIMEOUT / 1000 + " seconds");
+        } finally {
+            server.close();
+        }
+    }
+
+    private String[] getCommand(int part, int port, Options options, String[] programs, String[] extra) {
+        List cmd = new ArrayList();
+        cmd.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add("avrora.Main");
+        Iterator i = options.getAllOptions().iterator();
+        while ( i.hasNext() ) {
+            Option o = (Option)i.next();
+            cmd.add("-" + o.getName() + "=" + o.stringValue());
+        }
+        // each process runs only its part of this simulation, even if this one was started by another action
+        cmd.add("-action=simulate");
+        for ( int e = 0; e < extra.length; e++ ) cmd.add(extra[e]);
+        cmd.add("-partition=" + part);
+        cmd.add("-partition-port=" + port);
+        for ( int cntr = 0; cntr < programs.length; cntr++ ) cmd.add(programs[cntr]);
+        return (String[])cmd.toArray(new String[cmd.size()]);
+    }
+
+    /**
+     * The <code>connect()</code> method is called in every partition but the first. It connects to the
+     * first partition on the specified port and then to each of the other partitions.
+     * @param port the local port on which the first partition accepts connections
+     * @throws IOException if a connection cannot be made
+     */
+    public void connect(int port) throws IOException {
+        InetAddress local = InetAddress.getByName(null);
+        ServerSocket server = new ServerSocket(0, count, local);
+        try {
+            server.setSoTimeout(CONNECT_TIMEOUT);
+            Link first = new Link(new Socket(local, port));
+            first.out.writeInt(index);
+            first.out.writeInt(server.getLocalPort());
+            first.out.flush();
+            links[0] = first;
+            int[] ports = new int[count];
+            for ( int cntr = 0; cntr < count; cntr++ ) ports[cntr] = first.in.readInt();
+
+            // connect to the partitions with lower numbers and accept the others
+            for ( int part = 1; part < index; part++ ) {
+                Link l = new Link(new Socket(local, ports[part]));
+                l.out.writeInt(index);
+                l.out.flush();
+                links[part] = l;
+            }
+            for ( int cntr = index + 1; cntr < count; cntr++ ) {
+                Link l = new Link(server.accept());
+                int part = l.in.readInt();
+                if ( part <= index || part >= count || links[part] != null )
+                    throw new IOException("unexpected connection from partition " + part);
+                links[part] = l;
+            }
+        } catch (SocketTimeoutException e) {
+            throw Util.failure("Partitions did not connect within " + CONNECT_TIMEOUT / 1000 + " seconds");
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * The <code>addLocalNode()</code> method declares a node of this partition, whose transmissions and
+     * time are forwarded to the other partitions that need them.
+     * @param n the local node
+     * @param t the transmitter of the node's radio, or null if it has none
+     */
+    public void addLocalNode(Simulation.Node n, Medium.Transmitter t) {
+        locals[n.id] = n;
+        transmitters[n.id] = t;
+    }
+
+    /**
+     * The <code>addRemoteTransmitter()</code> method declares that a local receiver can hear the specified
+     * node of another partition, whose transmissions are then inserted into the local medium through the
+     * specified transmitter.
+     * @param id the number of the remote node
+     * @param t the transmitter that represents the remote node in the local medium
+     */
+    public void addRemoteTransmitter(int id, RemoteTransmitter t) {
+        remotes[id] = t;
+        links[owner[id]].subscribed.add(new Integer(id));
+    }
+
+    /**
+     * The <code>exchange()</code> method tells each other partition which of its nodes this partition
+     * needs, and learns which local nodes the other partitions need. It must be called after all local
+     * nodes and remote transmitters have been added and before the synchronizer is started.
+     * @throws IOException if the other partitions cannot be reached
+     */
+    public void exchange() throws IOException {
+        // the links are served in the same order everywhere, so that no two processes wait for each other
+        for ( int part = 0; part < count; part++ ) {
+            Link l = links[part];
+            if ( l == null ) continue;
+            if ( index < part ) {
+                l.writeSubscriptions();
+                l.readSubscriptions();
+            } else {
+                l.readSubscriptions();
+                l.writeSubscriptions();
+            }
+        }
+        for ( int part = 0; part < count; part++ ) {
+            Link l = links[part];
+            if ( l == null ) continue;
+            for ( int cntr = 0; cntr < l.exportIds.length; cntr++ ) {
+                int id = l.exportIds[cntr];
+                synchronizer.addBoundary(locals[id], l);
+                if ( transmitters[id] != null ) addExport(transmitters[id], id, l);
+            }
+        }
+    }
+
+    private void addExport(Medium.Transmitter t, int id, Link l) {
+        Exported e = (Exported)exports.get(t);
+        if ( e == null ) exports.put(t, e = new Exported(id));
+        Link[] nlinks = new Link[e.links.length + 1];
+        System.arraycopy(e.links, 0, nlinks, 0, e.links.length);
+        nlinks[e.links.length] = l;
+        e.links = nlinks;
+    }
+
+    /**
+     * The <code>start()</code> method starts the threads that send and receive the messages of each link.
+     * It must be called after the synchronizer is started.
+     */
+    public void start() {
+        for ( int part = 0; part < count; part++ ) {
+            if ( links[part] != null ) links[part].start();
+        }
+    }
+
+    /**
+     * The <code>finish()</code> method is called after the local nodes have terminated. It sends the last
+     * messages to the other partitions, waits until they have terminated as well, and closes the links.
+     * In the first partition, it then waits for the other processes and prints their output.
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void finish() throws InterruptedException {
+        for ( int part = 0; part < count; part++ ) {
+            if ( links[part] != null ) links[part].close();
+        }
+        for ( int part = 0; part < count; part++ ) {
+            if ( links[part] != null ) links[part].join();
+        }
+        Iterator i = children.iterator();
+        while ( i.hasNext() ) ((Child)i.next()).finish();
+    }
+
+    public void beginTransmission(Medium.Transmitter t, Medium.Transmission tx) {
+        Exported e = (Exported)exports.get(t);
+        if ( e == null ) return;
+        for ( int cntr = 0; cntr < e.links.length; cntr++ ) e.links[cntr].begin(e.id, tx.start, tx.power);
+    }
+
+    public void transmitByte(Medium.Transmitter t, byte val) {
+        Exported e = (Exported)exports.get(t);
+        if ( e == null ) return;
+        for ( int cntr = 0; cntr < e.links.length; cntr++ ) e.links[cntr].write(e.id, val);
+    }
+
+    public void endTransmission(Medium.Transmitter t, Medium.Transmission tx) {
+        Exported e = (Exported)exports.get(t);
+        if ( e == null ) return;
+        for ( int cntr = 0; cntr < e.links.length; cntr++ ) e.links[cntr].end(e.id, tx.end);
+    }
+
+    /**
+     * The <code>Link</code> class represents the connection to one other partition. The messages for the
+     * other partition are collected in a buffer by the threads of the local nodes; a sender thread appends
+     * the times of the local nodes whenever one of them advances and writes the buffer to the socket. A
+     * receiver thread reads the messages from the other partition and applies them.
+     */
+    protected class Link implements PartitionSynchronizer.Boundary {
+        protected final Socket socket;
+        protected final DataInputStream in;
+        protected final DataOutputStream out;
+
+        protected final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        protected final DataOutputStream data = new DataOutputStream(buffer);
+
+        // the remote nodes that this partition needs, and the local nodes that the other one needs
+        protected final List subscribed = new ArrayList();
+        protected int[] exportIds = new int[0];
+        protected long[] sent;
+
+        protected volatile boolean pending;
+        protected boolean closing;
+        protected Thread sender;
+        protected Thread receiver;
+
+        protected Link(Socket s) throws IOException {
+            socket = s;
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+        }
+
+        protected void writeSubscriptions() throws IOException {
+            out.writeInt(subscribed.size());
+            Iterator i = subscribed.iterator();
+            while ( i.hasNext() ) out.writeInt(((Integer)i.next()).intValue());
+            out.flush();
+        }
+
+        protected void readSubscriptions() throws IOException {
+            exportIds = new int[in.readInt()];
+            sent = new long[exportIds.length];
+            for ( int cntr = 0; cntr < exportIds.length; cntr++ ) {
+                int id = in.readInt();
+                if ( id < 0 || id >= owner.length || owner[id] != index || locals[id] == null )
+                    throw new IOException("node " + id + " is not simulated in partition " + index);
+                exportIds[cntr] = id;
+            }
+        }
+
+        protected synchronized void begin(int id, long time, double power) {
+            try {
+                data.writeByte(BEGIN);
+                data.writeInt(id);
+                data.writeLong(time);
+                data.writeDouble(power);
+            } catch (IOException e) {
+                throw Util.unexpected(e);
+            }
+        }
+
+        protected synchronized void write(int id, byte val) {
+            try {
+                data.writeByte(BYTE);
+                data.writeInt(id);
+                data.writeByte(val);
+            } catch (IOException e) {
+                throw Util.unexpected(e);
+            }
+        }
+
+        protected synchronized void end(int id, long time) {
+            try {
+                data.writeByte(END);
+                data.writeInt(id);
+                data.writeLong(time);
+            } catch (IOException e) {
+                throw Util.unexpected(e);
+            }
+        }
+
+        public void advanced() {
+            if ( !pending ) {
+                synchronized (this) {
+                    pending = true;
+                    notify();
+                }
+            }
+        }
+
+        protected void start() {
+            sender = new Thread("partition-sender") {
+                public void run() {
+                    send();
+                }
+            };
+            receiver = new Thread("partition-receiver") {
+                public void run() {
+                    receive();
+                }
+            };
+            sender.setDaemon(true);
+            receiver.setDaemon(true);
+            sender.start();
+            receiver.start();
+        }
+
+        protected synchronized void close() {
+            closing = true;
+            notify();
+        }
+
+        protected void join() throws InterruptedException {
+            if ( sender != null ) sender.join();
+            if ( receiver != null ) receiver.join();
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // the other partition has already terminated.
+            }
+        }
+
+        protected void send() {
+            try {
+                while ( true ) {
+                    boolean last;
+                    byte[] msg;
+                    synchronized (this) {
+                        while ( !pending && !closing ) wait();
+                        pending = false;
+                        last = closing;
+                    }
+                    synchronized (this) {
+                        // a node's time is read after the messages it wrote before reaching that time
+                        for ( int cntr = 0; cntr < exportIds.length; cntr++ ) {
+                            long time = synchronizer.getTime(locals[exportIds[cntr]]);
+                            if ( time > sent[cntr] ) {
+                                data.writeByte(TIME);
+                                data.writeInt(exportIds[cntr]);
+                                data.writeLong(time);
+                                sent[cntr] = time;
+                            }
+                        }
+                        if ( last ) data.writeByte(BYE);
+                        msg = buffer.toByteArray();
+                        buffer.reset();
+                    }
+                    out.write(msg);
+                    out.flush();
+                    if ( last ) return;
+                }
+            } catch (IOException e) {
+                fail(e);
+            } catch (InterruptedException e) {
+                // stop sending.
+            }
+        }
+
+        protected void receive() {
+            try {
+                while ( true ) {
+                    byte tag = in.readByte();
+                    switch ( tag ) {
+                        case BEGIN: {
+                            RemoteTransmitter t = getRemote(in.readInt());
+                            long time = in.readLong();
+                            t.begin(time, in.readDouble());
+                            break;
+                        }
+                        case BYTE:
+                            getRemote(in.readInt()).write(in.readByte());
+                            break;
+                        case END:
+                            getRemote(in.readInt()).end(in.readLong());
+                            break;
+                        case TIME: {
+                            int id = in.readInt();
+                            synchronizer.setRemoteTime(id, in.readLong());
+                            break;
+                        }
+                        case BYE:
+                            return;
+                        default:
+                            throw new IOException("unknown message " + tag);
+                    }
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        private RemoteTransmitter getRemote(int id) throws IOException {
+            RemoteTransmitter t = id >= 0 && id < remotes.length ? remotes[id] : null;
+            if ( t == null ) throw new IOException("unexpected message for node " + id);
+            return t;
+        }
+
+        private void fail(IOException e) {
+            Terminal.printRed("Partition link failed");
+            Terminal.println(": " + e.getMessage());
+            // the results are incomplete, but no local node may wait for the other partition forever
+            Iterator i = subscribed.iterator();
+            while ( i.hasNext() ) synchronizer.setRemoteTime(((Integer)i.next()).intValue(), Long.MAX_VALUE);
+            synchronizer.stop();
+        }
+    }
+
+    /**
+     * The <code>Child</code> class represents a process started for another partition. Its output is
+     * collected while it runs and printed after it has terminated, so that the reports of the
+     * partitions do not interleave.
+     */
+    protected static class Child {
+        protected final int part;
+        protected final Process process;
+        protected final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        protected final Thread[] pumps;
+
+        protected Child(int p, String[] cmd) throws IOException {
+            part = p;
+            process = Runtime.getRuntime().exec(cmd);
+            pumps = new Thread[] { pump(process.getInputStream()), pump(process.getErrorStream()) };
+        }
+
+        private Thread pump(final InputStream in) {
+            Thread t = new Thread("partition-output") {
+                public void run() {
+                    byte[] buf = new byte[4096];
+                    try {
+                        for ( int len = in.read(buf); len >= 0; len = in.read(buf) ) output.write(buf, 0, len);
+                    } catch (IOException e) {
+                        // the process has terminated.
+                    }
+                }
+            };
+            t.setDaemon(true);
+            t.start();
+            return t;
+        }
+
+        protected void finish() throws InterruptedException {
+            process.waitFor();
+            for ( int cntr = 0; cntr < pumps.length; cntr++ ) pumps[cntr].join();
+            TermUtil.printSeparator(Terminal.MAXLINE, "Partition " + part);
+            Terminal.print(output.toString());
+        }
+    }
+}
@@ -35,7 +35,13 @@ package avrora.sim.types;
 import avrora.Main;
 import avrora.core.*;
 import avrora.sim.*;
+import avrora.sim.clock.Clock;
+import avrora.sim.clock.ConservativeSynchronizer;
+import avrora.sim.clock.NeighborhoodSynchronizer;
+import avrora.sim.clock.OptimisticSynchronizer;
+import avrora.sim.clock.PartitionSynchronizer;
 import avrora.sim.clock.RippleSynchronizer;
+import avrora.sim.clock.Synchronizer;
 import avrora.sim.platform.Platform;
 import avrora.sim.platform.PlatformFactory;
 import avrora.sim.platform.sensors.*;
@@ -78,6 +84,23 @@ public class SensorSimulation extends Simulation {
             "the maximum range for radio communication between nodes. This simple " +
             "idealized radius model will drop all communications between nodes whose " +
             "distance is greater than this threshold value.");
+    public final Option.Str RADIO_MODEL = newOption("radio-model", "radius",
+            "This option, when used in conjunction with the -topology option, selects the radio model. " +
+            "The \"radius\" model delivers every transmission to the nodes within the radio range and " +
+            "corrupts the bits in which overlapping transmissions differ. The \"gain\" model computes " +
+            "the gain of each link from the distance between the nodes with a log-distance path loss " +
+            "model when the simulation starts, and receives each byte only if its signal to interference " +
+            "and noise ratio is above a threshold.");
+    public final Option.Double PATH_LOSS_EXPONENT = newOption("path-loss-exponent", 3.0,
+            "This option specifies the exponent of the log-distance path loss used by the \"gain\" " +
+            "radio model.");
+    public final Option.Double SHADOWING = newOption("shadowing", 0.0,
+            "This option specifies the standard deviation in dB of the static log-normal shadowing " +
+            "added to each link by the \"gain\" radio model. The shadowing of each link is drawn " +
+            "once, using the value of the \"random-seed\" option as the seed.");
+    public final Option.Double SINR_THRESHOLD = newOption("sinr-threshold", 4.0,
+            "This option specifies the signal to interference and noise ratio in dB above which " +
+            "the \"gain\" radio model receives a byte correctly.");
     public final Option.Interval RANDOM_START = newOption("random-start", 0, 0,
             "This option inserts a random delay before starting " +
             "each node in order to prevent artificial cycle-level synchronization. The " +
@@ -101,6 +124,43 @@ public class SensorSimulation extends Simulation {
             "result, then a list of time value pairs separated by whitespace; the sensor will continue " +
             "returning the current value until the next (relative) time in seconds, and then the sensor " +
             "will change to the new value. ");
+    public final Option.Str SYNCHRONIZER = newOption("synchronizer", "ripple",
+            "This option selects how the execution of the nodes is synchronized. The \"ripple\" " +
+            "synchronizer runs each node in its own thread, blocking a node whenever it must wait " +
+            "for its neighbors. The \"parallel\" synchronizer runs the nodes in batches on a fixed " +
+            "number of worker threads, using the radio's propagation delay as lookahead so that " +
+            "each batch runs without waiting. The number of worker threads is given by the " +
+            "\"worker-threads\" option. The \"neighborhood\" synchronizer runs each node in its " +
+            "own thread like \"ripple\", but a node only waits for the nodes whose transmissions " +
+            "can reach it according to the radio model, as determined when the simulation starts. " +
+            "The \"optimistic\" synchronizer never blocks a node; instead, a node that has run ahead " +
+            "of a neighbor's transmission is rolled back to a snapshot of its state and runs again. " +
+            "It requires all nodes to support checkpoints.");
+    public final Option.Long SNAPSHOT_INTERVAL = newOption("snapshot-interval", 100000,
+            "This option specifies the interval in clock cycles at which the \"optimistic\" " +
+            "synchronizer saves the state of each node. A shorter interval makes rollbacks cheaper " +
+            "but snapshots more frequent.");
+    public final Option.Long OPTIMISM_WINDOW = newOption("optimism-window", 1000000,
+            "This option limits how many clock cycles a node may run ahead of the slowest node " +
+            "under the \"optimistic\" synchronizer. A smaller window causes fewer rollbacks when " +
+            "there are more nodes than processors. When set to zero, the nodes are not limited.");
+    public final Option.Long WORKER_THREADS = newOption("worker-threads", 0,
+            "This option specifies the number of worker threads used by the \"parallel\" " +
+            "synchronizer. When set to zero, one worker thread per available processor is used.");
+    public final Option.Long PARTITIONS = newOption("partitions", 1,
+            "This option splits the network into the specified number of partitions, each of which is " +
+            "simulated in a separate process on this machine, so that no process needs to hold the whole " +
+            "network. With a topology, each partition is a strip of the field; otherwise it consists of " +
+            "consecutive node numbers. The processes exchange the transmissions of the nodes near the " +
+            "partition boundaries and the progress of these nodes over local sockets, and each process " +
+            "reports the results of its own nodes. Within each partition, the nodes are synchronized as " +
+            "with the \"neighborhood\" synchronizer.");
+    public final Option.Long PARTITION = newOption("partition", 0,
+            "This option is set by a partitioned simulation for each process that it starts, and gives " +
+            "the number of the partition that the process simulates.");
+    public final Option.Long PARTITION_PORT = newOption("partition-port", 0,
+            "This option is set by a partitioned simulation for each process that it starts, and gives " +
+            "the local port on which the first process accepts the connections of the others.");
     public final Option.Bool UPDATE_NODE_ID = newOption("update-node-id", true,
             "When this option is set, the sensor network simulator will attempt to update " +
             "the node identifiers stored in the flash memory of the program. For TinyOS programs, " +
@@ -190,7 +250,10 @@ public class SensorSimulation extends Simulation {
         private Medium createCC2420Medium() {
             if (cc2420_medium == null) {
                 createRadioModel();
-                return cc2420_medium = CC2420Radio.createMedium(synchronizer, radioModel);
+                cc2420_medium = CC2420Radio.createMedium(synchronizer, radioModel);
+                cc2420_medium.setSpeculative(synchronizer instanceof OptimisticSynchronizer);
+                cc2420_medium.setExact(synchronizer instanceof ConservativeSynchronizer);
+                getCheckpointRegistry().addComponent("cc2420.medium", cc2420_medium);
             }
             return cc2420_medium;
         }
@@ -198,26 +261,40 @@ public class SensorSimulation extends Simulation {
         private Medium createCC1000Medium() {
             if (cc1000_medium == null) {
                 createRadioModel();
-                return cc1000_medium = CC1000Radio.createMedium(synchronizer, radioModel);
+                cc1000_medium = CC1000Radio.createMedium(synchronizer, radioModel);
+                cc1000_medium.setSpeculative(synchronizer instanceof OptimisticSynchronizer);
+                cc1000_medium.setExact(synchronizer instanceof ConservativeSynchronizer);
+                getCheckpointRegistry().addComponent("cc1000.medium", cc1000_medium);
             }
             return cc1000_medium;
         }
 
         private void createRadioModel() {
-            if (topology == null && !TOPOLOGY.isBlank()) {
-                try {
-                    topology = new Topology(TOPOLOGY.get());
-                    radioModel = new RadiusModel(1.0, 15.0);
-                } catch (IOException e) {
-                    throw Util.unexpected(e);
-                }
+            if (radioModel == null && !TOPOLOGY.isBlank()) {
+                loadTopology();
+                radioModel = newRadioModel();
             }
         }
 
+        private Medium.Arbitrator newRadioModel() {
+            String model = RADIO_MODEL.get();
+            if ("radius".equals(model)) return new RadiusModel(1.0, RANGE.get());
+            if ("gain".equals(model))
+                return new GainMatrixModel(topology, PATH_LOSS_EXPONENT.get(), SHADOWING.get(),
+                        SINR_THRESHOLD.get(), RANDOMSEED.get());
+            Util.userError("Unknown radio model", model);
+            return null;
+        }
+
         private void setNodePosition() {
+            if (radio == null) return;
+            if (radioModel instanceof GainMatrixModel) {
+                ((GainMatrixModel)radioModel).setNode(radio, id);
+                return;
+            }
             RadiusModel.Position p = topology.getPosition(id);
-            if (p != null && radio != null) {
-                radioModel.setPosition(radio, p);
+            if (p != null) {
+                ((RadiusModel)radioModel).setPosition(radio, p);
             }
         }
 
@@ -254,7 +331,8 @@ public class SensorSimulation extends Simulation {
     }
 
     Topology topology;
-    RadiusModel radioModel;
+    Medium.Arbitrator radioModel;
+    Partition partition;
     Medium cc2420_medium;
     Medium cc1000_medium;
     long stagger;
@@ -305,15 +383,197 @@ public class SensorSimulation extends Simulation {
         PlatformFactory pf = getPlatform();
 
         // build the synchronizer
-        synchronizer = new RippleSynchronizer(100000, null);
+        synchronizer = newSynchronizer();
+
+        // all partitions must draw the same random numbers
+        if ( PARTITIONS.get() > 1 && RANDOMSEED.get() == 0 )
+            RANDOMSEED.set(String.valueOf(new Random().nextLong()));
 
         // create the nodes based on arguments
         createNodes(args, pf);
 
+        // connect to the other partitions and drop the nodes that they simulate
+        if ( PARTITIONS.get() > 1 ) createPartition(args);
+
         // process the sensor data input option
         processSensorInput();
     }
 
+    private Synchronizer newSynchronizer() {
+        String sync = SYNCHRONIZER.get();
+        if ( PARTITIONS.get() > 1 ) {
+            if ( !"ripple".equals(sync) && !"neighborhood".equals(sync) )
+                Util.userError("Synchronizer not supported in a partitioned simulation", sync);
+            return new PartitionSynchronizer(100000);
+        }
+        if ( "ripple".equals(sync) ) return new RippleSynchronizer(100000, null);
+        if ( "neighborhood".equals(sync) ) return new NeighborhoodSynchronizer(100000);
+        if ( "optimistic".equals(sync) ) {
+            if ( SNAPSHOT_INTERVAL.get() <= 0 )
+                Util.userError("Snapshot interval must be positive", SNAPSHOT_INTERVAL.get() + " cycles");
+            if ( OPTIMISM_WINDOW.get() < 0 )
+                Util.userError("Optimism window must not be negative", OPTIMISM_WINDOW.get() + " cycles");
+            return new OptimisticSynchronizer(100000, SNAPSHOT_INTERVAL.get(), OPTIMISM_WINDOW.get());
+        }
+        if ( "parallel".equals(sync) ) {
+            int workers = (int)WORKER_THREADS.get();
+            if ( workers <= 0 ) workers = Runtime.getRuntime().availableProcessors();
+            return new ConservativeSynchronizer(workers);
+        }
+        Util.userError("Unknown synchronizer", sync);
+        return null;
+    }
+
+    /**
+     * The <code>checkpointAt()</code> method extends the default implementation by rejecting checkpoints
+     * of speculative simulations, whose nodes may be stopped in a state that is later rolled back.
+     * @param seconds the simulated time in seconds at which to stop the nodes
+     */
+    public void checkpointAt(double seconds) {
+        if ( synchronizer instanceof OptimisticSynchronizer )
+            Util.userError("Checkpoints cannot be saved with the \"optimistic\" synchronizer");
+        if ( partition != null )
+            Util.userError("Checkpoints cannot be saved in a partitioned simulation");
+        super.checkpointAt(seconds);
+    }
+
+    /**
+     * The <code>restoreFrom()</code> method extends the default implementation by rejecting checkpoints
+     * in partitioned simulations, since each process only has a part of the network.
+     * @param fname the name of the checkpoint file
+     */
+    public void restoreFrom(String fname) {
+        if ( partition != null )
+            Util.userError("Checkpoints cannot be restored in a partitioned simulation");
+        super.restoreFrom(fname);
+    }
+
+    /**
+     * The <code>start()</code> method extends the default implementation by starting to exchange
+     * messages with the other partitions once the local nodes have started.
+     */
+    public synchronized void start() {
+        super.start();
+        if ( partition != null ) partition.start();
+    }
+
+    /**
+     * The <code>join()</code> method extends the default implementation by waiting for the other
+     * partitions to terminate as well.
+     * @throws InterruptedException if the thread is interrupted
+     */
+    public synchronized void join() throws InterruptedException {
+        super.join();
+        if ( partition != null ) partition.finish();
+    }
+
+    /**
+     * The <code>instantiateNodes()</code> method extends the default implementation by declaring
+     * to a <code>NeighborhoodSynchronizer</code> which nodes can hear each other's transmissions,
+     * so that each node only waits for the nodes in its radio neighborhood.
+     */
+    protected void instantiateNodes() {
+        super.instantiateNodes();
+        if ( synchronizer instanceof NeighborhoodSynchronizer ) {
+            addNeighbors((NeighborhoodSynchronizer)synchronizer);
+        }
+        if ( partition != null ) connectPartition();
+    }
+
+    private HashMap getReceiverMap() {
+        HashMap receiverMap = new HashMap();
+        for ( int cntr = 0; cntr < nodes.length; cntr++ ) {
+            SensorNode n = (SensorNode)nodes[cntr];
+            if ( n != null && n.radio != null ) receiverMap.put(n.radio.getReceiver(), n);
+        }
+        return receiverMap;
+    }
+
+    private void addNeighbors(NeighborhoodSynchronizer synch) {
+        HashMap receiverMap = getReceiverMap();
+        for ( int cntr = 0; cntr < nodes.length; cntr++ ) {
+            SensorNode n = (SensorNode)nodes[cntr];
+            if ( n == null || n.radio == null ) continue;
+            Medium.Transmitter t = n.radio.getTransmitter();
+            Medium.Receiver[] r = t.medium.getNeighbors(t);
+            for ( int i = 0; i < r.length; i++ ) {
+                Node sink = (Node)receiverMap.get(r[i]);
+                if ( sink != null ) synch.addNeighbor(sink, n);
+            }
+        }
+    }
+
+    private void createPartition(String[] args) throws IOException {
+        int count = (int)PARTITIONS.get();
+        int index = (int)PARTITION.get();
+        if ( index < 0 || index >= count )
+            Util.userError("Partition number out of range", String.valueOf(index));
+        if ( index > 0 && PARTITION_PORT.get() <= 0 )
+            Util.userError("Partition port not specified", String.valueOf(index));
+        loadTopology();
+        int[] owner = Partition.assign(num_nodes, topology, count);
+        partition = new Partition(index, count, owner, (PartitionSynchronizer)synchronizer);
+        if ( index == 0 ) partition.launch(options, args, new String[] { "-random-seed=" + RANDOMSEED.get(), "-banner=false" });
+        else partition.connect((int)PARTITION_PORT.get());
+        for ( int id = 0; id < owner.length; id++ ) {
+            if ( !partition.isLocal(id) ) removeNode(id);
+        }
+    }
+
+    private void connectPartition() {
+        PartitionSynchronizer synch = (PartitionSynchronizer)synchronizer;
+        Medium medium = cc1000_medium != null ? cc1000_medium : cc2420_medium;
+        Clock clock = null;
+        for ( int cntr = 0; cntr < nodes.length; cntr++ ) {
+            SensorNode n = (SensorNode)nodes[cntr];
+            if ( n == null ) continue;
+            partition.addLocalNode(n, n.radio == null ? null : n.radio.getTransmitter());
+            if ( n.radio != null ) clock = n.getSimulator().getClock();
+        }
+        if ( medium != null ) {
+            // represent each remote node that a local node can hear by a transmitter in the local medium
+            HashMap receiverMap = getReceiverMap();
+            for ( int id = 0; id < partition.owner.length; id++ ) {
+                if ( partition.isLocal(id) ) continue;
+                RemoteTransmitter t = new RemoteTransmitter(medium, clock);
+                setRemotePosition(t, id);
+                Medium.Receiver[] r = medium.getNeighbors(t);
+                boolean heard = false;
+                for ( int i = 0; i < r.length; i++ ) {
+                    Node sink = (Node)receiverMap.get(r[i]);
+                    if ( sink == null ) continue;
+                    synch.addRemoteNeighbor(sink, id);
+                    heard = true;
+                }
+                if ( heard ) partition.addRemoteTransmitter(id, t);
+            }
+            medium.setExport(partition);
+        }
+        try {
+            partition.exchange();
+        } catch (IOException e) {
+            throw Util.unexpected(e);
+        }
+    }
+
+    private void setRemotePosition(RemoteTransmitter t, int id) {
+        if ( radioModel instanceof GainMatrixModel ) {
+            ((GainMatrixModel)radioModel).setNode(t, id);
+        } else if ( radioModel instanceof RadiusModel && id < topology.getNodeCount() ) {
+            ((RadiusModel)radioModel).setPosition(t, topology.getPosition(id));
+        }
+    }
+
+    private void loadTopology() {
+        if ( topology == null && !TOPOLOGY.isBlank() ) {
+            try {
+                topology = new Topology(TOPOLOGY.get());
+            } catch (IOException e) {
+                throw Util.unexpected(e);
+            }
+        }
+    }
+
     private void createNodes(String[] args, PlatformFactory pf) throws Exception {
         Iterator i = NODECOUNT.get().iterator();
         for ( int arg = 0; arg < args.length; arg++ ) {
@@ -36,8 +36,8 @@ import avrora.Main;
 import avrora.core.LoadableProgram;
 import avrora.sim.Simulation;
 import avrora.sim.SimulatorThread;
-import avrora.sim.platform.PinConnect;
-import avrora.sim.platform.PlatformFactory;
+import avrora.sim.clock.ConservativeSynchronizer;
+import avrora.sim.platform.*;
 import cck.text.StringUtil;
 import cck.util.*;
 import java.util.Iterator;
@@ -75,6 +75,17 @@ public class WiredSimulation extends Simulation {
             "of clock cycles. For example, if this option is given the " +
             "value X, then node 0 will start at time 0, node 1 at time 1*X, node 2 at " +
             "time 2*X, etc.");
+    public final Option.Str SYNCHRONIZER = newOption("synchronizer", "step",
+            "This option selects how the execution of the nodes is synchronized. The \"step\" " +
+            "synchronizer runs all nodes in one thread, stepping each node one clock cycle at a " +
+            "time and propagating the values of all wires after each cycle. The \"parallel\" " +
+            "synchronizer only propagates the value of a wire when it changes, as an event that " +
+            "arrives at the receiving node after the propagation delay of the wire, and runs the " +
+            "nodes in batches on a fixed number of worker threads, using the propagation delay as " +
+            "lookahead. The number of worker threads is given by the \"worker-threads\" option.");
+    public final Option.Long WORKER_THREADS = newOption("worker-threads", 0,
+            "This option specifies the number of worker threads used by the \"parallel\" " +
+            "synchronizer. When set to zero, one worker thread per available processor is used.");
 
     /**
      * The <code>WiredNode</code> class extends the <code>Node</code> class of a simulation by adding a reference to the
@@ -102,6 +113,9 @@ public class WiredSimulation extends Simulation {
         private void createNode() {
             thread = new SimulatorThread(this);
             super.instantiate();
+            // connect the wires of the node to the other nodes of this simulation
+            if (platform instanceof Seres) ((Seres)platform).connect(pinConnect);
+            else if (platform instanceof Superbot) ((Superbot)platform).connect(pinConnect);
             simulator.delay(startup);
         }
 
@@ -122,7 +136,7 @@ public class WiredSimulation extends Simulation {
     public WiredSimulation() {
         super("wired", HELP, null);
 
-        pinConnect = PinConnect.pinConnect;
+        pinConnect = new PinConnect();
         synchronizer = pinConnect.synchronizer;
 
         addSection("WIRED SIMULATION OVERVIEW", help);
@@ -164,11 +178,27 @@ public class WiredSimulation extends Simulation {
         Main.checkFilesExist(args);
         PlatformFactory pf = getPlatform();
 
+        // build the synchronizer
+        processSynchronizer();
+
         // create the nodes based on arguments
         createNodes(args, pf);
 
     }
 
+    private void processSynchronizer() {
+        String sync = SYNCHRONIZER.get();
+        if ("step".equals(sync)) return;
+        if ("parallel".equals(sync)) {
+            int workers = (int)WORKER_THREADS.get();
+            if (workers <= 0) workers = Runtime.getRuntime().availableProcessors();
+            pinConnect = new PinConnect(new ConservativeSynchronizer(workers));
+            synchronizer = pinConnect.synchronizer;
+            return;
+        }
+        Util.userError("Unknown synchronizer", sync);
+    }
+
     protected void instantiateNodes() {
         super.instantiateNodes();
 
@@ -76,14 +76,16 @@ public class SimUtil {
     }
 
     public static void toIDTimeString(StringBuffer buf, int id, Clock clk) {
+        toIDTimeString(buf, id, clk.getCount(), clk.getHZ());
+    }
+
+    public static void toIDTimeString(StringBuffer buf, int id, long count, long hz) {
         boolean R = true;
         StringUtil.justify(R, buf, id, ID_LENGTH);
         buf.append("  ");
 
         if ( REPORT_SECONDS ) {
             StringBuffer buf2 = new StringBuffer(TIME_LENGTH +1);
-            long hz = clk.getHZ();
-            long count = clk.getCount();
             long seconds = count / hz;
             long fract = count % hz;
             double f = (double)fract / hz;
@@ -91,7 +93,7 @@ public class SimUtil {
             StringUtil.appendFract(buf2, f, SECONDS_PRECISION);
             StringUtil.justify(R, buf, buf2.toString(), TIME_LENGTH);
         } else {
-            StringUtil.justify(R, buf, clk.getCount(), TIME_LENGTH);
+            StringUtil.justify(R, buf, count, TIME_LENGTH);
         }
         buf.append("  ");
     }
@@ -61,8 +61,7 @@ public abstract class AbstractState implements IORegisterConstants {
 
 
     AbstractState() {
-        // default is everything is unknown!
-        av_REGISTERS = new char[NUM_REGS];
+        // the register values are allocated by subclasses, since cached states share them
     }
 
     protected int computeHashCode() {
@@ -71,7 +70,7 @@ public abstract class AbstractState implements IORegisterConstants {
         hash += av_EIMSK;
         hash += av_TIMSK;
         for (int cntr = 0; cntr < NUM_REGS; cntr++)
-            hash += av_REGISTERS[cntr] * primes[cntr];
+            hash += getRegisterAV(cntr) * primes[cntr];
         return hash;
     }
 
@@ -195,7 +194,7 @@ public abstract class AbstractState implements IORegisterConstants {
      * @return the abstract value of the register
      */
     public char getRegisterAV(LegacyRegister r) {
-        return av_REGISTERS[r.getNumber()];
+        return getRegisterAV(r.getNumber());
     }
 
     public char getRegisterAV(int num) {
@@ -209,7 +208,10 @@ public abstract class AbstractState implements IORegisterConstants {
      * @return a new deep copy of this abstract state
      */
     public MutableState copy() {
-        return new MutableState(pc, av_SREG, av_EIMSK, av_TIMSK, av_REGISTERS);
+        char[] regs = new char[NUM_REGS];
+        for (int cntr = 0; cntr < NUM_REGS; cntr++)
+            regs[cntr] = getRegisterAV(cntr);
+        return new MutableState(pc, av_SREG, av_EIMSK, av_TIMSK, regs);
     }
 
     public String toString() {
@@ -231,7 +233,7 @@ public abstract class AbstractState implements IORegisterConstants {
             buf.append(" R");
             buf.append(cntr);
             buf.append(": ");
-            AbstractArithmetic.toString(av_REGISTERS[cntr], buf);
+            AbstractArithmetic.toString(getRegisterAV(cntr), buf);
         }
 
         return buf.toString();
@@ -250,7 +252,7 @@ public abstract class AbstractState implements IORegisterConstants {
         if (this.av_EIMSK != i.av_EIMSK) return false;
         if (this.av_TIMSK != i.av_TIMSK) return false;
         for (int cntr = 0; cntr < NUM_REGS; cntr++)
-            if (this.av_REGISTERS[cntr] != i.av_REGISTERS[cntr]) return false;
+            if (this.getRegisterAV(cntr) != i.getRegisterAV(cntr)) return false;
         return true;
     }
 }
@@ -55,6 +55,7 @@ public class Analyzer {
     public static boolean TRACE_SUMMARY;
     public static boolean USE_ISEA;
     public static boolean SHOW_PATH;
+    public static int THREADS = 1;
 
     protected final Verbose.Printer printer = Verbose.getVerbosePrinter("analyzer.stack");
 
@@ -259,6 +260,11 @@ public class Analyzer {
      * there are no new propagations to be performed.
      */
     protected void buildReachableStateSpace() {
+        if (THREADS > 1 && !TRACE) {
+            buildReachableStateSpaceInParallel();
+            return;
+        }
+
         StateCache.State s = graph.getNextFrontierState();
 
         while (true) {
@@ -275,6 +281,230 @@ public class Analyzer {
         }
     }
 
+    /**
+     * The <code>buildReachableStateSpaceInParallel()</code> method builds the same state space as
+     * <code>buildReachableStateSpace()</code>, but explores the frontier states with several threads.
+     * The propagation of return states to their callers is still done by this thread, after all of the
+     * frontier states have been explored; it may add new frontier states, which are then explored in
+     * parallel again.
+     */
+    protected void buildReachableStateSpaceInParallel() {
+        Explorer explorer = new Explorer(THREADS);
+
+        try {
+            while (true) {
+                StateTransitionGraph.StateList list = graph.takeFrontierList();
+                if (list != null) {
+                    explorer.explore(list);
+                } else if (newReturnStates != null) {
+                    processNewReturns();
+                } else if (newEdges != null) {
+                    processNewEdges();
+                } else {
+                    break;
+                }
+            }
+        } finally {
+            explorer.shutdown();
+        }
+    }
+
+    /**
+     * The <code>Explorer</code> class explores a set of frontier states with several worker threads, each
+     * with its own abstract interpreter and policy. Each worker keeps a deque of the frontier states that
+     * it produces and explores the most recent one first; a worker that runs out of states steals the
+     * oldest state of another worker. The exploration ends when all workers are out of states. The worker
+     * threads wait for the next set of frontier states between explorations.
+     */
+    protected class Explorer {
+        protected final Worker[] workers;
+        protected int active;
+        protected int finished;
+        protected int round;
+        protected boolean shutdown;
+        protected volatile int idle;
+        protected volatile Throwable failure;
+
+        Explorer(int threads) {
+            workers = new Worker[threads];
+            for (int cntr = 0; cntr < threads; cntr++) {
+                workers[cntr] = new Worker(this, cntr);
+                Thread t = new Thread(workers[cntr], "stack-analyzer-" + cntr);
+                t.setDaemon(true);
+                t.start();
+            }
+        }
+
+        void explore(StateTransitionGraph.StateList list) {
+            for (int cntr = 0; list != null; list = list.next, cntr++)
+                workers[cntr % workers.length].deque.addLast(list.state);
+
+            synchronized (this) {
+                active = workers.length;
+                finished = 0;
+                round++;
+                notifyAll();
+                try {
+                    while (finished < workers.length) wait();
+                } catch (InterruptedException e) {
+                    throw Util.unexpected(e);
+                }
+            }
+
+            Throwable t = failure;
+            if (t instanceof RuntimeException) throw (RuntimeException)t;
+            if (t instanceof Error) throw (Error)t;
+            if (t != null) throw Util.unexpected(t);
+        }
+
+        /**
+         * The <code>nextState()</code> method gets the next state for a worker to explore, first from its
+         * own deque and then from the deques of the other workers. When there are no states left, it waits
+         * until either another worker produces new states or all workers are out of states.
+         *
+         * @param w the worker asking for a state
+         * @return the next state to explore; null if the exploration is finished
+         */
+        StateCache.State nextState(Worker w) {
+            if (failure != null) return null;
+            StateCache.State s = w.pollLast();
+            if (s == null) s = steal(w);
+            if (s != null) return s;
+
+            synchronized (this) {
+                active--;
+                idle++;
+                try {
+                    while (failure == null) {
+                        s = steal(w);
+                        if (s != null) {
+                            active++;
+                            return s;
+                        }
+                        if (active == 0) {
+                            notifyAll();
+                            return null;
+                        }
+                        wait();
+                    }
+                    return null;
+                } catch (InterruptedException e) {
+                    throw Util.unexpected(e);
+                } finally {
+                    idle--;
+                }
+            }
+        }
+
+        private StateCache.State steal(Worker thief) {
+            for (int cntr = 1; cntr < workers.length; cntr++) {
+                StateCache.State s = workers[(thief.number + cntr) % workers.length].pollFirst();
+                if (s != null) return s;
+            }
+            return null;
+        }
+
+        void produced() {
+            if (idle > 0) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+
+        synchronized void fail(Throwable t) {
+            if (failure == null) failure = t;
+            active--;
+            notifyAll();
+        }
+
+        /**
+         * The <code>awaitRound()</code> method waits until the next exploration begins.
+         *
+         * @param last the last exploration in which the worker took part
+         * @return the number of the next exploration; -1 if the explorer has been shut down
+         */
+        synchronized int awaitRound(int last) throws InterruptedException {
+            while (round == last && !shutdown) wait();
+            return shutdown ? -1 : round;
+        }
+
+        synchronized void finish() {
+            finished++;
+            notifyAll();
+        }
+
+        synchronized void shutdown() {
+            shutdown = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * The <code>Worker</code> class explores frontier states on behalf of an <code>Explorer</code>.
+     */
+    protected class Worker implements Runnable {
+        protected final Explorer explorer;
+        protected final int number;
+        protected final LinkedList deque;
+        protected final ContextSensitivePolicy policy;
+        protected final AbstractInterpreter interpreter;
+
+        Worker(Explorer e, int n) {
+            explorer = e;
+            number = n;
+            deque = new LinkedList();
+            policy = new ContextSensitivePolicy(this);
+            interpreter = new AbstractInterpreter(program, policy);
+        }
+
+        public void run() {
+            try {
+                for (int round = explorer.awaitRound(0); round >= 0; round = explorer.awaitRound(round)) {
+                    explore();
+                    explorer.finish();
+                }
+            } catch (InterruptedException e) {
+                throw Util.unexpected(e);
+            }
+        }
+
+        private void explore() {
+            try {
+                for (StateCache.State s = explorer.nextState(this); s != null; s = explorer.nextState(this)) {
+                    synchronized (graph) {
+                        graph.removeFrontierState(s);
+                        graph.setExplored(s);
+                    }
+                    policy.frontierState = s;
+                    policy.edgeType = NORMAL_EDGE;
+                    interpreter.computeNextStates(s);
+                }
+            } catch (Throwable t) {
+                explorer.fail(t);
+            }
+        }
+
+        void push(StateCache.State s) {
+            synchronized (deque) {
+                deque.addLast(s);
+            }
+            explorer.produced();
+        }
+
+        StateCache.State pollLast() {
+            synchronized (deque) {
+                return deque.isEmpty() ? null : (StateCache.State)deque.removeLast();
+            }
+        }
+
+        StateCache.State pollFirst() {
+            synchronized (deque) {
+                return deque.isEmpty() ? null : (StateCache.State)deque.removeFirst();
+            }
+        }
+    }
+
     /**
      * The <code>processPropagationList()</code> method walks through a list of target/caller state pairs,
      * propagating callers to return states. When return states are encountered, return edges between the
@@ -645,6 +875,17 @@ public class Analyzer {
         public StateCache.State frontierState;
         protected int edgeType;
 
+        // the worker that uses this policy to explore states in parallel; null for the main policy
+        protected final Worker worker;
+
+        ContextSensitivePolicy() {
+            worker = null;
+        }
+
+        ContextSensitivePolicy(Worker w) {
+            worker = w;
+        }
+
         /**
          * The <code>call()</code> method is called by the abstract interpreter when it encounters a call
          * instruction within the program. Different policies may handle calls differently. This
@@ -659,7 +900,10 @@ public class Analyzer {
          */
         public MutableState call(MutableState s, int target_address) {
             if ( isea != null ) {
-                ISEState rs = isea.getProcedureSummary(target_address);
+                ISEState rs;
+                synchronized (isea) {
+                    rs = isea.getProcedureSummary(target_address);
+                }
                 if ( rs != null )
                 maskIrrelevantState(s, rs);
             }
@@ -701,9 +945,11 @@ public class Analyzer {
          *         interpreter should not be concerned.
          */
         public MutableState ret(MutableState s) {
-            frontierState.setType(RET_STATE);
-            postReturnState(frontierState);
-            retCount++;
+            synchronized (graph) {
+                frontierState.setType(RET_STATE);
+                postReturnState(frontierState);
+                retCount++;
+            }
 
             // do not continue abstract interpretation after this state; this state
             // is a return state and therefore is a dead end
@@ -719,9 +965,11 @@ public class Analyzer {
          *         interpreter should not be concerned.
          */
         public MutableState reti(MutableState s) {
-            frontierState.setType(RETI_STATE);
-            postReturnState(frontierState);
-            retiCount++;
+            synchronized (graph) {
+                frontierState.setType(RETI_STATE);
+                postReturnState(frontierState);
+                retiCount++;
+            }
 
             // do not continue abstract interpretation after this state; this state
             // is a return state and therefore is a dead end
@@ -852,9 +1100,12 @@ public class Analyzer {
 
         private void addEdge(StateCache.State from, int type, MutableState to) {
             StateCache.State t = graph.getCachedState(to);
-            traceProducedState(t);
-            addEdge(type, from, t, EDGE_DELTA[type]);
-            pushFrontier(t);
+            // the graph is shared by the workers that explore states in parallel
+            synchronized (graph) {
+                traceProducedState(t);
+                addEdge(type, from, t, EDGE_DELTA[type]);
+                pushFrontier(t);
+            }
         }
 
         private void pushFrontier(StateCache.State t) {
@@ -867,9 +1118,13 @@ public class Analyzer {
             } else if (graph.isFrontier(t)) {
                 // CASE 2: state is already on frontier
                 // do nothing; propagation phase will push callers to reachable returns
-            } else {
+            } else if (worker == null) {
                 // CASE 1: new state, add to frontier
                 graph.addFrontierState(t);
+            } else {
+                // CASE 1: new state, add to the frontier of this worker
+                graph.markFrontierState(t);
+                worker.push(t);
             }
         }
 
@@ -51,6 +51,7 @@ public class MutableState extends AbstractState implements IORegisterConstants {
      * zero, all IO registers are known zero, and the program counter is zero.
      */
     public MutableState() {
+        av_REGISTERS = new char[NUM_REGS];
         av_SREG = AbstractArithmetic.ZERO;
         av_EIMSK = AbstractArithmetic.ZERO;
         av_TIMSK = AbstractArithmetic.ZERO;
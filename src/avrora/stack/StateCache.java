@@ -40,12 +40,17 @@ import java.util.*;
 /**
  * The <code>StateSpace</code> class represents the reachable state space as it is explored by the
  * <code>Analyzer</code> class. It stores reachable states and the outgoing edges that connect them.
+ * <p/>
+ * To fit large state spaces in memory, the abstract values of the registers of a state are packed into
+ * a shared <code>Registers</code> instance, which is itself hash-consed, since many states differ only in
+ * their program counter or status register. Both registers and states are kept in open-addressing tables
+ * rather than in hash maps, and sets of states are stored as tables of state numbers.
  *
  * @author Ben L. Titzer
  */
 public class StateCache {
 
-    private long uidCount;
+    private int uidCount;
 
     /**
      * The <code>LegacyState</code> class represents an immutable state within the state space of the program. Such
@@ -55,21 +60,20 @@ public class StateCache {
     public class State extends AbstractState implements IORegisterConstants {
 
         private final int hashCode;
+        private final Registers registers;
         private int type;
-        public final long UID;
+        public int UID;
 
         boolean isExplored;
         boolean onFrontier;
 
-        State(MutableState s) {
+        State(MutableState s, Registers r, int hash) {
             pc = s.pc;
             av_SREG = s.av_SREG;
             av_EIMSK = s.av_EIMSK;
             av_TIMSK = s.av_TIMSK;
-            av_REGISTERS = new char[NUM_REGS];
-            System.arraycopy(s.av_REGISTERS, 0, av_REGISTERS, 0, NUM_REGS);
-            hashCode = computeHashCode();
-            UID = uidCount++;
+            registers = r;
+            hashCode = hash;
         }
 
         public int hashCode() {
@@ -79,7 +83,14 @@ public class StateCache {
         public boolean equals(Object o) {
             if (this == o) return true;
             if (!(o instanceof State)) return false;
-            return deepCompare((State)o);
+            State s = (State)o;
+            // register vectors are hash-consed, so equal vectors are the same instance
+            return pc == s.pc && registers == s.registers && av_SREG == s.av_SREG &&
+                    av_EIMSK == s.av_EIMSK && av_TIMSK == s.av_TIMSK;
+        }
+
+        public char getRegisterAV(int num) {
+            return registers.get(num);
         }
 
         /**
@@ -108,12 +119,80 @@ public class StateCache {
             return type;
         }
 
+        boolean matches(MutableState s, Registers r) {
+            return pc == s.pc && registers == r && av_SREG == s.av_SREG &&
+                    av_EIMSK == s.av_EIMSK && av_TIMSK == s.av_TIMSK;
+        }
+    }
+
+    /**
+     * The <code>Registers</code> class stores the abstract values of all of the general purpose registers,
+     * four canonical 16-bit abstract values to a <code>long</code>. Instances are hash-consed, so that two
+     * states with the same register values share the same instance. Since many states share a vector,
+     * the vectors take only about a twentieth of the memory of a large state space; most of it is in the
+     * states themselves and their edges. Coding each value in fewer bits, e.g. two bits for a register
+     * whose bits are all unknown, does not pay off: in the programs where all registers are known, the
+     * codes take as many words as the values, and the array that holds a variable number of words costs
+     * more than the bits saved.
+     */
+    static final class Registers {
+        final long r0, r1, r2, r3, r4, r5, r6, r7;
+        final int hashCode;
+
+        Registers(char[] regs, int hash) {
+            r0 = pack(regs, 0);
+            r1 = pack(regs, 4);
+            r2 = pack(regs, 8);
+            r3 = pack(regs, 12);
+            r4 = pack(regs, 16);
+            r5 = pack(regs, 20);
+            r6 = pack(regs, 24);
+            r7 = pack(regs, 28);
+            hashCode = hash;
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+
+        private static long pack(char[] regs, int base) {
+            return (long)regs[base] | (long)regs[base + 1] << 16 | (long)regs[base + 2] << 32 | (long)regs[base + 3] << 48;
+        }
+
+        char get(int num) {
+            return (char)(getWord(num >> 2) >>> ((num & 3) * 16));
+        }
+
+        private long getWord(int word) {
+            switch (word) {
+                case 0: return r0;
+                case 1: return r1;
+                case 2: return r2;
+                case 3: return r3;
+                case 4: return r4;
+                case 5: return r5;
+                case 6: return r6;
+                default: return r7;
+            }
+        }
+
+        boolean matches(char[] regs) {
+            return r0 == pack(regs, 0) && r1 == pack(regs, 4) && r2 == pack(regs, 8) && r3 == pack(regs, 12) &&
+                    r4 == pack(regs, 16) && r5 == pack(regs, 20) && r6 == pack(regs, 24) && r7 == pack(regs, 28);
+        }
+
+        static int hash(char[] regs) {
+            int hash = 0;
+            for (int cntr = 0; cntr < regs.length; cntr++)
+                hash = hash * 31 + regs[cntr];
+            return hash;
+        }
     }
 
     public class Set {
 
         private State oneState;
-        private HashSet delegate;
+        private StateNumbers delegate;
 
         private boolean delegating = false;
         private boolean empty = true;
@@ -138,7 +217,7 @@ public class StateCache {
 
         public int size() {
             if (delegating)
-                return delegate.size();
+                return delegate.size;
             else {
                 return oneState == null ? 0 : 1;
             }
@@ -154,7 +233,7 @@ public class StateCache {
 
         public boolean contains(Object o) {
             if (delegating) {
-                return delegate.contains(o);
+                return delegate.contains(((State)o).UID);
             } else {
                 return oneState == o;
             }
@@ -171,7 +250,7 @@ public class StateCache {
             empty = false;
 
             if (delegating)
-                return delegate.add(ns);
+                return delegate.add(ns.UID);
             else {
                 if (oneState == null) {
                     oneState = ns;
@@ -179,14 +258,14 @@ public class StateCache {
                 }
                 if (ns == oneState) return true;
                 beginDelegation();
-                return delegate.add(ns);
+                return delegate.add(ns.UID);
             }
         }
 
         private void beginDelegation() {
-            delegate = new HashSet();
+            delegate = new StateNumbers();
             if (oneState != null)
-                delegate.add(oneState);
+                delegate.add(oneState.UID);
             else
                 oneState = null;
             delegating = true;
@@ -200,7 +279,7 @@ public class StateCache {
                 if (oset.delegating)
                     return delegate.containsAll(oset.delegate);
                 else
-                    return delegate.contains(oset.oneState);
+                    return delegate.contains(oset.oneState.UID);
             } else {
                 if (oset.delegating)
                     return false;
@@ -218,20 +297,138 @@ public class StateCache {
                 if (oset.delegating)
                     return delegate.addAll(oset.delegate);
                 else
-                    return delegate.add(oset.oneState);
+                    return delegate.add(oset.oneState.UID);
             } else {
                 beginDelegation();
                 if (oset.delegating)
                     return delegate.addAll(oset.delegate);
                 else
-                    return delegate.add(oset.oneState);
+                    return delegate.add(oset.oneState.UID);
             }
         }
 
     }
 
+    /**
+     * The <code>StateNumbers</code> class is an open-addressing hash set of the unique numbers of states,
+     * which takes a fraction of the space of a set of references.
+     */
+    private class StateNumbers {
+        // each slot holds a state number plus one; zero marks an empty slot
+        private int[] table = new int[8];
+        private int size;
+
+        boolean contains(int uid) {
+            int mask = table.length - 1;
+            for (int i = mix(uid) & mask; ; i = (i + 1) & mask) {
+                int v = table[i];
+                if (v == 0) return false;
+                if (v == uid + 1) return true;
+            }
+        }
+
+        boolean add(int uid) {
+            int mask = table.length - 1;
+            int i = mix(uid) & mask;
+            for (int v = table[i]; v != 0; v = table[i]) {
+                if (v == uid + 1) return false;
+                i = (i + 1) & mask;
+            }
+            table[i] = uid + 1;
+            if (++size * 2 > table.length) grow();
+            return true;
+        }
+
+        boolean addAll(StateNumbers o) {
+            boolean changed = false;
+            int[] t = o.table;
+            for (int cntr = 0; cntr < t.length; cntr++)
+                if (t[cntr] != 0) changed |= add(t[cntr] - 1);
+            return changed;
+        }
+
+        boolean containsAll(StateNumbers o) {
+            int[] t = o.table;
+            for (int cntr = 0; cntr < t.length; cntr++)
+                if (t[cntr] != 0 && !contains(t[cntr] - 1)) return false;
+            return true;
+        }
+
+        private void grow() {
+            int[] old = table;
+            table = new int[old.length * 2];
+            size = 0;
+            for (int cntr = 0; cntr < old.length; cntr++)
+                if (old[cntr] != 0) add(old[cntr] - 1);
+        }
+
+        Iterator iterator() {
+            return new Iterator() {
+                int pos = advance(0);
+
+                private int advance(int p) {
+                    while (p < table.length && table[p] == 0) p++;
+                    return p;
+                }
+
+                public boolean hasNext() {
+                    return pos < table.length;
+                }
+
+                public Object next() {
+                    if (pos >= table.length) throw new NoSuchElementException();
+                    State s = getState(table[pos] - 1);
+                    pos = advance(pos + 1);
+                    return s;
+                }
+
+                public void remove() {
+                    throw Util.unimplemented();
+                }
+            };
+        }
+    }
+
+    /**
+     * The <code>Table</code> class is an open-addressing hash table holding either states or registers.
+     * The tables are spread over several shards, each with its own lock, so that several threads exploring
+     * the state space can look up states concurrently.
+     */
+    private static final class Table {
+        Object[] slots;
+        int size;
+
+        Table(int capacity) {
+            int length = 16;
+            while (length < capacity * 2) length <<= 1;
+            slots = new Object[length];
+        }
+
+        void insert(Object o, int hash) {
+            int mask = slots.length - 1;
+            int i = mix(hash) & mask;
+            while (slots[i] != null) i = (i + 1) & mask;
+            slots[i] = o;
+            if (++size * 2 > slots.length) grow();
+        }
+
+        private void grow() {
+            Object[] old = slots;
+            slots = new Object[old.length * 2];
+            size = 0;
+            for (int cntr = 0; cntr < old.length; cntr++) {
+                Object o = old[cntr];
+                if (o != null) insert(o, o.hashCode());
+            }
+        }
+    }
+
+    private static final int SHARDS = 64;
+    private static final int CHUNK = 4096;
 
-    private HashMap stateMap;
+    private final Table[] stateTables;
+    private final Table[] registerTables;
+    private State[][] states;
     private final State edenState;
     private final Program program;
     private long totalStateCount;
@@ -243,7 +440,13 @@ public class StateCache {
      * @param p the program to create the state space for
      */
     public StateCache(Program p) {
-        stateMap = new HashMap(p.program_end * 5);
+        stateTables = new Table[SHARDS];
+        registerTables = new Table[SHARDS];
+        for (int cntr = 0; cntr < SHARDS; cntr++) {
+            stateTables[cntr] = new Table(p.program_end * 5 / SHARDS);
+            registerTables[cntr] = new Table(p.program_end / SHARDS);
+        }
+        states = new State[16][];
         edenState = getStateFor(new MutableState());
         program = p;
     }
@@ -260,27 +463,78 @@ public class StateCache {
     /**
      * The <code>getCachedState()</code> method searches the state cache for an immutable state that
      * corresponds to the given mutable state. If no immutable state exists in the cache, one will be created
-     * and inserted.
+     * and inserted. This method may be called concurrently by several threads.
      *
      * @param s the state to search for
      * @return an instance of the <code>StateSpace.LegacyState</code> immutable state that corresponds to the given
      *         mutable state
      */
     public State getStateFor(MutableState s) {
-        State is = new State(s);
-        State cs = (State)stateMap.get(is);
-
-        if (cs != null) {
-            // if the state is already in the state map, return original
-            return cs;
-        } else {
-            totalStateCount++;
-            // the state is new, put it in the map and return it.
-            stateMap.put(is, is);
+        Registers r = getRegisters(s.av_REGISTERS);
+        int hash = s.computeHashCode();
+
+        Table table = stateTables[shard(hash)];
+        synchronized (table) {
+            Object[] slots = table.slots;
+            int mask = slots.length - 1;
+            for (int i = mix(hash) & mask; slots[i] != null; i = (i + 1) & mask) {
+                State cs = (State)slots[i];
+                // if the state is already in the table, return original
+                if (cs.hashCode == hash && cs.matches(s, r)) return cs;
+            }
+
+            // the state is new, put it in the table and return it.
+            State is = new State(s, r, hash);
+            is.info = new StateTransitionGraph.StateInfo(is);
+            register(is);
+            table.insert(is, hash);
             return is;
         }
     }
 
+    private Registers getRegisters(char[] regs) {
+        int hash = Registers.hash(regs);
+        Table table = registerTables[shard(hash)];
+        synchronized (table) {
+            Object[] slots = table.slots;
+            int mask = slots.length - 1;
+            for (int i = mix(hash) & mask; slots[i] != null; i = (i + 1) & mask) {
+                Registers r = (Registers)slots[i];
+                if (r.hashCode == hash && r.matches(regs)) return r;
+            }
+            Registers r = new Registers(regs, hash);
+            table.insert(r, hash);
+            return r;
+        }
+    }
+
+    private synchronized void register(State s) {
+        int uid = uidCount++;
+        int chunk = uid / CHUNK;
+        if (chunk >= states.length) {
+            State[][] nstates = new State[states.length * 2][];
+            System.arraycopy(states, 0, nstates, 0, states.length);
+            states = nstates;
+        }
+        if (states[chunk] == null) states[chunk] = new State[CHUNK];
+        states[chunk][uid % CHUNK] = s;
+        s.UID = uid;
+        totalStateCount++;
+    }
+
+    State getState(int uid) {
+        return states[uid / CHUNK][uid % CHUNK];
+    }
+
+    private static int shard(int hash) {
+        return (hash ^ (hash >>> 16)) & (SHARDS - 1);
+    }
+
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
     /**
      * The <code>getTotalStateCount()</code> method returns the internally recorded number of states created
      * in this state space. This is mainly used for reporting purposes.
@@ -292,7 +546,28 @@ public class StateCache {
     }
 
     public Iterator getStateIterator() {
-        return stateMap.values().iterator();
+        return new StateIterator();
+    }
+
+    /**
+     * The <code>StateIterator</code> class iterates over the states in the order of their numbers.
+     */
+    private class StateIterator implements Iterator {
+        private int next;
+        private final int count = uidCount;
+
+        public boolean hasNext() {
+            return next < count;
+        }
+
+        public Object next() {
+            if (next >= count) throw new NoSuchElementException();
+            return getState(next++);
+        }
+
+        public void remove() {
+            throw Util.unimplemented();
+        }
     }
 
     public Set newSet() {
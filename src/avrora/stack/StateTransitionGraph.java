@@ -137,7 +137,6 @@ public class StateTransitionGraph {
     public StateTransitionGraph(Program p) {
         cache = new StateCache(p);
         edenState = cache.getEdenState();
-        edenState.info = new StateInfo(edenState);
         addFrontierState(edenState);
     }
 
@@ -150,9 +149,7 @@ public class StateTransitionGraph {
      * @return an instance of the <code>StateCache.LegacyState</code> class
      */
     public StateCache.State getCachedState(MutableState s) {
-        StateCache.State ns = cache.getStateFor(s);
-        if (ns.info == null) ns.info = new StateInfo(ns);
-        return ns;
+        return cache.getStateFor(s);
     }
 
     /**
@@ -189,25 +186,61 @@ public class StateTransitionGraph {
         if (state.info == null)
             throw Util.failure("LegacyState on frontier has no edge info: " + state.getUniqueName());
 
-        state.onFrontier = false;
-        frontierCount--;
+        removeFrontierState(state);
         return state;
     }
 
+    /**
+     * The <code>takeFrontierList()</code> method removes all of the states from the frontier list and
+     * returns them. The states remain on the frontier until each is removed with the
+     * <code>removeFrontierState()</code> method, which allows the caller to distribute them to several
+     * threads.
+     *
+     * @return the list of states that were on the frontier list
+     */
+    public StateList takeFrontierList() {
+        StateList l = frontierList;
+        frontierList = null;
+        return l;
+    }
+
     /**
      * The <code>addFrontierState</code> method adds a state to the frontier.
      *
      * @param s the state to add
      */
     public void addFrontierState(StateCache.State s) {
+        if (markFrontierState(s))
+            frontierList = new StateList(s, frontierList);
+    }
+
+    /**
+     * The <code>markFrontierState()</code> method puts a state on the frontier without adding it to the
+     * frontier list, for callers that keep their own lists of frontier states.
+     *
+     * @param s the state to put on the frontier
+     * @return true if the state was not already on the frontier; false otherwise
+     */
+    public boolean markFrontierState(StateCache.State s) {
         if (isExplored(s))
             throw Util.failure("Attempt to re-add state to frontier: " + s.getUniqueName());
 
         if (!isFrontier(s)) {
-            frontierList = new StateList(s, frontierList);
             s.onFrontier = true;
             frontierCount++;
+            return true;
         }
+        return false;
+    }
+
+    /**
+     * The <code>removeFrontierState()</code> method takes a state off of the frontier.
+     *
+     * @param s the state to remove from the frontier
+     */
+    public void removeFrontierState(StateCache.State s) {
+        s.onFrontier = false;
+        frontierCount--;
     }
 
     /**
@@ -0,0 +1,159 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package avrora.test;
+
+import avrora.actions.BatchAction;
+import cck.test.*;
+import cck.text.Terminal;
+import java.io.*;
+import java.util.*;
+
+/**
+ * The <code>BatchTestHarness</code> implements a test harness that checks that the simulations of a
+ * batch do not influence each other. A test case is a manifest for the batch action. All of its
+ * simulations are run one after another on a single thread, and each simulation is also run by itself
+ * in a batch of its own. The output of each simulation, apart from the lines that report the real time
+ * taken, must be the same in both cases.
+ */
+public class BatchTestHarness implements TestEngine.Harness {
+
+    class BatchTestCase extends TestCase {
+
+        String failure;
+
+        BatchTestCase(String fname, Properties props) {
+            super(fname, props);
+        }
+
+        public void run() throws Exception {
+            File dir = newDirectory();
+            try {
+                compareRuns(dir);
+            } finally {
+                delete(dir);
+            }
+        }
+
+        private void compareRuns(File dir) throws Exception {
+            File together = new File(dir, "together");
+            together.mkdir();
+            runBatch(filename, together);
+
+            BufferedReader reader = new BufferedReader(new FileReader(filename));
+            try {
+                int line = 0;
+                while (true) {
+                    String str = reader.readLine();
+                    if (str == null) break;
+                    line++;
+                    str = str.trim();
+                    if (str.length() == 0 || str.charAt(0) == '#') continue;
+                    File alone = new File(dir, "alone-" + line);
+                    alone.mkdir();
+                    File manifest = new File(alone, "manifest");
+                    PrintStream out = new PrintStream(new FileOutputStream(manifest));
+                    out.println(str);
+                    out.close();
+                    runBatch(manifest.getPath(), alone);
+                    String expect = readOutput(new File(alone, "run-1.log"));
+                    String result = readOutput(new File(together, "run-" + line + ".log"));
+                    if (!expect.equals(result)) {
+                        failure = "output of line " + line + " differs when run after other simulations";
+                        return;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        public TestResult match(Throwable t) {
+            if (t == null && failure != null) {
+                return new TestResult.TestFailure(failure);
+            }
+
+            return super.match(t);
+        }
+
+        private File newDirectory() throws IOException {
+            File dir = File.createTempFile("batch", "");
+            dir.delete();
+            dir.mkdir();
+            return dir;
+        }
+
+        private void delete(File file) {
+            File[] files = file.listFiles();
+            if (files != null) {
+                for (int cntr = 0; cntr < files.length; cntr++) delete(files[cntr]);
+            }
+            file.delete();
+        }
+
+        private void runBatch(String manifest, File dir) throws Exception {
+            BatchAction batch = new BatchAction();
+            batch.options.setOption("threads", "1");
+            batch.options.setOption("output-dir", dir.getPath());
+            // the summary of the batch is not part of the test output
+            Terminal.setThreadOutput(new PrintStream(new ByteArrayOutputStream()));
+            try {
+                batch.run(new String[] { manifest });
+            } finally {
+                Terminal.setThreadOutput(null);
+            }
+        }
+
+        private String readOutput(File file) throws IOException {
+            StringBuffer buf = new StringBuffer();
+            BufferedReader reader = new BufferedReader(new FileReader(file));
+            try {
+                while (true) {
+                    String str = reader.readLine();
+                    if (str == null) break;
+                    // the real time and throughput differ from run to run
+                    if (str.indexOf("Time for simulation") >= 0 || str.toLowerCase().indexOf("throughput") >= 0) continue;
+                    buf.append(str);
+                    buf.append('\n');
+                }
+            } finally {
+                reader.close();
+            }
+            return buf.toString();
+        }
+    }
+
+    public TestCase newTestCase(String fname, Properties props) throws Exception {
+        return new BatchTestCase(fname, props);
+    }
+
+}
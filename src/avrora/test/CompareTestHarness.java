@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package avrora.test;
+
+import avrora.Defaults;
+import avrora.actions.Action;
+import avrora.sim.energy.EnergyControl;
+import cck.test.*;
+import cck.text.Terminal;
+import cck.util.Options;
+import java.io.*;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The <code>CompareTestHarness</code> implements a test harness that runs the same simulation twice with
+ * different options and checks that both runs print the same results. The options of a test case that are
+ * common to both runs, including the programs, are given by the <code>Options</code> property, and the
+ * options of each run by the <code>Reference</code> and <code>Variant</code> properties. A simulation
+ * given by the <code>Prepare</code> property, e.g. one that saves a checkpoint, is run before the variant.
+ * Each run is a simulation unless its options select another action, e.g. one that decodes a file written
+ * by the prepared simulation.
+ * Lines that report the real time taken, and lines that match the <code>Ignore</code> property, are not
+ * compared. If the <code>Compare</code> property is given, only the lines that match it are compared, and
+ * only by the groups that it captures, e.g. to compare one column of a table.
+ */
+public class CompareTestHarness implements TestEngine.Harness {
+
+    class CompareTestCase extends TestCase {
+
+        String options;
+        Pattern ignore;
+        Pattern select;
+        String failure;
+
+        CompareTestCase(String fname, Properties props) {
+            super(fname, props);
+            options = expectProperty("Options");
+            String str = properties.getProperty("Ignore");
+            if (str != null) ignore = Pattern.compile(trimString(str));
+            str = properties.getProperty("Compare");
+            if (str != null) select = Pattern.compile(trimString(str));
+        }
+
+        public void run() throws Exception {
+            String expect = simulate(properties.getProperty("Reference", ""));
+            String prepare = properties.getProperty("Prepare");
+            if (prepare != null) simulate(prepare);
+            String result = simulate(properties.getProperty("Variant", ""));
+            failure = compare(expect, result);
+        }
+
+        private String simulate(String opts) throws Exception {
+            StringTokenizer t = new StringTokenizer(trimString(opts) + ' ' + trimString(options));
+            // the arguments of a run, e.g. the file to decode, come before the common programs
+            List opt = new LinkedList();
+            List arg = new LinkedList();
+            while (t.hasMoreTokens()) {
+                String tok = t.nextToken();
+                if (tok.charAt(0) == '-') opt.add(tok);
+                else arg.add(tok);
+            }
+            opt.addAll(arg);
+            String[] args = (String[])opt.toArray(new String[opt.size()]);
+
+            Options o = new Options();
+            o.parseCommandLine(args);
+            Action action = Defaults.getAction(o.getOptionValue("action", "simulate"));
+            action.options.process(o);
+
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            Terminal.setThreadOutput(new PrintStream(buffer, true));
+            // the devices of this run must not join the energy consumers of an earlier run on this thread
+            EnergyControl.nextInstance();
+            try {
+                action.run(o.getArguments());
+            } finally {
+                EnergyControl.clearInstance();
+                Terminal.setThreadOutput(null);
+            }
+            return buffer.toString();
+        }
+
+        private String compare(String expect, String result) throws IOException {
+            BufferedReader e = new BufferedReader(new StringReader(expect));
+            BufferedReader r = new BufferedReader(new StringReader(result));
+            while (true) {
+                String exp = nextLine(e);
+                String res = nextLine(r);
+                if (exp == null && res == null) return null;
+                if (exp == null) return "unexpected line: " + res;
+                if (res == null) return "missing line: " + exp;
+                if (!exp.equals(res)) return "expected line: " + exp + ", found: " + res;
+            }
+        }
+
+        private String nextLine(BufferedReader reader) throws IOException {
+            while (true) {
+                String str = reader.readLine();
+                if (str == null) return null;
+                // the real time and throughput differ from run to run
+                if (str.indexOf("Time for simulation") >= 0 || str.toLowerCase().indexOf("throughput") >= 0) continue;
+                if (ignore != null && ignore.matcher(str).find()) continue;
+                if (select != null) {
+                    Matcher m = select.matcher(str);
+                    if (!m.find()) continue;
+                    StringBuffer buf = new StringBuffer();
+                    for (int cntr = 1; cntr <= m.groupCount(); cntr++) {
+                        if (cntr > 1) buf.append(' ');
+                        buf.append(m.group(cntr));
+                    }
+                    return buf.toString();
+                }
+                return str;
+            }
+        }
+
+        public TestResult match(Throwable t) {
+            if (t == null && failure != null) {
+                return new TestResult.TestFailure(failure);
+            }
+
+            return super.match(t);
+        }
+    }
+
+    public TestCase newTestCase(String fname, Properties props) throws Exception {
+        return new CompareTestCase(fname, props);
+    }
+
+}
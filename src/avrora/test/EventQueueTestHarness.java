@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package avrora.test;
+
+import avrora.Defaults;
+import avrora.test.probes.ProbeParser;
+import avrora.test.probes.ProbeTest;
+import cck.test.*;
+import java.io.FileInputStream;
+import java.util.Properties;
+
+/**
+ * The <code>EventQueueTestHarness</code> implements a test harness that tests the event queue of the
+ * clock in isolation, without a simulator. The test cases are written in the same language as the probe
+ * tests and are run against the event queue selected by the <code>-event-queue</code> option.
+ */
+public class EventQueueTestHarness implements TestEngine.Harness {
+
+    class EventQueueTestCase extends TestCase {
+
+        ProbeTest probeTest;
+
+        EventQueueTestCase(String fname, Properties props) throws Exception {
+            super(fname, props);
+
+            ProbeParser p = new ProbeParser(new FileInputStream(fname));
+            probeTest = p.ProbeTest();
+        }
+
+        public void run() throws Exception {
+            probeTest.run(Defaults.getEventQueue(properties.getProperty("EventQueue", "delta")).newEventQueue());
+        }
+
+        public TestResult match(Throwable t) {
+            if (t instanceof ProbeTest.Failure ) {
+                return new TestResult.TestFailure(((ProbeTest.Failure)t).reason);
+            }
+
+            return super.match(t);
+        }
+
+    }
+
+    public TestCase newTestCase(String fname, Properties props) throws Exception {
+        return new EventQueueTestCase(fname, props);
+    }
+
+}
@@ -72,7 +72,9 @@ public class InterruptTestHarness implements TestEngine.Harness {
 
         public void run() throws Exception {
             Program p = Main.loadProgram(new String[] { progName });
-            Simulator s = Defaults.newSimulator(0, p);
+            Simulator s = Defaults.newSimulator(0, Defaults.getInterpreter(properties.getProperty("Interpreter", "legacy"),
+                    Boolean.valueOf(properties.getProperty("SkipBusyWaits", "false")).booleanValue()),
+                    Defaults.getEventQueue(properties.getProperty("EventQueue", "delta")), p);
             new InterruptScheduler(interruptSched, s);
             probeTest.run(s);
         }
@@ -34,12 +34,14 @@
 
 package avrora.test;
 
+import avrora.arch.legacy.LegacyInterpreter;
 import avrora.core.Program;
 import avrora.syntax.elf.*;
 import avrora.sim.platform.Platform;
 import avrora.sim.platform.DefaultPlatform;
 import avrora.sim.mcu.MicrocontrollerFactory;
 import avrora.sim.Simulator;
+import avrora.sim.clock.DeltaQueue;
 import avrora.sim.AtmelInterpreter;
 import avrora.Defaults;
 import cck.util.Arithmetic;
@@ -84,7 +86,7 @@ public class VirgilRunner {
 
     public int run(int staddr, int ioaddr, int input) {
         // create the node
-        Platform p = factory.newPlatform(0, program);
+        Platform p = factory.newPlatform(0, LegacyInterpreter.FACTORY, DeltaQueue.FACTORY, program);
         Simulator sim = p.getMicrocontroller().getSimulator();
         AtmelInterpreter inter = (AtmelInterpreter) sim.getInterpreter();
 
@@ -0,0 +1,159 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package avrora.test;
+
+import avrora.Defaults;
+import avrora.sim.Simulation;
+import cck.test.*;
+import cck.text.StringUtil;
+import cck.text.Terminal;
+import cck.util.Options;
+import java.io.*;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The <code>WiredTestHarness</code> implements a test harness that checks the timing of the wires between
+ * the nodes of a wired simulation. The program of a test case is run on two Seres nodes, which are
+ * connected on each side, with the options given in the test case. Every change of a transmit wire of
+ * one node must arrive at the receive and interrupt wires of the same side of the other node exactly
+ * the propagation delay of the wire later, and every change of a receive or interrupt wire must have
+ * been caused by such a change.
+ */
+public class WiredTestHarness implements TestEngine.Harness {
+
+    // the node, the time, the side, the kind and the level of a change printed by a wire
+    private static final Pattern CHANGE = Pattern.compile("\\s*(\\d+)\\s+(\\d+)\\s+(\\w+) (Tx|Rx|Int): (\\w+)");
+    private static final Pattern COLOR = Pattern.compile("\u001b\\[[0-9;]*m");
+
+    class WiredTestCase extends TestCase {
+
+        String program;
+        String options;
+        long delay;
+        String failure;
+
+        WiredTestCase(String fname, Properties props) {
+            super(fname, props);
+            program = expectProperty("Program");
+            options = properties.getProperty("Options", "");
+            delay = StringUtil.evaluateIntegerLiteral(expectProperty("Delay"));
+        }
+
+        public void run() throws Exception {
+            StringTokenizer t = new StringTokenizer(trimString(options));
+            String[] args = new String[t.countTokens() + 3];
+            int cntr = 0;
+            while (t.hasMoreTokens()) args[cntr++] = t.nextToken();
+            args[cntr++] = "-simulation=wired";
+            args[cntr++] = "-nodecount=2";
+            args[cntr] = program;
+
+            Options o = new Options();
+            o.parseCommandLine(args);
+            Simulation sim = Defaults.getSimulation("wired");
+            sim.process(o, o.getArguments());
+
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            Terminal.setThreadOutput(new PrintStream(buffer, true));
+            try {
+                sim.start();
+                sim.join();
+            } finally {
+                Terminal.setThreadOutput(null);
+            }
+
+            long[] end = new long[2];
+            for (int node = 0; node < 2; node++)
+                end[node] = sim.getNode(node).getSimulator().getClock().getCount();
+            failure = check(buffer.toString(), end);
+        }
+
+        private String check(String output, long[] end) throws IOException {
+            List expected = new LinkedList();
+            List received = new LinkedList();
+            BufferedReader reader = new BufferedReader(new StringReader(COLOR.matcher(output).replaceAll("")));
+            while (true) {
+                String str = reader.readLine();
+                if (str == null) break;
+                Matcher m = CHANGE.matcher(str);
+                if (!m.matches()) continue;
+                int node = Integer.parseInt(m.group(1));
+                long time = Long.parseLong(m.group(2));
+                String side = m.group(3);
+                String level = m.group(5);
+                if ("Tx".equals(m.group(4))) {
+                    // a change at the very end of the simulation may not have arrived yet
+                    int other = 1 - node;
+                    if (time + delay >= end[other]) continue;
+                    expected.add(change(other, time + delay, side, "Rx", level));
+                    expected.add(change(other, time + delay, side, "Int", level));
+                } else {
+                    received.add(change(node, time, side, m.group(4), level));
+                }
+            }
+            if (expected.isEmpty()) return "no wire changed";
+
+            Collections.sort(expected);
+            Collections.sort(received);
+            Iterator e = expected.iterator();
+            Iterator r = received.iterator();
+            while (e.hasNext() || r.hasNext()) {
+                String exp = e.hasNext() ? (String)e.next() : null;
+                String rec = r.hasNext() ? (String)r.next() : null;
+                if (exp == null) return "unexpected change: " + rec;
+                if (!exp.equals(rec)) return "missing change: " + exp;
+            }
+            return null;
+        }
+
+        private String change(int node, long time, String side, String kind, String level) {
+            // pad the time so that the changes sort by time
+            return node + " @ " + StringUtil.rightJustify(time, 12) + " " + side + ' ' + kind + ": " + level;
+        }
+
+        public TestResult match(Throwable t) {
+            if (t == null && failure != null) {
+                return new TestResult.TestFailure(failure);
+            }
+
+            return super.match(t);
+        }
+    }
+
+    public TestCase newTestCase(String fname, Properties props) throws Exception {
+        return new WiredTestCase(fname, props);
+    }
+
+}
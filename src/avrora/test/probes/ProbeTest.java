@@ -33,7 +33,7 @@ package avrora.test.probes;
 
 import avrora.sim.Simulator;
 import avrora.sim.State;
-import avrora.sim.clock.DeltaQueue;
+import avrora.sim.clock.EventQueue;
 import avrora.sim.util.SimUtil;
 import avrora.sim.output.SimPrinter;
 import cck.text.StringUtil;
@@ -48,7 +48,7 @@ public class ProbeTest {
 
     Simulator simulator;
     SimPrinter printer;
-    DeltaQueue eventqueue;
+    EventQueue eventqueue;
 
     List mainCode;
     final List expectedEvents;
@@ -238,7 +238,7 @@ public class ProbeTest {
     }
 
     protected void recordEvent(String e) {
-        if ( printer.enabled )
+        if ( printer != null && printer.enabled )
             printer.println(e);
         long time = simulator == null ? eventqueue.getCount() : simulator.getState().getCycles();
         recordedEvents.add(new Event(time, e));
@@ -295,9 +295,10 @@ public class ProbeTest {
         match();
     }
 
-    public void run(DeltaQueue q) throws Exception {
+    public void run(EventQueue q) throws Exception {
         eventqueue = q;
         simulator = null;
+        printer = null;
         recordedEvents = new LinkedList();
         execute(mainCode);
         match();
@@ -316,7 +317,7 @@ public class ProbeTest {
             Event expect = (Event)e.next();
             Event recorded = (Event)r.next();
 
-            if ( printer.enabled ) {
+            if ( printer != null && printer.enabled ) {
                 printer.println(" --> checking "+recorded.time+" "+recorded.name+" = "
                         +expect.time+" "+expect.name);
             }
@@ -97,7 +97,9 @@ public class SimTestHarness implements TestEngine.Harness {
         }
 
         private Simulator initSimulator(Program program) {
-            Simulator sim = tester.newSimulator(program);
+            Simulator sim = tester.newSimulator(Defaults.getInterpreter(properties.getProperty("Interpreter", "legacy"),
+                    Boolean.valueOf(properties.getProperty("SkipBusyWaits", "false")).booleanValue()),
+                    Defaults.getEventQueue(properties.getProperty("EventQueue", "delta")), program);
             access = tester.getAccessor(sim);
             if ( inits != null ) access.init(inits);
             return sim;
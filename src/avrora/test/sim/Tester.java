@@ -36,14 +36,16 @@ package avrora.test.sim;
 
 import avrora.arch.AbstractArchitecture;
 import avrora.core.Program;
+import avrora.sim.InterpreterFactory;
 import avrora.sim.Simulator;
+import avrora.sim.clock.EventQueue;
 
 /**
  * @author Ben L. Titzer
  */
 public abstract class Tester {
 
-    public abstract Simulator newSimulator(Program p);
+    public abstract Simulator newSimulator(InterpreterFactory f, EventQueue.Factory q, Program p);
     public abstract AbstractArchitecture getArchitecture();
     public abstract StateAccessor getAccessor(Simulator sim);
 }
@@ -38,7 +38,9 @@ import avrora.Defaults;
 import avrora.arch.AbstractArchitecture;
 import avrora.arch.legacy.LegacyArchitecture;
 import avrora.core.Program;
+import avrora.sim.InterpreterFactory;
 import avrora.sim.Simulator;
+import avrora.sim.clock.EventQueue;
 import avrora.test.sim.StateAccessor;
 import avrora.test.sim.Tester;
 
@@ -47,8 +49,8 @@ import avrora.test.sim.Tester;
  */
 public class LegacyTester extends Tester {
 
-    public Simulator newSimulator(Program p) {
-        return Defaults.newSimulator(0, p);
+    public Simulator newSimulator(InterpreterFactory f, EventQueue.Factory q, Program p) {
+        return Defaults.newSimulator(0, f, q, p);
     }
 
     public AbstractArchitecture getArchitecture() {
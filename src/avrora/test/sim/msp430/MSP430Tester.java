@@ -38,7 +38,9 @@ import avrora.Defaults;
 import avrora.arch.AbstractArchitecture;
 import avrora.arch.msp430.MSP430Architecture;
 import avrora.core.Program;
+import avrora.sim.InterpreterFactory;
 import avrora.sim.Simulator;
+import avrora.sim.clock.EventQueue;
 import avrora.sim.platform.Platform;
 import avrora.test.sim.StateAccessor;
 import avrora.test.sim.Tester;
@@ -47,8 +49,8 @@ import avrora.test.sim.Tester;
  * @author Ben L. Titzer
  */
 public class MSP430Tester extends Tester {
-    public Simulator newSimulator(Program p) {
-        Platform platform = Defaults.getPlatform("telos").newPlatform(0, p);
+    public Simulator newSimulator(InterpreterFactory f, EventQueue.Factory q, Program p) {
+        Platform platform = Defaults.getPlatform("telos").newPlatform(0, f, q, p);
         return platform.getMicrocontroller().getSimulator();
     }
     public AbstractArchitecture getArchitecture() {
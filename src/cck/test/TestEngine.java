@@ -94,6 +94,7 @@ public class TestEngine {
     private int finishedTests;
 
     private final ClassMap harnessMap;
+    private final Properties defaults;
 
     /**
      * The constructor for the <code>TestEngine</code> class creates a new test engine
@@ -102,7 +103,19 @@ public class TestEngine {
      * @param hm the class map that maps string names to harnesses
      */
     public TestEngine(ClassMap hm) {
+        this(hm, null);
+    }
+
+    /**
+     * This constructor for the <code>TestEngine</code> class creates a new test engine whose test cases
+     * have the specified default properties, which the properties given in the text of each test file
+     * override.
+     * @param hm the class map that maps string names to harnesses
+     * @param defs the default properties of every test case
+     */
+    public TestEngine(ClassMap hm, Properties defs) {
         harnessMap = hm;
+        defaults = defs;
     }
 
     /**
@@ -318,7 +331,7 @@ public class TestEngine {
 
     private TestCase readTestCase(String fname) throws IOException {
         BufferedReader r = new BufferedReader(new FileReader(fname));
-        Properties vars = new Properties();
+        Properties vars = new Properties(defaults);
 
         while (true) {
             String buffer = r.readLine();
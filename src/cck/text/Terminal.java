@@ -50,6 +50,10 @@ public class Terminal {
 
     private static PrintStream out = System.out;
 
+    // per-thread output streams, inherited by the threads that a redirected thread creates
+    private static final InheritableThreadLocal threadOut = new InheritableThreadLocal();
+    private static volatile boolean redirected;
+
     public static final int COLOR_BLACK = 0;
     public static final int COLOR_RED = 1;
     public static final int COLOR_GREEN = 2;
@@ -123,7 +127,7 @@ public class Terminal {
 
     public static void println(int color, String s) {
         print(color, s);
-        out.print('\n');
+        out().print('\n');
     }
 
     public static void append(int color, StringBuffer buf, String s) {
@@ -145,21 +149,52 @@ public class Terminal {
     }
 
     public static void print(String s) {
-        out.print(s);
+        out().print(s);
     }
 
     public static void println(String s) {
-        out.println(s);
+        out().println(s);
     }
 
     public static void nextln() {
-        out.print("\n");
+        out().print("\n");
     }
 
     public static void setOutput(PrintStream s) {
         out = s;
     }
 
+    /**
+     * The <code>setThreadOutput()</code> method redirects the output of the calling thread, and of any
+     * threads that it creates afterwards, to the specified stream. This allows several independent
+     * computations, such as simulations in a batch, to print to separate streams in the same virtual
+     * machine.
+     *
+     * @param s the stream to print to from this thread; null to print to the shared output again
+     */
+    public static void setThreadOutput(PrintStream s) {
+        if (s != null) redirected = true;
+        threadOut.set(s);
+    }
+
+    /**
+     * The <code>getThreadOutput()</code> method returns the stream that the calling thread prints to,
+     * which is either the stream set with <code>setThreadOutput()</code> or the shared output.
+     *
+     * @return the stream that output of the calling thread goes to
+     */
+    public static PrintStream getThreadOutput() {
+        return out();
+    }
+
+    private static PrintStream out() {
+        if (redirected) {
+            PrintStream s = (PrintStream)threadOut.get();
+            if (s != null) return s;
+        }
+        return out;
+    }
+
     public static void printRed(String s) {
         outputColor(COLOR_RED, s);
     }
@@ -197,7 +232,7 @@ public class Terminal {
     }
 
     public static void flush() {
-        out.flush();
+        out().flush();
     }
 
     public static void printPair(int c1, int c2, String s1, String sep, String s2) {
@@ -219,19 +254,19 @@ public class Terminal {
 
         if (useColors) {
             if (htmlColors) {
-                out.print(HTML_STRINGS[color]);
-                out.print(s);
-                out.print("</font>");
+                out().print(HTML_STRINGS[color]);
+                out().print(s);
+                out().print("</font>");
                 return;
             } else if (color != COLOR_DEFAULT) {
-                out.print(COLORS[color]);
-                out.print(s);
-                out.print(COLORS[COLOR_DEFAULT]);
+                out().print(COLORS[color]);
+                out().print(s);
+                out().print(COLORS[COLOR_DEFAULT]);
                 return;
             }
         }
 
-        out.print(s);
+        out().print(s);
     }
 
 }
@@ -338,6 +338,8 @@ public abstract class Option {
 
                 // check for ',' separator
                 if (!StringUtil.peekAndEat(iter, ',')) parseError(name, "interval", val);
+                // accept the space written by stringValue()
+                StringUtil.skipWhiteSpace(iter);
 
                 String hstr = StringUtil.readDecimalString(iter, 12);
                 high = java.lang.Long.parseLong(hstr);
@@ -0,0 +1,8 @@
+# @Harness: batch
+# @Result: PASS
+# @Purpose: this tests that the energy and monitor output of simulations in a batch is the same as when each is run alone
+
+-platform=mica2 -seconds=2 -monitors=calls -colors=false ../tinyos/CntToLeds.elf
+-platform=mica2 -seconds=2 -monitors=energy,calls -colors=false ../tinyos/Blink.elf
+-platform=mica2 -seconds=1 -monitors=packet -colors=false ../tinyos/CntToRfm.elf
+-platform=mica2 -seconds=1 -monitors=energy,packet -colors=false ../tinyos/CntToRfm.elf
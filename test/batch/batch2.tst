@@ -0,0 +1,6 @@
+# @Harness: batch
+# @Result: PASS
+# @Purpose: this tests that a partitioned simulation in a batch starts processes for its own partitions only, rather than for the whole batch, and prints the same output as when it is run alone
+
+-platform=mica2 -seconds=1 -monitors=packet -colors=false ../tinyos/CntToRfm.elf
+-simulation=sensor-network -nodecount=1,2 -partitions=2 -random-seed=3 -seconds=2 -monitors=packet -show-packets=false -status=false -colors=false ../tinyos/CntToRfm.elf ../tinyos/RfmToLeds.elf
@@ -0,0 +1,7 @@
+# @Harness: batch
+# @Result: PASS
+# @Purpose: this tests that each wired simulation in a batch connects and synchronizes its own nodes, so that a simulation with the step synchronizer that follows one with the parallel synchronizer, or an identical one, prints the same output as when it is run alone rather than stopping at once
+
+-simulation=wired -nodecount=2 -synchronizer=parallel -worker-threads=1 -stagger-start=700 -seconds=0.01 -colors=false ../wired/echo.asm
+-simulation=wired -nodecount=2 -stagger-start=700 -seconds=0.01 -colors=false ../wired/echo.asm
+-simulation=wired -nodecount=2 -stagger-start=700 -seconds=0.01 -colors=false ../wired/echo.asm
@@ -0,0 +1,29 @@
+; @Harness: simulator
+; @Format: atmel
+; @Arch: avr
+; @SkipBusyWaits: false
+; @Purpose: "Test the cycle count of a loop polling the TOV0 flag when busy-wait loops are not skipped"
+; @Result: "r16 = 42, r17 = 3, cycles = 783379"
+
+.equ TIFR_IO = 0x36
+.equ TOV0 = 0
+
+	jmp    MAIN
+
+MAIN:
+	ldi r16, 1
+	ldi r17, 0
+	ldi r18, 0b00000111
+	out TCCR0, r18		;  turn on timer 0 with a prescaler of 1024
+
+WAIT:
+	in r18, TIFR_IO
+	sbrs r18, TOV0
+	rjmp WAIT
+	ldi r18, 0b00000001
+	out TIFR_IO, r18	;  clear the overflow flag
+	inc r17
+	cpi r17, 3
+	brne WAIT
+	ldi r16, 42
+	break
@@ -0,0 +1,27 @@
+; @Harness: simulator
+; @Format: atmel
+; @Arch: avr
+; @SkipBusyWaits: true
+; @Purpose: "Test that skipping a loop polling the ADSC bit keeps the cycle count exact"
+; @Result: "r16 = 42, r17 = 4, cycles = 8234"
+
+.equ ADCSRA_IO = 0x06
+.equ ADSC = 6
+
+	jmp    MAIN
+
+MAIN:
+	ldi r16, 1
+	ldi r17, 0
+
+CONVERT:
+	ldi r18, 0b11000111
+	out ADCSRA_IO, r18	;  enable the ADC and start a conversion with a prescaler of 128
+WAIT:
+	sbic ADCSRA_IO, ADSC
+	rjmp WAIT
+	inc r17
+	cpi r17, 4
+	brne CONVERT
+	ldi r16, 42
+	break
@@ -0,0 +1,8 @@
+# @Harness: compare
+# @Result: PASS
+# @Options: -platform=mica2 -seconds=3 -monitors=leds,packet -colors=false ../tinyos/CntToLedsAndRfm.elf
+# @Reference:
+# @Prepare: -checkpoint-at=1.3563369 -checkpoint-file=checkpoint01.ckpt
+# @Variant: -restore-from=checkpoint01.ckpt
+# @Ignore: ^\s*\d+\s+(\d{1,7}\s|\d+ /)
+# @Purpose: this tests that a mica2 node saved at cycle 10000000 and restored from the checkpoint prints the same events after that cycle and stops at the same time as a node that runs without interruption
@@ -0,0 +1,8 @@
+# @Harness: compare
+# @Result: PASS
+# @Options: -platform=micaz -seconds=3 -monitors=packet -colors=false ../tinyos/RadioSenseToLeds_micaz.elf
+# @Reference:
+# @Prepare: -checkpoint-at=1.3563369 -checkpoint-file=checkpoint02.ckpt
+# @Variant: -restore-from=checkpoint02.ckpt
+# @Ignore: ^\s*\d+\s+(\d{1,7}\s|\d+ /)
+# @Purpose: this tests that a micaz node saved at cycle 10000000 and restored from the checkpoint transmits the same packets with its CC2420 radio after that cycle as a node that runs without interruption
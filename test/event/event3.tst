@@ -0,0 +1,23 @@
+# @Harness: eventqueue
+# @Result: PASS
+# @Purpose: this tests that events in the same cycle fire in the reverse order of insertion
+
+event A { }
+event B { }
+event C { }
+
+main {
+  insert A 300;
+  insert B 300;
+  insert C 70000;
+  insert A 70000;
+  insert B 70000;
+  advance 300;
+  advance 0;
+  advance 69700;
+}
+
+result {
+  300 B A;
+  70000 B A C;
+}
@@ -0,0 +1,26 @@
+# @Harness: eventqueue
+# @Result: PASS
+# @Purpose: this tests that events inserted for the current cycle fire only if the advance has not ended
+
+event A { insert B 0; }
+event B { }
+event C { insert C 0x1000000; }
+
+main {
+  insert A 10;
+  advance 10;
+  advance 1;
+  insert A 20;
+  advance 30;
+  insert C 3;
+  advance 0x3000000;
+}
+
+result {
+  10 A;
+  10 B;
+  31 A B;
+  44 C;
+  16777260 C;
+  33554476 C;
+}
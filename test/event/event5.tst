@@ -0,0 +1,25 @@
+# @Harness: eventqueue
+# @Result: PASS
+# @Purpose: this tests removal of events from the queue, including events far in the future
+
+event A { remove B 0; }
+event B { }
+event C { remove C 0; }
+event D { }
+
+main {
+  insert B 100;
+  insert B 0x20000000;
+  insert D 0x20000000;
+  insert A 50;
+  insert C 200;
+  insert C 200;
+  insert C 0x40000;
+  advance 0x30000000;
+}
+
+result {
+  50 A;
+  200 C C;
+  536870912 D;
+}
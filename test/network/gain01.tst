@@ -0,0 +1,6 @@
+# @Harness: compare
+# @Result: PASS
+# @Options: -simulation=sensor-network -synchronizer=parallel -worker-threads=1 -topology=../topology/line.top -nodecount=5,1 -seconds=3 -monitors=packet -show-packets=false ../tinyos/RfmToLeds.elf ../tinyos/CntToRfm.elf
+# @Reference: -radio-range=63
+# @Variant: -radio-model=gain
+# @Purpose: this tests that the gain model delivers the packets of a single sender to the receivers at which they arrive above the sensitivity, which with the default path loss are those within 63 meters
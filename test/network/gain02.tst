@@ -0,0 +1,7 @@
+# @Harness: compare
+# @Result: PASS
+# @Options: -simulation=sensor-network -synchronizer=parallel -worker-threads=1 -topology=../topology/capture.top -radio-model=gain -seconds=3 -monitors=packet ../tinyos/CntToRfm.elf ../tinyos/RfmToLeds.elf ../tinyos/CntToRfm.elf
+# @Reference: -nodecount=1,1,0
+# @Variant: -nodecount=1,1,1
+# @Compare: ^\s*1\s+(.*)
+# @Purpose: this tests that a receiver near a sender receives the same packets when a second sender beyond its sensitivity, but above its noise floor, interferes with them
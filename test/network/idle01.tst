@@ -0,0 +1,7 @@
+# @Harness: compare
+# @Result: PASS
+# @Options: -simulation=sensor-network -nodecount=1,2 -seconds=5 -monitors=packet -show-packets=false ../tinyos/CntToRfm.elf ../tinyos/RfmToLeds.elf
+# @Reference: -synchronizer=optimistic
+# @Variant: -synchronizer=ripple
+# @Compare: ^\s*(\d+)\s+\d+ / (\d+)\s+\d+ / (\d+)
+# @Purpose: this tests that receivers that sleep between packets and are advanced to their next event by the ripple synchronizer receive every packet they receive with the optimistic synchronizer, which does not skip idle nodes. Only the packets are compared, since a receiver under the ripple synchronizer may lock onto a preamble a few bits later.
@@ -0,0 +1,7 @@
+# @Harness: compare
+# @Result: PASS
+# @Options: -simulation=sensor-network -nodecount=1,2 -seconds=5 -monitors=packet -show-packets=false ../tinyos/CntToRfm.elf ../tinyos/RfmToLeds.elf
+# @Reference: -synchronizer=optimistic
+# @Variant: -synchronizer=parallel
+# @Compare: ^\s*(\d+)\s+(\d+ / \d+)\s+(\d+ / \d+)\s+(\d+)
+# @Purpose: this tests that nodes that end a batch of the parallel synchronizer while asleep, and are entered at the time of their next event, send and receive the same bytes as with the optimistic synchronizer, which does not skip idle nodes
@@ -0,0 +1,7 @@
+# @Harness: compare
+# @Result: PASS
+# @Options: -simulation=sensor-network -synchronizer=parallel -worker-threads=1 -nodecount=1,3 -monitors=medium ../tinyos/CntToRfm.elf ../tinyos/RfmToLeds.elf
+# @Reference: -seconds=3
+# @Variant: -seconds=15
+# @Compare: ^CC1000Radio\s+\d+\s+(\d+)\s+(\d+)
+# @Purpose: this tests that once a network of a sender and three receivers reaches a steady state, its radio medium reuses the transmission records and receiver buffers it has, so that five times as many transmissions allocate no more of either
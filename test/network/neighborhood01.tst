@@ -0,0 +1,7 @@
+# @Harness: compare
+# @Result: PASS
+# @Options: -simulation=sensor-network -topology=../topology/line.top -radio-range=20 -nodecount=1,2,1,2 -seconds=3 -monitors=packet -show-packets=false ../tinyos/CntToRfm.elf ../tinyos/RfmToLeds.elf ../tinyos/CntToRfm.elf ../tinyos/RfmToLeds.elf
+# @Reference: -synchronizer=parallel -worker-threads=1
+# @Variant: -synchronizer=neighborhood
+# @Compare: ^\s*(\d+)\s+\d+ / (\d+)\s+\d+ / (\d+)
+# @Purpose: this tests that nodes in a line, each of which waits only for the nodes next to it, receive the same packets as with the parallel synchronizer. Only the packets are compared, since a receiver under the neighborhood synchronizer may lock onto a preamble a few bits later.
@@ -0,0 +1,7 @@
+# @Harness: compare
+# @Result: PASS
+# @Options: -simulation=sensor-network -synchronizer=parallel -worker-threads=1 -topology=../topology/line.top -nodecount=5,1 -seconds=3 -monitors=packet -show-packets=false ../tinyos/RfmToLeds.elf ../tinyos/CntToRfm.elf
+# @Reference: -radio-range=20
+# @Variant: -radio-range=1000
+# @Compare: ^\s*([45])\s+(\d+ / \d+)\s+(\d+ / \d+)\s+(\d+)
+# @Purpose: this tests that a sender at the end of a line of receivers, whose neighbor table holds only the nearest receiver, delivers the same packets to that receiver as when every receiver is in range
@@ -0,0 +1,7 @@
+# @Harness: compare
+# @Result: PASS
+# @Options: -simulation=sensor-network -synchronizer=parallel -worker-threads=1 -topology=../topology/line.top -radio-range=10 -seconds=3 -monitors=packet -show-packets=false ../tinyos/RfmToLeds.elf ../tinyos/CntToRfm.elf
+# @Reference: -nodecount=5,1
+# @Variant: -nodecount=5,0
+# @Compare: ^\s*([0-4])\s+(\d+ / \d+)\s+(\d+ / \d+)\s+(\d+)
+# @Purpose: this tests that receivers that are spaced further apart than the radio range receive nothing from a sender at the end of the line, as if there were no sender
@@ -0,0 +1,6 @@
+# @Harness: compare
+# @Result: PASS
+# @Options: -simulation=sensor-network -nodecount=2,3 -random-seed=7 -seconds=2 -monitors=packet -show-packets=false ../tinyos/CntToRfm.elf ../tinyos/RfmToLeds.elf
+# @Reference: -synchronizer=parallel
+# @Variant: -synchronizer=optimistic
+# @Purpose: this tests that nodes that roll each other back with the optimistic synchronizer finish and receive the same packets as with the parallel synchronizer
@@ -0,0 +1,6 @@
+# @Harness: compare
+# @Result: PASS
+# @Options: -simulation=sensor-network -platform=micaz -nodecount=2 -random-seed=7 -seconds=3 -monitors=packet -show-packets=false ../tinyos/RadioSenseToLeds_micaz.elf
+# @Reference: -synchronizer=parallel
+# @Variant: -synchronizer=optimistic
+# @Purpose: this tests that micaz nodes, whose CC2420 radios turn the receiver off to transmit, receive the same packets with the optimistic synchronizer as with the parallel synchronizer
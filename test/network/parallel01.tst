@@ -0,0 +1,6 @@
+# @Harness: compare
+# @Result: PASS
+# @Options: -simulation=sensor-network -synchronizer=parallel -topology=../topology/grid3x3.top -radio-range=20 -nodecount=3,6 -random-seed=5 -random-start=[0,1000] -seconds=2 -monitors=packet -show-packets=false ../tinyos/CntToRfm.elf ../tinyos/RfmToLeds.elf
+# @Reference: -worker-threads=1
+# @Variant: -worker-threads=4
+# @Purpose: this tests that the nodes of a grid, in which a node hears the colliding transmissions of two senders, receive and corrupt the same numbers of bytes and bits with the parallel synchronizer whether they run on one worker thread or on several
@@ -0,0 +1,6 @@
+# @Harness: compare
+# @Result: PASS
+# @Options: -simulation=sensor-network -synchronizer=parallel -worker-threads=1 -seconds=1 -monitors=packet,profile -block-counters ../tinyos/CntToRfm.elf
+# @Reference: -nodecount=3
+# @Variant: -nodecount=1,1,1 ../tinyos/CntToRfm.elf ../tinyos/CntToRfm.elf
+# @Purpose: this tests that nodes sharing the flash image of one program behave like nodes with private copies of it, with the node ID patched per node and profiling probes inserted at each basic block per node
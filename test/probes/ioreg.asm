@@ -0,0 +1,13 @@
+; Ioreg.asm -- write the stack pointer through an IO register and store
+; the value read back from it to 0x100 if it is the value written
+
+start:
+    ldi r16, 0x42
+    out 0x3d, r16
+    in r17, 0x3d
+    cpi r17, 0x42
+    brne end
+    sts 0x100, r17
+
+end:
+    break
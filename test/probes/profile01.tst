@@ -0,0 +1,6 @@
+# @Harness: compare
+# @Result: PASS
+# @Options: -platform=mica2 -seconds=0.5 -monitors=profile ../tinyos/Surge.elf
+# @Reference:
+# @Variant: -block-counters
+# @Purpose: this tests that the basic-block counters of the profile monitor on a program that contains constant data in its flash report the same counts and cycles as the global probe and print no warnings
@@ -0,0 +1,8 @@
+# @Harness: compare
+# @Result: PASS
+# @Options: -platform=mica2 -seconds=0.0000027 -monitors=trace ../tinyos/Blink.elf
+# @Reference:
+# @Prepare: -trace-file=trace01.trc
+# @Variant: -action=decode-trace trace01.trc
+# @Ignore: ^(?!\s*\d+\s+\d+\s)
+# @Purpose: this tests that a binary trace decodes to the same instructions as the text trace, including the last instruction, which the end of the simulation interrupts before it completes
@@ -0,0 +1,19 @@
+# @Harness: probes
+# @Result: 
+# @Program: ioreg.asm
+# @Purpose: Tests that an IO register is still read through the register after a watch on it is removed
+
+watch A { | | | remove A 0x5d; }
+watch B { | | | }
+
+main {
+  insert A 0x5d;
+  insert B 0x100;
+}
+
+result {
+  1 A.beforeWrite;
+  1 A.afterWrite;
+  5 B.beforeWrite;
+  5 B.afterWrite;
+}
@@ -0,0 +1,21 @@
+# @Harness: probes
+# @Result: 
+# @Program: ioreg.asm
+# @Purpose: Tests watches on an IO register, which must still be written and read through the register
+
+watch A { | | | }
+watch B { | | | }
+
+main {
+  insert A 0x5d;
+  insert B 0x100;
+}
+
+result {
+  1 A.beforeWrite;
+  1 A.afterWrite;
+  2 A.beforeRead;
+  2 A.afterRead;
+  5 B.beforeWrite;
+  5 B.afterWrite;
+}
@@ -0,0 +1,7 @@
+# @Harness: compare
+# @Result: PASS
+# @Options: -action=analyze-stack int01.asm
+# @Reference: -threads=1
+# @Variant: -threads=4
+# @Ignore: Time to
+# @Purpose: this tests that the stack analyzer finds the same states, edges and maximum stack depth for an interrupt handler when it explores the state space with four threads as with one
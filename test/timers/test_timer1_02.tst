@@ -0,0 +1,36 @@
+; @Harness: simulator
+; @Format: atmel
+; @Arch: avr
+; @Purpose: "Test reading and writing the counter of timer1 while it is running"
+; @Result: "r16 = 6, r17 = 0, r18 = -13, r19 = 26, r20 = 19"
+
+;  this tests that the count read from TCNT1 reflects the elapsed cycles
+
+MAIN:
+	ldi r18, 255
+	out SPL, r18		;  initialize stack pointer
+	ldi r18, 0b00000001
+	out TCCR1B, r18	;  turn on timer with prescaler 1
+	nop
+	nop
+	nop
+	nop
+	nop
+	in r16, TCNT1L	;  read the low byte first
+	in r17, TCNT1H
+	ldi r18, 0x12
+	out TCNT1H, r18	;  write the high byte first
+	ldi r18, 0xF0
+	out TCNT1L, r18
+	nop
+	nop
+	in r18, TCNT1L
+	ldi r20, 0b00000010
+	out TCCR1B, r20	;  switch to prescaler 8
+	ldi r21, 100
+LOOP:
+	dec r21
+	brne LOOP
+	in r19, TCNT1L
+	in r20, TCNT1H
+	break
@@ -0,0 +1,48 @@
+; a program for two Seres nodes connected by wires. Each node toggles its south
+; transmit wire at every overflow of timer 0 and sleeps in between. A rising edge
+; on its south interrupt wire, sent by the other node, wakes it up and it toggles
+; its north transmit wire in return.
+
+.org 0x0000
+    jmp start
+.org 0x0004
+    jmp echo
+.org 0x0040
+    jmp toggle
+
+.org 0x008c
+start:
+    ldi r16, 0x10
+    out 0x3e, r16       ; SPH
+    ldi r16, 0xff
+    out 0x3d, r16       ; SPL
+    ldi r16, 0x20
+    sts 0x61, r16       ; DDRF: south transmit (PF5) is an output
+    ldi r16, 0x01
+    out 0x14, r16       ; DDRC: north transmit (PC0) is an output
+    ldi r16, 0x01
+    out 0x39, r16       ; EIMSK: enable INT0 (south interrupt)
+    ldi r16, 0x02
+    out 0x33, r16       ; TCCR0: timer 0 runs at clk/8
+    ldi r16, 0x01
+    out 0x37, r16       ; TIMSK: enable timer 0 overflow interrupt
+    ldi r16, 0x20
+    out 0x35, r16       ; MCUCR: enable idle sleep
+    sei
+loop:
+    sleep
+    rjmp loop
+
+toggle:
+    lds r16, 0x62       ; PORTF
+    ldi r17, 0x20
+    eor r16, r17
+    sts 0x62, r16
+    reti
+
+echo:
+    in r16, 0x15        ; PORTC
+    ldi r17, 0x01
+    eor r16, r17
+    out 0x15, r16
+    reti
@@ -0,0 +1,6 @@
+# @Harness: wired
+# @Result: PASS
+# @Program: echo.asm
+# @Options: -synchronizer=parallel -worker-threads=2 -stagger-start=700 -seconds=0.01
+# @Delay: 10
+# @Purpose: this tests that each change of a wire arrives at the other node exactly the propagation delay later, while the nodes sleep between changes
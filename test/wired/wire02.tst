@@ -0,0 +1,6 @@
+# @Harness: wired
+# @Result: PASS
+# @Program: echo.asm
+# @Options: -synchronizer=parallel -worker-threads=1 -stagger-start=1500 -seconds=0.01
+# @Delay: 10
+# @Purpose: this tests that each change of a wire arrives at the other node exactly the propagation delay later when both nodes share one worker thread